@@ -1,8 +1,25 @@
 
 
+import java.io.BufferedOutputStream;
+import java.io.FileDescriptor;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+
+import org.springframework.context.i18n.LocaleContextHolder;
 import org.springframework.context.support.ClassPathXmlApplicationContext;
 
 import com.bjss.pricebasket.PriceBasketRunner;
+import com.bjss.pricebasket.PriceBasketServer;
+import com.bjss.pricebasket.data.PricingContext;
+import com.bjss.pricebasket.service.OutputFormat;
 
 /**
  * Main class for PriceBasket program.
@@ -21,27 +38,147 @@ import com.bjss.pricebasket.PriceBasketRunner;
  * 
  * Invalid Items added to the Basket are ignored.
  * 
+ * With the --batch option, baskets are read one per line from the given file
+ * (or stdin) and all of them are priced by the same running application. An
+ * optional date (yyyy-MM-dd) prices the batch as at the start of that day, eg.
+ * to reproduce the receipts of a historical batch.
+ * 
+ * With the --format option, totals are written as csv, json (lines) or binary
+ * records with values in pence and offers by id, for other systems to load,
+ * rather than as receipts.
+ * 
+ * With the --server option, the application is loaded once and baskets are
+ * priced over HTTP until the process is stopped, see {@link PriceBasketServer}.
+ * 
  * @author Leon Danser
  */
 
 public class PriceBasket {
 
+	private static final String BATCH = "--batch";
+	private static final String FORMAT = "--format";
+	private static final String SERVER = "--server";
+	private static final String SERVER_PROFILE = "server";
+	private static final String STDIN = "-";
+	private static final int OUTPUT_BUFFER_SIZE = 64 * 1024;
+	private static final String DATE_FORMAT = "yyyy-MM-dd";
+
 	public static void main(String[] args) {
+		OutputFormat outputFormat = OutputFormat.RECEIPT;
+		if (args != null && args.length > 1 && FORMAT.equals(args[0])) {
+			outputFormat = OutputFormat.forOptionName(args[1]);
+			args = Arrays.copyOfRange(args, 2, args.length);
+		}
 		if (args == null || args.length == 0) {
 			printUsage();
 			System.exit(0);
 		}
-		ClassPathXmlApplicationContext context = new ClassPathXmlApplicationContext(
-				"classpath:/META-INF/applicationContext.xml");
+		ClassPathXmlApplicationContext context = new ClassPathXmlApplicationContext();
+		if (SERVER.equals(args[0])) {
+			context.getEnvironment().addActiveProfile(SERVER_PROFILE);
+		}
+		context.setConfigLocation("classpath:/META-INF/applicationContext.xml");
+		context.refresh();
 		PriceBasketRunner runner = context.getBean(PriceBasketRunner.class);
-		runner.setItems(args);
-		runner.run();
+		runner.setOutputFormat(outputFormat);
+		if (SERVER.equals(args[0])) {
+			runServer(context, args);
+			return;
+		}
+		if (BATCH.equals(args[0])) {
+			runBatch(runner, args);
+		} else {
+			runner.setItems(args);
+			runner.run();
+		}
 		context.close();
 	}
 
+	private static void runBatch(PriceBasketRunner runner, String[] args) {
+		String source = args.length > 1 ? args[1] : STDIN;
+		if (args.length > 2) {
+			runner.setPricingContext(parsePricingDate(args[2]));
+		}
+		Reader input;
+		try {
+			input = STDIN.equals(source) ? new InputStreamReader(System.in)
+					: new FileReader(source);
+		} catch (FileNotFoundException e) {
+			throw new IllegalArgumentException(String.format(
+					"Could not open the batch file [%s]", source), e);
+		}
+		PrintStream out = new PrintStream(new BufferedOutputStream(
+				new FileOutputStream(FileDescriptor.out), OUTPUT_BUFFER_SIZE),
+				false);
+		try {
+			runner.runBatch(input, out);
+		} finally {
+			out.flush();
+			try {
+				input.close();
+			} catch (IOException e) {
+				// nothing more to read, so nothing to recover
+			}
+		}
+	}
+
+	/**
+	 * Starts the server and returns, leaving the server to run until the JVM
+	 * is shut down, eg. by Ctrl+C
+	 */
+	private static void runServer(
+			final ClassPathXmlApplicationContext context, String[] args) {
+		PriceBasketServer server = context.getBean(PriceBasketServer.class);
+		if (args.length > 1) {
+			try {
+				server.setPort(Integer.parseInt(args[1]));
+			} catch (NumberFormatException e) {
+				throw new IllegalArgumentException(String.format(
+						"Server port [%s] should be a number", args[1]), e);
+			}
+		}
+		try {
+			server.start();
+		} catch (IOException e) {
+			context.close();
+			throw new IllegalStateException(String.format(
+					"Could not start the server on port %d", server.getPort()),
+					e);
+		}
+		// closing the context stops the server
+		Runtime.getRuntime().addShutdownHook(new Thread() {
+			@Override
+			public void run() {
+				context.close();
+			}
+		});
+		System.out.println("PriceBasket server listening on http://"
+				+ server.getHost() + ":" + server.getAddress().getPort()
+				+ "/price");
+	}
+
+	private static PricingContext parsePricingDate(String pricingDate) {
+		try {
+			SimpleDateFormat dateFormat = new SimpleDateFormat(DATE_FORMAT);
+			dateFormat.setLenient(false);
+			return new PricingContext(dateFormat.parse(pricingDate).getTime(),
+					LocaleContextHolder.getLocale());
+		} catch (ParseException e) {
+			throw new IllegalArgumentException(String.format(
+					"Pricing date [%s] should have the format %s", pricingDate,
+					DATE_FORMAT), e);
+		}
+	}
+
 	private static void printUsage() {
-		System.out.println("Usage: java PriceBasket [items]\n"
-				+ "eg. java PriceBasket Apple Milk Bread");
+		System.out.println("Usage: java PriceBasket [--format receipt|csv|json|binary] [items]\n"
+				+ "       java PriceBasket [--format receipt|csv|json|binary] --batch [file|-] [yyyy-MM-dd]\n"
+				+ "       java PriceBasket [--format receipt|csv|json|binary] --server [port]\n"
+				+ "eg. java PriceBasket Apple Milk Bread\n"
+				+ "    java PriceBasket --batch baskets.txt\n"
+				+ "    java PriceBasket --batch baskets.txt 2014-03-01\n"
+				+ "    java PriceBasket --format csv --batch baskets.txt\n"
+				+ "    java PriceBasket --server 8080");
 
 	}
 
@@ -1,22 +1,70 @@
 package com.bjss.pricebasket;
 
+import static com.bjss.pricebasket.util.ValidateUtil.validateNotNull;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
 import javax.inject.Inject;
 import javax.inject.Named;
 
+import org.springframework.context.i18n.LocaleContextHolder;
+
+import com.bjss.pricebasket.catalogue.CatalogueChangedException;
 import com.bjss.pricebasket.data.Basket;
 import com.bjss.pricebasket.data.BasketTotals;
 import com.bjss.pricebasket.data.Item;
+import com.bjss.pricebasket.data.PricingContext;
 import com.bjss.pricebasket.service.BasketPrinterService;
 import com.bjss.pricebasket.service.BasketService;
+import com.bjss.pricebasket.service.BasketTotalsWriter;
 import com.bjss.pricebasket.service.ItemService;
+import com.bjss.pricebasket.service.OutputFormat;
 
 /**
  * Gets {@Item} for each item in items Array, adds them to a
- * {@link Basket}, calculates the Totals and writes it to System.out
+ * {@link Basket}, calculates the Totals and writes it to System.out. An item
+ * can be given a quantity with the syntax name*quantity, eg. Soup*2000
+ *
+ * In batch mode, each line of the input is treated as a separate basket of
+ * whitespace separated items. Baskets are priced and written in bounded
+ * chunks as they are read, so memory use does not grow with the size of the
+ * input.
+ * 
+ * All baskets of a run are priced with the same {@link PricingContext}. Unless
+ * one is set, it is captured for the current time and locale when the run
+ * starts.
+ * 
+ * Each basket is created and priced against one catalogue version: the
+ * context is pinned to a snapshot of the ItemService for each basket, or each
+ * chunk of a batch, so a catalogue reloaded during a run applies from the
+ * next chunk. A catalogue published while a basket or chunk is priced
+ * against a shared catalogue fails it with a
+ * {@link CatalogueChangedException}, and it is created from its item names
+ * and priced again against the new version, up to MAX_PRICING_ATTEMPTS times.
+ * A context given already pinned is not pinned again, so is not retried.
+ * 
+ * Totals are written as receipts unless another {@link OutputFormat} is set.
  */
 @Named
 public class PriceBasketRunner {
 
+	private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+	private static final char QUANTITY_SEPARATOR = '*';
+
+	/** Number of baskets read and priced together in batch mode */
+	static final int BATCH_CHUNK_SIZE = 4096;
+
+	/** Times a basket or chunk is priced before a changing catalogue fails it */
+	static final int MAX_PRICING_ATTEMPTS = 3;
+
 	@Inject
 	BasketService basketService;
 
@@ -25,24 +73,218 @@ public class PriceBasketRunner {
 
 	@Inject
 	BasketPrinterService basketPrinterService;
-	
+
 	private String[] items;
-	
+
+	private PricingContext pricingContext;
+
+	private OutputFormat outputFormat = OutputFormat.RECEIPT;
+
 	public void run() {
 		if (items == null) {
 			throw new IllegalStateException("items array should not be null");
 		}
+		PricingContext runContext = getRunPricingContext();
+		BasketTotals basketTotals;
+		for (int attempt = 1;; attempt++) {
+			PricingContext context = runContext.pinCatalogue(itemService);
+			try {
+				Basket basket = createBasket(items, context.getCatalogue());
+				basketTotals = basketService.calculateBasketTotals(basket,
+						context);
+				break;
+			} catch (CatalogueChangedException e) {
+				if (context == runContext || attempt == MAX_PRICING_ATTEMPTS) {
+					throw e;
+				}
+			}
+		}
+		if (outputFormat == OutputFormat.RECEIPT) {
+			basketPrinterService.write(System.out, basketTotals);
+			return;
+		}
+		try {
+			BasketTotalsWriter writer = basketPrinterService.openWriter(
+					System.out, outputFormat);
+			writer.write(basketTotals);
+			writer.flush();
+		} catch (IOException e) {
+			throw new RuntimeException("Could not write the basket totals", e);
+		}
+	}
+
+	/**
+	 * Prices one basket per line of the input and writes the totals for each
+	 * to out. Blank lines are skipped. Receipts are separated by an empty
+	 * line.
+	 * 
+	 * Baskets are read in chunks of BATCH_CHUNK_SIZE and each chunk is priced
+	 * in parallel, so only one chunk of baskets is held in memory at a time.
+	 * The item names of the chunk are kept until it is written, so the chunk
+	 * can be created and priced again if the catalogue changes.
+	 * Receipts are written in the same order as the input, through a single
+	 * buffered writer. out is flushed, but not closed.
+	 * 
+	 * @param input
+	 *            the source of baskets, one basket per line
+	 * @param out
+	 *            the stream the totals for each basket are written to
+	 * @return the number of baskets priced
+	 */
+	public long runBatch(Reader input, PrintStream out) {
+		return runBatch(input, out, outputFormat, getRunPricingContext());
+	}
+
+	/**
+	 * As runBatch(Reader, PrintStream), but with the format and context given
+	 * rather than those set on the runner. Does not use the runner's fields,
+	 * so may be called by many threads at once, eg. for each request to the
+	 * {@link PriceBasketServer}.
+	 * 
+	 * @param input
+	 *            the source of baskets, one basket per line
+	 * @param out
+	 *            the stream the totals for each basket are written to
+	 * @param format
+	 *            the format the totals are written in
+	 * @param context
+	 *            the conditions all baskets are priced under
+	 * @return the number of baskets priced
+	 */
+	public long runBatch(Reader input, OutputStream out, OutputFormat format,
+			PricingContext context) {
+		validateNotNull(input, "input");
+		validateNotNull(out, "out");
+		validateNotNull(format, "format");
+		validateNotNull(context, "context");
+		BufferedReader reader = input instanceof BufferedReader ? (BufferedReader) input
+				: new BufferedReader(input);
+		BasketTotalsWriter writer = basketPrinterService.openWriter(out,
+				format);
+		List<String[]> chunk = new ArrayList<String[]>(BATCH_CHUNK_SIZE);
+		long basketCount = 0;
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				line = line.trim();
+				if (line.isEmpty()) {
+					continue;
+				}
+				chunk.add(WHITESPACE.split(line));
+				if (chunk.size() == BATCH_CHUNK_SIZE) {
+					basketCount = writeChunk(chunk, context, basketCount,
+							writer);
+				}
+			}
+			basketCount = writeChunk(chunk, context, basketCount, writer);
+			writer.flush();
+		} catch (IOException e) {
+			throw new RuntimeException(String.format(
+					"Could not process basket %d of the batch input",
+					basketCount + chunk.size() + 1), e);
+		}
+		return basketCount;
+	}
+
+	/**
+	 * Prices and writes the chunk of baskets, then clears it ready for reuse.
+	 * 
+	 * @param chunk
+	 *            the item names of each basket
+	 * @return the number of baskets written so far
+	 */
+	private long writeChunk(List<String[]> chunk, PricingContext context,
+			long basketCount, BasketTotalsWriter writer) throws IOException {
+		if (chunk.isEmpty()) {
+			return basketCount;
+		}
+		List<BasketTotals> chunkTotals = priceChunk(chunk, context);
+		for (BasketTotals basketTotals : chunkTotals) {
+			writer.write(basketTotals);
+			basketCount++;
+		}
+		chunk.clear();
+		return basketCount;
+	}
+
+	/**
+	 * Creates the baskets of the chunk against one catalogue version and
+	 * prices them, creating and pricing them again against the new version if
+	 * the catalogue changes meanwhile.
+	 * 
+	 * @throws CatalogueChangedException
+	 *             if the catalogue changes on every attempt, or the context
+	 *             was given already pinned
+	 */
+	private List<BasketTotals> priceChunk(List<String[]> chunk,
+			PricingContext context) {
+		for (int attempt = 1;; attempt++) {
+			PricingContext chunkContext = context.pinCatalogue(itemService);
+			try {
+				List<Basket> baskets = new ArrayList<Basket>(chunk.size());
+				for (String[] itemNames : chunk) {
+					baskets.add(createBasket(itemNames,
+							chunkContext.getCatalogue()));
+				}
+				return basketService.calculateAllBasketTotals(baskets,
+						chunkContext);
+			} catch (CatalogueChangedException e) {
+				if (chunkContext == context || attempt == MAX_PRICING_ATTEMPTS) {
+					throw e;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Creates a basket from item names. A name may be followed by a quantity,
+	 * eg. "Soup*2000". Unknown items and invalid quantities are skipped, as
+	 * is a quantity that would take the basket past Integer.MAX_VALUE units.
+	 * 
+	 * @param catalogue
+	 *            the catalogue snapshot the basket is priced against
+	 */
+	private Basket createBasket(String[] itemNames, ItemService catalogue) {
 		Basket basket = new Basket();
-		for (String itemName : items) {
-			Item item = itemService.getItem(itemName);
-			if (item == null) {
+		for (String itemName : itemNames) {
+			int quantity = 1;
+			int separator = itemName.indexOf(QUANTITY_SEPARATOR);
+			if (separator >= 0) {
+				quantity = parseQuantity(itemName.substring(separator + 1));
+				itemName = itemName.substring(0, separator);
+			}
+			Item item = catalogue.getItem(itemName);
+			if (item == null || quantity <= 0) {
 				continue; // skip invalid items
 			}
-			basket.addItem(item);
+			try {
+				basket.addItem(item, quantity);
+			} catch (ArithmeticException e) {
+				continue; // skip quantities the basket can not count
+			}
 		}
+		return basket;
+	}
 
-		BasketTotals basketTotals = basketService.calculateBasketTotals(basket);
-		basketPrinterService.write(System.out, basketTotals);
+	/**
+	 * @return the quantity, or -1 if it is not a valid number
+	 */
+	private int parseQuantity(String quantity) {
+		try {
+			return Integer.parseInt(quantity);
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * The PricingContext that was set, or one for the current time and locale
+	 */
+	private PricingContext getRunPricingContext() {
+		if (pricingContext != null) {
+			return pricingContext;
+		}
+		return PricingContext.now(LocaleContextHolder.getLocale());
 	}
 
 	public String[] getItems() {
@@ -53,5 +295,32 @@ public class PriceBasketRunner {
 		this.items = items;
 	}
 
-	
+	/**
+	 * The conditions to price baskets under, eg. to reprice a historical batch
+	 * at the time it was first priced. If null, baskets are priced at the time
+	 * each run starts.
+	 * 
+	 * @return the PricingContext, or null
+	 */
+	public PricingContext getPricingContext() {
+		return pricingContext;
+	}
+
+	public void setPricingContext(PricingContext pricingContext) {
+		this.pricingContext = pricingContext;
+	}
+
+	/**
+	 * The format totals are written in, RECEIPT by default
+	 */
+	public OutputFormat getOutputFormat() {
+		return outputFormat;
+	}
+
+	public void setOutputFormat(OutputFormat outputFormat) {
+		validateNotNull(outputFormat, "outputFormat");
+		this.outputFormat = outputFormat;
+	}
+
+
 }
@@ -0,0 +1,309 @@
+package com.bjss.pricebasket;
+
+import static com.bjss.pricebasket.util.ValidateUtil.validateNotNull;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.PreDestroy;
+import javax.inject.Inject;
+
+import org.springframework.context.i18n.LocaleContextHolder;
+
+import com.bjss.pricebasket.data.PricingContext;
+import com.bjss.pricebasket.service.OutputFormat;
+import com.bjss.pricebasket.service.impl.BasketPrinterServiceImpl;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Prices baskets over HTTP, so that callers do not pay for starting a JVM and
+ * loading the application context for every basket. Baskets are priced by
+ * the {@link PriceBasketRunner}, using the same services as the command line.
+ *
+ * <pre>
+ * GET  /price?items=Apple+Milk+Bread[&amp;format=csv]
+ * POST /price[?format=csv]   one basket per line of the UTF-8 body
+ * </pre>
+ *
+ * Items are given as on the command line, eg. Soup*2. Totals are written in
+ * the {@link OutputFormat} named by the format parameter, or else the
+ * runner's output format. Each request is priced with a
+ * {@link PricingContext} for the time it is received.
+ *
+ * Requests are handled by a fixed pool of threads. Listens on localhost
+ * unless another host is set.
+ *
+ * Declared in the "server" Spring profile, which the --server option
+ * activates, so the command line does not create a server it never starts.
+ *
+ * @author Leon Danser
+ *
+ */
+public class PriceBasketServer {
+
+	static final String PRICE_PATH = "/price";
+	private static final String ITEMS = "items";
+	private static final String FORMAT = "format";
+	private static final String REQUEST_ENCODING = "UTF-8";
+	private static final String RECEIPT_CONTENT_TYPE = "text/plain; charset="
+			+ Charset.forName(BasketPrinterServiceImpl.ENCODING).name();
+	private static final String GET = "GET";
+	private static final String POST = "POST";
+
+	private static final int OK = 200;
+	private static final int BAD_REQUEST = 400;
+	private static final int METHOD_NOT_ALLOWED = 405;
+	private static final int INTERNAL_SERVER_ERROR = 500;
+
+	@Inject
+	PriceBasketRunner runner;
+
+	private String host = "localhost";
+	private int port = 8080;
+	private int threads = Runtime.getRuntime().availableProcessors() * 2;
+	private int backlog = 128;
+
+	private HttpServer server;
+	private ExecutorService executor;
+
+	/**
+	 * Starts listening for requests. Returns once the server is bound; the
+	 * server runs until stop() is called.
+	 *
+	 * @throws IOException
+	 *             if the server can not be bound to the host and port
+	 * @throws IllegalStateException
+	 *             if the server is already running
+	 */
+	public synchronized void start() throws IOException {
+		if (server != null) {
+			throw new IllegalStateException("Server is already running");
+		}
+		HttpServer httpServer = HttpServer.create(new InetSocketAddress(host,
+				port), backlog);
+		executor = Executors.newFixedThreadPool(threads,
+				new ServerThreadFactory());
+		httpServer.createContext(PRICE_PATH, new PriceHandler());
+		httpServer.setExecutor(executor);
+		httpServer.start();
+		server = httpServer;
+	}
+
+	/**
+	 * Stops accepting requests, and waits up to a second for requests being
+	 * handled to finish. Does nothing if the server is not running.
+	 */
+	@PreDestroy
+	public synchronized void stop() {
+		if (server == null) {
+			return;
+		}
+		server.stop(1);
+		executor.shutdown();
+		try {
+			executor.awaitTermination(1, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		server = null;
+		executor = null;
+	}
+
+	/**
+	 * The address the server is listening on, eg. to find the port when port
+	 * 0 was set
+	 *
+	 * @return the address, or null if the server is not running
+	 */
+	public synchronized InetSocketAddress getAddress() {
+		return server == null ? null : server.getAddress();
+	}
+
+	/**
+	 * Prices the baskets of one request. The totals are buffered, so a basket
+	 * that fails to price results in an error response rather than a partial
+	 * one.
+	 */
+	private class PriceHandler implements HttpHandler {
+
+		@Override
+		public void handle(HttpExchange exchange) throws IOException {
+			try {
+				String method = exchange.getRequestMethod();
+				if (!GET.equals(method) && !POST.equals(method)) {
+					exchange.getResponseHeaders().set("Allow", GET + ", " + POST);
+					sendText(exchange, METHOD_NOT_ALLOWED, String.format(
+							"Method [%s] should be GET or POST", method));
+					return;
+				}
+				Map<String, String> params = parseQuery(exchange.getRequestURI()
+						.getRawQuery());
+				OutputFormat format = runner.getOutputFormat();
+				if (params.containsKey(FORMAT)) {
+					format = OutputFormat.forOptionName(params.get(FORMAT));
+				}
+				Reader input;
+				if (GET.equals(method)) {
+					String items = params.get(ITEMS);
+					input = new StringReader(items == null ? "" : items);
+				} else {
+					input = new InputStreamReader(exchange.getRequestBody(),
+							REQUEST_ENCODING);
+				}
+
+				ByteArrayOutputStream totals = new ByteArrayOutputStream();
+				runner.runBatch(input, totals, format,
+						PricingContext.now(LocaleContextHolder.getLocale()));
+				exchange.getResponseHeaders().set("Content-Type",
+						getContentType(format));
+				send(exchange, OK, totals.toByteArray());
+			} catch (IllegalArgumentException e) {
+				sendText(exchange, BAD_REQUEST, e.getMessage());
+			} catch (RuntimeException e) {
+				sendText(exchange, INTERNAL_SERVER_ERROR, String.format(
+						"Could not price the baskets: %s", e.getMessage()));
+			} finally {
+				exchange.close();
+			}
+		}
+	}
+
+	private static void sendText(HttpExchange exchange, int status,
+			String text) throws IOException {
+		exchange.getResponseHeaders().set("Content-Type",
+				"text/plain; charset=" + REQUEST_ENCODING);
+		send(exchange, status, String.valueOf(text).getBytes(REQUEST_ENCODING));
+	}
+
+	private static void send(HttpExchange exchange, int status, byte[] body)
+			throws IOException {
+		exchange.sendResponseHeaders(status, body.length == 0 ? -1
+				: body.length);
+		if (body.length > 0) {
+			OutputStream responseBody = exchange.getResponseBody();
+			responseBody.write(body);
+			responseBody.close();
+		}
+	}
+
+	static String getContentType(OutputFormat format) {
+		switch (format) {
+		case CSV:
+			return "text/csv; charset=UTF-8";
+		case JSON_LINES:
+			return "application/x-ndjson; charset=UTF-8";
+		case BINARY:
+			return "application/octet-stream";
+		default:
+			return RECEIPT_CONTENT_TYPE;
+		}
+	}
+
+	/**
+	 * Decodes the parameters of a URL query. If a parameter is given more
+	 * than once, the last value is used.
+	 */
+	static Map<String, String> parseQuery(String rawQuery)
+			throws UnsupportedEncodingException {
+		Map<String, String> params = new HashMap<String, String>();
+		if (rawQuery == null || rawQuery.isEmpty()) {
+			return params;
+		}
+		for (String param : rawQuery.split("&")) {
+			int separator = param.indexOf('=');
+			String name = separator < 0 ? param : param.substring(0, separator);
+			String value = separator < 0 ? "" : param.substring(separator + 1);
+			params.put(URLDecoder.decode(name, REQUEST_ENCODING),
+					URLDecoder.decode(value, REQUEST_ENCODING));
+		}
+		return params;
+	}
+
+	/**
+	 * Names the request threads, and makes them daemons so they do not keep
+	 * the JVM running once the server has stopped.
+	 */
+	private static class ServerThreadFactory implements ThreadFactory {
+
+		private final AtomicInteger threadCount = new AtomicInteger();
+
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, "price-basket-server-"
+					+ threadCount.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+
+	/**
+	 * The host name or address to listen on, localhost by default
+	 */
+	public String getHost() {
+		return host;
+	}
+
+	public void setHost(String host) {
+		validateNotNull(host, "host");
+		this.host = host;
+	}
+
+	/**
+	 * The port to listen on, 8080 by default. 0 uses any free port.
+	 */
+	public int getPort() {
+		return port;
+	}
+
+	public void setPort(int port) {
+		if (port < 0 || port > 0xffff) {
+			throw new IllegalArgumentException(String.format(
+					"[port] should be between 0 and 65535, but was %d", port));
+		}
+		this.port = port;
+	}
+
+	/**
+	 * The number of requests handled at once
+	 */
+	public int getThreads() {
+		return threads;
+	}
+
+	public void setThreads(int threads) {
+		if (threads <= 0) {
+			throw new IllegalArgumentException(String.format(
+					"[threads] should be positive, but was %d", threads));
+		}
+		this.threads = threads;
+	}
+
+	/**
+	 * The number of connections queued before new ones are refused
+	 */
+	public int getBacklog() {
+		return backlog;
+	}
+
+	public void setBacklog(int backlog) {
+		this.backlog = backlog;
+	}
+
+}
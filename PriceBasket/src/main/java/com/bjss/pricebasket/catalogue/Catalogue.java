@@ -0,0 +1,66 @@
+package com.bjss.pricebasket.catalogue;
+
+import static com.bjss.pricebasket.util.ValidateUtil.validateNotNull;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import com.bjss.pricebasket.data.Item;
+import com.bjss.pricebasket.data.Offer;
+
+/**
+ * A version of the catalogue: every {@link Item} and {@link Offer}, in their
+ * configured order, and a version id that identifies the catalogue they were
+ * loaded from.
+ * 
+ * The lists can not be modified once created.
+ * 
+ * @author Leon Danser
+ * 
+ */
+public final class Catalogue {
+
+	private final long version;
+	private final List<Item> items;
+	private final List<Offer> offers;
+
+	/**
+	 * @param version
+	 *            identifies this version of the catalogue, eg. the time it
+	 *            was compiled
+	 * @param items
+	 *            the items, each with a unique id
+	 * @param offers
+	 *            the offers, in the order they are evaluated for an item
+	 */
+	public Catalogue(long version, Collection<Item> items,
+			Collection<Offer> offers) {
+		validateNotNull(items, "items");
+		validateNotNull(offers, "offers");
+		this.version = version;
+		this.items = Collections.unmodifiableList(new ArrayList<Item>(items));
+		this.offers = Collections
+				.unmodifiableList(new ArrayList<Offer>(offers));
+	}
+
+	public long getVersion() {
+		return version;
+	}
+
+	public List<Item> getItems() {
+		return items;
+	}
+
+	public List<Offer> getOffers() {
+		return offers;
+	}
+
+	@Override
+	public String toString() {
+		return "Catalogue [version=" + version + ", items=" + items.size()
+				+ ", offers=" + offers.size() + "]";
+	}
+
+}
@@ -0,0 +1,19 @@
+package com.bjss.pricebasket.catalogue;
+
+/**
+ * Thrown by a lookup pinned to one catalogue version once another has
+ * replaced it, so that a basket is never priced against two versions. The
+ * basket can be priced again against the current version.
+ *
+ * @author Leon Danser
+ *
+ */
+public class CatalogueChangedException extends IllegalStateException {
+
+	private static final long serialVersionUID = 1L;
+
+	public CatalogueChangedException(String message) {
+		super(message);
+	}
+
+}
@@ -0,0 +1,74 @@
+package com.bjss.pricebasket.catalogue;
+
+import static com.bjss.pricebasket.util.ValidateUtil.validateNotNull;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.springframework.beans.factory.support.DefaultListableBeanFactory;
+import org.springframework.beans.factory.xml.XmlBeanDefinitionReader;
+import org.springframework.core.io.DefaultResourceLoader;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.ResourceLoader;
+
+import com.bjss.pricebasket.data.Item;
+import com.bjss.pricebasket.data.Offer;
+
+/**
+ * Compiles a catalogue configuration, eg. basket-config.xml, into a snapshot
+ * file that the catalogueSnapshot profile loads at startup instead of parsing
+ * the XML.
+ * 
+ * <pre>
+ * java -cp PriceBasket-0.1.jar com.bjss.pricebasket.catalogue.CatalogueCompiler basket-config.xml catalogue.snapshot [version]
+ * </pre>
+ * 
+ * The configuration is read with the same parsers as the application
+ * context. Locations may be files or "classpath:" resources. The version
+ * defaults to the time the snapshot is compiled.
+ * 
+ * @author Leon Danser
+ * 
+ */
+public class CatalogueCompiler {
+
+	public static void main(String[] args) throws IOException {
+		if (args == null || args.length < 2) {
+			System.out.println("Usage: java "
+					+ CatalogueCompiler.class.getName()
+					+ " [config.xml] [snapshot file] [version]\n"
+					+ "eg. java " + CatalogueCompiler.class.getName()
+					+ " classpath:/META-INF/basket-config.xml catalogue.snapshot");
+			System.exit(0);
+		}
+		long version = args.length > 2 ? Long.parseLong(args[2]) : System
+				.currentTimeMillis();
+		Catalogue catalogue = new CatalogueCompiler().load(args[0], version);
+		new CatalogueSnapshotWriter().write(catalogue, new File(args[1]));
+		System.out.println("Compiled " + catalogue + " to " + args[1]);
+	}
+
+	/**
+	 * Reads the items and offers of a catalogue configuration, in the order
+	 * they are configured
+	 * 
+	 * @param configLocation
+	 *            a file path, or a "classpath:" location
+	 * @param version
+	 *            the version to give the catalogue
+	 * @return the configured catalogue
+	 */
+	public Catalogue load(String configLocation, long version) {
+		validateNotNull(configLocation, "configLocation");
+		Resource config = configLocation
+				.startsWith(ResourceLoader.CLASSPATH_URL_PREFIX) ? new DefaultResourceLoader()
+				.getResource(configLocation) : new FileSystemResource(
+				configLocation);
+		DefaultListableBeanFactory beanFactory = new DefaultListableBeanFactory();
+		new XmlBeanDefinitionReader(beanFactory).loadBeanDefinitions(config);
+		return new Catalogue(version, beanFactory.getBeansOfType(Item.class)
+				.values(), beanFactory.getBeansOfType(Offer.class).values());
+	}
+
+}
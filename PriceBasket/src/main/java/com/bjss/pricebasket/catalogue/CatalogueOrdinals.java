@@ -0,0 +1,131 @@
+package com.bjss.pricebasket.catalogue;
+
+import static com.bjss.pricebasket.util.ValidateUtil.validateNotNull;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.bjss.pricebasket.data.Item;
+import com.bjss.pricebasket.data.ItemTallies;
+import com.bjss.pricebasket.data.Offer;
+
+/**
+ * Numbers the {@link Item}s and {@link Offer}s of a catalogue densely from 0,
+ * so the pricing services can keep a basket's tallies in an array indexed by
+ * ordinal rather than a map hashed by item, see {@link ItemTallies}.
+ *
+ * The items numbered are the catalogue's items, and the items and required
+ * items of its offers, which may not all be in the catalogue's items.
+ * Equal items are numbered once.
+ *
+ * Each item and offer is given its ordinal when it is numbered. An item or
+ * offer can be in more than one catalogue, eg. when a catalogue configured
+ * in the application context is rebuilt, and has the ordinal of the last
+ * one, so getOrdinal() only uses the ordinal of the instance if this
+ * catalogue has the same instance at that ordinal. An item that is equal to
+ * an item of the catalogue but is not the same instance, or is numbered by
+ * another catalogue, is looked up by equality instead.
+ *
+ * Not modified once built, so it is safe for concurrent reads. Ordinals of
+ * shared instances may be set while they are read, so getOrdinal() may see
+ * either ordinal, and checks it either way.
+ *
+ * @author Leon Danser
+ *
+ */
+public final class CatalogueOrdinals {
+
+	private final Item[] items;
+	private final Map<Item, Integer> itemOrdinals;
+	private final Offer[] offers;
+
+	/**
+	 * Numbers the items and offers, and sets the ordinal of each of them
+	 *
+	 * @param items
+	 *            the items of the catalogue, in catalogue order
+	 * @param offers
+	 *            the offers of the catalogue, in catalogue order
+	 */
+	public CatalogueOrdinals(Collection<Item> items, Collection<Offer> offers) {
+		validateNotNull(items, "items");
+		validateNotNull(offers, "offers");
+		Map<Item, Item> numbered = new LinkedHashMap<Item, Item>(
+				items.size() * 2);
+		for (Item item : items) {
+			number(numbered, item);
+		}
+		for (Offer offer : offers) {
+			number(numbered, offer.getItem());
+			Map<Item, Integer> requiredItems = offer.getRequiredItems();
+			if (requiredItems != null) {
+				for (Item requiredItem : requiredItems.keySet()) {
+					number(numbered, requiredItem);
+				}
+			}
+		}
+		this.items = numbered.values().toArray(new Item[numbered.size()]);
+		itemOrdinals = new HashMap<Item, Integer>(this.items.length * 2);
+		for (int ordinal = 0; ordinal < this.items.length; ordinal++) {
+			this.items[ordinal].setOrdinal(ordinal);
+			itemOrdinals.put(this.items[ordinal], ordinal);
+		}
+		this.offers = offers.toArray(new Offer[offers.size()]);
+		for (int ordinal = 0; ordinal < this.offers.length; ordinal++) {
+			this.offers[ordinal].setOrdinal(ordinal);
+		}
+	}
+
+	private static void number(Map<Item, Item> numbered, Item item) {
+		if (item != null && !numbered.containsKey(item)) {
+			numbered.put(item, item);
+		}
+	}
+
+	/**
+	 * The ordinal of the item in this catalogue
+	 *
+	 * @return the ordinal, or Item.NO_ORDINAL if no item of the catalogue is
+	 *         equal to it
+	 */
+	public int getOrdinal(Item item) {
+		validateNotNull(item, "item");
+		int ordinal = item.getOrdinal();
+		if (ordinal >= 0 && ordinal < items.length && items[ordinal] == item) {
+			return ordinal;
+		}
+		Integer equalOrdinal = itemOrdinals.get(item);
+		return equalOrdinal == null ? Item.NO_ORDINAL : equalOrdinal;
+	}
+
+	/**
+	 * The number of items numbered, one more than the highest item ordinal
+	 */
+	public int getItemCount() {
+		return items.length;
+	}
+
+	/**
+	 * The item with the ordinal
+	 */
+	public Item getItem(int ordinal) {
+		return items[ordinal];
+	}
+
+	/**
+	 * The number of offers numbered, one more than the highest offer ordinal
+	 */
+	public int getOfferCount() {
+		return offers.length;
+	}
+
+	/**
+	 * The offer with the ordinal
+	 */
+	public Offer getOffer(int ordinal) {
+		return offers[ordinal];
+	}
+
+}
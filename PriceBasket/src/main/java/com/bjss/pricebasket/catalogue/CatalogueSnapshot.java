@@ -0,0 +1,51 @@
+package com.bjss.pricebasket.catalogue;
+
+/**
+ * The layout of a catalogue snapshot file: a {@link Catalogue} compiled to
+ * big-endian binary so that it can be loaded without parsing XML or creating
+ * Spring beans.
+ * 
+ * <pre>
+ * int     MAGIC
+ * int     FORMAT_VERSION
+ * long    catalogue version
+ * int     item count
+ *         per item:  string id, decimal price, int barcode count,
+ *                    per barcode: string barcode
+ * int     offer count
+ *         per offer: byte PERCENTAGE_OFFER, string id, int item index,
+ *                    decimal discount, byte 1 and long expiry date or byte 0,
+ *                    int required item count,
+ *                    per required item: int item index, int quantity
+ *         or:        byte MULTI_BUY_OFFER, string id, int item index,
+ *                    int quantity, int free quantity,
+ *                    byte 1 and decimal group price or byte 0,
+ *                    byte 1 and long expiry date or byte 0
+ * </pre>
+ * 
+ * Strings are an int byte length followed by UTF-8 bytes. Decimals are a long
+ * unscaled value followed by an int scale. Item indexes refer to the items in
+ * the order they are written. Expiry dates are in milliseconds since the
+ * epoch.
+ * 
+ * A reader must reject a snapshot with a FORMAT_VERSION it does not know, so
+ * the version must be incremented whenever the layout changes.
+ * 
+ * @author Leon Danser
+ * 
+ */
+final class CatalogueSnapshot {
+
+	/** "PBCS" */
+	static final int MAGIC = 0x50424353;
+	static final int FORMAT_VERSION = 3;
+
+	static final byte PERCENTAGE_OFFER = 1;
+	static final byte MULTI_BUY_OFFER = 2;
+
+	static final String STRING_ENCODING = "UTF-8";
+
+	private CatalogueSnapshot() {
+	}
+
+}
@@ -0,0 +1,208 @@
+package com.bjss.pricebasket.catalogue;
+
+import static com.bjss.pricebasket.util.ValidateUtil.validateNotNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.math.BigDecimal;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.bjss.pricebasket.data.Item;
+import com.bjss.pricebasket.data.MultiBuyOffer;
+import com.bjss.pricebasket.data.Offer;
+import com.bjss.pricebasket.data.PercentageOffer;
+import com.bjss.pricebasket.service.MsgService;
+
+/**
+ * Reads a {@link Catalogue} written by the {@link CatalogueSnapshotWriter}.
+ * The file is memory mapped and decoded in a single pass, without XML parsing
+ * or Spring bean creation.
+ * 
+ * @author Leon Danser
+ * 
+ */
+public class CatalogueSnapshotReader {
+
+	private static final Charset STRING_CHARSET = Charset
+			.forName(CatalogueSnapshot.STRING_ENCODING);
+
+	/* the fewest bytes each record can be written in */
+	private static final int MIN_ITEM_SIZE = 4 + 12 + 4;
+	private static final int MIN_BARCODE_SIZE = 4;
+	private static final int MIN_OFFER_SIZE = 1 + 4 + 4 + 4 + 4 + 1 + 1;
+	private static final int REQUIRED_ITEM_SIZE = 4 + 4;
+
+	/**
+	 * @param file
+	 *            the snapshot file
+	 * @param msgService
+	 *            given to every item and offer, for their display names and
+	 *            print messages
+	 * @return the catalogue in the snapshot
+	 * @throws IllegalArgumentException
+	 *             if the file is not a snapshot, has a format version this
+	 *             reader does not support, or is corrupt or truncated
+	 */
+	public Catalogue read(File file, MsgService msgService)
+			throws IOException, IllegalArgumentException {
+		validateNotNull(file, "file");
+		RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = randomAccessFile.getChannel();
+			ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+					channel.size());
+			return read(buffer, msgService, file.getPath());
+		} finally {
+			randomAccessFile.close();
+		}
+	}
+
+	/**
+	 * Reads a snapshot from the buffer's position
+	 * 
+	 * @param source
+	 *            describes where the buffer was read from, for error messages
+	 */
+	public Catalogue read(ByteBuffer buffer, MsgService msgService,
+			String source) throws IllegalArgumentException {
+		validateNotNull(buffer, "buffer");
+		try {
+			if (buffer.remaining() < 8
+					|| buffer.getInt() != CatalogueSnapshot.MAGIC) {
+				throw new IllegalArgumentException(String.format(
+						"[%s] is not a catalogue snapshot", source));
+			}
+			int formatVersion = buffer.getInt();
+			if (formatVersion != CatalogueSnapshot.FORMAT_VERSION) {
+				throw new IllegalArgumentException(String.format(
+						"Snapshot [%s] has format version %d, but should have %d",
+						source, formatVersion, CatalogueSnapshot.FORMAT_VERSION));
+			}
+			long version = buffer.getLong();
+
+			Item[] items = new Item[readCount(buffer, MIN_ITEM_SIZE)];
+			for (int i = 0; i < items.length; i++) {
+				Item item = new Item(readString(buffer), readDecimal(buffer));
+				item.setMsgService(msgService);
+				int barcodeCount = readCount(buffer, MIN_BARCODE_SIZE);
+				if (barcodeCount > 0) {
+					List<String> barcodes = new ArrayList<String>(barcodeCount);
+					for (int j = 0; j < barcodeCount; j++) {
+						barcodes.add(readString(buffer));
+					}
+					item.setBarcodes(barcodes);
+				}
+				items[i] = item;
+			}
+
+			int offerCount = readCount(buffer, MIN_OFFER_SIZE);
+			List<Offer> offers = new ArrayList<Offer>(offerCount);
+			for (int i = 0; i < offerCount; i++) {
+				byte offerType = buffer.get();
+				if (offerType == CatalogueSnapshot.PERCENTAGE_OFFER) {
+					offers.add(readPercentageOffer(buffer, items, msgService));
+				} else if (offerType == CatalogueSnapshot.MULTI_BUY_OFFER) {
+					offers.add(readMultiBuyOffer(buffer, items, msgService));
+				} else {
+					throw new IllegalArgumentException(String.format(
+							"Snapshot [%s] has an unknown offer type %d",
+							source, offerType));
+				}
+			}
+			return new Catalogue(version, Arrays.asList(items), offers);
+		} catch (BufferUnderflowException e) {
+			throw new IllegalArgumentException(String.format(
+					"Snapshot [%s] is truncated", source), e);
+		} catch (IndexOutOfBoundsException e) {
+			throw new IllegalArgumentException(String.format(
+					"Snapshot [%s] is corrupt", source), e);
+		}
+	}
+
+	private PercentageOffer readPercentageOffer(ByteBuffer buffer,
+			Item[] items, MsgService msgService) {
+		PercentageOffer offer = new PercentageOffer();
+		offer.setMsgService(msgService);
+		offer.setId(readString(buffer));
+		offer.setItem(items[buffer.getInt()]);
+		offer.setDiscount(readDecimal(buffer));
+		if (buffer.get() != 0) {
+			offer.setExpiryDate(new Date(buffer.getLong()));
+		}
+		int requiredItemCount = readCount(buffer, REQUIRED_ITEM_SIZE);
+		Map<Item, Integer> requiredItems = new LinkedHashMap<Item, Integer>(
+				requiredItemCount * 2);
+		for (int i = 0; i < requiredItemCount; i++) {
+			Item requiredItem = items[buffer.getInt()];
+			requiredItems.put(requiredItem, buffer.getInt());
+		}
+		offer.setRequiredItems(requiredItems);
+		return offer;
+	}
+
+	private MultiBuyOffer readMultiBuyOffer(ByteBuffer buffer, Item[] items,
+			MsgService msgService) {
+		MultiBuyOffer offer = new MultiBuyOffer();
+		offer.setMsgService(msgService);
+		offer.setId(readString(buffer));
+		offer.setItem(items[buffer.getInt()]);
+		offer.setQuantity(buffer.getInt());
+		offer.setFreeQuantity(buffer.getInt());
+		if (buffer.get() != 0) {
+			offer.setGroupPrice(readDecimal(buffer));
+		}
+		if (buffer.get() != 0) {
+			offer.setExpiryDate(new Date(buffer.getLong()));
+		}
+		return offer;
+	}
+
+	/**
+	 * Reads the number of records that follow, checking they could fit in
+	 * the rest of the buffer before anything is allocated for them
+	 * 
+	 * @param minRecordSize
+	 *            the fewest bytes a record can be written in
+	 * @throws IndexOutOfBoundsException
+	 *             if the count is negative
+	 * @throws BufferUnderflowException
+	 *             if the records could not fit in the rest of the buffer
+	 */
+	private static int readCount(ByteBuffer buffer, int minRecordSize) {
+		int count = buffer.getInt();
+		if (count < 0) {
+			throw new IndexOutOfBoundsException(String.format(
+					"Record count %d should not be negative", count));
+		}
+		if ((long) count * minRecordSize > buffer.remaining()) {
+			throw new BufferUnderflowException();
+		}
+		return count;
+	}
+
+	private static String readString(ByteBuffer buffer) {
+		int length = buffer.getInt();
+		if (length < 0 || length > buffer.remaining()) {
+			throw new BufferUnderflowException();
+		}
+		byte[] bytes = new byte[length];
+		buffer.get(bytes);
+		return new String(bytes, STRING_CHARSET);
+	}
+
+	private static BigDecimal readDecimal(ByteBuffer buffer) {
+		long unscaledValue = buffer.getLong();
+		return BigDecimal.valueOf(unscaledValue, buffer.getInt());
+	}
+
+}
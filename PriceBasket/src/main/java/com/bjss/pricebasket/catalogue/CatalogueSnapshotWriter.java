@@ -0,0 +1,190 @@
+package com.bjss.pricebasket.catalogue;
+
+import static com.bjss.pricebasket.util.ValidateUtil.validateNotNull;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import com.bjss.pricebasket.data.Item;
+import com.bjss.pricebasket.data.MultiBuyOffer;
+import com.bjss.pricebasket.data.Offer;
+import com.bjss.pricebasket.data.PercentageOffer;
+
+/**
+ * Writes a {@link Catalogue} in the layout described by
+ * {@link CatalogueSnapshot}.
+ * 
+ * @author Leon Danser
+ * 
+ */
+public class CatalogueSnapshotWriter {
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	/**
+	 * Writes the snapshot to a temporary file next to the target, then moves
+	 * it into place, so a reader never sees a partly written snapshot.
+	 * 
+	 * @param catalogue
+	 *            the catalogue to write
+	 * @param file
+	 *            the snapshot file to create or replace
+	 * @throws IllegalArgumentException
+	 *             if the catalogue can not be written to a snapshot, eg. it
+	 *             has an offer type that snapshots do not support
+	 */
+	public void write(Catalogue catalogue, File file) throws IOException,
+			IllegalArgumentException {
+		validateNotNull(catalogue, "catalogue");
+		validateNotNull(file, "file");
+		File tempFile = new File(file.getPath() + ".tmp");
+		OutputStream out = new FileOutputStream(tempFile);
+		try {
+			write(catalogue, out);
+		} finally {
+			out.close();
+		}
+		Files.move(tempFile.toPath(), file.toPath(),
+				StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Writes the snapshot to the stream, and flushes but does not close it.
+	 */
+	public void write(Catalogue catalogue, OutputStream out)
+			throws IOException, IllegalArgumentException {
+		validateNotNull(catalogue, "catalogue");
+		validateNotNull(out, "out");
+		DataOutputStream data = new DataOutputStream(new BufferedOutputStream(
+				out, BUFFER_SIZE));
+		data.writeInt(CatalogueSnapshot.MAGIC);
+		data.writeInt(CatalogueSnapshot.FORMAT_VERSION);
+		data.writeLong(catalogue.getVersion());
+
+		Map<Item, Integer> itemIndexes = new HashMap<Item, Integer>();
+		data.writeInt(catalogue.getItems().size());
+		for (Item item : catalogue.getItems()) {
+			if (itemIndexes.put(item, itemIndexes.size()) != null) {
+				throw new IllegalArgumentException(String.format(
+						"Item [%s] should only be in the catalogue once",
+						item.getId()));
+			}
+			writeString(data, item.getId());
+			writeDecimal(data, item.getPrice(), item.getId());
+			data.writeInt(item.getBarcodes().size());
+			for (String barcode : item.getBarcodes()) {
+				writeString(data, barcode);
+			}
+		}
+
+		data.writeInt(catalogue.getOffers().size());
+		for (Offer offer : catalogue.getOffers()) {
+			if (offer instanceof PercentageOffer) {
+				writePercentageOffer(data, (PercentageOffer) offer, itemIndexes);
+			} else if (offer instanceof MultiBuyOffer) {
+				writeMultiBuyOffer(data, (MultiBuyOffer) offer, itemIndexes);
+			} else {
+				throw new IllegalArgumentException(String.format(
+						"Offer [%s] of type [%s] can not be written to a snapshot",
+						offer.getId(), offer.getClass().getName()));
+			}
+		}
+		data.flush();
+	}
+
+	private void writePercentageOffer(DataOutputStream data,
+			PercentageOffer offer, Map<Item, Integer> itemIndexes)
+			throws IOException {
+		data.writeByte(CatalogueSnapshot.PERCENTAGE_OFFER);
+		writeString(data, offer.getId());
+		data.writeInt(getItemIndex(itemIndexes, offer.getItem(), offer));
+		writeDecimal(data, offer.getDiscount(), offer.getId());
+		writeExpiryDate(data, offer.getExpiryDate());
+		Map<Item, Integer> requiredItems = offer.getRequiredItems();
+		if (requiredItems == null) {
+			data.writeInt(0);
+			return;
+		}
+		data.writeInt(requiredItems.size());
+		for (Entry<Item, Integer> requiredItem : requiredItems.entrySet()) {
+			data.writeInt(getItemIndex(itemIndexes, requiredItem.getKey(),
+					offer));
+			data.writeInt(requiredItem.getValue());
+		}
+	}
+
+	private void writeMultiBuyOffer(DataOutputStream data,
+			MultiBuyOffer offer, Map<Item, Integer> itemIndexes)
+			throws IOException {
+		data.writeByte(CatalogueSnapshot.MULTI_BUY_OFFER);
+		writeString(data, offer.getId());
+		data.writeInt(getItemIndex(itemIndexes, offer.getItem(), offer));
+		data.writeInt(offer.getQuantity());
+		data.writeInt(offer.getFreeQuantity());
+		if (offer.getGroupPrice() == null) {
+			data.writeByte(0);
+		} else {
+			data.writeByte(1);
+			writeDecimal(data, offer.getGroupPrice(), offer.getId());
+		}
+		writeExpiryDate(data, offer.getExpiryDate());
+	}
+
+	private static void writeExpiryDate(DataOutputStream data, Date expiryDate)
+			throws IOException {
+		if (expiryDate == null) {
+			data.writeByte(0);
+		} else {
+			data.writeByte(1);
+			data.writeLong(expiryDate.getTime());
+		}
+	}
+
+	private static int getItemIndex(Map<Item, Integer> itemIndexes, Item item,
+			Offer offer) {
+		Integer index = itemIndexes.get(item);
+		if (index == null) {
+			throw new IllegalArgumentException(String.format(
+					"Item [%s] of offer [%s] should be in the catalogue",
+					item == null ? null : item.getId(), offer.getId()));
+		}
+		return index;
+	}
+
+	private static void writeString(DataOutputStream data, String value)
+			throws IOException {
+		validateNotNull(value, "id");
+		byte[] bytes = value.getBytes(CatalogueSnapshot.STRING_ENCODING);
+		data.writeInt(bytes.length);
+		data.write(bytes);
+	}
+
+	private static void writeDecimal(DataOutputStream data, BigDecimal value,
+			String id) throws IOException {
+		if (value == null) {
+			throw new IllegalArgumentException(String.format(
+					"[%s] should have a price or discount", id));
+		}
+		try {
+			data.writeLong(value.unscaledValue().longValueExact());
+		} catch (ArithmeticException e) {
+			throw new IllegalArgumentException(String.format(
+					"[%s] has a value %s with too many digits for a snapshot",
+					id, value), e);
+		}
+		data.writeInt(value.scale());
+	}
+
+}
@@ -0,0 +1,566 @@
+package com.bjss.pricebasket.catalogue;
+
+import static com.bjss.pricebasket.catalogue.SharedCatalogueLayout.*;
+import static com.bjss.pricebasket.util.ValidateUtil.validateNotNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import com.bjss.pricebasket.data.Item;
+import com.bjss.pricebasket.data.MultiBuyOffer;
+import com.bjss.pricebasket.data.Offer;
+import com.bjss.pricebasket.data.PercentageOffer;
+import com.bjss.pricebasket.service.MsgService;
+import com.bjss.pricebasket.util.MemoryFences;
+
+/**
+ * A read-only view of a shared catalogue file, published by the
+ * {@link SharedCatalogueWriter} in the layout described by
+ * {@link SharedCatalogueLayout}.
+ *
+ * The file is memory mapped, so processes on the same host share its pages,
+ * and items and offers are read from it when they are looked up rather than
+ * kept on the heap. An Item and the Offers of an item are decoded when they
+ * are first looked up, and the same instances are returned by every lookup
+ * until another catalogue is published. They are not updated when a new
+ * catalogue is published; its items and offers are decoded again.
+ *
+ * Every lookup reads under the seqlock of the file, so it sees one published
+ * catalogue, and is retried if the writer publishes another while it reads.
+ * Lookups do not lock, and are safe for concurrent use. The lookups of a
+ * {@link Pinned} catalogue all see the catalogue published when it was
+ * pinned, or fail.
+ *
+ * @author Leon Danser
+ *
+ */
+public class SharedCatalogue {
+
+	/* reads retried before yielding to the writer */
+	private static final int SPINS = 100;
+	/* how long a reader waits for the writer before failing */
+	private static final long MAX_WAIT_MILLIS = 5000;
+	/* the sequence of a read that is not pinned */
+	private static final long UNPINNED = -1;
+
+	private final File file;
+	private final ByteBuffer buffer;
+	private final MsgService msgService;
+	private final AtomicReference<Decoded> decoded = new AtomicReference<Decoded>();
+
+	/**
+	 * Maps the shared catalogue file
+	 *
+	 * @param file
+	 *            a file created by a SharedCatalogueWriter
+	 * @param msgService
+	 *            given to every item and offer returned
+	 * @throws IllegalArgumentException
+	 *             if the file is not a shared catalogue
+	 */
+	public SharedCatalogue(File file, MsgService msgService)
+			throws IOException, IllegalArgumentException {
+		validateNotNull(file, "file");
+		this.file = file;
+		this.msgService = msgService;
+		RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+		try {
+			// the mapping stays valid once the file is closed
+			buffer = randomAccessFile.getChannel().map(
+					FileChannel.MapMode.READ_ONLY, 0,
+					randomAccessFile.length());
+		} finally {
+			randomAccessFile.close();
+		}
+		validateHeader(buffer, file);
+	}
+
+	static void validateHeader(ByteBuffer buffer, File file) {
+		if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+			throw new IllegalArgumentException(String.format(
+					"[%s] should be a shared catalogue", file));
+		}
+		if (buffer.getInt(4) != FORMAT_VERSION) {
+			throw new IllegalArgumentException(String.format(
+					"[%s] has format version %d, but should have %d", file,
+					buffer.getInt(4), FORMAT_VERSION));
+		}
+	}
+
+	/**
+	 * The version of the published catalogue
+	 */
+	public long getVersion() {
+		return read(new VersionRead(), UNPINNED);
+	}
+
+	/**
+	 * Pins the published catalogue, so that the lookups of a basket all see
+	 * the same one
+	 */
+	public Pinned pin() {
+		VersionRead read = new VersionRead();
+		long version = read(read, UNPINNED);
+		return new Pinned(read.decoded.sequence, version);
+	}
+
+	/**
+	 * The item with the given id, ignoring case
+	 *
+	 * @return the item, or null if it is not in the catalogue
+	 */
+	public Item getItem(String name) {
+		return getItem(name, UNPINNED);
+	}
+
+	private Item getItem(String name, long pinnedSequence) {
+		validateNotNull(name, "name");
+		final String id = name.toLowerCase();
+		Read<Item> read = new Read<Item>() {
+			@Override
+			Item read(Decoded decoded) {
+				index = findItem(id);
+				if (index < 0) {
+					return null;
+				}
+				Item item = decoded == null ? null : decoded.items.get(index);
+				return item != null ? item : createItem(index, id);
+			}
+		};
+		Item item = read(read, pinnedSequence);
+		return item == null ? null : read.decoded.cacheItem(read.index, item);
+	}
+
+	/**
+	 * The offers that apply to an item, in catalogue order. The item is
+	 * matched by id and price, as Items are compared, so an item of an
+	 * earlier catalogue whose price has changed has no offers.
+	 */
+	public List<Offer> getOffers(Item item) {
+		return getOffers(item, UNPINNED);
+	}
+
+	private List<Offer> getOffers(final Item item, long pinnedSequence) {
+		validateNotNull(item, "item");
+		Read<List<Offer>> read = new Read<List<Offer>>() {
+			@Override
+			List<Offer> read(Decoded decoded) {
+				index = findItem(item.getId());
+				if (index < 0) {
+					return Collections.emptyList();
+				}
+				Item catalogueItem = decoded == null ? null : decoded.items
+						.get(index);
+				BigDecimal price = catalogueItem == null ? getPrice(index)
+						: catalogueItem.getPrice();
+				if (!item.getPrice().equals(price)) {
+					index = -1;
+					return Collections.emptyList();
+				}
+				List<Offer> offers = decoded == null ? null : decoded.offers
+						.get(index);
+				return offers != null ? offers : createOffers(index,
+						catalogueItem == null ? item : catalogueItem, decoded);
+			}
+		};
+		List<Offer> offers = read(read, pinnedSequence);
+		return read.index < 0 ? offers : read.decoded.cacheOffers(read.index,
+				offers);
+	}
+
+	private List<Offer> createOffers(int index, Item item, Decoded decoded) {
+		int record = getItemRecord(index);
+		int offerCount = buffer.getInt(record + ITEM_OFFER_COUNT);
+		if (offerCount == 0) {
+			return Collections.emptyList();
+		}
+		int offerIndexes = checkRange(buffer.getInt(OFFER_INDEXES_OFFSET) + 4
+				* buffer.getInt(record + ITEM_FIRST_OFFER), offerCount, 4);
+		Offer[] offers = new Offer[offerCount];
+		for (int i = 0; i < offerCount; i++) {
+			offers[i] = createOffer(buffer.getInt(offerIndexes + i * 4), item,
+					decoded);
+		}
+		return Collections.unmodifiableList(Arrays.asList(offers));
+	}
+
+	/**
+	 * Runs a read under the seqlock: retries it until the sequence is even
+	 * and unchanged by the read. A read that fails while the writer is
+	 * publishing is retried too, as it may have read a partly written
+	 * catalogue.
+	 *
+	 * The read is given the items and offers already decoded from the
+	 * catalogue it sees, if any. Once it succeeds, the read holds the
+	 * Decoded of that catalogue for its caller to cache what it decoded in,
+	 * so nothing is cached until the sequence shows that a whole catalogue
+	 * was read.
+	 *
+	 * @param pinnedSequence
+	 *            the sequence the read must see, or UNPINNED
+	 * @throws CatalogueChangedException
+	 *             if the read is pinned, and another catalogue has been
+	 *             published since
+	 */
+	private <T> T read(Read<T> read, long pinnedSequence) {
+		long waitingSince = 0;
+		for (int attempt = 1;; attempt++) {
+			long sequence = buffer.getLong(SEQUENCE);
+			MemoryFences.loadFence();
+			if (pinnedSequence != UNPINNED && sequence != pinnedSequence) {
+				throw new CatalogueChangedException(String.format(
+						"Shared catalogue [%s] has been published again since it was pinned",
+						file));
+			}
+			if ((sequence & 1) == 0) {
+				Decoded cached = decoded.get();
+				if (cached != null && cached.sequence != sequence) {
+					cached = null;
+				}
+				int itemCount = 0;
+				T result = null;
+				RuntimeException failure = null;
+				try {
+					if (cached == null) {
+						itemCount = getItemCount();
+					}
+					result = read.read(cached);
+				} catch (RuntimeException e) {
+					failure = e;
+				}
+				MemoryFences.loadFence();
+				if (buffer.getLong(SEQUENCE) == sequence) {
+					if (failure != null) {
+						throw new IllegalStateException(String.format(
+								"Shared catalogue [%s] is corrupt", file),
+								failure);
+					}
+					read.decoded = cached != null ? cached : getDecoded(
+							sequence, itemCount);
+					return result;
+				}
+			}
+			if (attempt >= SPINS) {
+				if (waitingSince == 0) {
+					waitingSince = System.currentTimeMillis();
+				} else if (System.currentTimeMillis() - waitingSince > MAX_WAIT_MILLIS) {
+					throw new IllegalStateException(String.format(
+							"Shared catalogue [%s] was not published within %d ms",
+							file, MAX_WAIT_MILLIS));
+				}
+				Thread.yield();
+			}
+		}
+	}
+
+	/**
+	 * The Decoded of the catalogue published at the sequence, created if it
+	 * is newer than the one cached. A reader that has fallen behind a newer
+	 * catalogue is given a Decoded of its own, which is not cached.
+	 */
+	private Decoded getDecoded(long sequence, int itemCount) {
+		Decoded created = new Decoded(sequence, itemCount);
+		for (;;) {
+			Decoded current = decoded.get();
+			if (current != null && current.sequence >= sequence) {
+				return current.sequence == sequence ? current : created;
+			}
+			if (decoded.compareAndSet(current, created)) {
+				return created;
+			}
+		}
+	}
+
+	private int getItemCount() {
+		int itemCount = buffer.getInt(ITEM_COUNT);
+		checkRange(buffer.getInt(ITEMS_OFFSET), itemCount, ITEM_SIZE);
+		return itemCount;
+	}
+
+	/**
+	 * @return the index of the item, or -1
+	 */
+	private int findItem(String id) {
+		int hash = id.hashCode();
+		int tableSize = buffer.getInt(TABLE_SIZE);
+		int table = checkRange(buffer.getInt(TABLE_OFFSET), tableSize, 4);
+		int slot = slot(hash, tableSize);
+		for (int probe = 0; probe < tableSize; probe++) {
+			int entry = buffer.getInt(table + slot * 4);
+			if (entry == 0) {
+				return -1;
+			}
+			int record = getItemRecord(entry - 1);
+			if (buffer.getInt(record + ITEM_HASH) == hash
+					&& stringEquals(buffer.getInt(record + ITEM_ID), id)) {
+				return entry - 1;
+			}
+			slot = (slot + 1) & (tableSize - 1);
+		}
+		return -1;
+	}
+
+	private int getItemRecord(int index) {
+		if (index < 0 || index >= buffer.getInt(ITEM_COUNT)) {
+			throw new IndexOutOfBoundsException("item " + index);
+		}
+		return checkRange(buffer.getInt(ITEMS_OFFSET) + index * ITEM_SIZE, 1,
+				ITEM_SIZE);
+	}
+
+	private Item createItem(int index, String id) {
+		Item item = new Item(id, getPrice(index));
+		item.setMsgService(msgService);
+		return item;
+	}
+
+	private BigDecimal getPrice(int index) {
+		int record = getItemRecord(index);
+		return BigDecimal.valueOf(buffer.getLong(record + ITEM_PRICE),
+				buffer.getInt(record + ITEM_PRICE_SCALE));
+	}
+
+	/**
+	 * The item already decoded, or else a new one
+	 */
+	private Item getItem(int index, Decoded decoded) {
+		Item item = decoded == null ? null : decoded.items.get(index);
+		return item != null ? item : createItem(index,
+				readString(buffer.getInt(getItemRecord(index) + ITEM_ID)));
+	}
+
+	private Offer createOffer(int index, Item item, Decoded decoded) {
+		if (index < 0 || index >= buffer.getInt(OFFER_COUNT)) {
+			throw new IndexOutOfBoundsException("offer " + index);
+		}
+		int record = checkRange(buffer.getInt(OFFERS_OFFSET) + index
+				* OFFER_SIZE, 1, OFFER_SIZE);
+		int offerType = buffer.getInt(record + OFFER_TYPE);
+		if (offerType == MULTI_BUY_OFFER) {
+			return createMultiBuyOffer(record, item);
+		}
+		if (offerType != PERCENTAGE_OFFER) {
+			throw new IllegalArgumentException("offer type " + offerType);
+		}
+		PercentageOffer offer = new PercentageOffer();
+		offer.setMsgService(msgService);
+		offer.setId(readString(buffer.getInt(record + OFFER_ID)));
+		offer.setItem(item);
+		offer.setDiscount(BigDecimal.valueOf(
+				buffer.getLong(record + OFFER_DISCOUNT),
+				buffer.getInt(record + OFFER_DISCOUNT_SCALE)));
+		offer.setExpiryDate(getExpiryDate(record));
+
+		int requiredItemCount = buffer.getInt(record
+				+ OFFER_REQUIRED_ITEM_COUNT);
+		int requiredItems = checkRange(buffer.getInt(REQUIRED_ITEMS_OFFSET)
+				+ REQUIRED_ITEM_SIZE
+				* buffer.getInt(record + OFFER_FIRST_REQUIRED_ITEM),
+				requiredItemCount, REQUIRED_ITEM_SIZE);
+		Map<Item, Integer> requiredItemMap = new LinkedHashMap<Item, Integer>(
+				requiredItemCount * 2);
+		for (int i = 0; i < requiredItemCount; i++) {
+			int requiredItem = requiredItems + i * REQUIRED_ITEM_SIZE;
+			int itemIndex = buffer.getInt(requiredItem);
+			requiredItemMap.put(getItem(itemIndex, decoded),
+					buffer.getInt(requiredItem + 4));
+		}
+		offer.setRequiredItems(requiredItemMap);
+		return offer;
+	}
+
+	private Offer createMultiBuyOffer(int record, Item item) {
+		MultiBuyOffer offer = new MultiBuyOffer();
+		offer.setMsgService(msgService);
+		offer.setId(readString(buffer.getInt(record + OFFER_ID)));
+		offer.setItem(item);
+		offer.setQuantity(buffer.getInt(record + OFFER_QUANTITY));
+		int freeQuantity = buffer.getInt(record + OFFER_FREE_QUANTITY);
+		if (freeQuantity == 0) {
+			offer.setGroupPrice(BigDecimal.valueOf(
+					buffer.getLong(record + OFFER_DISCOUNT),
+					buffer.getInt(record + OFFER_DISCOUNT_SCALE)));
+		} else {
+			offer.setFreeQuantity(freeQuantity);
+		}
+		offer.setExpiryDate(getExpiryDate(record));
+		return offer;
+	}
+
+	/**
+	 * @return the expiry date of the offer, or null if it does not expire
+	 */
+	private Date getExpiryDate(int record) {
+		long expiryDate = buffer.getLong(record + OFFER_EXPIRY_DATE);
+		return expiryDate == NO_EXPIRY ? null : new Date(expiryDate);
+	}
+
+	/**
+	 * Compares a string of the file with a value, without decoding it if the
+	 * value is ASCII
+	 */
+	private boolean stringEquals(int offset, String value) {
+		int length = buffer.getInt(offset);
+		if (length == value.length()) {
+			// equal only if both are ASCII, when bytes and chars match
+			checkRange(offset + 4, length, 1);
+			for (int i = 0; i < length; i++) {
+				if (buffer.get(offset + 4 + i) != value.charAt(i)) {
+					return false;
+				}
+			}
+			return true;
+		}
+		// UTF-8 is never shorter than the chars it encodes
+		return length > value.length() && readString(offset).equals(value);
+	}
+
+	private String readString(int offset) {
+		int length = buffer.getInt(offset);
+		checkRange(offset + 4, length, 1);
+		byte[] bytes = new byte[length];
+		for (int i = 0; i < length; i++) {
+			bytes[i] = buffer.get(offset + 4 + i);
+		}
+		try {
+			return new String(bytes, STRING_ENCODING);
+		} catch (UnsupportedEncodingException e) {
+			// UTF-8 is always supported
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Checks that count records of size bytes from offset are in the file,
+	 * before anything is allocated for them, as a read that overlaps a
+	 * publish may see any offset or count
+	 *
+	 * @return the offset
+	 */
+	private int checkRange(int offset, int count, int size) {
+		if (offset < 0 || count < 0
+				|| offset + (long) count * size > buffer.capacity()) {
+			throw new IndexOutOfBoundsException(String.format(
+					"%d records of %d bytes at %d", count, size, offset));
+		}
+		return offset;
+	}
+
+	/**
+	 * The items, and the offers of each item, decoded from one published
+	 * catalogue, by item index
+	 */
+	private static final class Decoded {
+
+		final long sequence;
+		final AtomicReferenceArray<Item> items;
+		final AtomicReferenceArray<List<Offer>> offers;
+
+		Decoded(long sequence, int itemCount) {
+			this.sequence = sequence;
+			this.items = new AtomicReferenceArray<Item>(itemCount);
+			this.offers = new AtomicReferenceArray<List<Offer>>(itemCount);
+		}
+
+		/**
+		 * @return the item, or the one another lookup cached first
+		 */
+		Item cacheItem(int index, Item item) {
+			return items.compareAndSet(index, null, item) ? item : items
+					.get(index);
+		}
+
+		/**
+		 * @return the offers, or those another lookup cached first
+		 */
+		List<Offer> cacheOffers(int index, List<Offer> itemOffers) {
+			return offers.compareAndSet(index, null, itemOffers) ? itemOffers
+					: offers.get(index);
+		}
+	}
+
+	/**
+	 * The catalogue published when it was pinned. Its lookups see only that
+	 * catalogue: once another is published they fail, rather than return
+	 * the items and offers of another version.
+	 */
+	public final class Pinned {
+
+		private final long sequence;
+		private final long version;
+
+		Pinned(long sequence, long version) {
+			this.sequence = sequence;
+			this.version = version;
+		}
+
+		/**
+		 * The version of the pinned catalogue
+		 */
+		public long getVersion() {
+			return version;
+		}
+
+		/**
+		 * As {@link SharedCatalogue#getItem(String)}
+		 *
+		 * @throws CatalogueChangedException
+		 *             if another catalogue has been published since it was
+		 *             pinned
+		 */
+		public Item getItem(String name) throws CatalogueChangedException {
+			return SharedCatalogue.this.getItem(name, sequence);
+		}
+
+		/**
+		 * As {@link SharedCatalogue#getOffers(Item)}
+		 *
+		 * @throws CatalogueChangedException
+		 *             if another catalogue has been published since it was
+		 *             pinned
+		 */
+		public List<Offer> getOffers(Item item)
+				throws CatalogueChangedException {
+			return SharedCatalogue.this.getOffers(item, sequence);
+		}
+	}
+
+	private class VersionRead extends Read<Long> {
+		@Override
+		Long read(Decoded decoded) {
+			return buffer.getLong(CATALOGUE_VERSION);
+		}
+	}
+
+	/**
+	 * A read of the catalogue, which may be retried
+	 */
+	private abstract static class Read<T> {
+
+		/* the index of the item read, or -1 */
+		int index = -1;
+		/* the Decoded of the catalogue read, set when the read succeeds */
+		Decoded decoded;
+
+		/**
+		 * @param decoded
+		 *            the items and offers already decoded from the
+		 *            catalogue read, or null if none are
+		 */
+		abstract T read(Decoded decoded);
+	}
+
+}
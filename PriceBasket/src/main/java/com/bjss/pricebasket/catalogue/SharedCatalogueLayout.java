@@ -0,0 +1,128 @@
+package com.bjss.pricebasket.catalogue;
+
+/**
+ * The layout of a shared catalogue file: a {@link Catalogue} that pricing
+ * processes memory map and read in place, so every process on a host shares
+ * the same pages rather than holding its own copy of the items and offers.
+ *
+ * The file is a fixed size header followed by the data. Every int and long is
+ * big-endian, and every offset is from the start of the file.
+ *
+ * <pre>
+ * header:
+ *  0  int   MAGIC
+ *  4  int   FORMAT_VERSION
+ *  8  long  sequence, odd while the writer is updating the file
+ * 16  long  catalogue version
+ * 24  int   item count
+ * 28  int   offer count
+ * 32  int   table size, a power of two
+ * 36  int   table offset:          table size * int item index + 1, or 0
+ * 40  int   items offset:          item count * ITEM_SIZE
+ * 44  int   offers offset:         offer count * OFFER_SIZE
+ * 48  int   offer indexes offset:  int offer indexes, grouped by item
+ * 52  int   required items offset: per required item: int item index, int quantity
+ * 56  int   strings offset:        per string: int byte length, UTF-8 bytes
+ * 60  int   data end
+ *
+ * item:
+ *  0  int   id string offset
+ *  4  int   id hash code
+ *  8  long  price, unscaled
+ * 16  int   price scale
+ * 20  int   first offer index
+ * 24  int   offer index count
+ *
+ * offer:
+ *  0  int   id string offset
+ *  4  int   item index
+ *  8  long  discount, or group price, unscaled
+ * 16  int   discount, or group price, scale
+ * 20  int   first required item
+ * 24  int   required item count
+ * 28  int   PERCENTAGE_OFFER or MULTI_BUY_OFFER
+ * 32  long  expiry date in milliseconds since the epoch, or NO_EXPIRY
+ * 40  int   multi-buy quantity
+ * 44  int   multi-buy free quantity, or 0 if it has a group price
+ * </pre>
+ *
+ * A multi-buy offer has no required items in the file, as it only requires
+ * its quantity of its own item.
+ *
+ * Prices and discounts are fixed-point longs with the scale they were
+ * configured with, so they are read back as equal BigDecimals. Item ids are
+ * lower case, and are found through an open addressing table of their hash
+ * codes with linear probing.
+ *
+ * The sequence is the version counter of a seqlock. The writer makes it odd,
+ * updates the header and data in place, then makes it even again. A reader
+ * reads the sequence before and after reading the data, and reads again if
+ * it was odd or has changed.
+ *
+ * The size of the file is fixed when it is created, so that a reader's
+ * mapping always covers the data.
+ *
+ * @author Leon Danser
+ *
+ */
+final class SharedCatalogueLayout {
+
+	/** "PBSC" */
+	static final int MAGIC = 0x50425343;
+	static final int FORMAT_VERSION = 2;
+
+	static final int SEQUENCE = 8;
+	static final int CATALOGUE_VERSION = 16;
+	static final int ITEM_COUNT = 24;
+	static final int OFFER_COUNT = 28;
+	static final int TABLE_SIZE = 32;
+	static final int TABLE_OFFSET = 36;
+	static final int ITEMS_OFFSET = 40;
+	static final int OFFERS_OFFSET = 44;
+	static final int OFFER_INDEXES_OFFSET = 48;
+	static final int REQUIRED_ITEMS_OFFSET = 52;
+	static final int STRINGS_OFFSET = 56;
+	static final int DATA_END = 60;
+	static final int HEADER_SIZE = 64;
+
+	static final int ITEM_ID = 0;
+	static final int ITEM_HASH = 4;
+	static final int ITEM_PRICE = 8;
+	static final int ITEM_PRICE_SCALE = 16;
+	static final int ITEM_FIRST_OFFER = 20;
+	static final int ITEM_OFFER_COUNT = 24;
+	static final int ITEM_SIZE = 32;
+
+	static final int OFFER_ID = 0;
+	static final int OFFER_ITEM = 4;
+	static final int OFFER_DISCOUNT = 8;
+	static final int OFFER_DISCOUNT_SCALE = 16;
+	static final int OFFER_FIRST_REQUIRED_ITEM = 20;
+	static final int OFFER_REQUIRED_ITEM_COUNT = 24;
+	static final int OFFER_TYPE = 28;
+	static final int OFFER_EXPIRY_DATE = 32;
+	static final int OFFER_QUANTITY = 40;
+	static final int OFFER_FREE_QUANTITY = 44;
+	static final int OFFER_SIZE = 48;
+
+	static final int PERCENTAGE_OFFER = 1;
+	static final int MULTI_BUY_OFFER = 2;
+
+	static final int REQUIRED_ITEM_SIZE = 8;
+
+	static final long NO_EXPIRY = Long.MIN_VALUE;
+
+	static final String STRING_ENCODING = "UTF-8";
+
+	private SharedCatalogueLayout() {
+	}
+
+	/**
+	 * The first table slot for an item id
+	 */
+	static int slot(int hash, int tableSize) {
+		// spread the high bits, as HashMap does
+		return (hash ^ (hash >>> 16)) & (tableSize - 1);
+	}
+
+}
@@ -0,0 +1,425 @@
+package com.bjss.pricebasket.catalogue;
+
+import static com.bjss.pricebasket.catalogue.SharedCatalogueLayout.*;
+import static com.bjss.pricebasket.util.ValidateUtil.validateNotNull;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import com.bjss.pricebasket.data.Item;
+import com.bjss.pricebasket.data.MultiBuyOffer;
+import com.bjss.pricebasket.data.Offer;
+import com.bjss.pricebasket.data.PercentageOffer;
+import com.bjss.pricebasket.util.MemoryFences;
+
+/**
+ * Publishes catalogues to a shared catalogue file, in the layout described by
+ * {@link SharedCatalogueLayout}, for pricing processes to read with a
+ * {@link SharedCatalogue}.
+ *
+ * Each catalogue is written in place, under the seqlock of the file, so
+ * readers that already have the file mapped see the new catalogue as soon as
+ * it is published, and never see a partly written one. Publishing also holds
+ * a lock on the file, so only one writer on the host updates it at a time.
+ *
+ * <pre>
+ * java -cp PriceBasket-0.1.jar com.bjss.pricebasket.catalogue.SharedCatalogueWriter basket-config.xml catalogue.shared [version]
+ * </pre>
+ *
+ * @author Leon Danser
+ *
+ */
+public class SharedCatalogueWriter implements Closeable {
+
+	/* the smallest file created by main(), leaving room for the catalogue to grow */
+	private static final int MIN_CAPACITY = 64 * 1024;
+
+	private final File file;
+	private final RandomAccessFile randomAccessFile;
+	private final MappedByteBuffer buffer;
+
+	public static void main(String[] args) throws IOException {
+		if (args == null || args.length < 2) {
+			System.out.println("Usage: java "
+					+ SharedCatalogueWriter.class.getName()
+					+ " [config.xml] [shared catalogue file] [version]\n"
+					+ "eg. java " + SharedCatalogueWriter.class.getName()
+					+ " classpath:/META-INF/basket-config.xml catalogue.shared");
+			System.exit(0);
+		}
+		long version = args.length > 2 ? Long.parseLong(args[2]) : System
+				.currentTimeMillis();
+		Catalogue catalogue = new CatalogueCompiler().load(args[0], version);
+		EncodedCatalogue encoded = encode(catalogue);
+		SharedCatalogueWriter writer = new SharedCatalogueWriter(new File(
+				args[1]), Math.max(MIN_CAPACITY, 2 * encoded.getSize()));
+		try {
+			writer.publish(encoded);
+		} finally {
+			writer.close();
+		}
+		System.out.println("Published " + catalogue + " to " + args[1]);
+	}
+
+	/**
+	 * Opens a shared catalogue file, or creates it with an empty catalogue
+	 *
+	 * @param file
+	 *            the shared catalogue file
+	 * @param capacity
+	 *            the size in bytes of the file if it is created. An existing
+	 *            file keeps its size.
+	 * @throws IllegalArgumentException
+	 *             if the file is not a shared catalogue, or the capacity is
+	 *             too small for an empty catalogue
+	 */
+	public SharedCatalogueWriter(File file, int capacity) throws IOException,
+			IllegalArgumentException {
+		validateNotNull(file, "file");
+		this.file = file;
+		randomAccessFile = new RandomAccessFile(file, "rw");
+		try {
+			EncodedCatalogue empty = null;
+			if (randomAccessFile.length() == 0) {
+				empty = encode(new Catalogue(0, Collections.<Item> emptyList(),
+						Collections.<Offer> emptyList()));
+				if (capacity < empty.getSize()) {
+					throw new IllegalArgumentException(String.format(
+							"[capacity] should be at least %d, but was %d",
+							empty.getSize(), capacity));
+				}
+				randomAccessFile.setLength(capacity);
+			}
+			buffer = randomAccessFile.getChannel().map(
+					FileChannel.MapMode.READ_WRITE, 0,
+					randomAccessFile.length());
+			if (empty != null) {
+				buffer.putInt(0, MAGIC);
+				buffer.putInt(4, FORMAT_VERSION);
+				publish(empty);
+			} else {
+				SharedCatalogue.validateHeader(buffer, file);
+			}
+		} catch (IOException e) {
+			randomAccessFile.close();
+			throw e;
+		} catch (RuntimeException e) {
+			randomAccessFile.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Replaces the catalogue in the file
+	 *
+	 * @throws IllegalArgumentException
+	 *             if the catalogue can not be shared, eg. it does not fit in
+	 *             the file or has an offer type that is not supported
+	 */
+	public void publish(Catalogue catalogue) throws IOException,
+			IllegalArgumentException {
+		publish(encode(catalogue));
+	}
+
+	private synchronized void publish(EncodedCatalogue encoded)
+			throws IOException {
+		if (encoded.getSize() > buffer.capacity()) {
+			throw new IllegalArgumentException(String.format(
+					"Catalogue of %d bytes should fit in the %d bytes of [%s]",
+					encoded.getSize(), buffer.capacity(), file));
+		}
+		FileLock lock = randomAccessFile.getChannel().lock();
+		try {
+			long sequence = buffer.getLong(SEQUENCE);
+			// an odd sequence was left by a writer that did not finish
+			long writing = (sequence & 1) == 0 ? sequence + 1 : sequence;
+			buffer.putLong(SEQUENCE, writing);
+			MemoryFences.storeFence();
+
+			ByteBuffer header = encoded.header;
+			for (int offset = CATALOGUE_VERSION; offset < HEADER_SIZE; offset += 4) {
+				buffer.putInt(offset, header.getInt(offset));
+			}
+			ByteBuffer data = buffer.duplicate();
+			data.position(HEADER_SIZE);
+			data.put(encoded.data.duplicate());
+
+			MemoryFences.storeFence();
+			buffer.putLong(SEQUENCE, writing + 1);
+		} finally {
+			lock.release();
+		}
+	}
+
+	/**
+	 * The size of the file, which limits the size of the catalogues that can
+	 * be published to it
+	 */
+	public int getCapacity() {
+		return buffer.capacity();
+	}
+
+	/**
+	 * Closes the file. The catalogue stays published.
+	 */
+	@Override
+	public void close() throws IOException {
+		randomAccessFile.close();
+	}
+
+	/**
+	 * Lays out the header and data of a catalogue
+	 */
+	static EncodedCatalogue encode(Catalogue catalogue)
+			throws IllegalArgumentException {
+		validateNotNull(catalogue, "catalogue");
+		List<Item> items = catalogue.getItems();
+		List<Offer> offers = catalogue.getOffers();
+
+		Map<Item, Integer> itemIndexes = new HashMap<Item, Integer>(
+				items.size() * 2);
+		Set<String> ids = new HashSet<String>(items.size() * 2);
+		for (Item item : items) {
+			validateNotNull(item.getId(), "id");
+			if (!ids.add(item.getId())) {
+				throw new IllegalArgumentException(String.format(
+						"Item [%s] should only be in the catalogue once",
+						item.getId()));
+			}
+			if (!item.getBarcodes().isEmpty()) {
+				throw new IllegalArgumentException(String.format(
+						"Item [%s] has barcodes, which can not be shared",
+						item.getId()));
+			}
+			itemIndexes.put(item, itemIndexes.size());
+		}
+
+		// offers are grouped by the item they apply to, in catalogue order
+		int[] offerCounts = new int[items.size()];
+		int[] offerItems = new int[offers.size()];
+		int requiredItemCount = 0;
+		for (int i = 0; i < offers.size(); i++) {
+			Offer offer = offers.get(i);
+			if (!(offer instanceof PercentageOffer)
+					&& !(offer instanceof MultiBuyOffer)) {
+				throw new IllegalArgumentException(String.format(
+						"Offer [%s] of type [%s] can not be shared",
+						offer.getId(), offer.getClass().getName()));
+			}
+			validateNotNull(offer.getId(), "id");
+			offerItems[i] = getItemIndex(itemIndexes, offer.getItem(), offer);
+			offerCounts[offerItems[i]]++;
+			Map<Item, Integer> requiredItems = getSharedRequiredItems(offer);
+			requiredItemCount += requiredItems == null ? 0 : requiredItems
+					.size();
+		}
+		int[] firstOffers = new int[items.size()];
+		for (int i = 1; i < items.size(); i++) {
+			firstOffers[i] = firstOffers[i - 1] + offerCounts[i - 1];
+		}
+
+		int tableSize = Integer.highestOneBit(Math.max(1, items.size() * 2 - 1)) << 1;
+		int tableOffset = HEADER_SIZE;
+		int itemsOffset = tableOffset + tableSize * 4;
+		int offersOffset = itemsOffset + items.size() * ITEM_SIZE;
+		int offerIndexesOffset = offersOffset + offers.size() * OFFER_SIZE;
+		int requiredItemsOffset = offerIndexesOffset + offers.size() * 4;
+		int stringsOffset = requiredItemsOffset + requiredItemCount
+				* REQUIRED_ITEM_SIZE;
+
+		StringArea strings = new StringArea(stringsOffset);
+		ByteBuffer data = ByteBuffer.allocate(stringsOffset - HEADER_SIZE);
+		for (int i = 0; i < items.size(); i++) {
+			Item item = items.get(i);
+			int hash = item.getId().hashCode();
+			int slot = slot(hash, tableSize);
+			while (data.getInt(slot * 4) != 0) {
+				slot = (slot + 1) & (tableSize - 1);
+			}
+			data.putInt(slot * 4, i + 1);
+
+			int record = itemsOffset - HEADER_SIZE + i * ITEM_SIZE;
+			data.putInt(record + ITEM_ID, strings.add(item.getId()));
+			data.putInt(record + ITEM_HASH, hash);
+			putDecimal(data, record + ITEM_PRICE, item.getPrice(),
+					item.getId());
+			data.putInt(record + ITEM_FIRST_OFFER, firstOffers[i]);
+			data.putInt(record + ITEM_OFFER_COUNT, offerCounts[i]);
+		}
+
+		int[] nextOffers = firstOffers.clone();
+		int requiredItem = 0;
+		for (int i = 0; i < offers.size(); i++) {
+			Offer offer = offers.get(i);
+			int record = offersOffset - HEADER_SIZE + i * OFFER_SIZE;
+			data.putInt(record + OFFER_ID, strings.add(offer.getId()));
+			data.putInt(record + OFFER_ITEM, offerItems[i]);
+			Date expiryDate;
+			if (offer instanceof MultiBuyOffer) {
+				MultiBuyOffer multiBuyOffer = (MultiBuyOffer) offer;
+				data.putInt(record + OFFER_TYPE, MULTI_BUY_OFFER);
+				data.putInt(record + OFFER_QUANTITY,
+						multiBuyOffer.getQuantity());
+				data.putInt(record + OFFER_FREE_QUANTITY,
+						multiBuyOffer.getFreeQuantity());
+				if (multiBuyOffer.getGroupPrice() != null) {
+					putDecimal(data, record + OFFER_DISCOUNT,
+							multiBuyOffer.getGroupPrice(), offer.getId());
+				}
+				expiryDate = multiBuyOffer.getExpiryDate();
+			} else {
+				PercentageOffer percentageOffer = (PercentageOffer) offer;
+				data.putInt(record + OFFER_TYPE, PERCENTAGE_OFFER);
+				putDecimal(data, record + OFFER_DISCOUNT,
+						percentageOffer.getDiscount(), offer.getId());
+				expiryDate = percentageOffer.getExpiryDate();
+			}
+			data.putLong(record + OFFER_EXPIRY_DATE,
+					expiryDate == null ? NO_EXPIRY : expiryDate.getTime());
+			data.putInt(record + OFFER_FIRST_REQUIRED_ITEM, requiredItem);
+			Map<Item, Integer> requiredItems = getSharedRequiredItems(offer);
+			if (requiredItems != null) {
+				for (Entry<Item, Integer> required : requiredItems.entrySet()) {
+					int requiredRecord = requiredItemsOffset - HEADER_SIZE
+							+ requiredItem * REQUIRED_ITEM_SIZE;
+					data.putInt(requiredRecord,
+							getItemIndex(itemIndexes, required.getKey(), offer));
+					data.putInt(requiredRecord + 4, required.getValue());
+					requiredItem++;
+				}
+			}
+			data.putInt(record + OFFER_REQUIRED_ITEM_COUNT, requiredItem
+					- data.getInt(record + OFFER_FIRST_REQUIRED_ITEM));
+			data.putInt(offerIndexesOffset - HEADER_SIZE
+					+ nextOffers[offerItems[i]]++ * 4, i);
+		}
+
+		byte[] stringBytes = strings.toByteArray();
+		ByteBuffer encoded = ByteBuffer.allocate(data.capacity()
+				+ stringBytes.length);
+		encoded.put(data.array()).put(stringBytes).flip();
+
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		header.putLong(CATALOGUE_VERSION, catalogue.getVersion());
+		header.putInt(ITEM_COUNT, items.size());
+		header.putInt(OFFER_COUNT, offers.size());
+		header.putInt(TABLE_SIZE, tableSize);
+		header.putInt(TABLE_OFFSET, tableOffset);
+		header.putInt(ITEMS_OFFSET, itemsOffset);
+		header.putInt(OFFERS_OFFSET, offersOffset);
+		header.putInt(OFFER_INDEXES_OFFSET, offerIndexesOffset);
+		header.putInt(REQUIRED_ITEMS_OFFSET, requiredItemsOffset);
+		header.putInt(STRINGS_OFFSET, stringsOffset);
+		header.putInt(DATA_END, HEADER_SIZE + encoded.remaining());
+		return new EncodedCatalogue(header, encoded);
+	}
+
+	/**
+	 * The required items written to the file, which are none for a multi-buy
+	 * offer, as they are its own item and quantity
+	 */
+	private static Map<Item, Integer> getSharedRequiredItems(Offer offer) {
+		return offer instanceof MultiBuyOffer ? null : offer
+				.getRequiredItems();
+	}
+
+	private static int getItemIndex(Map<Item, Integer> itemIndexes, Item item,
+			Offer offer) {
+		Integer index = itemIndexes.get(item);
+		if (index == null) {
+			throw new IllegalArgumentException(String.format(
+					"Item [%s] of offer [%s] should be in the catalogue",
+					item == null ? null : item.getId(), offer.getId()));
+		}
+		return index;
+	}
+
+	private static void putDecimal(ByteBuffer data, int offset,
+			BigDecimal value, String id) {
+		if (value == null) {
+			throw new IllegalArgumentException(String.format(
+					"[%s] should have a price or discount", id));
+		}
+		try {
+			data.putLong(offset, value.unscaledValue().longValueExact());
+		} catch (ArithmeticException e) {
+			throw new IllegalArgumentException(String.format(
+					"[%s] has a value %s with too many digits to be shared",
+					id, value), e);
+		}
+		data.putInt(offset + 8, value.scale());
+	}
+
+	/**
+	 * A catalogue laid out for the file: the header, of which the writer
+	 * copies all but the magic, format version and sequence, and the data
+	 * that follows it
+	 */
+	static class EncodedCatalogue {
+		final ByteBuffer header;
+		final ByteBuffer data;
+
+		EncodedCatalogue(ByteBuffer header, ByteBuffer data) {
+			this.header = header;
+			this.data = data;
+		}
+
+		int getSize() {
+			return HEADER_SIZE + data.remaining();
+		}
+	}
+
+	/**
+	 * The strings of a catalogue, which are written after the rest of the
+	 * data. Each id is only written once.
+	 */
+	private static class StringArea {
+		private final int offset;
+		private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		private final DataOutputStream out = new DataOutputStream(bytes);
+		private final Map<String, Integer> offsets = new HashMap<String, Integer>();
+
+		StringArea(int offset) {
+			this.offset = offset;
+		}
+
+		int add(String value) {
+			Integer stringOffset = offsets.get(value);
+			if (stringOffset == null) {
+				stringOffset = offset + bytes.size();
+				try {
+					byte[] encoded = value.getBytes(STRING_ENCODING);
+					out.writeInt(encoded.length);
+					out.write(encoded);
+				} catch (IOException e) {
+					// not thrown by a ByteArrayOutputStream
+					throw new IllegalStateException(e);
+				}
+				offsets.put(value, stringOffset);
+			}
+			return stringOffset;
+		}
+
+		byte[] toByteArray() {
+			return bytes.toByteArray();
+		}
+	}
+
+}
@@ -0,0 +1,389 @@
+package com.bjss.pricebasket.catalogue;
+
+import static com.bjss.pricebasket.util.ValidateUtil.validateNotNull;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.math.BigDecimal;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import com.bjss.pricebasket.data.Item;
+import com.bjss.pricebasket.data.MultiBuyOffer;
+import com.bjss.pricebasket.data.Offer;
+import com.bjss.pricebasket.data.PercentageOffer;
+import com.bjss.pricebasket.service.MsgService;
+
+/**
+ * Loads a {@link Catalogue} by streaming items and offers from large files,
+ * without creating a bean definition or Spring bean for each one. Memory used
+ * while loading is the catalogue itself plus a map of item references.
+ *
+ * Reads:
+ * <ul>
+ * <li>catalogue XML in the basket-config.xml format, with StAX. item,
+ * percentageOffer and multiBuyOffer elements are read as the parsers would;
+ * other elements, such as Spring beans, are ignored.</li>
+ * <li>item CSV files of "id,price" lines, each optionally followed by
+ * ",barcodes" separated by whitespace. Blank lines, lines starting with #
+ * and a header line of "id,price" or "id,price,barcodes" are skipped.</li>
+ * </ul>
+ *
+ * Offers may refer to items read from any file, before or after the offer,
+ * so references are resolved by build(). Items and offers keep the order
+ * they are read in. An item read again with the same id replaces the first,
+ * as a bean definition with the same id would.
+ *
+ * Equal prices and discounts share one BigDecimal instance.
+ *
+ * A loader builds one catalogue, and is used by one thread.
+ *
+ * @author Leon Danser
+ *
+ */
+public class StreamingCatalogueLoader {
+
+	static final String NAMESPACE = "http://www.bjss.com/schema/price-basket";
+	private static final String DATE_FORMAT = "yyyy-MM-dd";
+	private static final String ITEM = "item";
+	private static final String PERCENTAGE_OFFER = "percentageOffer";
+	private static final String MULTI_BUY_OFFER = "multiBuyOffer";
+	private static final String ITEM_REF = "itemRef";
+	private static final String ID = "id";
+	private static final String PRICE = "price";
+	private static final String BARCODES = "barcodes";
+	private static final String DISCOUNT = "discount";
+	private static final String EXPIRY_DATE = "expiryDate";
+	private static final String REF = "ref";
+	private static final String QUANTITY = "quantity";
+	private static final String FREE_QUANTITY = "freeQuantity";
+	private static final String GROUP_PRICE = "groupPrice";
+	private static final String CSV_HEADER = "id,price";
+	private static final String CSV_HEADER_WITH_BARCODES = "id,price,barcodes";
+	private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+	private static final char CSV_COMMENT = '#';
+
+	private final MsgService msgService;
+	private final XMLInputFactory xmlInputFactory = XMLInputFactory
+			.newInstance();
+	private final SimpleDateFormat dateFormat = new SimpleDateFormat(
+			DATE_FORMAT);
+
+	/* items by the id they are referred to by, as given in the file */
+	private final Map<String, Item> items = new LinkedHashMap<String, Item>();
+	private final List<OfferDefinition> offers = new ArrayList<OfferDefinition>();
+	private final Map<String, BigDecimal> decimals = new HashMap<String, BigDecimal>();
+
+	/**
+	 * @param msgService
+	 *            given to every item and offer, for their display names and
+	 *            print messages
+	 */
+	public StreamingCatalogueLoader(MsgService msgService) {
+		this.msgService = msgService;
+	}
+
+	/**
+	 * Reads the items and offers of a catalogue XML file
+	 *
+	 * @param in
+	 *            the XML, which is not closed
+	 * @param source
+	 *            describes where the XML was read from, for error messages
+	 * @throws IllegalArgumentException
+	 *             if the XML is not well formed, or an item or offer is not
+	 *             valid
+	 */
+	public void readXml(InputStream in, String source)
+			throws IllegalArgumentException {
+		validateNotNull(in, "in");
+		try {
+			XMLStreamReader reader = xmlInputFactory.createXMLStreamReader(in);
+			try {
+				OfferDefinition offer = null;
+				while (reader.hasNext()) {
+					int event = reader.next();
+					if ((event != XMLStreamConstants.START_ELEMENT && event != XMLStreamConstants.END_ELEMENT)
+							|| !NAMESPACE.equals(reader.getNamespaceURI())) {
+						continue;
+					}
+					String name = reader.getLocalName();
+					if (event == XMLStreamConstants.END_ELEMENT) {
+						if (PERCENTAGE_OFFER.equals(name)) {
+							offer = null;
+						}
+						continue;
+					}
+					if (ITEM.equals(name)) {
+						String id = getAttribute(reader, ID, source);
+						addItem(id, getAttribute(reader, PRICE, source),
+								reader.getAttributeValue(null, BARCODES));
+					} else if (PERCENTAGE_OFFER.equals(name)) {
+						offer = readOffer(reader, source);
+						offers.add(offer);
+					} else if (MULTI_BUY_OFFER.equals(name)) {
+						offers.add(readMultiBuyOffer(reader, source));
+					} else if (ITEM_REF.equals(name) && offer != null) {
+						readRequiredItem(reader, offer, source);
+					}
+				}
+			} finally {
+				reader.close();
+			}
+		} catch (XMLStreamException e) {
+			throw new IllegalArgumentException(String.format(
+					"Could not read the catalogue [%s]", source), e);
+		}
+	}
+
+	/**
+	 * Reads the items of a CSV file of "id,price" or "id,price,barcodes"
+	 * lines
+	 *
+	 * @param in
+	 *            the CSV, which is not closed
+	 * @param source
+	 *            describes where the CSV was read from, for error messages
+	 * @throws IllegalArgumentException
+	 *             if a line is not an id and a price
+	 */
+	public void readItemsCsv(Reader in, String source) throws IOException,
+			IllegalArgumentException {
+		validateNotNull(in, "in");
+		BufferedReader reader = in instanceof BufferedReader ? (BufferedReader) in
+				: new BufferedReader(in);
+		String line;
+		int lineNumber = 0;
+		while ((line = reader.readLine()) != null) {
+			lineNumber++;
+			line = line.trim();
+			if (line.isEmpty() || line.charAt(0) == CSV_COMMENT
+					|| (lineNumber == 1 && isCsvHeader(line))) {
+				continue;
+			}
+			int separator = line.indexOf(',');
+			int barcodeSeparator = separator < 0 ? -1 : line.indexOf(',',
+					separator + 1);
+			if (separator <= 0
+					|| (barcodeSeparator >= 0 && line.indexOf(',',
+							barcodeSeparator + 1) >= 0)) {
+				throw new IllegalArgumentException(String.format(
+						"Line %d of [%s] should be id,price or id,price,barcodes",
+						lineNumber, source));
+			}
+			if (barcodeSeparator < 0) {
+				addItem(line.substring(0, separator).trim(), line.substring(
+						separator + 1).trim(), null);
+			} else {
+				addItem(line.substring(0, separator).trim(), line.substring(
+						separator + 1, barcodeSeparator).trim(), line
+						.substring(barcodeSeparator + 1));
+			}
+		}
+	}
+
+	private static boolean isCsvHeader(String line) {
+		return CSV_HEADER.equalsIgnoreCase(line)
+				|| CSV_HEADER_WITH_BARCODES.equalsIgnoreCase(line);
+	}
+
+	/**
+	 * Resolves the item references of the offers read so far, and creates
+	 * the catalogue
+	 *
+	 * @param version
+	 *            the version to give the catalogue
+	 * @throws IllegalArgumentException
+	 *             if an offer refers to an item that has not been read
+	 */
+	public Catalogue build(long version) throws IllegalArgumentException {
+		List<Offer> catalogueOffers = new ArrayList<Offer>(offers.size());
+		for (OfferDefinition definition : offers) {
+			if (definition.offer instanceof MultiBuyOffer) {
+				MultiBuyOffer offer = (MultiBuyOffer) definition.offer;
+				offer.setItem(resolveItem(definition.itemRef, offer));
+				catalogueOffers.add(offer);
+				continue;
+			}
+			PercentageOffer offer = (PercentageOffer) definition.offer;
+			offer.setItem(resolveItem(definition.itemRef, offer));
+			Map<Item, Integer> requiredItems = new LinkedHashMap<Item, Integer>(
+					definition.requiredItemRefs.size() * 2);
+			for (int i = 0; i < definition.requiredItemRefs.size(); i++) {
+				requiredItems.put(
+						resolveItem(definition.requiredItemRefs.get(i), offer),
+						definition.requiredQuantities.get(i));
+			}
+			offer.setRequiredItems(requiredItems);
+			catalogueOffers.add(offer);
+		}
+		return new Catalogue(version, items.values(), catalogueOffers);
+	}
+
+	private Item resolveItem(String ref, Offer offer) {
+		Item item = items.get(ref);
+		if (item == null) {
+			throw new IllegalArgumentException(String.format(
+					"Item [%s] of offer [%s] should be in the catalogue", ref,
+					offer.getId()));
+		}
+		return item;
+	}
+
+	/**
+	 * Items are referred to by the id they are given, but as with the
+	 * ItemDefinitionParser, the item's own id is lower case.
+	 *
+	 * @param barcodes
+	 *            separated by whitespace, or null if the item has none
+	 */
+	private void addItem(String id, String price, String barcodes) {
+		Item item = new Item(id.toLowerCase(), toDecimal(price, id));
+		item.setMsgService(msgService);
+		if (barcodes != null && !barcodes.trim().isEmpty()) {
+			item.setBarcodes(Arrays.asList(WHITESPACE.split(barcodes.trim())));
+		}
+		items.put(id, item);
+	}
+
+	private OfferDefinition readOffer(XMLStreamReader reader, String source) {
+		PercentageOffer offer = new PercentageOffer();
+		offer.setMsgService(msgService);
+		String id = getAttribute(reader, ID, source);
+		offer.setId(id);
+		offer.setDiscount(toDecimal(getAttribute(reader, DISCOUNT, source), id));
+		String expiryDate = reader.getAttributeValue(null, EXPIRY_DATE);
+		if (expiryDate != null) {
+			offer.setExpiryDate(parseDate(expiryDate));
+		}
+		return new OfferDefinition(offer, getAttribute(reader, ITEM_REF,
+				source));
+	}
+
+	private OfferDefinition readMultiBuyOffer(XMLStreamReader reader,
+			String source) {
+		MultiBuyOffer offer = new MultiBuyOffer();
+		offer.setMsgService(msgService);
+		String id = getAttribute(reader, ID, source);
+		offer.setId(id);
+		int quantity = toInt(getAttribute(reader, QUANTITY, source), id);
+		String freeQuantityString = reader.getAttributeValue(null,
+				FREE_QUANTITY);
+		int freeQuantity = freeQuantityString == null ? 0 : toInt(
+				freeQuantityString, id);
+		String groupPriceString = reader.getAttributeValue(null, GROUP_PRICE);
+		BigDecimal groupPrice = groupPriceString == null ? null : toDecimal(
+				groupPriceString, id);
+		MultiBuyOffer.validateGroup(id, quantity, freeQuantity, groupPrice);
+		offer.setQuantity(quantity);
+		offer.setFreeQuantity(freeQuantity);
+		offer.setGroupPrice(groupPrice);
+		String expiryDate = reader.getAttributeValue(null, EXPIRY_DATE);
+		if (expiryDate != null) {
+			offer.setExpiryDate(parseDate(expiryDate));
+		}
+		return new OfferDefinition(offer, getAttribute(reader, ITEM_REF,
+				source));
+	}
+
+	private void readRequiredItem(XMLStreamReader reader,
+			OfferDefinition offer, String source) {
+		String ref = reader.getAttributeValue(null, REF);
+		int quantity = Integer.parseInt(getAttribute(reader, QUANTITY, source));
+		if (quantity < 0) {
+			throw new IllegalArgumentException(String.format(
+					"Quantity for requiredItem [%s] must be a positive number",
+					ref));
+		}
+		int index = offer.requiredItemRefs.indexOf(ref);
+		if (index >= 0) {
+			// as in a map, a repeated item replaces the quantity in place
+			offer.requiredQuantities.set(index, quantity);
+		} else {
+			offer.requiredItemRefs.add(ref);
+			offer.requiredQuantities.add(quantity);
+		}
+	}
+
+	private static String getAttribute(XMLStreamReader reader, String name,
+			String source) {
+		String value = reader.getAttributeValue(null, name);
+		if (value == null) {
+			throw new IllegalArgumentException(String.format(
+					"<%s> at line %d of [%s] should have the attribute %s",
+					reader.getLocalName(),
+					reader.getLocation().getLineNumber(), source, name));
+		}
+		return value;
+	}
+
+	/**
+	 * Parses the value, sharing one instance between equal values
+	 */
+	private BigDecimal toDecimal(String value, String id) {
+		BigDecimal decimal = decimals.get(value);
+		if (decimal == null) {
+			try {
+				decimal = new BigDecimal(value);
+			} catch (NumberFormatException e) {
+				throw new IllegalArgumentException(String.format(
+						"[%s] should have a number, but was [%s]", id, value),
+						e);
+			}
+			decimals.put(value, decimal);
+		}
+		return decimal;
+	}
+
+	private static int toInt(String value, String id) {
+		try {
+			return Integer.parseInt(value);
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException(String.format(
+					"[%s] should have a whole number, but was [%s]", id, value),
+					e);
+		}
+	}
+
+	private Date parseDate(String expiryString) {
+		try {
+			return dateFormat.parse(expiryString);
+		} catch (ParseException e) {
+			throw new RuntimeException(String.format(
+					"Could not parse the date [%s]. Should use the format %s",
+					expiryString, DATE_FORMAT), e);
+		}
+	}
+
+	/**
+	 * An offer whose item references have not been resolved yet. Only a
+	 * PercentageOffer has required item references.
+	 */
+	private static class OfferDefinition {
+		final Offer offer;
+		final String itemRef;
+		final List<String> requiredItemRefs = new ArrayList<String>(1);
+		final List<Integer> requiredQuantities = new ArrayList<Integer>(1);
+
+		OfferDefinition(Offer offer, String itemRef) {
+			this.offer = offer;
+			this.itemRef = itemRef;
+		}
+	}
+
+}
@@ -1,28 +1,175 @@
 package com.bjss.pricebasket.data;
 
-import java.util.LinkedList;
+import static com.bjss.pricebasket.util.ValidateUtil.validateNotNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
- * A List of {@link Item}s
- * 
+ * The {@link Item}s in a basket, held as lines of an Item and its quantity.
+ * Adding an Item that is already in the basket increases the quantity of its
+ * line, so the size of the basket grows with the number of distinct Items
+ * rather than the number of units.
+ *
+ * Lines are kept in the order each Item was first added.
+ *
  * @author Leon Danser
  *
  */
 public class Basket {
 
-	private List<Item> items = new LinkedList<Item>();
+	private final Map<Item, Integer> lines = new LinkedHashMap<Item, Integer>();
+	private final Map<Item, Integer> linesView = Collections
+			.unmodifiableMap(lines);
+	private int itemCount;
 
+	/**
+	 * A List of the {@link Item}s in the basket, with an entry for each unit.
+	 * The units of an Item are together, and the Items are in the order they
+	 * were first added. The List is a copy, so changing it does not change the
+	 * basket.
+	 *
+	 * @return a new List of the units in the basket
+	 * @deprecated builds a List as long as the number of units, use
+	 *             {@link #getDistinctItems()} or {@link #getLines()}
+	 */
+	@Deprecated
 	public List<Item> getItems() {
+		List<Item> items = new ArrayList<Item>(itemCount);
+		for (Map.Entry<Item, Integer> line : lines.entrySet()) {
+			items.addAll(Collections.nCopies(line.getValue(), line.getKey()));
+		}
 		return items;
 	}
 
+	/**
+	 * Replaces the contents of the basket with the {@link Item}s, adding one
+	 * unit for each entry.
+	 *
+	 * @param items
+	 *            the units of the basket
+	 * @deprecated use {@link #addItem(Item, int)}
+	 */
+	@Deprecated
 	public void setItems(List<Item> items) {
-		this.items = items;
+		validateNotNull(items, "items");
+		Basket basket = new Basket();
+		for (Item item : items) {
+			basket.addItem(item);
+		}
+		lines.clear();
+		lines.putAll(basket.lines);
+		itemCount = basket.itemCount;
+	}
+
+	/**
+	 * The distinct {@link Item}s in the basket, in the order they were first
+	 * added.
+	 *
+	 * @return a read-only Set of the Items in the basket
+	 */
+	public Set<Item> getDistinctItems() {
+		return linesView.keySet();
 	}
-	
+
+	/**
+	 * Each distinct {@link Item} in the basket mapped to its quantity, in the
+	 * order the Items were first added.
+	 *
+	 * @return a read-only Map of Item to quantity
+	 */
+	public Map<Item, Integer> getLines() {
+		return linesView;
+	}
+
+	/**
+	 * The quantity of the given {@link Item} in the basket
+	 *
+	 * @param item
+	 * @return the quantity, or 0 if the Item is not in the basket
+	 */
+	public int getQuantity(Item item) {
+		Integer quantity = lines.get(item);
+		return quantity == null ? 0 : quantity;
+	}
+
+	/**
+	 * The total number of units in the basket, ie. the sum of the quantities
+	 * of all lines.
+	 *
+	 * @return the number of units in the basket
+	 */
+	public int getItemCount() {
+		return itemCount;
+	}
+
 	public void addItem(Item item) {
-		items.add(item);
+		addItem(item, 1);
 	}
-	
+
+	/**
+	 * Adds quantity units of the {@link Item} to the basket.
+	 *
+	 * @param item
+	 *            the item to add
+	 * @param quantity
+	 *            the number of units to add. Must be greater than 0
+	 * @throws ArithmeticException
+	 *             if the basket would hold more than Integer.MAX_VALUE units.
+	 *             The basket is not changed.
+	 */
+	public void addItem(Item item, int quantity) {
+		validateNotNull(item, "item");
+		if (quantity <= 0) {
+			throw new IllegalArgumentException(String.format(
+					"[quantity] for item [%s] must be a positive number",
+					item.getId()));
+		}
+		int newItemCount = Math.addExact(itemCount, quantity);
+		Integer lineQuantity = lines.get(item);
+		lines.put(item, lineQuantity == null ? quantity : Math.addExact(
+				lineQuantity, quantity));
+		itemCount = newItemCount;
+	}
+
+	public void removeItem(Item item) {
+		removeItem(item, 1);
+	}
+
+	/**
+	 * Removes quantity units of the {@link Item} from the basket. The line of
+	 * an Item is removed with its last unit, so an Item added again is added
+	 * to the end of the basket.
+	 *
+	 * @param item
+	 *            the item to remove
+	 * @param quantity
+	 *            the number of units to remove. Must be greater than 0 and no
+	 *            more than the quantity of the Item in the basket
+	 */
+	public void removeItem(Item item, int quantity) {
+		validateNotNull(item, "item");
+		if (quantity <= 0) {
+			throw new IllegalArgumentException(String.format(
+					"[quantity] for item [%s] must be a positive number",
+					item.getId()));
+		}
+		int lineQuantity = getQuantity(item);
+		if (quantity > lineQuantity) {
+			throw new IllegalArgumentException(String.format(
+					"[quantity] for item [%s] must not exceed the %d in the basket",
+					item.getId(), lineQuantity));
+		}
+		if (quantity == lineQuantity) {
+			lines.remove(item);
+		} else {
+			lines.put(item, lineQuantity - quantity);
+		}
+		itemCount -= quantity;
+	}
+
 }
@@ -23,6 +23,10 @@ public class BasketTotals {
 
 	private BigDecimal total;
 
+	private PricingContext pricingContext;
+
+	private long catalogueVersion;
+
 	/**
 	 * The sum of the price of all {@link Item}s in a {@link Basket}
 	 * 
@@ -63,4 +67,34 @@ public class BasketTotals {
 		this.total = total;
 	}
 
+	/**
+	 * The conditions the totals were calculated under. The
+	 * {@link BasketPrinterService} formats the totals in its locale and
+	 * currency.
+	 * 
+	 * @return the PricingContext, or null if the totals were not priced with
+	 *         one
+	 */
+	public PricingContext getPricingContext() {
+		return pricingContext;
+	}
+
+	public void setPricingContext(PricingContext pricingContext) {
+		this.pricingContext = pricingContext;
+	}
+
+	/**
+	 * The version of the catalogue that every item price and offer of the
+	 * totals was taken from
+	 * 
+	 * @return the catalogue version
+	 */
+	public long getCatalogueVersion() {
+		return catalogueVersion;
+	}
+
+	public void setCatalogueVersion(long catalogueVersion) {
+		this.catalogueVersion = catalogueVersion;
+	}
+
 }
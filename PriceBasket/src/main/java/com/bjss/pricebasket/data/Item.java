@@ -1,6 +1,12 @@
 package com.bjss.pricebasket.data;
 
+import static com.bjss.pricebasket.util.ValidateUtil.validateNotNull;
+
 import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
 
 import javax.inject.Inject;
 
@@ -10,24 +16,40 @@ import com.bjss.pricebasket.service.MsgService;
  * A Price Basket Item. The id should be unique and the price should not be
  * null.
  * 
+ * Besides its id, an item can be looked up by any of its barcodes, eg. the
+ * EAN-13 or UPC-A codes printed on its packaging.
+ * 
+ * The hash code is calculated when the id or price is set rather than on
+ * every lookup, as items key the tallies and offer indexes of every basket.
+ * 
  * @author Leon Danser
  * 
  */
 public class Item {
 	private static final String ITEM_NAME_PREFIX = "item.name.";
+	private static final int MINOR_UNIT_SCALE = 2;
+	private static final long NO_MINOR_UNIT_PRICE = Long.MIN_VALUE;
+
+	/** The ordinal of an item that is not in a catalogue */
+	public static final int NO_ORDINAL = -1;
 
 	@Inject
 	MsgService msgService;
 
 	private String id;
+	private String displayNameKey;
 	private BigDecimal price;
+	private long minorUnitPrice = NO_MINOR_UNIT_PRICE;
+	private List<String> barcodes = Collections.emptyList();
+	private int ordinal = NO_ORDINAL;
+	private int hash = calculateHashCode(null, null);
 	
 	public Item() {
 	}
 	
 	public Item(String id, BigDecimal price) {
-		this.id = id;
-		this.price = price;
+		setId(id);
+		setPrice(price);
 	}
 
 	/**
@@ -41,6 +63,17 @@ public class Item {
 
 	public void setId(String id) {
 		this.id = id;
+		this.displayNameKey = ITEM_NAME_PREFIX + id;
+		this.hash = calculateHashCode(id, price);
+	}
+
+	/**
+	 * Set by the application context for configured items. Items created by
+	 * other means, eg. loaded from a catalogue snapshot, must be given one
+	 * before their display name is used.
+	 */
+	public void setMsgService(MsgService msgService) {
+		this.msgService = msgService;
 	}
 
 	/**
@@ -54,6 +87,96 @@ public class Item {
 
 	public void setPrice(BigDecimal price) {
 		this.price = price;
+		this.minorUnitPrice = toMinorUnits(price);
+		this.hash = calculateHashCode(id, price);
+	}
+
+	/**
+	 * The price of the item in the minor unit of the local currency (eg.
+	 * pence). Calculated once when the price is set.
+	 * 
+	 * @return the price as a whole number of minor units
+	 * @throws IllegalStateException
+	 *             if the price is null or is not a whole number of minor
+	 *             units
+	 */
+	public long getMinorUnitPrice() {
+		if (minorUnitPrice == NO_MINOR_UNIT_PRICE) {
+			throw new IllegalStateException(String.format(
+					"[price] %s of item [%s] is not a whole number of minor units",
+					price, id));
+		}
+		return minorUnitPrice;
+	}
+
+	private static long toMinorUnits(BigDecimal price) {
+		if (price == null) {
+			return NO_MINOR_UNIT_PRICE;
+		}
+		try {
+			return price.setScale(MINOR_UNIT_SCALE).unscaledValue()
+					.longValueExact();
+		} catch (ArithmeticException e) {
+			return NO_MINOR_UNIT_PRICE;
+		}
+	}
+
+	/**
+	 * The barcodes the item can be looked up by, as well as its id
+	 * 
+	 * @return a read-only List, empty if the item has no barcodes
+	 */
+	public List<String> getBarcodes() {
+		return barcodes;
+	}
+
+	/**
+	 * @param barcodes
+	 *            the barcodes of the item, each one non-empty and without
+	 *            whitespace
+	 */
+	public void setBarcodes(List<String> barcodes) {
+		validateNotNull(barcodes, "barcodes");
+		for (String barcode : barcodes) {
+			if (barcode == null || !isBarcode(barcode)) {
+				throw new IllegalArgumentException(String.format(
+						"[barcode] '%s' of item [%s] should not be empty or contain whitespace",
+						barcode, id));
+			}
+		}
+		this.barcodes = barcodes.isEmpty() ? Collections.<String> emptyList()
+				: Collections.unmodifiableList(new ArrayList<String>(barcodes));
+	}
+
+	private static boolean isBarcode(String barcode) {
+		if (barcode.isEmpty()) {
+			return false;
+		}
+		for (int i = 0; i < barcode.length(); i++) {
+			if (Character.isWhitespace(barcode.charAt(i))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * The position of the item in the catalogue it was last loaded into,
+	 * numbered densely from 0, so the pricing services can keep its tally in
+	 * an array. Only a hint: an item loaded into a later catalogue is
+	 * renumbered, so the ordinal is checked against the catalogue it is used
+	 * with.
+	 * 
+	 * @see com.bjss.pricebasket.catalogue.CatalogueOrdinals
+	 * @return the ordinal, or NO_ORDINAL if the item has not been loaded into
+	 *         a catalogue
+	 */
+	public int getOrdinal() {
+		return ordinal;
+	}
+
+	public void setOrdinal(int ordinal) {
+		this.ordinal = ordinal;
 	}
 
 	/**
@@ -61,11 +184,25 @@ public class Item {
 	 * @return
 	 */
 	public String getDisplayName() {
-		return msgService.getMessage(ITEM_NAME_PREFIX + id);
+		return msgService.getMessage(displayNameKey);
+	}
+
+	/**
+	 * The name for this item localised for the given locale. The message key
+	 * is built once when the id is set.
+	 * @param locale
+	 * @return
+	 */
+	public String getDisplayName(Locale locale) {
+		return msgService.getMessage(locale, displayNameKey);
 	}
 
 	@Override
 	public int hashCode() {
+		return hash;
+	}
+
+	private static int calculateHashCode(String id, BigDecimal price) {
 		final int prime = 31;
 		int result = 1;
 		result = prime * result + ((id == null) ? 0 : id.hashCode());
@@ -82,6 +219,8 @@ public class Item {
 		if (getClass() != obj.getClass())
 			return false;
 		Item other = (Item) obj;
+		if (hash != other.hash)
+			return false;
 		if (id == null) {
 			if (other.id != null)
 				return false;
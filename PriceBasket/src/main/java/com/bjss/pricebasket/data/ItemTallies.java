@@ -0,0 +1,287 @@
+package com.bjss.pricebasket.data;
+
+import static com.bjss.pricebasket.util.ValidateUtil.validateNotNull;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import com.bjss.pricebasket.catalogue.CatalogueOrdinals;
+
+/**
+ * The count of each {@link Item} in a basket, kept in an int array indexed by
+ * the ordinal of the Item in a catalogue, so counting an Item neither hashes
+ * it nor boxes its count. {@link Offer}s read and consume the tallies with
+ * getTally() and setTally(); as a Map, the tallies can be given to code that
+ * expects one.
+ *
+ * Items that are not in the catalogue are counted in a HashMap.
+ *
+ * A tally is in the map once it is set, even if it is set to 0, until it is
+ * removed or the tallies are reset. Resetting for another basket is constant
+ * time: each slot is stamped with the generation it was set in, and a reset
+ * starts the next generation, so the arrays can be reused by every basket a
+ * thread prices.
+ *
+ * Tallies may not be negative. Not safe for use by more than one thread at a
+ * time.
+ *
+ * @author Leon Danser
+ *
+ */
+public final class ItemTallies extends AbstractMap<Item, Integer> {
+
+	/** The tally of an Item that is not in the map */
+	public static final int NOT_TALLIED = -1;
+
+	private CatalogueOrdinals ordinals;
+	private int[] tallies = new int[0];
+	private int[] generations = new int[0];
+	private int generation;
+	/* the ordinals tallied in this generation, in the order first tallied */
+	private int[] tallied = new int[16];
+	private int talliedCount;
+	/* the tallies of Items not in the catalogue, created when first needed */
+	private Map<Item, Integer> others;
+
+	private final Set<Item> keySet = new KeySet();
+	private final Set<Entry<Item, Integer>> entrySet = new EntrySet();
+
+	/**
+	 * Empty tallies of the Items of the catalogue
+	 */
+	public ItemTallies(CatalogueOrdinals ordinals) {
+		reset(ordinals);
+	}
+
+	/**
+	 * Removes every tally, ready to count a basket priced against the
+	 * catalogue. The arrays are only reallocated if the catalogue has more
+	 * Items than any before it.
+	 */
+	public void reset(CatalogueOrdinals ordinals) {
+		validateNotNull(ordinals, "ordinals");
+		this.ordinals = ordinals;
+		int itemCount = ordinals.getItemCount();
+		if (tallies.length < itemCount) {
+			tallies = new int[itemCount];
+			generations = new int[itemCount];
+			generation = 1;
+		} else if (++generation == 0) {
+			// every stamp could match again, so clear them
+			Arrays.fill(generations, 0);
+			generation = 1;
+		}
+		talliedCount = 0;
+		if (others != null) {
+			others.clear();
+		}
+	}
+
+	/**
+	 * The tally of the Item
+	 *
+	 * @return the tally, or NOT_TALLIED if the Item is not in the map
+	 */
+	public int getTally(Item item) {
+		int ordinal = ordinals.getOrdinal(item);
+		if (ordinal == Item.NO_ORDINAL) {
+			Integer tally = others == null ? null : others.get(item);
+			return tally == null ? NOT_TALLIED : tally;
+		}
+		return generations[ordinal] == generation ? tallies[ordinal]
+				: NOT_TALLIED;
+	}
+
+	/**
+	 * Sets the tally of the Item, adding it to the map if it is not in it
+	 *
+	 * @param tally
+	 *            the count of the Item, which may not be negative
+	 */
+	public void setTally(Item item, int tally) {
+		if (tally < 0) {
+			throw new IllegalArgumentException(String.format(
+					"[tally] of item [%s] should not be negative",
+					item.getId()));
+		}
+		int ordinal = ordinals.getOrdinal(item);
+		if (ordinal == Item.NO_ORDINAL) {
+			if (others == null) {
+				others = new HashMap<Item, Integer>();
+			}
+			others.put(item, tally);
+			return;
+		}
+		if (generations[ordinal] != generation) {
+			generations[ordinal] = generation;
+			if (talliedCount == tallied.length) {
+				tallied = Arrays.copyOf(tallied, talliedCount * 2);
+			}
+			tallied[talliedCount++] = ordinal;
+		}
+		tallies[ordinal] = tally;
+	}
+
+	@Override
+	public int size() {
+		return talliedCount + (others == null ? 0 : others.size());
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		return key instanceof Item && getTally((Item) key) != NOT_TALLIED;
+	}
+
+	@Override
+	public Integer get(Object key) {
+		if (!(key instanceof Item)) {
+			return null;
+		}
+		int tally = getTally((Item) key);
+		return tally == NOT_TALLIED ? null : tally;
+	}
+
+	@Override
+	public Integer put(Item key, Integer value) {
+		validateNotNull(key, "item");
+		validateNotNull(value, "tally");
+		Integer previous = get(key);
+		setTally(key, value);
+		return previous;
+	}
+
+	@Override
+	public Integer remove(Object key) {
+		Integer previous = get(key);
+		if (previous == null) {
+			return null;
+		}
+		Item item = (Item) key;
+		int ordinal = ordinals.getOrdinal(item);
+		if (ordinal == Item.NO_ORDINAL) {
+			others.remove(item);
+			return previous;
+		}
+		// generations start at 1, so 0 is never the current one
+		generations[ordinal] = 0;
+		for (int i = 0; i < talliedCount; i++) {
+			if (tallied[i] == ordinal) {
+				System.arraycopy(tallied, i + 1, tallied, i, talliedCount - i
+						- 1);
+				talliedCount--;
+				break;
+			}
+		}
+		return previous;
+	}
+
+	@Override
+	public void clear() {
+		reset(ordinals);
+	}
+
+	/**
+	 * The Items tallied, those of the catalogue first, without creating an
+	 * entry for each
+	 */
+	@Override
+	public Set<Item> keySet() {
+		return keySet;
+	}
+
+	@Override
+	public Set<Entry<Item, Integer>> entrySet() {
+		return entrySet;
+	}
+
+	/**
+	 * Iterates the ordinals tallied, then the Items not in the catalogue
+	 */
+	private abstract class TallyIterator<E> implements Iterator<E> {
+
+		private int next;
+		private Iterator<Entry<Item, Integer>> othersIterator;
+
+		@Override
+		public boolean hasNext() {
+			if (next < talliedCount) {
+				return true;
+			}
+			if (othersIterator == null) {
+				othersIterator = others == null ? null : others.entrySet()
+						.iterator();
+			}
+			return othersIterator != null && othersIterator.hasNext();
+		}
+
+		Entry<Item, Integer> nextEntry() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			if (next < talliedCount) {
+				int ordinal = tallied[next++];
+				return new SimpleImmutableEntry<Item, Integer>(
+						ordinals.getItem(ordinal), tallies[ordinal]);
+			}
+			return othersIterator.next();
+		}
+
+		Item nextKey() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			if (next < talliedCount) {
+				return ordinals.getItem(tallied[next++]);
+			}
+			return othersIterator.next().getKey();
+		}
+	}
+
+	private final class KeySet extends AbstractSet<Item> {
+
+		@Override
+		public Iterator<Item> iterator() {
+			return new TallyIterator<Item>() {
+				@Override
+				public Item next() {
+					return nextKey();
+				}
+			};
+		}
+
+		@Override
+		public int size() {
+			return ItemTallies.this.size();
+		}
+
+		@Override
+		public boolean contains(Object o) {
+			return containsKey(o);
+		}
+	}
+
+	private final class EntrySet extends AbstractSet<Entry<Item, Integer>> {
+
+		@Override
+		public Iterator<Entry<Item, Integer>> iterator() {
+			return new TallyIterator<Entry<Item, Integer>>() {
+				@Override
+				public Entry<Item, Integer> next() {
+					return nextEntry();
+				}
+			};
+		}
+
+		@Override
+		public int size() {
+			return ItemTallies.this.size();
+		}
+	}
+
+}
@@ -0,0 +1,471 @@
+package com.bjss.pricebasket.data;
+
+import static com.bjss.pricebasket.util.ValidateUtil.validateNotNull;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.text.DecimalFormat;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Map;
+
+import javax.inject.Inject;
+
+import com.bjss.pricebasket.service.MsgService;
+
+/**
+ * An implementation of {@link Offer} that discounts groups of the same item.
+ * Each group is quantity units of the item, and is either:
+ * <ul>
+ * <li>buy some, get freeQuantity free: eg. "3 for 2" is a quantity of 3 with
+ * a freeQuantity of 1, and discounts the price of 1 unit per group</li>
+ * <li>quantity for a groupPrice: eg. "3 for 1.50" discounts the price of 3
+ * units less 1.50 per group</li>
+ * </ul>
+ * An expiry date can be set, as for a {@link PercentageOffer}.
+ *
+ * The units of a group are the offer's required items: the offer requires
+ * quantity of its own item, and each application consumes them from the
+ * tallies. So the number of groups in a line is the tally divided by the
+ * quantity, worked out with integer arithmetic whatever the number of units,
+ * and offers that compete for the same units are allocated as any others.
+ *
+ * The offer is not modified once configured, and isApplicable() only modifies
+ * the itemTallies passed to it, so one instance can be evaluated by many
+ * threads at once as long as each has its own tallies.
+ *
+ * @author Leon Danser
+ *
+ */
+public class MultiBuyOffer implements Offer {
+
+	private static final String MULTI_BUY_OFFER = "multibuy.offer";
+	private static final long NO_EXPIRY = Long.MAX_VALUE;
+
+	@Inject
+	MsgService msgService;
+
+	private String id;
+	private int ordinal = Item.NO_ORDINAL;
+	private Item item;
+	private int quantity;
+	private int freeQuantity;
+	private BigDecimal groupPrice;
+	private Date expiryDate;
+	private long expiryTime = NO_EXPIRY;
+	private Map<Item, Integer> requiredItems;
+
+	@Override
+	public String getId() {
+		return id;
+	}
+
+	public void setId(String id) {
+		this.id = id;
+	}
+
+	@Override
+	public int getOrdinal() {
+		return ordinal;
+	}
+
+	@Override
+	public void setOrdinal(int ordinal) {
+		this.ordinal = ordinal;
+	}
+
+	/**
+	 * Set by the application context for configured offers. Offers created by
+	 * other means, eg. loaded from a catalogue snapshot, must be given one
+	 * before their print message is built.
+	 */
+	public void setMsgService(MsgService msgService) {
+		this.msgService = msgService;
+	}
+
+	@Override
+	public Item getItem() {
+		return item;
+	}
+
+	public void setItem(Item item) {
+		this.item = item;
+		this.requiredItems = createRequiredItems(item, quantity);
+	}
+
+	/**
+	 * The number of units of the item in each group
+	 *
+	 * @return
+	 */
+	public int getQuantity() {
+		return quantity;
+	}
+
+	public void setQuantity(int quantity) {
+		if (quantity <= 0) {
+			throw new IllegalArgumentException("[quantity] should be positive");
+		}
+		this.quantity = quantity;
+		this.requiredItems = createRequiredItems(item, quantity);
+	}
+
+	/**
+	 * The number of units of each group that are free, or 0 if the group has
+	 * a groupPrice instead
+	 *
+	 * @return
+	 */
+	public int getFreeQuantity() {
+		return freeQuantity;
+	}
+
+	public void setFreeQuantity(int freeQuantity) {
+		if (freeQuantity < 0) {
+			throw new IllegalArgumentException(
+					"[freeQuantity] should not be negative");
+		}
+		this.freeQuantity = freeQuantity;
+	}
+
+	/**
+	 * The price of each group, or null if some of its units are free instead
+	 *
+	 * @return
+	 */
+	public BigDecimal getGroupPrice() {
+		return groupPrice;
+	}
+
+	public void setGroupPrice(BigDecimal groupPrice) {
+		this.groupPrice = groupPrice;
+	}
+
+	/**
+	 * A Map of the item to the quantity of each group, or null until both are
+	 * set
+	 *
+	 * @return
+	 */
+	@Override
+	public Map<Item, Integer> getRequiredItems() {
+		return requiredItems;
+	}
+
+	private static Map<Item, Integer> createRequiredItems(Item item,
+			int quantity) {
+		return item == null || quantity == 0 ? null : Collections
+				.singletonMap(item, quantity);
+	}
+
+	/**
+	 * The date that the offer expires (inclusive)
+	 *
+	 * @return
+	 */
+	public Date getExpiryDate() {
+		return expiryDate;
+	}
+
+	public void setExpiryDate(Date expiry) {
+		this.expiryDate = expiry;
+		this.expiryTime = toExpiryTime(expiry);
+	}
+
+	/**
+	 * The start of the day after the expiryDate, as the offer applies until
+	 * the end of the expiryDate
+	 */
+	@Override
+	public long getExpiryTime() {
+		return expiryTime;
+	}
+
+	/**
+	 * Add one day to the expiryDate so that the offer expires at midnight the
+	 * following day, as a PercentageOffer does
+	 */
+	private static long toExpiryTime(Date expiry) {
+		if (expiry == null) {
+			return NO_EXPIRY;
+		}
+		Calendar expiryCalendar = Calendar.getInstance();
+		expiryCalendar.setTime(expiry);
+		expiryCalendar.add(Calendar.DATE, 1);
+		return expiryCalendar.getTimeInMillis();
+	}
+
+	/**
+	 * The discount of one group: the price of its free units, or the price of
+	 * its units less the groupPrice. Never negative, so a groupPrice above
+	 * the price of the units gives no discount.
+	 *
+	 * @return
+	 */
+	@Override
+	public BigDecimal calculateDiscount() {
+		validateConfiguration();
+		if (item.getPrice() == null) {
+			throw new IllegalStateException("[item price] should not be null");
+		}
+		if (groupPrice == null) {
+			return item.getPrice().multiply(BigDecimal.valueOf(freeQuantity));
+		}
+		BigDecimal discount = item.getPrice()
+				.multiply(BigDecimal.valueOf(quantity)).subtract(groupPrice);
+		return discount.signum() < 0 ? BigDecimal.ZERO : discount;
+	}
+
+	/**
+	 * The discount of one group multiplied by the number of groups
+	 *
+	 * @return
+	 */
+	@Override
+	public BigDecimal calculateDiscount(int applications) {
+		return calculateDiscount().multiply(BigDecimal.valueOf(applications));
+	}
+
+	private void validateConfiguration() {
+		if (item == null) {
+			throw new IllegalStateException("[item] should not be null");
+		}
+		try {
+			validateGroup(id, quantity, freeQuantity, groupPrice);
+		} catch (IllegalArgumentException e) {
+			throw new IllegalStateException(e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Checks the group of an offer as it is read, before the offer is
+	 * created: a group has a positive quantity and exactly one of a
+	 * freeQuantity less than the quantity, or a groupPrice that is not
+	 * negative.
+	 *
+	 * @param freeQuantity
+	 *            0 if the group has a groupPrice
+	 * @param groupPrice
+	 *            null if the group has a freeQuantity
+	 * @throws IllegalArgumentException
+	 *             if the group is not valid
+	 */
+	public static void validateGroup(String id, int quantity,
+			int freeQuantity, BigDecimal groupPrice)
+			throws IllegalArgumentException {
+		if (quantity <= 0) {
+			throw new IllegalArgumentException(String.format(
+					"Quantity of offer [%s] must be a positive number", id));
+		}
+		if ((freeQuantity == 0) == (groupPrice == null)) {
+			throw new IllegalArgumentException(String.format(
+					"Offer [%s] should have either a freeQuantity or a groupPrice",
+					id));
+		}
+		if (freeQuantity < 0 || freeQuantity >= quantity) {
+			throw new IllegalArgumentException(String.format(
+					"FreeQuantity of offer [%s] should be from 1 to %d", id,
+					quantity - 1));
+		}
+		if (groupPrice != null && groupPrice.signum() < 0) {
+			throw new IllegalArgumentException(String.format(
+					"GroupPrice of offer [%s] should not be negative", id));
+		}
+	}
+
+	/**
+	 * Determine if the expiryDate has not passed and the basket holds a whole
+	 * group at the current time. If it does, the units of the group are taken
+	 * from the itemTallies.
+	 *
+	 * @param itemTallies
+	 *            The number of each item
+	 * @return Return true if a group was found.
+	 */
+	@Override
+	public boolean isApplicable(Map<Item, Integer> itemTallies) {
+		return countApplications(itemTallies, 1, getCurrentTime()
+				.getTimeInMillis()) == 1;
+	}
+
+	/**
+	 * Counts up to maxApplications groups in a single division of the item's
+	 * tally, and takes their units from it. Units are taken whether or not
+	 * the offer has expired, as with the required items of a PercentageOffer.
+	 *
+	 * @param itemTallies
+	 *            The number of each item
+	 * @param maxApplications
+	 *            the most groups to count
+	 * @param context
+	 *            the expiryDate is checked against its pricing instant
+	 * @return the number of groups discounted.
+	 */
+	@Override
+	public int countApplications(Map<Item, Integer> itemTallies,
+			int maxApplications, PricingContext context) {
+		validateNotNull(context, "context");
+		return countApplications(itemTallies, maxApplications,
+				context.getPricingTime());
+	}
+
+	private int countApplications(Map<Item, Integer> itemTallies,
+			int maxApplications, long pricingTime) {
+		validateNotNull(itemTallies, "itemTallies");
+		if (maxApplications < 0) {
+			throw new IllegalArgumentException(
+					"[maxApplications] should not be negative");
+		}
+		if (item == null || quantity == 0) {
+			throw new IllegalStateException(
+					"[item] and [quantity] should be set");
+		}
+		int groups = consumeGroups(itemTallies, maxApplications);
+		return pricingTime <= expiryTime ? groups : 0;
+	}
+
+	/**
+	 * Takes up to maxGroups groups of units from the tally of the item
+	 *
+	 * @return the number of groups taken
+	 */
+	private int consumeGroups(Map<Item, Integer> itemTallies, int maxGroups) {
+		if (itemTallies instanceof ItemTallies) {
+			ItemTallies tallies = (ItemTallies) itemTallies;
+			int tally = tallies.getTally(item);
+			if (tally == ItemTallies.NOT_TALLIED || tally < quantity) {
+				return 0;
+			}
+			int groups = Math.min(maxGroups, tally / quantity);
+			tallies.setTally(item, tally - groups * quantity);
+			return groups;
+		}
+		Integer tally = itemTallies.get(item);
+		if (tally == null || tally < quantity) {
+			return 0;
+		}
+		int groups = Math.min(maxGroups, tally / quantity);
+		itemTallies.put(item, tally - groups * quantity);
+		return groups;
+	}
+
+	/**
+	 * The time isApplicable() is evaluated at. Pricing through a
+	 * {@link PricingContext} uses its pricing instant instead.
+	 */
+	protected Calendar getCurrentTime() {
+		return Calendar.getInstance();
+	}
+
+	/**
+	 * The message showing the item, the group and the totalDiscount. eg.
+	 * "Soup 3 for 2: -65p" or "Soup 3 for 1.50: -45p"
+	 *
+	 * @return a String containing the offer message
+	 */
+	@Override
+	public String buildPrintMessage(String totalDiscount) {
+		validateNotNull(totalDiscount, "totalDiscount");
+		validateConfiguration();
+		return msgService.getMessage(MULTI_BUY_OFFER, item.getDisplayName(),
+				String.valueOf(quantity), formatGroup(), totalDiscount);
+	}
+
+	/**
+	 * The same message as buildPrintMessage(String), localised for the locale
+	 * of the context.
+	 *
+	 * @return a String containing the offer message
+	 */
+	@Override
+	public String buildPrintMessage(String totalDiscount,
+			PricingContext context) {
+		validateNotNull(totalDiscount, "totalDiscount");
+		validateNotNull(context, "context");
+		validateConfiguration();
+		Locale locale = context.getLocale();
+		return msgService.getMessage(locale, MULTI_BUY_OFFER,
+				item.getDisplayName(locale), String.valueOf(quantity),
+				formatGroup(), totalDiscount);
+	}
+
+	@Override
+	public void appendPrintMessage(Appendable out, String totalDiscount,
+			PricingContext context) throws IOException {
+		validateNotNull(out, "out");
+		validateNotNull(totalDiscount, "totalDiscount");
+		validateNotNull(context, "context");
+		validateConfiguration();
+		Locale locale = context.getLocale();
+		msgService.appendMessage(out, locale, MULTI_BUY_OFFER,
+				item.getDisplayName(locale), String.valueOf(quantity),
+				formatGroup(), totalDiscount);
+	}
+
+	/**
+	 * What a group costs: the number of units paid for, or the groupPrice to
+	 * two decimal places
+	 *
+	 * @return
+	 */
+	protected String formatGroup() {
+		if (groupPrice == null) {
+			return String.valueOf(quantity - freeQuantity);
+		}
+		return new DecimalFormat("0.00").format(groupPrice);
+	}
+
+	@Override
+	public int hashCode() {
+		final int prime = 31;
+		int result = 1;
+		result = prime * result
+				+ ((expiryDate == null) ? 0 : expiryDate.hashCode());
+		result = prime * result + freeQuantity;
+		result = prime * result
+				+ ((groupPrice == null) ? 0 : groupPrice.hashCode());
+		result = prime * result + ((id == null) ? 0 : id.hashCode());
+		result = prime * result + ((item == null) ? 0 : item.hashCode());
+		result = prime * result + quantity;
+		return result;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (obj == null)
+			return false;
+		if (getClass() != obj.getClass())
+			return false;
+		MultiBuyOffer other = (MultiBuyOffer) obj;
+		if (expiryDate == null) {
+			if (other.expiryDate != null)
+				return false;
+		} else if (!expiryDate.equals(other.expiryDate))
+			return false;
+		if (freeQuantity != other.freeQuantity)
+			return false;
+		if (groupPrice == null) {
+			if (other.groupPrice != null)
+				return false;
+		} else if (!groupPrice.equals(other.groupPrice))
+			return false;
+		if (id == null) {
+			if (other.id != null)
+				return false;
+		} else if (!id.equals(other.id))
+			return false;
+		if (item == null) {
+			if (other.item != null)
+				return false;
+		} else if (!item.equals(other.item))
+			return false;
+		if (quantity != other.quantity)
+			return false;
+		return true;
+	}
+
+}
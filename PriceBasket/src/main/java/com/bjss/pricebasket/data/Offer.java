@@ -1,9 +1,11 @@
 package com.bjss.pricebasket.data;
 
+import java.io.IOException;
 import java.math.BigDecimal;
 import java.util.Map;
 
 import com.bjss.pricebasket.service.BasketService;
+import com.bjss.pricebasket.service.ItemService;
 
 /**
  * The Offer interface allows the {@link BasketService} to calculate the
@@ -22,6 +24,23 @@ public interface Offer {
 	 */
 	String getId();
 
+	/**
+	 * The position of the offer in the catalogue it was last loaded into,
+	 * numbered densely from 0. Only a hint, as for {@link Item#getOrdinal()}.
+	 * 
+	 * @return the ordinal, or Item.NO_ORDINAL if the offer has not been
+	 *         loaded into a catalogue
+	 */
+	int getOrdinal();
+
+	/**
+	 * Set by the catalogue the offer is loaded into
+	 * 
+	 * @param ordinal
+	 *            the position of the offer in the catalogue
+	 */
+	void setOrdinal(int ordinal);
+
 	/**
 	 * The {@link Item} that the offer applies to.
 	 * 
@@ -37,10 +56,43 @@ public interface Offer {
 	 */
 	BigDecimal calculateDiscount();
 
+	/**
+	 * Calculates the total discount for the given number of applications of
+	 * the offer.
+	 * 
+	 * @param applications
+	 *            the number of times the offer applies
+	 * @return The discount of one application multiplied by applications
+	 */
+	BigDecimal calculateDiscount(int applications);
+
+	/**
+	 * The {@link Item}s, and their quantities, that must be in the basket for
+	 * the offer to apply. These are the only Items whose tallies the offer
+	 * modifies. When the first of them is not in the tallies at all, the
+	 * offer must not apply and must not modify any tally, so the
+	 * {@link ItemService} can leave the offer out of the offers it returns
+	 * for a basket without that item.
+	 * 
+	 * @return a Map of Item to required quantity. May be null or empty.
+	 */
+	Map<Item, Integer> getRequiredItems();
+
+	/**
+	 * The last instant the offer can apply at. Whether the offer applies must
+	 * not depend on the pricing instant in any other way, so that the totals
+	 * of a basket can be reused until the next offer expires.
+	 * 
+	 * @return milliseconds since the epoch, or Long.MAX_VALUE if the offer
+	 *         does not expire
+	 */
+	long getExpiryTime();
+
 	/**
 	 * Returns true if the offer applies for the given {@link Item} counts, as
-	 * well as other factors. If an offer "uses up" items in the item tally, it
-	 * is responsible for modifying the counts of those items
+	 * well as other factors, at the current time. If an offer "uses up" items
+	 * in the item tally, it is responsible for modifying the counts of those
+	 * items
 	 * 
 	 * @param itemTallies
 	 *            A map containing the count of each {@link Item} in the basket
@@ -48,6 +100,25 @@ public interface Offer {
 	 */
 	boolean isApplicable(Map<Item, Integer> itemTallies);
 
+	/**
+	 * Evaluates the offer maxApplications times in a single call. The result,
+	 * and the changes made to the itemTallies, must be exactly the same as
+	 * calling isApplicable() maxApplications times in a row at the pricing
+	 * instant of the context.
+	 * 
+	 * @param itemTallies
+	 *            A map containing the count of each {@link Item} in the
+	 *            basket. The pricing services pass {@link ItemTallies}, whose
+	 *            counts can be read and written without boxing.
+	 * @param maxApplications
+	 *            the number of times to evaluate the offer
+	 * @param context
+	 *            the conditions the basket is priced under
+	 * @return the number of those evaluations that would have returned true
+	 */
+	int countApplications(Map<Item, Integer> itemTallies,
+			int maxApplications, PricingContext context);
+
 	/**
 	 * The message to print given a total discount value.
 	 * 
@@ -57,4 +128,32 @@ public interface Offer {
 	 */
 	String buildPrintMessage(String totalDiscount);
 
+	/**
+	 * The message to print given a total discount value, localised for the
+	 * locale of the context.
+	 * 
+	 * @param totalDiscount
+	 *            the sum of all discounts applied to a basket.
+	 * @param context
+	 *            the conditions the basket was priced under
+	 * @return the message to display
+	 */
+	String buildPrintMessage(String totalDiscount, PricingContext context);
+
+	/**
+	 * Appends the same message as buildPrintMessage(String, PricingContext) to
+	 * out, so that receipts can be rendered into a single shared buffer.
+	 * 
+	 * @param out
+	 *            where to append the message
+	 * @param totalDiscount
+	 *            the sum of all discounts applied to a basket.
+	 * @param context
+	 *            the conditions the basket was priced under
+	 * @throws IOException
+	 *             if out can not be appended to
+	 */
+	void appendPrintMessage(Appendable out, String totalDiscount,
+			PricingContext context) throws IOException;
+
 }
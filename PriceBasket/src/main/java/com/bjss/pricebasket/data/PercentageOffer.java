@@ -2,10 +2,12 @@ package com.bjss.pricebasket.data;
 
 import static com.bjss.pricebasket.util.ValidateUtil.validateNotNull;
 
+import java.io.IOException;
 import java.math.BigDecimal;
 import java.text.DecimalFormat;
 import java.util.Calendar;
 import java.util.Date;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Map.Entry;
 
@@ -23,20 +25,32 @@ import com.bjss.pricebasket.service.MsgService;
  * required items list must be in the basket along with</li>
  * </ul>
  * 
+ * The offer is not modified once configured, and isApplicable() only modifies
+ * the itemTallies passed to it, so one instance can be evaluated by many
+ * threads at once as long as each has its own tallies.
+ * 
+ * The expiry is converted to an instant when the expiryDate is set, so
+ * checking it against a {@link PricingContext} is a single comparison.
+ * Required items are counted off {@link ItemTallies} by ordinal, without
+ * boxing.
+ * 
  * @author Leon Danser
  * 
  */
 public class PercentageOffer implements Offer {
 
 	private static final String PERCENTAGE_OFFER = "percentage.offer";
+	private static final long NO_EXPIRY = Long.MAX_VALUE;
 
 	@Inject
 	MsgService msgService;
 
 	private String id;
+	private int ordinal = Item.NO_ORDINAL;
 	private BigDecimal discount;
 	private Item item;
 	private Date expiryDate;
+	private long expiryTime = NO_EXPIRY;
 	private Map<Item, Integer> requiredItems;
 
 	@Override
@@ -48,6 +62,25 @@ public class PercentageOffer implements Offer {
 		this.id = id;
 	}
 
+	@Override
+	public int getOrdinal() {
+		return ordinal;
+	}
+
+	@Override
+	public void setOrdinal(int ordinal) {
+		this.ordinal = ordinal;
+	}
+
+	/**
+	 * Set by the application context for configured offers. Offers created by
+	 * other means, eg. loaded from a catalogue snapshot, must be given one
+	 * before their print message is built.
+	 */
+	public void setMsgService(MsgService msgService) {
+		this.msgService = msgService;
+	}
+
 	/**
 	 * The percentage discount, specified as a fraction of 1. ie. a discount of
 	 * 1 is 100%
@@ -98,6 +131,33 @@ public class PercentageOffer implements Offer {
 
 	public void setExpiryDate(Date expiry) {
 		this.expiryDate = expiry;
+		this.expiryTime = toExpiryTime(expiry);
+	}
+
+	/**
+	 * The start of the day after the expiryDate, as the offer applies until
+	 * the end of the expiryDate
+	 */
+	@Override
+	public long getExpiryTime() {
+		return expiryTime;
+	}
+
+	/**
+	 * Add one day to the expiryDate so that the offer expires at midnight the
+	 * following day. ie. make the expiryDate inclusive of today.
+	 * 
+	 * @return the last instant the offer applies, in milliseconds since the
+	 *         epoch
+	 */
+	private static long toExpiryTime(Date expiry) {
+		if (expiry == null) {
+			return NO_EXPIRY;
+		}
+		Calendar expiryCalendar = Calendar.getInstance();
+		expiryCalendar.setTime(expiry);
+		expiryCalendar.add(Calendar.DATE, 1);
+		return expiryCalendar.getTimeInMillis();
 	}
 
 	/**
@@ -121,9 +181,20 @@ public class PercentageOffer implements Offer {
 	}
 
 	/**
-	 * Determine if expiryDate and requiredItems conditions are met. If the
-	 * requiredItem conditions are met, the itemTallies argument will be
-	 * modified to reflect the new counts.
+	 * A percentageOffer returns the discount of one application multiplied by
+	 * the number of applications
+	 * 
+	 * @return
+	 */
+	@Override
+	public BigDecimal calculateDiscount(int applications) {
+		return calculateDiscount().multiply(BigDecimal.valueOf(applications));
+	}
+
+	/**
+	 * Determine if expiryDate and requiredItems conditions are met at the
+	 * current time. If the requiredItem conditions are met, the itemTallies
+	 * argument will be modified to reflect the new counts.
 	 * 
 	 * @param itemTallies
 	 *            The number of each number
@@ -131,63 +202,127 @@ public class PercentageOffer implements Offer {
 	 */
 	@Override
 	public boolean isApplicable(Map<Item, Integer> itemTallies) {
+		return countApplications(itemTallies, 1, getCurrentTime()
+				.getTimeInMillis()) == 1;
+	}
+
+	/**
+	 * Evaluates the expiryDate once, and the requiredItems conditions for all
+	 * maxApplications at once. Required items are consumed whether or not the
+	 * offer has expired.
+	 * 
+	 * @param itemTallies
+	 *            The number of each number
+	 * @param maxApplications
+	 *            the number of times to evaluate the offer
+	 * @param context
+	 *            the expiryDate is checked against its pricing instant
+	 * @return the number of times all offer conditions are met.
+	 */
+	@Override
+	public int countApplications(Map<Item, Integer> itemTallies,
+			int maxApplications, PricingContext context) {
+		validateNotNull(context, "context");
+		return countApplications(itemTallies, maxApplications,
+				context.getPricingTime());
+	}
+
+	private int countApplications(Map<Item, Integer> itemTallies,
+			int maxApplications, long pricingTime) {
 		validateNotNull(itemTallies, "itemTallies");
-		boolean isBeforeExpired = isBeforeExpiryDate();
-		boolean hasApplicableRequiredItems = hasApplicableRequiredItems(itemTallies);
-		return isBeforeExpired && hasApplicableRequiredItems;
+		if (maxApplications < 0) {
+			throw new IllegalArgumentException(
+					"[maxApplications] should not be negative");
+		}
+		boolean isBeforeExpired = isBeforeExpiryDate(pricingTime);
+		int applications = consumeRequiredItems(itemTallies, maxApplications);
+		return isBeforeExpired ? applications : 0;
 	}
 
 	/**
-	 * Determine if the current system time is less than or equal to the
-	 * expiryDate
+	 * Determine if the pricing time is less than or equal to the expiryDate
 	 * 
 	 * @return
 	 */
-	private boolean isBeforeExpiryDate() {
-		if (expiryDate != null) {
-			/*
-			 * Add one day to the expiryDate so that the offer expires at
-			 * midnight the following day. ie. make the expiryDate inclusive of
-			 * today.
-			 */
-			Calendar expiryCalendar = Calendar.getInstance();
-			expiryCalendar.setTime(expiryDate);
-			expiryCalendar.add(Calendar.DATE, 1);
-			Calendar now = getCurrentTime();
-			return (now.compareTo(expiryCalendar) <= 0);
-		}
-		return true;
+	private boolean isBeforeExpiryDate(long pricingTime) {
+		return pricingTime <= expiryTime;
 	}
 
+	/**
+	 * The time isApplicable() is evaluated at. Pricing through a
+	 * {@link PricingContext} uses its pricing instant instead.
+	 */
 	protected Calendar getCurrentTime() {
 		return Calendar.getInstance();
 	}
 
 	/**
 	 * Checks each requiredItem entry to see if the itemTallies meet the
-	 * quantity requirements. If it does, the tally for that {@link Item} will
-	 * be modified.
+	 * quantity requirements for the given number of attempts, and reduces the
+	 * tallies by the quantities used.
+	 * 
+	 * This has exactly the same effect as checking the entries one attempt at
+	 * a time, where each attempt stops at the first entry that can not be met
+	 * but keeps the tallies already taken by earlier entries. The attempts
+	 * that get past an entry are always the first ones, so each entry only
+	 * needs to be visited once: it is met by as many of the attempts that
+	 * reach it as its tally allows, and only those attempts move on to the
+	 * next entry.
 	 * 
 	 * @param itemTallies
 	 *            count of each {@link Item} in the basket
-	 * @return true if the requirements for all requiredItem entries are met.
+	 * @param attempts
+	 *            the number of times the offer is being evaluated
+	 * @return the number of attempts that met the requirements of every
+	 *         requiredItem entry.
 	 */
-	private boolean hasApplicableRequiredItems(Map<Item, Integer> itemTallies) {
+	private int consumeRequiredItems(Map<Item, Integer> itemTallies,
+			int attempts) {
 		if (requiredItems == null || requiredItems.isEmpty()) {
-			return true;
+			return attempts;
+		}
+		if (itemTallies instanceof ItemTallies) {
+			return consumeRequiredItems((ItemTallies) itemTallies, attempts);
 		}
 		for (Entry<Item, Integer> requiredItemEntry : requiredItems.entrySet()) {
+			if (attempts == 0) {
+				break;
+			}
 			Item requiredItem = requiredItemEntry.getKey();
 			Integer qty = requiredItemEntry.getValue();
 			Integer itemTally = itemTallies.get(requiredItem);
-			if (itemTally != null && itemTally >= qty) {
-				itemTallies.put(requiredItem, itemTally - qty);
-				continue;
-			} else {
-				return false;
+			if (itemTally == null || itemTally < qty) {
+				return 0;
 			}
+			int passed = qty == 0 ? attempts : Math.min(attempts, itemTally
+					/ qty);
+			itemTallies.put(requiredItem, itemTally - passed * qty);
+			attempts = passed;
 		}
-		return true;
+		return attempts;
+	}
+
+	/**
+	 * The same as consumeRequiredItems(Map, int), reading and writing the
+	 * tallies as ints
+	 */
+	private int consumeRequiredItems(ItemTallies itemTallies, int attempts) {
+		for (Entry<Item, Integer> requiredItemEntry : requiredItems.entrySet()) {
+			if (attempts == 0) {
+				break;
+			}
+			Item requiredItem = requiredItemEntry.getKey();
+			int qty = requiredItemEntry.getValue();
+			int itemTally = itemTallies.getTally(requiredItem);
+			if (itemTally == ItemTallies.NOT_TALLIED || itemTally < qty) {
+				return 0;
+			}
+			int passed = qty == 0 ? attempts : Math.min(attempts, itemTally
+					/ qty);
+			itemTallies.setTally(requiredItem, itemTally - passed * qty);
+			attempts = passed;
+		}
+		return attempts;
 	}
 
 	/**
@@ -206,6 +341,39 @@ public class PercentageOffer implements Offer {
 				formatDiscount(), totalDiscount);
 	}
 
+	/**
+	 * The same message as buildPrintMessage(String), localised for the locale
+	 * of the context.
+	 * 
+	 * @return a String containing the offer message
+	 */
+	@Override
+	public String buildPrintMessage(String totalDiscount,
+			PricingContext context) {
+		validateNotNull(totalDiscount, "totalDiscount");
+		validateNotNull(context, "context");
+		if (item == null) {
+			throw new IllegalStateException("[item] should not be null");
+		}
+		Locale locale = context.getLocale();
+		return msgService.getMessage(locale, PERCENTAGE_OFFER,
+				item.getDisplayName(locale), formatDiscount(), totalDiscount);
+	}
+
+	@Override
+	public void appendPrintMessage(Appendable out, String totalDiscount,
+			PricingContext context) throws IOException {
+		validateNotNull(out, "out");
+		validateNotNull(totalDiscount, "totalDiscount");
+		validateNotNull(context, "context");
+		if (item == null) {
+			throw new IllegalStateException("[item] should not be null");
+		}
+		Locale locale = context.getLocale();
+		msgService.appendMessage(out, locale, PERCENTAGE_OFFER,
+				item.getDisplayName(locale), formatDiscount(), totalDiscount);
+	}
+
 	/**
 	 * Convert the discount value to a percentage of 100. eg. 0.5 becomes 50
 	 * 
@@ -0,0 +1,159 @@
+package com.bjss.pricebasket.data;
+
+import static com.bjss.pricebasket.util.ValidateUtil.validateNotNull;
+
+import java.util.Currency;
+import java.util.Date;
+import java.util.Locale;
+
+import com.bjss.pricebasket.service.BasketService;
+import com.bjss.pricebasket.service.ItemService;
+
+/**
+ * The conditions a {@link Basket} is priced under: the instant used to decide
+ * whether {@link Offer}s have expired, the locale and currency the
+ * {@link BasketTotals} are formatted in and, once pinned, the version of the
+ * catalogue that items and offers are taken from.
+ *
+ * A context is captured once, at the start of a basket or a batch of baskets,
+ * and passed through the {@link BasketService} and {@link Offer}s, so every
+ * basket in a batch is priced at the same instant. Pricing with a context for
+ * a past instant gives the same results as pricing at that instant.
+ *
+ * Immutable, so one instance can be shared by many threads.
+ *
+ * @author Leon Danser
+ *
+ */
+public final class PricingContext {
+
+	private final long pricingTime;
+	private final Locale locale;
+	private final Currency currency;
+	private final ItemService catalogue;
+
+	/**
+	 * Creates a context using the currency of the locale's country
+	 *
+	 * @param pricingTime
+	 *            the pricing instant in milliseconds since the epoch
+	 * @param locale
+	 *            the locale to format messages and currency in
+	 */
+	public PricingContext(long pricingTime, Locale locale) {
+		this(pricingTime, locale, defaultCurrency(locale));
+	}
+
+	/**
+	 * @param pricingTime
+	 *            the pricing instant in milliseconds since the epoch
+	 * @param locale
+	 *            the locale to format messages and currency in
+	 * @param currency
+	 *            the currency to format values in. May be null to use the
+	 *            currency format of the locale unchanged
+	 */
+	public PricingContext(long pricingTime, Locale locale, Currency currency) {
+		this(pricingTime, locale, currency, null);
+	}
+
+	private PricingContext(long pricingTime, Locale locale, Currency currency,
+			ItemService catalogue) {
+		validateNotNull(locale, "locale");
+		this.pricingTime = pricingTime;
+		this.locale = locale;
+		this.currency = currency;
+		this.catalogue = catalogue;
+	}
+
+	/**
+	 * Creates a context for the current system time
+	 *
+	 * @param locale
+	 *            the locale to format messages and currency in
+	 * @return a context for now
+	 */
+	public static PricingContext now(Locale locale) {
+		return new PricingContext(System.currentTimeMillis(), locale);
+	}
+
+	/**
+	 * The currency of the locale's country, or null if the locale has no
+	 * country or the country has no currency
+	 */
+	private static Currency defaultCurrency(Locale locale) {
+		if (locale == null || locale.getCountry().isEmpty()) {
+			return null;
+		}
+		try {
+			return Currency.getInstance(locale);
+		} catch (IllegalArgumentException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * The instant the basket is priced at
+	 *
+	 * @return milliseconds since the epoch
+	 */
+	public long getPricingTime() {
+		return pricingTime;
+	}
+
+	public Date getPricingDate() {
+		return new Date(pricingTime);
+	}
+
+	public Locale getLocale() {
+		return locale;
+	}
+
+	/**
+	 * The currency that values are formatted in
+	 *
+	 * @return the currency, or null to use the locale's own currency format
+	 */
+	public Currency getCurrency() {
+		return currency;
+	}
+
+	/**
+	 * Pins the context to the current catalogue version of the
+	 * {@link ItemService}, so that every basket priced with the returned
+	 * context takes its items and offers from that version, even if the
+	 * catalogue is reloaded meanwhile.
+	 *
+	 * @param itemService
+	 *            the service to take a snapshot of
+	 * @return this context if it is already pinned, else a copy pinned to a
+	 *         snapshot of the service
+	 */
+	public PricingContext pinCatalogue(ItemService itemService) {
+		if (catalogue != null) {
+			return this;
+		}
+		validateNotNull(itemService, "itemService");
+		return new PricingContext(pricingTime, locale, currency,
+				itemService.getSnapshot());
+	}
+
+	/**
+	 * The catalogue version the context is pinned to
+	 *
+	 * @return a snapshot of the catalogue, or null if the context has not
+	 *         been pinned
+	 */
+	public ItemService getCatalogue() {
+		return catalogue;
+	}
+
+	@Override
+	public String toString() {
+		return "PricingContext [pricingTime=" + getPricingDate() + ", locale="
+				+ locale + ", currency=" + currency + ", catalogueVersion="
+				+ (catalogue == null ? null : catalogue.getCatalogueVersion())
+				+ "]";
+	}
+
+}
@@ -0,0 +1,148 @@
+package com.bjss.pricebasket.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Records latencies in nanoseconds into log-linear buckets: each power of two
+ * is split into 8 buckets, so a recorded value is reported to within 12.5%,
+ * from a single nanosecond up to a little over two hours. Longer latencies
+ * are recorded as the largest value.
+ *
+ * Recording is striped: each thread updates the buckets of one of several
+ * stripes, chosen by its thread id, so threads recording at the same time
+ * rarely touch the same memory. Stripes are only merged when a snapshot is
+ * taken. Recording does not lock or allocate.
+ *
+ * A snapshot taken while latencies are being recorded may not include those
+ * being recorded, but every latency is in the next one.
+ *
+ * @author Leon Danser
+ *
+ */
+public final class LatencyHistogram {
+
+	private static final int SUB_BUCKET_BITS = 3;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	private static final int MAX_EXPONENT = 42;
+	static final long MAX_VALUE = (1L << (MAX_EXPONENT + 1)) - 1;
+	static final int BUCKET_COUNT = (MAX_EXPONENT - SUB_BUCKET_BITS + 2)
+			* SUB_BUCKETS;
+
+	/* after the buckets of each stripe */
+	private static final int SUM = BUCKET_COUNT;
+	private static final int MAX = BUCKET_COUNT + 1;
+	/* keeps the ends of neighbouring stripes off the same cache line */
+	private static final int PADDING = 8;
+	private static final int MAX_STRIPES = 1 << 10;
+
+	private final AtomicLongArray[] stripes;
+	private final int stripeMask;
+
+	/**
+	 * A histogram with a stripe for each available processor, and then some,
+	 * so concurrent threads rarely share one
+	 */
+	public LatencyHistogram() {
+		this(Runtime.getRuntime().availableProcessors() * 2);
+	}
+
+	/**
+	 * @param stripeCount
+	 *            the number of stripes, rounded up to a power of two, up
+	 *            to 1024
+	 */
+	LatencyHistogram(int stripeCount) {
+		if (stripeCount <= 0) {
+			throw new IllegalArgumentException(String.format(
+					"[stripeCount] %d must be a positive number", stripeCount));
+		}
+		int capped = Math.min(stripeCount, MAX_STRIPES);
+		int size = Integer.highestOneBit(capped);
+		if (size < capped) {
+			size <<= 1;
+		}
+		stripes = new AtomicLongArray[size];
+		for (int i = 0; i < size; i++) {
+			stripes[i] = new AtomicLongArray(BUCKET_COUNT + 2 + PADDING);
+		}
+		stripeMask = size - 1;
+	}
+
+	/**
+	 * Records one latency. Negative latencies, eg. from a clock adjustment,
+	 * are recorded as 0.
+	 */
+	public void record(long nanos) {
+		long value = nanos < 0 ? 0 : Math.min(nanos, MAX_VALUE);
+		AtomicLongArray stripe = stripes[(int) Thread.currentThread().getId()
+				& stripeMask];
+		stripe.incrementAndGet(bucketIndex(value));
+		stripe.addAndGet(SUM, value);
+		long max = stripe.get(MAX);
+		while (value > max && !stripe.compareAndSet(MAX, max, value)) {
+			max = stripe.get(MAX);
+		}
+	}
+
+	/**
+	 * Merges the stripes into a snapshot of the latencies recorded so far
+	 */
+	public LatencySnapshot getSnapshot() {
+		long[] counts = new long[BUCKET_COUNT];
+		long count = 0;
+		long sum = 0;
+		long max = 0;
+		for (AtomicLongArray stripe : stripes) {
+			for (int i = 0; i < BUCKET_COUNT; i++) {
+				long bucketCount = stripe.get(i);
+				counts[i] += bucketCount;
+				count += bucketCount;
+			}
+			sum += stripe.get(SUM);
+			max = Math.max(max, stripe.get(MAX));
+		}
+		return new LatencySnapshot(count, sum, max, percentile(counts, count,
+				max, 0.5), percentile(counts, count, max, 0.9), percentile(
+				counts, count, max, 0.99), percentile(counts, count, max, 0.999));
+	}
+
+	/**
+	 * The highest value of the bucket that holds the given fraction of the
+	 * latencies, but no more than the largest latency recorded
+	 */
+	private static long percentile(long[] counts, long count, long max,
+			double fraction) {
+		if (count == 0) {
+			return 0;
+		}
+		long rank = Math.max(1, (long) Math.ceil(count * fraction));
+		long seen = 0;
+		for (int i = 0; i < counts.length; i++) {
+			seen += counts[i];
+			if (seen >= rank) {
+				return Math.min(highestValue(i), max);
+			}
+		}
+		return max;
+	}
+
+	static int bucketIndex(long value) {
+		if (value < SUB_BUCKETS) {
+			return (int) value;
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS))
+				& (SUB_BUCKETS - 1);
+		return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+	}
+
+	static long highestValue(int bucketIndex) {
+		if (bucketIndex < SUB_BUCKETS) {
+			return bucketIndex;
+		}
+		int shift = bucketIndex / SUB_BUCKETS - 1;
+		long lowest = (long) (SUB_BUCKETS + bucketIndex % SUB_BUCKETS) << shift;
+		return lowest + (1L << shift) - 1;
+	}
+
+}
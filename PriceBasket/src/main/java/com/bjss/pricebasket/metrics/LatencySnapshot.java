@@ -0,0 +1,88 @@
+package com.bjss.pricebasket.metrics;
+
+import java.beans.ConstructorProperties;
+
+/**
+ * The latencies recorded by a {@link LatencyHistogram} up to the time the
+ * snapshot was taken, in nanoseconds. Percentiles are the highest value of
+ * the bucket they fall in, so they may be up to 12.5% above the latency
+ * actually recorded, but never above the largest one.
+ *
+ * Exposed through JMX as composite data, so its attributes are plain getters.
+ *
+ * @author Leon Danser
+ *
+ */
+public final class LatencySnapshot {
+
+	private final long count;
+	private final long totalNanos;
+	private final long maxNanos;
+	private final long p50Nanos;
+	private final long p90Nanos;
+	private final long p99Nanos;
+	private final long p999Nanos;
+
+	@ConstructorProperties({ "count", "totalNanos", "maxNanos", "p50Nanos",
+			"p90Nanos", "p99Nanos", "p999Nanos" })
+	public LatencySnapshot(long count, long totalNanos, long maxNanos,
+			long p50Nanos, long p90Nanos, long p99Nanos, long p999Nanos) {
+		this.count = count;
+		this.totalNanos = totalNanos;
+		this.maxNanos = maxNanos;
+		this.p50Nanos = p50Nanos;
+		this.p90Nanos = p90Nanos;
+		this.p99Nanos = p99Nanos;
+		this.p999Nanos = p999Nanos;
+	}
+
+	/**
+	 * The number of latencies recorded
+	 */
+	public long getCount() {
+		return count;
+	}
+
+	/**
+	 * The sum of the latencies recorded
+	 */
+	public long getTotalNanos() {
+		return totalNanos;
+	}
+
+	/**
+	 * The mean latency, or 0 if none were recorded
+	 */
+	public long getMeanNanos() {
+		return count == 0 ? 0 : totalNanos / count;
+	}
+
+	public long getMaxNanos() {
+		return maxNanos;
+	}
+
+	public long getP50Nanos() {
+		return p50Nanos;
+	}
+
+	public long getP90Nanos() {
+		return p90Nanos;
+	}
+
+	public long getP99Nanos() {
+		return p99Nanos;
+	}
+
+	public long getP999Nanos() {
+		return p999Nanos;
+	}
+
+	@Override
+	public String toString() {
+		return String.format(
+				"count=%d mean=%dns p50=%dns p90=%dns p99=%dns p99.9=%dns max=%dns",
+				count, getMeanNanos(), p50Nanos, p90Nanos, p99Nanos, p999Nanos,
+				maxNanos);
+	}
+
+}
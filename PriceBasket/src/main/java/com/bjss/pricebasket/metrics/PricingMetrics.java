@@ -0,0 +1,220 @@
+package com.bjss.pricebasket.metrics;
+
+import static com.bjss.pricebasket.util.ValidateUtil.validateNotNull;
+
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.inject.Named;
+
+import com.bjss.pricebasket.data.Offer;
+
+/**
+ * Counts and times the work of the {@link com.bjss.pricebasket.service}s:
+ * item lookups and the unknown items among them, catalogue loads, basket
+ * pricing, the hits, misses and evictions of the basket totals cache, totals
+ * writing, and the evaluations and hits of each {@link Offer}.
+ *
+ * Counters are {@link LongAdder}s and latencies are recorded into striped
+ * {@link LatencyHistogram}s, so the services record from many threads at
+ * once without contending, and nothing is locked or allocated to record,
+ * except the counters of an offer the first time it is evaluated. Readings
+ * are merged from the stripes when they are taken, eg. by JMX or the
+ * {@link PricingMetricsExporter}.
+ *
+ * Always collected. Services that are not given the application's metrics
+ * record into NO_METRICS, which records nothing, so a service created
+ * outside the application context does not allocate metrics of its own.
+ *
+ * @author Leon Danser
+ *
+ */
+@Named
+public class PricingMetrics implements PricingMetricsMXBean {
+
+	/** Metrics that record nothing, for services not given any */
+	public static final PricingMetrics NO_METRICS = new NoMetrics();
+
+	private final LongAdder itemLookups = new LongAdder();
+	private final LongAdder unknownItems = new LongAdder();
+	private final LatencyHistogram catalogueLoading = new LatencyHistogram();
+	private final LatencyHistogram basketPricing = new LatencyHistogram();
+	private final LongAdder basketCacheHits = new LongAdder();
+	private final LongAdder basketCacheMisses = new LongAdder();
+	private final LongAdder basketCacheEvictions = new LongAdder();
+	private final LatencyHistogram totalsWriting = new LatencyHistogram();
+	private final ConcurrentMap<String, OfferCounters> offerCounters = new ConcurrentHashMap<String, OfferCounters>();
+
+	/**
+	 * Counts a lookup of an item by name
+	 *
+	 * @param found
+	 *            false if the catalogue has no item of that name
+	 */
+	public void recordItemLookup(boolean found) {
+		itemLookups.increment();
+		if (!found) {
+			unknownItems.increment();
+		}
+	}
+
+	public void recordCatalogueLoad(long nanos) {
+		catalogueLoading.record(nanos);
+	}
+
+	public void recordBasketPriced(long nanos) {
+		basketPricing.record(nanos);
+	}
+
+	/**
+	 * Counts a lookup of a basket in the basket totals cache
+	 *
+	 * @param hit
+	 *            true if the totals were found, so the basket was not priced
+	 */
+	public void recordBasketCacheLookup(boolean hit) {
+		if (hit) {
+			basketCacheHits.increment();
+		} else {
+			basketCacheMisses.increment();
+		}
+	}
+
+	public void recordBasketCacheEviction() {
+		basketCacheEvictions.increment();
+	}
+
+	public void recordTotalsWritten(long nanos) {
+		totalsWriting.record(nanos);
+	}
+
+	/**
+	 * Counts one evaluation of the offer against a basket
+	 *
+	 * @param applications
+	 *            the number of times the offer applied, a hit if positive
+	 */
+	public void recordOfferEvaluation(Offer offer, int applications) {
+		validateNotNull(offer, "offer");
+		OfferCounters counters = getOfferCounters(offer);
+		counters.evaluations.increment();
+		if (applications > 0) {
+			counters.hits.increment();
+		}
+	}
+
+	private OfferCounters getOfferCounters(Offer offer) {
+		String id = String.valueOf(offer.getId());
+		OfferCounters counters = offerCounters.get(id);
+		if (counters == null) {
+			counters = new OfferCounters();
+			OfferCounters existing = offerCounters.putIfAbsent(id, counters);
+			if (existing != null) {
+				counters = existing;
+			}
+		}
+		return counters;
+	}
+
+	@Override
+	public long getItemLookups() {
+		return itemLookups.sum();
+	}
+
+	@Override
+	public long getUnknownItems() {
+		return unknownItems.sum();
+	}
+
+	@Override
+	public LatencySnapshot getCatalogueLoading() {
+		return catalogueLoading.getSnapshot();
+	}
+
+	@Override
+	public LatencySnapshot getBasketPricing() {
+		return basketPricing.getSnapshot();
+	}
+
+	@Override
+	public long getBasketCacheHits() {
+		return basketCacheHits.sum();
+	}
+
+	@Override
+	public long getBasketCacheMisses() {
+		return basketCacheMisses.sum();
+	}
+
+	@Override
+	public long getBasketCacheEvictions() {
+		return basketCacheEvictions.sum();
+	}
+
+	@Override
+	public LatencySnapshot getTotalsWriting() {
+		return totalsWriting.getSnapshot();
+	}
+
+	@Override
+	public Map<String, Long> getOfferEvaluations() {
+		Map<String, Long> evaluations = new TreeMap<String, Long>();
+		for (Entry<String, OfferCounters> entry : offerCounters.entrySet()) {
+			evaluations.put(entry.getKey(), entry.getValue().evaluations.sum());
+		}
+		return evaluations;
+	}
+
+	@Override
+	public Map<String, Long> getOfferHits() {
+		Map<String, Long> hits = new TreeMap<String, Long>();
+		for (Entry<String, OfferCounters> entry : offerCounters.entrySet()) {
+			hits.put(entry.getKey(), entry.getValue().hits.sum());
+		}
+		return hits;
+	}
+
+	/**
+	 * Ignores whatever is recorded, so its readings stay at 0
+	 */
+	private static final class NoMetrics extends PricingMetrics {
+
+		@Override
+		public void recordItemLookup(boolean found) {
+		}
+
+		@Override
+		public void recordCatalogueLoad(long nanos) {
+		}
+
+		@Override
+		public void recordBasketPriced(long nanos) {
+		}
+
+		@Override
+		public void recordBasketCacheLookup(boolean hit) {
+		}
+
+		@Override
+		public void recordBasketCacheEviction() {
+		}
+
+		@Override
+		public void recordTotalsWritten(long nanos) {
+		}
+
+		@Override
+		public void recordOfferEvaluation(Offer offer, int applications) {
+		}
+	}
+
+	private static final class OfferCounters {
+		final LongAdder evaluations = new LongAdder();
+		final LongAdder hits = new LongAdder();
+	}
+
+}
@@ -0,0 +1,267 @@
+package com.bjss.pricebasket.metrics;
+
+import static com.bjss.pricebasket.util.ValidateUtil.validateNotNull;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.inject.Inject;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Publishes the {@link PricingMetrics} as an MXBean on the platform
+ * MBeanServer, and, if snapshotMillis is set, writes a snapshot of them to a
+ * properties file every snapshotMillis on a daemon thread, and once more
+ * when stopped. Besides the counts, each snapshot has the rate of each count
+ * per second, and the hit ratio of the basket totals cache, since the
+ * previous snapshot.
+ *
+ * A snapshot is written to a temporary file next to the snapshot file, then
+ * moved into place, so a reader never sees a partly written one. A snapshot
+ * that can not be written is logged, and the next one is tried at the next
+ * interval.
+ *
+ * Enable with the "metrics" Spring profile.
+ *
+ * @author Leon Danser
+ *
+ */
+public class PricingMetricsExporter {
+
+	private static final Log LOG = LogFactory
+			.getLog(PricingMetricsExporter.class);
+
+	public static final String DEFAULT_OBJECT_NAME = "com.bjss.pricebasket:type=PricingMetrics";
+
+	@Inject
+	PricingMetrics pricingMetrics;
+
+	private String objectName = DEFAULT_OBJECT_NAME;
+	private File snapshotFile = new File("pricebasket-metrics.properties");
+	private long snapshotMillis;
+
+	private ObjectName registeredName;
+	private ScheduledExecutorService executor;
+
+	/* the readings of the previous snapshot, for the rates of the next */
+	private long lastSnapshotNanos = System.nanoTime();
+	private long lastItemLookups;
+	private long lastUnknownItems;
+	private long lastBasketsPriced;
+	private long lastBasketCacheHits;
+	private long lastBasketCacheMisses;
+	private long lastTotalsWritten;
+
+	/**
+	 * Registers the MXBean, then starts writing snapshots if snapshotMillis
+	 * is set
+	 *
+	 * @throws JMException
+	 *             if the MXBean can not be registered, eg. another is
+	 *             registered with the same objectName
+	 */
+	@PostConstruct
+	public synchronized void start() throws JMException {
+		validateNotNull(pricingMetrics, "pricingMetrics");
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		ObjectName name = new ObjectName(objectName);
+		server.registerMBean(pricingMetrics, name);
+		registeredName = name;
+		if (snapshotMillis > 0) {
+			executor = Executors
+					.newSingleThreadScheduledExecutor(new ThreadFactory() {
+						@Override
+						public Thread newThread(Runnable runnable) {
+							Thread thread = new Thread(runnable,
+									"pricing-metrics-snapshot");
+							thread.setDaemon(true);
+							return thread;
+						}
+					});
+			executor.scheduleAtFixedRate(new Runnable() {
+				@Override
+				public void run() {
+					writeSnapshotQuietly();
+				}
+			}, snapshotMillis, snapshotMillis, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * Stops writing snapshots, writes a last one, and unregisters the MXBean
+	 */
+	@PreDestroy
+	public synchronized void stop() {
+		if (executor != null) {
+			executor.shutdownNow();
+			executor = null;
+			writeSnapshotQuietly();
+		}
+		if (registeredName != null) {
+			try {
+				ManagementFactory.getPlatformMBeanServer().unregisterMBean(
+						registeredName);
+			} catch (JMException e) {
+				LOG.warn("Could not unregister " + registeredName, e);
+			}
+			registeredName = null;
+		}
+	}
+
+	private void writeSnapshotQuietly() {
+		try {
+			writeSnapshot();
+		} catch (IOException e) {
+			LOG.warn("Could not write the pricing metrics to " + snapshotFile,
+					e);
+		}
+	}
+
+	/**
+	 * Writes a snapshot of the metrics to the snapshot file
+	 */
+	synchronized void writeSnapshot() throws IOException {
+		File tempFile = new File(snapshotFile.getPath() + ".tmp");
+		PrintWriter out = new PrintWriter(new OutputStreamWriter(
+				new FileOutputStream(tempFile), "UTF-8"));
+		try {
+			writeSnapshot(out);
+		} finally {
+			out.close();
+		}
+		if (out.checkError()) {
+			throw new IOException("Could not write " + tempFile);
+		}
+		Files.move(tempFile.toPath(), snapshotFile.toPath(),
+				StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	private void writeSnapshot(PrintWriter out) {
+		long now = System.nanoTime();
+		double seconds = Math.max(now - lastSnapshotNanos, 1) / 1e9;
+		lastSnapshotNanos = now;
+
+		out.println("# Pricing metrics, latencies in nanoseconds");
+		out.println("timestampMillis=" + System.currentTimeMillis());
+		long itemLookups = pricingMetrics.getItemLookups();
+		writeCount(out, "itemLookups", itemLookups, lastItemLookups, seconds);
+		lastItemLookups = itemLookups;
+		long unknownItems = pricingMetrics.getUnknownItems();
+		writeCount(out, "unknownItems", unknownItems, lastUnknownItems,
+				seconds);
+		lastUnknownItems = unknownItems;
+
+		LatencySnapshot catalogueLoading = pricingMetrics.getCatalogueLoading();
+		out.println("catalogueLoading.count=" + catalogueLoading.getCount());
+		writeLatencies(out, "catalogueLoading", catalogueLoading);
+		LatencySnapshot basketPricing = pricingMetrics.getBasketPricing();
+		writeCount(out, "basketsPriced", basketPricing.getCount(),
+				lastBasketsPriced, seconds);
+		lastBasketsPriced = basketPricing.getCount();
+		writeLatencies(out, "basketPricing", basketPricing);
+		long basketCacheHits = pricingMetrics.getBasketCacheHits();
+		long basketCacheMisses = pricingMetrics.getBasketCacheMisses();
+		writeCount(out, "basketCacheHits", basketCacheHits,
+				lastBasketCacheHits, seconds);
+		writeCount(out, "basketCacheMisses", basketCacheMisses,
+				lastBasketCacheMisses, seconds);
+		long cacheHits = basketCacheHits - lastBasketCacheHits;
+		long lookups = cacheHits + basketCacheMisses - lastBasketCacheMisses;
+		out.println(String.format(Locale.ROOT, "basketCache.hitRatio=%.3f",
+				lookups == 0 ? 0.0 : (double) cacheHits / lookups));
+		lastBasketCacheHits = basketCacheHits;
+		lastBasketCacheMisses = basketCacheMisses;
+		out.println("basketCacheEvictions="
+				+ pricingMetrics.getBasketCacheEvictions());
+		LatencySnapshot totalsWriting = pricingMetrics.getTotalsWriting();
+		writeCount(out, "totalsWritten", totalsWriting.getCount(),
+				lastTotalsWritten, seconds);
+		lastTotalsWritten = totalsWriting.getCount();
+		writeLatencies(out, "totalsWriting", totalsWriting);
+
+		Map<String, Long> hits = pricingMetrics.getOfferHits();
+		for (Entry<String, Long> entry : pricingMetrics.getOfferEvaluations()
+				.entrySet()) {
+			String key = "offer." + entry.getKey();
+			out.println(key + ".evaluations=" + entry.getValue());
+			Long offerHits = hits.get(entry.getKey());
+			out.println(key + ".hits=" + (offerHits == null ? 0 : offerHits));
+		}
+	}
+
+	private static void writeCount(PrintWriter out, String name, long count,
+			long lastCount, double seconds) {
+		out.println(name + "=" + count);
+		out.println(String.format(Locale.ROOT, "%s.perSecond=%.1f", name,
+				(count - lastCount) / seconds));
+	}
+
+	private static void writeLatencies(PrintWriter out, String name,
+			LatencySnapshot latencies) {
+		out.println(name + ".meanNanos=" + latencies.getMeanNanos());
+		out.println(name + ".p50Nanos=" + latencies.getP50Nanos());
+		out.println(name + ".p90Nanos=" + latencies.getP90Nanos());
+		out.println(name + ".p99Nanos=" + latencies.getP99Nanos());
+		out.println(name + ".p999Nanos=" + latencies.getP999Nanos());
+		out.println(name + ".maxNanos=" + latencies.getMaxNanos());
+	}
+
+	/**
+	 * The name the MXBean is registered with, by default
+	 * com.bjss.pricebasket:type=PricingMetrics
+	 */
+	public String getObjectName() {
+		return objectName;
+	}
+
+	public void setObjectName(String objectName) {
+		validateNotNull(objectName, "objectName");
+		this.objectName = objectName;
+	}
+
+	/**
+	 * The properties file snapshots are written to, by default
+	 * pricebasket-metrics.properties
+	 */
+	public File getSnapshotFile() {
+		return snapshotFile;
+	}
+
+	public void setSnapshotFile(File snapshotFile) {
+		validateNotNull(snapshotFile, "snapshotFile");
+		this.snapshotFile = snapshotFile;
+	}
+
+	/**
+	 * How often a snapshot is written. 0, the default, writes none.
+	 */
+	public long getSnapshotMillis() {
+		return snapshotMillis;
+	}
+
+	public void setSnapshotMillis(long snapshotMillis) {
+		this.snapshotMillis = snapshotMillis;
+	}
+
+}
@@ -0,0 +1,69 @@
+package com.bjss.pricebasket.metrics;
+
+import java.util.Map;
+
+/**
+ * The {@link PricingMetrics} as seen through JMX, eg. in JConsole under
+ * com.bjss.pricebasket:type=PricingMetrics. Counts are totals since the
+ * application started; a rate is the difference between two readings.
+ *
+ * @author Leon Danser
+ *
+ */
+public interface PricingMetricsMXBean {
+
+	/**
+	 * The number of items looked up by name in the catalogue
+	 */
+	long getItemLookups();
+
+	/**
+	 * The number of item lookups that did not find an item
+	 */
+	long getUnknownItems();
+
+	/**
+	 * The time taken to compile each catalogue loaded
+	 */
+	LatencySnapshot getCatalogueLoading();
+
+	/**
+	 * The time taken to price each basket
+	 */
+	LatencySnapshot getBasketPricing();
+
+	/**
+	 * The number of baskets whose totals were found in the basket totals
+	 * cache
+	 */
+	long getBasketCacheHits();
+
+	/**
+	 * The number of baskets looked up in the basket totals cache and priced,
+	 * as their totals were not found
+	 */
+	long getBasketCacheMisses();
+
+	/**
+	 * The number of totals evicted from the basket totals cache to make room
+	 * for others
+	 */
+	long getBasketCacheEvictions();
+
+	/**
+	 * The time taken to write the totals of each basket
+	 */
+	LatencySnapshot getTotalsWriting();
+
+	/**
+	 * The number of times each offer was evaluated against a basket, by offer
+	 * id
+	 */
+	Map<String, Long> getOfferEvaluations();
+
+	/**
+	 * The number of evaluations in which each offer applied, by offer id
+	 */
+	Map<String, Long> getOfferHits();
+
+}
@@ -1,6 +1,8 @@
 package com.bjss.pricebasket.parser;
 
 import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.regex.Pattern;
 
 import org.springframework.beans.factory.support.BeanDefinitionBuilder;
 import org.springframework.beans.factory.xml.AbstractSingleBeanDefinitionParser;
@@ -13,6 +15,10 @@ import com.bjss.pricebasket.data.Item;
  * 
  * eg. <item id="apple" price="1.00" />
  * 
+ * An item may be given barcodes to be looked up by, separated by whitespace.
+ * 
+ * eg. <item id="apple" price="1.00" barcodes="5000112637922 012345678905" />
+ * 
  * @author Leon Danser
  * 
  */
@@ -20,6 +26,8 @@ public class ItemDefinitionParser extends AbstractSingleBeanDefinitionParser {
 
 	private static final String ID = "id";
 	private static final String PRICE = "price";
+	private static final String BARCODES = "barcodes";
+	private static final Pattern WHITESPACE = Pattern.compile("\\s+");
 
 	@Override
 	protected Class<Item> getBeanClass(Element el) {
@@ -31,6 +39,11 @@ public class ItemDefinitionParser extends AbstractSingleBeanDefinitionParser {
 		bean.addPropertyValue(ID, element.getAttribute(ID).toLowerCase());
 		String priceString = element.getAttribute(PRICE);
 		bean.addPropertyValue(PRICE, new BigDecimal(priceString));
+		String barcodes = element.getAttribute(BARCODES).trim();
+		if (!barcodes.isEmpty()) {
+			bean.addPropertyValue(BARCODES,
+					Arrays.asList(WHITESPACE.split(barcodes)));
+		}
 	}
 
 }
@@ -0,0 +1,69 @@
+package com.bjss.pricebasket.parser;
+
+import java.math.BigDecimal;
+
+import org.springframework.beans.factory.support.BeanDefinitionBuilder;
+import org.springframework.beans.factory.xml.AbstractSingleBeanDefinitionParser;
+import org.w3c.dom.Element;
+
+import com.bjss.pricebasket.data.MultiBuyOffer;
+
+/**
+ * Responsible for parsing custom Spring config definition for
+ * {@link MultiBuyOffer}s. Each has either a freeQuantity or a groupPrice.
+ * 
+ * eg. "3 for 2" and "3 for 1.50"
+ * 
+ * <pre>
+ * &lt;multiBuyOffer id="soupOffer" itemRef="soup" quantity="3" freeQuantity="1" expiryDate="2014-03-01" />
+ * &lt;multiBuyOffer id="appleOffer" itemRef="apple" quantity="3" groupPrice="1.50" />
+ * </pre>
+ * 
+ * @author Leon Danser
+ * 
+ */
+public class MultiBuyOfferDefinitionParser extends
+		AbstractSingleBeanDefinitionParser {
+
+	private static final String ITEM = "item";
+	private static final String ID = "id";
+	private static final String ITEM_REF = "itemRef";
+	private static final String QUANTITY = "quantity";
+	private static final String FREE_QUANTITY = "freeQuantity";
+	private static final String GROUP_PRICE = "groupPrice";
+	private static final String EXPIRY_DATE = "expiryDate";
+
+	@Override
+	protected Class<MultiBuyOffer> getBeanClass(Element el) {
+		return MultiBuyOffer.class;
+	}
+
+	@Override
+	protected void doParse(Element element, BeanDefinitionBuilder bean) {
+		String id = element.getAttribute(ID);
+		bean.addPropertyValue(ID, id);
+		bean.addPropertyReference(ITEM, element.getAttribute(ITEM_REF));
+		int quantity = Integer.parseInt(element.getAttribute(QUANTITY));
+		int freeQuantity = 0;
+		if (element.hasAttribute(FREE_QUANTITY)) {
+			freeQuantity = Integer.parseInt(element
+					.getAttribute(FREE_QUANTITY));
+		}
+		BigDecimal groupPrice = null;
+		if (element.hasAttribute(GROUP_PRICE)) {
+			groupPrice = new BigDecimal(element.getAttribute(GROUP_PRICE));
+		}
+		MultiBuyOffer.validateGroup(id, quantity, freeQuantity, groupPrice);
+		bean.addPropertyValue(QUANTITY, quantity);
+		if (groupPrice == null) {
+			bean.addPropertyValue(FREE_QUANTITY, freeQuantity);
+		} else {
+			bean.addPropertyValue(GROUP_PRICE, groupPrice);
+		}
+		if (element.hasAttribute(EXPIRY_DATE)) {
+			bean.addPropertyValue(EXPIRY_DATE, PercentageOfferDefinitionParser
+					.parseDate(element.getAttribute(EXPIRY_DATE)));
+		}
+	}
+
+}
@@ -16,6 +16,8 @@ public class NamespaceHandler extends NamespaceHandlerSupport {
 		registerBeanDefinitionParser("item", new ItemDefinitionParser());
 		registerBeanDefinitionParser("percentageOffer",
 				new PercentageOfferDefinitionParser());
+		registerBeanDefinitionParser("multiBuyOffer",
+				new MultiBuyOfferDefinitionParser());
 	}
 
 }
@@ -67,7 +67,10 @@ public class PercentageOfferDefinitionParser extends
 
 	}
 
-	private Date parseDate(String expiryString) {
+	/**
+	 * Parses an expiryDate, as given to every type of offer
+	 */
+	static Date parseDate(String expiryString) {
 		try {
 			SimpleDateFormat dateFormat = new SimpleDateFormat(DATE_FORMAT);
 			return dateFormat.parse(expiryString);
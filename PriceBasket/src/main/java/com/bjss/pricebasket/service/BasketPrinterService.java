@@ -1,5 +1,6 @@
 package com.bjss.pricebasket.service;
 
+import java.io.OutputStream;
 import java.io.PrintStream;
 
 import com.bjss.pricebasket.data.BasketTotals;
@@ -19,4 +20,27 @@ public interface BasketPrinterService {
 	 */
 	void write(PrintStream out, BasketTotals totals);
 
+	/**
+	 * Opens a writer that writes the receipts of many {@link BasketTotals} to
+	 * the given stream, in the same format as write(). Receipts are separated
+	 * by an empty line.
+	 * 
+	 * @param out
+	 *            the stream to write to
+	 * @return a writer that buffers its output until it is flushed
+	 */
+	BasketTotalsWriter openWriter(OutputStream out);
+
+	/**
+	 * Opens a writer that writes many {@link BasketTotals} to the given
+	 * stream in the given format.
+	 * 
+	 * @param out
+	 *            the stream to write to
+	 * @param format
+	 *            the format to write, see {@link OutputFormat}
+	 * @return a writer that buffers its output until it is flushed
+	 */
+	BasketTotalsWriter openWriter(OutputStream out, OutputFormat format);
+
 }
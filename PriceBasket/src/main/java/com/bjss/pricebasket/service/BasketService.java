@@ -1,8 +1,12 @@
 package com.bjss.pricebasket.service;
 
+import java.util.Collection;
+import java.util.List;
+
 import com.bjss.pricebasket.data.Basket;
 import com.bjss.pricebasket.data.BasketTotals;
 import com.bjss.pricebasket.data.Offer;
+import com.bjss.pricebasket.data.PricingContext;
 
 /**
  * Sums all the prices of all {@link Item}s in a {@link Basket}, then calculates
@@ -16,7 +20,8 @@ public interface BasketService {
 
 	/**
 	 * Populates a {@link BasketTotals} object with the totals for the given
-	 * {@link Basket} including all applicable {@link Offer}s
+	 * {@link Basket} including all applicable {@link Offer}s, priced at the
+	 * current time in the current locale
 	 * 
 	 * @param basket
 	 *            the basket to calculate totals for
@@ -24,4 +29,61 @@ public interface BasketService {
 	 */
 	BasketTotals calculateBasketTotals(Basket basket);
 
+	/**
+	 * Populates a {@link BasketTotals} object with the totals for the given
+	 * {@link Basket} including all {@link Offer}s applicable under the given
+	 * {@link PricingContext}
+	 * 
+	 * @param basket
+	 *            the basket to calculate totals for
+	 * @param context
+	 *            the conditions to price the basket under
+	 * @return a populated BasketTotals result
+	 */
+	BasketTotals calculateBasketTotals(Basket basket, PricingContext context);
+
+	/**
+	 * Calculates the {@link BasketTotals} for every {@link Basket} in the
+	 * collection. Implementations may price the baskets in parallel.
+	 * 
+	 * @param baskets
+	 *            the baskets to calculate totals for
+	 * @return the BasketTotals for each basket, in the iteration order of the
+	 *         baskets collection
+	 */
+	List<BasketTotals> calculateAllBasketTotals(Collection<Basket> baskets);
+
+	/**
+	 * Calculates the {@link BasketTotals} for every {@link Basket} in the
+	 * collection under the same {@link PricingContext}. Implementations may
+	 * price the baskets in parallel.
+	 * 
+	 * @param baskets
+	 *            the baskets to calculate totals for
+	 * @param context
+	 *            the conditions to price every basket under
+	 * @return the BasketTotals for each basket, in the iteration order of the
+	 *         baskets collection
+	 */
+	List<BasketTotals> calculateAllBasketTotals(Collection<Basket> baskets,
+			PricingContext context);
+
+	/**
+	 * Opens a {@link PricingSession} for an empty {@link Basket}, priced at
+	 * the current time in the current locale
+	 * 
+	 * @return the session
+	 */
+	PricingSession openSession();
+
+	/**
+	 * Opens a {@link PricingSession} for an empty {@link Basket}, priced under
+	 * the given {@link PricingContext}
+	 * 
+	 * @param context
+	 *            the conditions to price the basket under
+	 * @return the session
+	 */
+	PricingSession openSession(PricingContext context);
+
 }
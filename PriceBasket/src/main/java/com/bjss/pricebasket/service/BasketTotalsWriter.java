@@ -0,0 +1,43 @@
+package com.bjss.pricebasket.service;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+
+import com.bjss.pricebasket.data.BasketTotals;
+
+/**
+ * Writes many {@link BasketTotals} to the same stream. Output may be buffered
+ * until flush() or close() is called.
+ *
+ * A writer is used by one thread at a time.
+ *
+ * @author Leon Danser
+ *
+ */
+public interface BasketTotalsWriter extends Closeable, Flushable {
+
+	/**
+	 * Writes the {@link BasketTotals} after any already written.
+	 *
+	 * @param totals
+	 *            a populated {@link BasketTotals} to be written
+	 * @throws IOException
+	 *             if the underlying stream can not be written to
+	 */
+	void write(BasketTotals totals) throws IOException;
+
+	/**
+	 * Writes any buffered output and flushes the underlying stream.
+	 */
+	@Override
+	void flush() throws IOException;
+
+	/**
+	 * Flushes, then closes the underlying stream. Callers that do not own the
+	 * stream should call flush() instead.
+	 */
+	@Override
+	void close() throws IOException;
+
+}
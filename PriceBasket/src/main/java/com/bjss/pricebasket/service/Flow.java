@@ -0,0 +1,84 @@
+package com.bjss.pricebasket.service;
+
+/**
+ * Interfaces for stages that push items to each other asynchronously, no
+ * faster than each stage asks for them. They are declared as in
+ * java.util.concurrent.Flow, which is not available to the Java 8 this
+ * project is built for, so a stage can be adapted to it, or to Reactive
+ * Streams, by delegating each method to the method of the same name.
+ *
+ * A {@link Publisher} sends items to a {@link Subscriber} only as the
+ * Subscriber requests them through its {@link Subscription}, so a slow
+ * Subscriber holds back the Publisher rather than being flooded.
+ *
+ * @author Leon Danser
+ *
+ */
+public final class Flow {
+
+	private Flow() {
+	}
+
+	/**
+	 * A source of items, sent to each Subscriber as it requests them
+	 */
+	public interface Publisher<T> {
+
+		/**
+		 * Adds the Subscriber, which is given its Subscription through
+		 * onSubscribe(), or signalled onError() if it can not be added
+		 */
+		void subscribe(Subscriber<? super T> subscriber);
+	}
+
+	/**
+	 * A receiver of items. Its methods are called one at a time, in order:
+	 * onSubscribe(), then onNext() no more times than requested, then at most
+	 * one of onError() or onComplete().
+	 */
+	public interface Subscriber<T> {
+
+		void onSubscribe(Subscription subscription);
+
+		void onNext(T item);
+
+		/**
+		 * The Publisher failed, and will send no more items
+		 */
+		void onError(Throwable throwable);
+
+		/**
+		 * The Publisher has sent every item
+		 */
+		void onComplete();
+	}
+
+	/**
+	 * The link between a Publisher and one Subscriber
+	 */
+	public interface Subscription {
+
+		/**
+		 * Adds n items to the number the Subscriber is ready to receive
+		 *
+		 * @param n
+		 *            the number of items. If not positive, the Subscriber is
+		 *            signalled onError() with an IllegalArgumentException
+		 */
+		void request(long n);
+
+		/**
+		 * Stops sending items, eventually. Items already on their way may
+		 * still be received.
+		 */
+		void cancel();
+	}
+
+	/**
+	 * A stage that subscribes to items of one kind and publishes items of
+	 * another
+	 */
+	public interface Processor<T, R> extends Subscriber<T>, Publisher<R> {
+	}
+
+}
@@ -1,7 +1,9 @@
 package com.bjss.pricebasket.service;
 
 import java.util.List;
+import java.util.Map;
 
+import com.bjss.pricebasket.catalogue.CatalogueOrdinals;
 import com.bjss.pricebasket.data.Item;
 import com.bjss.pricebasket.data.Offer;
 
@@ -31,4 +33,45 @@ public interface ItemService {
 	 */
 	List<Offer> getOffers(Item item);
 
+	/**
+	 * The {@link Offer}s applied to the given {@link Item} that could apply
+	 * to a basket with the given tallies, in the same order as
+	 * getOffers(Item). An Offer is left out when the first of its required
+	 * items is not in the tallies, as it can neither apply nor consume any
+	 * item.
+	 * 
+	 * @param item
+	 * @param itemTallies
+	 *            the count of each Item in the basket
+	 * @return
+	 */
+	List<Offer> getOffers(Item item, Map<Item, Integer> itemTallies);
+
+	/**
+	 * The version of the catalogue that items and offers are currently
+	 * returned from. Catalogues that are not versioned are version 0.
+	 * 
+	 * @return the catalogue version
+	 */
+	long getCatalogueVersion();
+
+	/**
+	 * The ordinals of the items and offers of the current catalogue version,
+	 * which the pricing services count a basket's items by.
+	 * 
+	 * @return the ordinals, or null if the catalogue does not number its
+	 *         items, in which case baskets are counted in a HashMap
+	 */
+	CatalogueOrdinals getOrdinals();
+
+	/**
+	 * An ItemService that returns the items and offers of the current
+	 * catalogue version, and keeps returning them if the catalogue is
+	 * reloaded. A basket whose items and offers all come from one snapshot is
+	 * priced against exactly one catalogue version.
+	 * 
+	 * @return the snapshot, or this service if its catalogue is not reloaded
+	 */
+	ItemService getSnapshot();
+
 }
@@ -1,5 +1,8 @@
 package com.bjss.pricebasket.service;
 
+import java.io.IOException;
+import java.util.Locale;
+
 /**
  * Service for retrieving resource properties for the System's Locale.
  * 
@@ -19,4 +22,36 @@ public interface MsgService {
 	 */
 	String getMessage(String key, Object... params);
 
+	/**
+	 * Returns a property from a resource bundle localised for the given
+	 * locale
+	 * 
+	 * @param locale
+	 *            the locale of the message
+	 * @param key
+	 *            the property identifier
+	 * @param params
+	 *            values to inject into a parameterised resource entry
+	 * @return the localised resource message
+	 */
+	String getMessage(Locale locale, String key, Object... params);
+
+	/**
+	 * Appends the same message as getMessage(Locale, String, Object...) to
+	 * out
+	 * 
+	 * @param out
+	 *            where to append the message
+	 * @param locale
+	 *            the locale of the message
+	 * @param key
+	 *            the property identifier
+	 * @param params
+	 *            values to inject into a parameterised resource entry
+	 * @throws IOException
+	 *             if out can not be appended to
+	 */
+	void appendMessage(Appendable out, Locale locale, String key,
+			Object... params) throws IOException;
+
 }
@@ -0,0 +1,40 @@
+package com.bjss.pricebasket.service;
+
+import java.util.Map;
+
+import com.bjss.pricebasket.data.Basket;
+import com.bjss.pricebasket.data.Item;
+import com.bjss.pricebasket.data.Offer;
+import com.bjss.pricebasket.data.PricingContext;
+
+/**
+ * Decides which {@link Offer}s a {@link Basket} gets, and how many times each
+ * applies. Offers that require the same {@link Item}s compete for them, so
+ * the allocation decides the discount the customer receives.
+ *
+ * Used by the {@link BasketService} implementations, so must be safe to call
+ * from many threads at once.
+ *
+ * @author Leon Danser
+ *
+ */
+public interface OfferAllocator {
+
+	/**
+	 * Counts how many times each Offer applies to the Basket.
+	 *
+	 * @param basket
+	 *            the basket being priced
+	 * @param itemTallies
+	 *            the count of each Item in the basket. The required items of
+	 *            the Offers applied are consumed from the tallies.
+	 * @param context
+	 *            the conditions the Offers are evaluated under, pinned to the
+	 *            catalogue the Offers are taken from
+	 * @return each applicable Offer mapped to the number of times it applies,
+	 *         in order of first application
+	 */
+	Map<Offer, Integer> allocate(Basket basket, Map<Item, Integer> itemTallies,
+			PricingContext context);
+
+}
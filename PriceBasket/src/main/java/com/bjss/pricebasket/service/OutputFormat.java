@@ -0,0 +1,109 @@
+package com.bjss.pricebasket.service;
+
+import static com.bjss.pricebasket.util.ValidateUtil.validateNotNull;
+
+import com.bjss.pricebasket.data.BasketTotals;
+
+/**
+ * The formats a {@link BasketPrinterService} can write {@link BasketTotals}
+ * in. Apart from RECEIPT, formats are for other systems to read: values are
+ * written as whole minor units, eg. pence, and offers by their id, with no
+ * locale formatting.
+ * 
+ * @author Leon Danser
+ * 
+ */
+public enum OutputFormat {
+
+	/** Localised receipts, as printed for a customer */
+	RECEIPT("receipt"),
+
+	/**
+	 * UTF-8 CSV with a header row, and one row per offer applied to a basket,
+	 * or a single row with empty offer columns if none applied:
+	 * 
+	 * <pre>
+	 * basket,subtotal,total,offer_id,offer_discount
+	 * 1,540,480,breadOffer,40
+	 * 1,540,480,appleOffer,20
+	 * 2,65,65,,
+	 * </pre>
+	 */
+	CSV("csv"),
+
+	/**
+	 * One UTF-8 JSON object per line:
+	 * 
+	 * <pre>
+	 * {"basket":1,"subtotal":540,"total":480,"offers":[{"id":"breadOffer","discount":40}]}
+	 * </pre>
+	 */
+	JSON_LINES("json"),
+
+	/**
+	 * Big-endian binary records, as written by a DataOutputStream. The stream
+	 * starts with the int BINARY_MAGIC, followed by records that each start
+	 * with a tag byte:
+	 * 
+	 * <pre>
+	 * 'O' int offerIndex, UTF offerId
+	 * 'B' long basket, long subtotal, long total, int offerCount,
+	 *     offerCount * (int offerIndex, long discount)
+	 * </pre>
+	 * 
+	 * An offer record is written before the first basket record that uses the
+	 * offer, so offers are referred to by a fixed width index rather than
+	 * their id.
+	 * 
+	 * Records are not fixed width: a basket record is 29 bytes plus 12 for
+	 * each offer applied, and an offer record is as long as its modified UTF-8
+	 * id. The stream is read record by record from the start; no record can
+	 * be found by its position. This keeps baskets with no offers, the
+	 * common case, to one short record, and writes each offer id only once.
+	 */
+	BINARY("binary");
+
+	/** "PBT1", the first 4 bytes of BINARY output */
+	public static final int BINARY_MAGIC = 0x50425431;
+	public static final byte BINARY_OFFER_TAG = 'O';
+	public static final byte BINARY_BASKET_TAG = 'B';
+
+	private final String optionName;
+
+	private OutputFormat(String optionName) {
+		this.optionName = optionName;
+	}
+
+	/**
+	 * The name used to select the format on the command line, eg. "csv"
+	 */
+	public String getOptionName() {
+		return optionName;
+	}
+
+	/**
+	 * @param optionName
+	 *            the name of the format, in any case
+	 * @return the format with the option name
+	 * @throws IllegalArgumentException
+	 *             if there is no format with the name
+	 */
+	public static OutputFormat forOptionName(String optionName)
+			throws IllegalArgumentException {
+		validateNotNull(optionName, "optionName");
+		StringBuilder optionNames = new StringBuilder();
+		for (OutputFormat format : values()) {
+			if (format.optionName.equalsIgnoreCase(optionName)) {
+				return format;
+			}
+			if (optionNames.length() > 0) {
+				optionNames.append(", ");
+			}
+			optionNames.append(format.optionName);
+		}
+		throw new IllegalArgumentException(String.format(
+				"Output format [%s] should be one of %s", optionName,
+				optionNames));
+	}
+
+}
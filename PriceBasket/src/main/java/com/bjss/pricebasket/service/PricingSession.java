@@ -0,0 +1,80 @@
+package com.bjss.pricebasket.service;
+
+import java.util.Map;
+
+import com.bjss.pricebasket.data.Basket;
+import com.bjss.pricebasket.data.BasketTotals;
+import com.bjss.pricebasket.data.Item;
+import com.bjss.pricebasket.data.Offer;
+import com.bjss.pricebasket.data.PricingContext;
+
+/**
+ * Prices a {@link Basket} as its {@link Item}s are added and removed one at a
+ * time, such as when they are scanned at a till. The running totals are kept
+ * up to date with each change, so the cost of a change depends on the
+ * {@link Offer}s it affects rather than on the size of the basket.
+ *
+ * The totals are always the same as those the {@link BasketService} that
+ * opened the session calculates for the same basket under the same
+ * {@link PricingContext}.
+ *
+ * A session belongs to one transaction, and is not safe to use from many
+ * threads at once.
+ *
+ * @author Leon Danser
+ *
+ */
+public interface PricingSession {
+
+	void addItem(Item item);
+
+	/**
+	 * Adds quantity units of the {@link Item} to the basket, and updates the
+	 * totals.
+	 *
+	 * @param item
+	 *            the item to add
+	 * @param quantity
+	 *            the number of units to add. Must be greater than 0
+	 */
+	void addItem(Item item, int quantity);
+
+	void removeItem(Item item);
+
+	/**
+	 * Removes quantity units of the {@link Item} from the basket, and updates
+	 * the totals.
+	 *
+	 * @param item
+	 *            the item to remove
+	 * @param quantity
+	 *            the number of units to remove. Must be greater than 0 and no
+	 *            more than the quantity of the Item in the basket
+	 */
+	void removeItem(Item item, int quantity);
+
+	/**
+	 * Each distinct {@link Item} in the basket mapped to its quantity, in the
+	 * order the Items were first added.
+	 *
+	 * @return a read-only Map of Item to quantity
+	 */
+	Map<Item, Integer> getLines();
+
+	/**
+	 * The conditions the session prices under, captured when it was opened
+	 * and pinned to the catalogue version of the session
+	 *
+	 * @return the PricingContext
+	 */
+	PricingContext getPricingContext();
+
+	/**
+	 * The totals of the basket as it is now. Later changes to the basket do
+	 * not change the totals returned.
+	 *
+	 * @return a populated BasketTotals result
+	 */
+	BasketTotals getTotals();
+
+}
@@ -0,0 +1,317 @@
+package com.bjss.pricebasket.service.impl;
+
+import static com.bjss.pricebasket.util.ValidateUtil.validateNotNull;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import javax.inject.Inject;
+
+import org.springframework.context.i18n.LocaleContextHolder;
+
+import com.bjss.pricebasket.catalogue.CatalogueChangedException;
+import com.bjss.pricebasket.catalogue.CatalogueOrdinals;
+import com.bjss.pricebasket.data.Basket;
+import com.bjss.pricebasket.data.BasketTotals;
+import com.bjss.pricebasket.data.Item;
+import com.bjss.pricebasket.data.ItemTallies;
+import com.bjss.pricebasket.data.Offer;
+import com.bjss.pricebasket.data.PricingContext;
+import com.bjss.pricebasket.metrics.PricingMetrics;
+import com.bjss.pricebasket.service.BasketService;
+import com.bjss.pricebasket.service.ItemService;
+import com.bjss.pricebasket.service.OfferAllocator;
+import com.bjss.pricebasket.service.PricingSession;
+
+/**
+ * Common behaviour of the {@link BasketService} implementations: the
+ * {@link OfferAllocator} that decides which {@link Offer}s apply, bulk
+ * pricing, and {@link PricingSession}s, which keep their totals with the
+ * {@link RunningTotals} of the implementation.
+ * 
+ * Prices collections of {@link Basket}s in parallel using fork/join. Each
+ * basket is priced with calculateBasketTotals(Basket), so implementations must
+ * be safe to call from many threads at once.
+ * 
+ * Uses the common ForkJoinPool unless another pool is set.
+ * 
+ * Baskets priced without a {@link PricingContext} are priced with one
+ * captured for the current time and the thread's locale, once per call.
+ * 
+ * The time taken to price each basket is recorded in the
+ * {@link PricingMetrics}.
+ * 
+ * Every basket is priced against one catalogue version: the one its context
+ * is pinned to, or else a snapshot of the ItemService taken once per call,
+ * so baskets priced together are priced against the same version even if
+ * the catalogue is reloaded meanwhile. A catalogue that can not keep an
+ * earlier version throws a {@link CatalogueChangedException} when it is
+ * replaced; baskets priced against a snapshot taken by the call are then
+ * priced again against a new one, and otherwise the exception is thrown.
+ * 
+ * Baskets priced against a catalogue that numbers its items are counted in
+ * {@link ItemTallies}, one per thread, reused for every basket the thread
+ * prices.
+ * 
+ * If a {@link BasketTotalsCache} is set, the totals of each basket are taken
+ * from it when the same basket has been priced before, and put in it when
+ * not. Sessions do not use it.
+ * 
+ * @author Leon Danser
+ * 
+ */
+public abstract class AbstractBasketService implements BasketService {
+
+	/** Baskets priced by a single task before it stops splitting */
+	static final int BASKETS_PER_TASK = 64;
+
+	/** Times baskets are priced before a changing catalogue fails them */
+	static final int MAX_PRICING_ATTEMPTS = 3;
+
+	@Inject
+	ItemService itemService;
+
+	@Inject
+	OfferAllocator offerAllocator = new GreedyOfferAllocator();
+
+	@Inject
+	PricingMetrics pricingMetrics = PricingMetrics.NO_METRICS;
+
+	private ForkJoinPool forkJoinPool = ForkJoinPool.commonPool();
+
+	private BasketTotalsCache basketTotalsCache;
+
+	private final ThreadLocal<ItemTallies> itemTallies = new ThreadLocal<ItemTallies>();
+
+	@Override
+	public BasketTotals calculateBasketTotals(Basket basket) {
+		return calculateBasketTotals(basket, createPricingContext());
+	}
+
+	@Override
+	public BasketTotals calculateBasketTotals(Basket basket,
+			PricingContext context) {
+		validateNotNull(basket, "basket");
+		validateNotNull(context, "context");
+		long start = System.nanoTime();
+		PricingContext pinned = pinCatalogue(context);
+		BasketTotals totals;
+		for (int attempt = 1;; attempt++) {
+			try {
+				totals = priceCachedBasket(basket, pinned);
+				break;
+			} catch (CatalogueChangedException e) {
+				if (pinned == context || attempt == MAX_PRICING_ATTEMPTS) {
+					throw e;
+				}
+				pinned = pinCatalogue(context);
+			}
+		}
+		pricingMetrics.recordBasketPriced(System.nanoTime() - start);
+		return totals;
+	}
+
+	/**
+	 * Prices the basket, unless its totals are in the cache
+	 */
+	private BasketTotals priceCachedBasket(Basket basket,
+			PricingContext context) {
+		BasketTotalsCache cache = basketTotalsCache;
+		BasketTotalsCache.Signature signature = cache == null ? null : cache
+				.sign(this, basket, context);
+		if (signature == null) {
+			return priceBasket(basket, context);
+		}
+		BasketTotals totals = cache.get(signature, context);
+		if (totals == null) {
+			totals = priceBasket(basket, context);
+			cache.put(signature, totals);
+		}
+		return totals;
+	}
+
+	/**
+	 * Prices the basket against the catalogue the context is pinned to
+	 */
+	abstract BasketTotals priceBasket(Basket basket, PricingContext context);
+
+	@Override
+	public List<BasketTotals> calculateAllBasketTotals(
+			Collection<Basket> baskets) {
+		return calculateAllBasketTotals(baskets, createPricingContext());
+	}
+
+	@Override
+	public List<BasketTotals> calculateAllBasketTotals(
+			Collection<Basket> baskets, PricingContext context) {
+		validateNotNull(baskets, "baskets");
+		validateNotNull(context, "context");
+		Basket[] basketArray = baskets.toArray(new Basket[baskets.size()]);
+		BasketTotals[] totals = new BasketTotals[basketArray.length];
+		for (int attempt = 1;; attempt++) {
+			PricingContext pinned = context.pinCatalogue(itemService);
+			try {
+				forkJoinPool.invoke(new PricingTask(basketArray, totals,
+						pinned, 0, basketArray.length));
+				return Arrays.asList(totals);
+			} catch (CatalogueChangedException e) {
+				if (pinned == context || attempt == MAX_PRICING_ATTEMPTS) {
+					throw e;
+				}
+			}
+		}
+	}
+
+	@Override
+	public PricingSession openSession() {
+		return openSession(createPricingContext());
+	}
+
+	@Override
+	public PricingSession openSession(PricingContext context) {
+		validateNotNull(context, "context");
+		PricingContext pinned = pinCatalogue(context);
+		return new IncrementalPricingSession(pinned, offerAllocator,
+				createRunningTotals(pinned));
+	}
+
+	/**
+	 * Creates empty totals for a {@link PricingSession}, kept with the same
+	 * arithmetic as calculateBasketTotals()
+	 *
+	 * @param context
+	 *            the context of the session, pinned to its catalogue
+	 */
+	abstract RunningTotals createRunningTotals(PricingContext context);
+
+	/**
+	 * Captures the current time and the locale of the calling thread
+	 */
+	protected PricingContext createPricingContext() {
+		return PricingContext.now(LocaleContextHolder.getLocale());
+	}
+
+	/**
+	 * The context pinned to the catalogue version the basket is priced
+	 * against. Implementations take the offers, and the catalogue version of
+	 * the totals, from the catalogue of the pinned context.
+	 */
+	protected PricingContext pinCatalogue(PricingContext context) {
+		return context.pinCatalogue(itemService);
+	}
+
+	/**
+	 * Empty tallies to count a basket priced against the catalogue of the
+	 * context in: the thread's {@link ItemTallies} if the catalogue numbers
+	 * its items, or else a HashMap. The ItemTallies are reset by the next
+	 * call on the same thread, so must not be kept.
+	 */
+	Map<Item, Integer> createItemTallies(PricingContext context) {
+		CatalogueOrdinals ordinals = context.getCatalogue().getOrdinals();
+		if (ordinals == null) {
+			return new HashMap<Item, Integer>();
+		}
+		ItemTallies tallies = itemTallies.get();
+		if (tallies == null) {
+			tallies = new ItemTallies(ordinals);
+			itemTallies.set(tallies);
+		} else {
+			tallies.reset(ordinals);
+		}
+		return tallies;
+	}
+
+	/**
+	 * Counts how many times each {@link Offer} applies to the {@link Basket},
+	 * with the {@link OfferAllocator}.
+	 * 
+	 * @param basket
+	 * @param itemTallies
+	 *            the count of each Item in the basket. Offers consume their
+	 *            required items from the tallies.
+	 * @param context
+	 *            the conditions the Offers are evaluated under
+	 * @return each applicable Offer mapped to the number of times it applies,
+	 *         in order of first application
+	 */
+	protected Map<Offer, Integer> countOfferApplications(Basket basket,
+			Map<Item, Integer> itemTallies, PricingContext context) {
+		return offerAllocator.allocate(basket, itemTallies,
+				pinCatalogue(context));
+	}
+
+	public OfferAllocator getOfferAllocator() {
+		return offerAllocator;
+	}
+
+	public void setOfferAllocator(OfferAllocator offerAllocator) {
+		validateNotNull(offerAllocator, "offerAllocator");
+		this.offerAllocator = offerAllocator;
+	}
+
+	public BasketTotalsCache getBasketTotalsCache() {
+		return basketTotalsCache;
+	}
+
+	/**
+	 * @param basketTotalsCache
+	 *            the cache of totals, or null to price every basket
+	 */
+	public void setBasketTotalsCache(BasketTotalsCache basketTotalsCache) {
+		this.basketTotalsCache = basketTotalsCache;
+	}
+
+	public ForkJoinPool getForkJoinPool() {
+		return forkJoinPool;
+	}
+
+	public void setForkJoinPool(ForkJoinPool forkJoinPool) {
+		validateNotNull(forkJoinPool, "forkJoinPool");
+		this.forkJoinPool = forkJoinPool;
+	}
+
+	/**
+	 * Splits the range of baskets in half until it is small enough to price
+	 * directly. Results are written to the same index as the basket, so the
+	 * output order matches the input order.
+	 */
+	private class PricingTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final Basket[] baskets;
+		private final BasketTotals[] totals;
+		private final PricingContext context;
+		private final int from;
+		private final int to;
+
+		PricingTask(Basket[] baskets, BasketTotals[] totals,
+				PricingContext context, int from, int to) {
+			this.baskets = baskets;
+			this.totals = totals;
+			this.context = context;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from <= BASKETS_PER_TASK) {
+				for (int i = from; i < to; i++) {
+					totals[i] = calculateBasketTotals(baskets[i], context);
+				}
+			} else {
+				int middle = (from + to) >>> 1;
+				invokeAll(new PricingTask(baskets, totals, context, from,
+						middle), new PricingTask(baskets, totals, context, middle,
+						to));
+			}
+		}
+	}
+
+}
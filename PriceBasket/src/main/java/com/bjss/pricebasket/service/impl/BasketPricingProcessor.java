@@ -0,0 +1,425 @@
+package com.bjss.pricebasket.service.impl;
+
+import static com.bjss.pricebasket.util.ValidateUtil.validateNotNull;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Locale;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.springframework.context.i18n.LocaleContextHolder;
+
+import com.bjss.pricebasket.catalogue.CatalogueChangedException;
+import com.bjss.pricebasket.data.Basket;
+import com.bjss.pricebasket.data.BasketTotals;
+import com.bjss.pricebasket.data.PricingContext;
+import com.bjss.pricebasket.service.BasketService;
+import com.bjss.pricebasket.service.Flow;
+import com.bjss.pricebasket.service.ItemService;
+
+/**
+ * Prices the {@link Basket}s it receives and publishes their
+ * {@link BasketTotals}, in the order the baskets were received, to one
+ * subscriber.
+ *
+ * Baskets received while earlier ones are being priced are gathered into
+ * batches of up to batchSize, and each batch is priced on the executor with
+ * one {@link PricingContext}, captured and pinned to the catalogue when the
+ * batch starts. A basket received when nothing is waiting is priced at once,
+ * in a batch of its own, so batches grow with the load rather than waiting to
+ * fill. A batch whose catalogue is replaced while it is priced, failing with a
+ * {@link CatalogueChangedException}, is pinned to the new catalogue and
+ * priced again, up to MAX_PRICING_ATTEMPTS times.
+ *
+ * At most maxBatchesInFlight batches are priced or waiting to be published at
+ * once, and no more baskets are requested from upstream than fit in them, so
+ * a subscriber that requests slowly holds back the upstream publisher rather
+ * than filling memory. Upstream is asked for more as totals are published.
+ *
+ * If pricing a batch fails, the totals before it are published, then the
+ * subscriber is signalled the error and upstream is cancelled. An error from
+ * upstream is signalled after the totals of every basket received before it.
+ *
+ * Every change is handled by whichever thread makes it, one thread at a time:
+ * a thread that finds another handling changes leaves its change to that
+ * thread. So the subscriber is never called from two threads at once, and
+ * nothing blocks.
+ *
+ * Prices one stream of baskets: it subscribes to one publisher and publishes
+ * to one subscriber. Set the batch sizes and locale before subscribing.
+ *
+ * @author Leon Danser
+ *
+ */
+public class BasketPricingProcessor implements
+		Flow.Processor<Basket, BasketTotals> {
+
+	static final int DEFAULT_BATCH_SIZE = 16;
+	static final int DEFAULT_MAX_BATCHES_IN_FLIGHT = 4;
+
+	private final BasketService basketService;
+	private final ItemService itemService;
+	private final Executor executor;
+	private int batchSize = DEFAULT_BATCH_SIZE;
+	private int maxBatchesInFlight = DEFAULT_MAX_BATCHES_IN_FLIGHT;
+	private Locale locale = LocaleContextHolder.getLocale();
+
+	private final AtomicReference<Flow.Subscription> upstream = new AtomicReference<Flow.Subscription>();
+	private final AtomicBoolean subscribed = new AtomicBoolean();
+	private volatile Flow.Subscriber<? super BasketTotals> downstream;
+	private final Queue<Basket> received = new ConcurrentLinkedQueue<Basket>();
+	private final AtomicLong requested = new AtomicLong();
+	private volatile boolean upstreamDone;
+	private volatile Throwable upstreamError;
+	private volatile Throwable requestError;
+	private volatile boolean cancelled;
+
+	/* the number of changes made since the draining thread last looked */
+	private final AtomicInteger changes = new AtomicInteger();
+
+	/* only read and written by the draining thread */
+	private final Deque<Batch> batches = new ArrayDeque<Batch>();
+	private long published;
+	private boolean terminated;
+
+	/**
+	 * @param basketService
+	 *            prices each basket
+	 * @param itemService
+	 *            the catalogue each batch is pinned to
+	 * @param executor
+	 *            prices the batches. It need not be bounded itself, as at
+	 *            most maxBatchesInFlight batches are given to it at once
+	 */
+	public BasketPricingProcessor(BasketService basketService,
+			ItemService itemService, Executor executor) {
+		validateNotNull(basketService, "basketService");
+		validateNotNull(itemService, "itemService");
+		validateNotNull(executor, "executor");
+		this.basketService = basketService;
+		this.itemService = itemService;
+		this.executor = executor;
+	}
+
+	@Override
+	public void subscribe(Flow.Subscriber<? super BasketTotals> subscriber) {
+		validateNotNull(subscriber, "subscriber");
+		if (!subscribed.compareAndSet(false, true)) {
+			subscriber.onSubscribe(new Flow.Subscription() {
+				@Override
+				public void request(long n) {
+				}
+
+				@Override
+				public void cancel() {
+				}
+			});
+			subscriber.onError(new IllegalStateException(
+					"[subscriber] already subscribed"));
+			return;
+		}
+		subscriber.onSubscribe(new Flow.Subscription() {
+			@Override
+			public void request(long n) {
+				if (n <= 0) {
+					requestError = new IllegalArgumentException(
+							"[n] should be positive");
+				} else {
+					addRequested(n);
+				}
+				drain();
+			}
+
+			@Override
+			public void cancel() {
+				cancelled = true;
+				drain();
+			}
+		});
+		downstream = subscriber;
+		drain();
+	}
+
+	private void addRequested(long n) {
+		long current;
+		long next;
+		do {
+			current = requested.get();
+			if (current == Long.MAX_VALUE) {
+				return;
+			}
+			next = current + n < 0 ? Long.MAX_VALUE : current + n;
+		} while (!requested.compareAndSet(current, next));
+	}
+
+	@Override
+	public void onSubscribe(Flow.Subscription subscription) {
+		validateNotNull(subscription, "subscription");
+		if (!upstream.compareAndSet(null, subscription)) {
+			subscription.cancel();
+			return;
+		}
+		if (cancelled) {
+			subscription.cancel();
+			return;
+		}
+		subscription.request((long) batchSize * maxBatchesInFlight);
+	}
+
+	@Override
+	public void onNext(Basket basket) {
+		validateNotNull(basket, "basket");
+		received.offer(basket);
+		drain();
+	}
+
+	@Override
+	public void onError(Throwable throwable) {
+		validateNotNull(throwable, "throwable");
+		upstreamError = throwable;
+		upstreamDone = true;
+		drain();
+	}
+
+	@Override
+	public void onComplete() {
+		upstreamDone = true;
+		drain();
+	}
+
+	/**
+	 * Handles the changes made by every thread until there are none left,
+	 * unless another thread is already handling them
+	 */
+	private void drain() {
+		if (changes.getAndIncrement() != 0) {
+			return;
+		}
+		int missed = 1;
+		do {
+			if (terminated) {
+				// baskets already on their way after upstream was cancelled
+				received.clear();
+			} else {
+				drainOnce();
+			}
+			missed = changes.addAndGet(-missed);
+		} while (missed != 0);
+	}
+
+	private void drainOnce() {
+		if (cancelled) {
+			terminate();
+			return;
+		}
+		Flow.Subscriber<? super BasketTotals> subscriber = downstream;
+		if (subscriber != null) {
+			if (requestError != null) {
+				terminate();
+				subscriber.onError(requestError);
+				return;
+			}
+			if (!publish(subscriber)) {
+				return;
+			}
+		}
+		dispatch();
+		requestMore();
+		if (subscriber != null && upstreamDone && received.isEmpty()
+				&& batches.isEmpty()) {
+			terminate();
+			if (upstreamError != null) {
+				subscriber.onError(upstreamError);
+			} else {
+				subscriber.onComplete();
+			}
+		}
+	}
+
+	/**
+	 * Publishes the totals of the batches priced, in order, as far as they are
+	 * requested
+	 *
+	 * @return false if the subscriber was signalled an error
+	 */
+	private boolean publish(Flow.Subscriber<? super BasketTotals> subscriber) {
+		long demand = requested.get();
+		long emitted = 0;
+		Batch batch;
+		while ((batch = batches.peek()) != null && batch.done && !cancelled) {
+			if (batch.error != null) {
+				terminate();
+				subscriber.onError(batch.error);
+				return false;
+			}
+			while (batch.published < batch.totals.length && emitted < demand
+					&& !cancelled) {
+				subscriber.onNext(batch.totals[batch.published++]);
+				emitted++;
+			}
+			if (batch.published < batch.totals.length) {
+				break;
+			}
+			batches.poll();
+			published += batch.totals.length;
+		}
+		if (emitted > 0 && demand != Long.MAX_VALUE) {
+			requested.addAndGet(-emitted);
+		}
+		return true;
+	}
+
+	/**
+	 * Starts pricing the baskets received, while there is room for batches
+	 */
+	private void dispatch() {
+		while (batches.size() < maxBatchesInFlight && !received.isEmpty()) {
+			List<Basket> baskets = new ArrayList<Basket>(Math.min(batchSize,
+					received.size()));
+			Basket basket;
+			while (baskets.size() < batchSize
+					&& (basket = received.poll()) != null) {
+				baskets.add(basket);
+			}
+			Batch batch = new Batch(baskets);
+			batches.add(batch);
+			try {
+				executor.execute(batch);
+			} catch (RejectedExecutionException e) {
+				batch.complete(e);
+			}
+		}
+	}
+
+	/**
+	 * Requests as many baskets from upstream as were published, once a batch
+	 * worth are, or nothing else is being priced
+	 */
+	private void requestMore() {
+		Flow.Subscription subscription = upstream.get();
+		if (subscription != null && published > 0
+				&& (published >= batchSize || batches.isEmpty())) {
+			long n = published;
+			published = 0;
+			subscription.request(n);
+		}
+	}
+
+	private void terminate() {
+		terminated = true;
+		Flow.Subscription subscription = upstream.get();
+		if (subscription != null && !upstreamDone) {
+			subscription.cancel();
+		}
+		received.clear();
+		batches.clear();
+	}
+
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+	/**
+	 * The most baskets priced with one context
+	 */
+	public void setBatchSize(int batchSize) {
+		if (batchSize <= 0) {
+			throw new IllegalArgumentException("[batchSize] should be positive");
+		}
+		this.batchSize = batchSize;
+	}
+
+	public int getMaxBatchesInFlight() {
+		return maxBatchesInFlight;
+	}
+
+	/**
+	 * The most batches priced or waiting to be published at once
+	 */
+	public void setMaxBatchesInFlight(int maxBatchesInFlight) {
+		if (maxBatchesInFlight <= 0) {
+			throw new IllegalArgumentException(
+					"[maxBatchesInFlight] should be positive");
+		}
+		this.maxBatchesInFlight = maxBatchesInFlight;
+	}
+
+	public Locale getLocale() {
+		return locale;
+	}
+
+	/**
+	 * The locale the baskets are priced in. Defaults to the locale of the
+	 * thread that created the processor.
+	 */
+	public void setLocale(Locale locale) {
+		validateNotNull(locale, "locale");
+		this.locale = locale;
+	}
+
+	/**
+	 * Baskets priced together, and their totals
+	 */
+	private final class Batch implements Runnable {
+
+		final Basket[] baskets;
+		final BasketTotals[] totals;
+		/* read after done, so written before it */
+		volatile boolean done;
+		Throwable error;
+		/* only read and written by the draining thread */
+		int published;
+
+		Batch(List<Basket> baskets) {
+			this.baskets = baskets.toArray(new Basket[baskets.size()]);
+			this.totals = new BasketTotals[this.baskets.length];
+		}
+
+		@Override
+		public void run() {
+			Throwable failure = null;
+			try {
+				price();
+			} catch (Throwable e) {
+				// the batch always completes, so the stream is never left
+				// waiting for it
+				failure = e;
+			}
+			complete(failure);
+		}
+
+		private void price() {
+			PricingContext now = PricingContext.now(locale);
+			for (int attempt = 1;; attempt++) {
+				PricingContext context = now.pinCatalogue(itemService);
+				try {
+					for (int i = 0; i < baskets.length; i++) {
+						totals[i] = basketService.calculateBasketTotals(
+								baskets[i], context);
+					}
+					return;
+				} catch (CatalogueChangedException e) {
+					if (attempt == AbstractBasketService.MAX_PRICING_ATTEMPTS) {
+						throw e;
+					}
+				}
+			}
+		}
+
+		void complete(Throwable failure) {
+			error = failure;
+			done = true;
+			drain();
+		}
+	}
+
+}
@@ -3,13 +3,15 @@ package com.bjss.pricebasket.service.impl;
 import static com.bjss.pricebasket.util.ValidateUtil.validateNotNull;
 
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.PrintStream;
-import java.io.UnsupportedEncodingException;
 import java.math.BigDecimal;
 import java.math.RoundingMode;
 import java.text.NumberFormat;
-import java.util.Locale;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 
@@ -20,8 +22,12 @@ import org.springframework.context.i18n.LocaleContextHolder;
 
 import com.bjss.pricebasket.data.BasketTotals;
 import com.bjss.pricebasket.data.Offer;
+import com.bjss.pricebasket.data.PricingContext;
+import com.bjss.pricebasket.metrics.PricingMetrics;
 import com.bjss.pricebasket.service.BasketPrinterService;
+import com.bjss.pricebasket.service.BasketTotalsWriter;
 import com.bjss.pricebasket.service.MsgService;
+import com.bjss.pricebasket.service.OutputFormat;
 
 /**
  * Writes a given {@link BasketTotals} object with the format:
@@ -41,7 +47,20 @@ import com.bjss.pricebasket.service.MsgService;
  * Total price: 4.80
  * </pre>
  * 
- * Uses System's configured locale to format messages and currency
+ * Uses the locale and currency of the {@link PricingContext} the totals were
+ * priced with to format messages and currency. Totals without a context are
+ * formatted in the System's configured locale
+ * 
+ * Receipts are rendered into a buffer that is written to the stream in
+ * blocks of BLOCK_SIZE characters. A writer from openWriter() keeps its
+ * buffer and currency formats across receipts, so writing many receipts to
+ * one stream does not pay for them again each time.
+ * 
+ * The other {@link OutputFormat}s are written by their own writers, which do
+ * not use messages or currency formats.
+ * 
+ * The time taken to write each {@link BasketTotals} is recorded in the
+ * {@link PricingMetrics}.
  * 
  * @author Leon Danser
  * 
@@ -50,97 +69,196 @@ import com.bjss.pricebasket.service.MsgService;
 public class BasketPrinterServiceImpl implements BasketPrinterService {
 
 	public static final String ENCODING = "CP850";
+	/** Encoding of the text formats that are read by other systems */
+	static final String DATA_ENCODING = "UTF-8";
+	/** Characters buffered by a writer before they are written to the stream */
+	static final int BLOCK_SIZE = 64 * 1024;
 	private static final String NO_OFFERS_AVAILABLE = "no.offers.available";
 	private static final String TOTAL = "total";
 	private static final String SUBTOTAL = "subtotal";
 	private static final String MINOR_CURRENCY = "minor.currency";
+	private static final int MINOR_UNIT_SCALE = 2;
 
 	@Inject
 	MsgService msgService;
 
+	@Inject
+	PricingMetrics pricingMetrics = PricingMetrics.NO_METRICS;
+
+	/**
+	 * Writes the totals and flushes, but does not close, the given
+	 * PrintStream so that many receipts can be written to the same stream.
+	 */
 	public void write(PrintStream out, BasketTotals totals) {
 		validateNotNull(out, "out");
 		validateNotNull(totals, "totals");
-		OutputStreamWriter writer = null;
 		try {
-			writer = new OutputStreamWriter(out, ENCODING);
-			String subTotalString = formatCurrency(totals.getSubTotal());
-			String offersString = formatOffers(totals.getOfferTotals());
-			String totalString = formatCurrency(totals.getTotal());
-			writer.write(msgService.getMessage(SUBTOTAL, subTotalString) + "\n");
-			// offersString responsible for appending new line
-			writer.write(offersString);
-			writer.write(msgService.getMessage(TOTAL, totalString) + "\n");
-		} catch (UnsupportedEncodingException e) {
-			throw new RuntimeException(e);
+			BasketTotalsWriter writer = openWriter(out);
+			writer.write(totals);
+			writer.flush();
 		} catch (IOException e) {
 			throw new RuntimeException(
 					"BasketPrinter encountered an error occurred printing to the specified print stream",
 					e);
-		} finally {
-			closeQuietly(writer);
 		}
 	}
 
-	private void closeQuietly(OutputStreamWriter writer) {
+	@Override
+	public BasketTotalsWriter openWriter(OutputStream out) {
+		return openWriter(out, OutputFormat.RECEIPT);
+	}
+
+	@Override
+	public BasketTotalsWriter openWriter(OutputStream out, OutputFormat format) {
+		validateNotNull(out, "out");
+		validateNotNull(format, "format");
+		return new MeteredBasketTotalsWriter(createWriter(out, format),
+				pricingMetrics);
+	}
+
+	private BasketTotalsWriter createWriter(OutputStream out,
+			OutputFormat format) {
 		try {
-			if (writer != null) {
-				writer.close();
+			switch (format) {
+			case CSV:
+				return new CsvBasketTotalsWriter(new OutputStreamWriter(out,
+						DATA_ENCODING));
+			case JSON_LINES:
+				return new JsonLinesBasketTotalsWriter(new OutputStreamWriter(
+						out, DATA_ENCODING));
+			case BINARY:
+				return new BinaryBasketTotalsWriter(out);
+			default:
+				return new ReceiptWriter(new OutputStreamWriter(out, ENCODING));
 			}
 		} catch (IOException e) {
-			throw new RuntimeException(
-					"BasketPrinter encountered error closing OutputStreamWriter",
-					e);
+			throw new RuntimeException(e);
 		}
 	}
 
 	/**
-	 * Iterates through the entries in an offerTotals map and outputs all
-	 * {@link Offer}s according to its buildPrintMessage() call. Responsible for
-	 * appending its own newline character
-	 * 
-	 * @param offerTotals
-	 * @return a String containing the localised offer print messages for each
-	 *         entry in the offerTotals map
+	 * The context the totals were priced with, or the System's configured
+	 * locale at the current time if they have none.
 	 */
-	protected String formatOffers(Map<Offer, BigDecimal> offerTotals) {
-		StringBuffer sb = new StringBuffer();
-		if (offerTotals == null || offerTotals.isEmpty()) {
-			sb.append(msgService.getMessage(NO_OFFERS_AVAILABLE)).append('\n');
-		} else {
-			for (Entry<Offer, BigDecimal> offerEntry : offerTotals.entrySet()) {
-				Offer offer = offerEntry.getKey();
-				BigDecimal totalDiscount = offerEntry.getValue();
-				String formattedTotalDiscount = formatCurrency(totalDiscount);
-
-				sb.append(offer.buildPrintMessage(formattedTotalDiscount))
-						.append('\n');
-			}
+	private PricingContext getPricingContext(BasketTotals totals) {
+		PricingContext context = totals.getPricingContext();
+		if (context == null) {
+			context = PricingContext.now(LocaleContextHolder.getLocale());
 		}
-		return sb.toString();
+		return context;
 	}
 
 	/**
-	 * Use the currency format for the system locale to output values greater
-	 * than 1. For fractions of 1, output the currency in cents/pence
+	 * Use the currency format for the context's locale and currency to output
+	 * values greater than 1. For fractions of 1, output the currency in
+	 * cents/pence
 	 * 
 	 * @param value
 	 *            the currency value to format
+	 * @param context
+	 *            the locale and currency to format the value in
 	 * @return the argument value as a formatted currency String including the
 	 *         currency sign
 	 */
-	protected String formatCurrency(BigDecimal value) {
+	protected String formatCurrency(BigDecimal value, PricingContext context) {
+		return formatCurrency(value, context, createCurrencyFormat(context));
+	}
+
+	private String formatCurrency(BigDecimal value, PricingContext context,
+			NumberFormat currencyFormat) {
 		if (BigDecimal.ONE.compareTo(value) <= 0) {
-			Locale locale = LocaleContextHolder.getLocale();
-			NumberFormat numberFormatter = NumberFormat
-					.getCurrencyInstance(locale);
-			return numberFormatter.format(value);
+			return currencyFormat.format(value);
 		} else {
-			BigDecimal valueInPence = value.multiply(new BigDecimal(100));
-			valueInPence = valueInPence.setScale(0, RoundingMode.HALF_UP);
-			return msgService.getMessage(MINOR_CURRENCY,
+			BigDecimal valueInPence = value.movePointRight(MINOR_UNIT_SCALE)
+					.setScale(0, RoundingMode.HALF_UP);
+			return msgService.getMessage(context.getLocale(), MINOR_CURRENCY,
 					valueInPence.toString());
 		}
 	}
 
+	private static NumberFormat createCurrencyFormat(PricingContext context) {
+		NumberFormat currencyFormat = NumberFormat.getCurrencyInstance(context
+				.getLocale());
+		if (context.getCurrency() != null) {
+			currencyFormat.setCurrency(context.getCurrency());
+		}
+		return currencyFormat;
+	}
+
+	/**
+	 * Renders receipts into a shared buffer and writes it to the stream once
+	 * it holds BLOCK_SIZE characters. NumberFormats are not thread safe, so
+	 * each writer caches its own, per locale and currency.
+	 */
+	private class ReceiptWriter extends BufferedBasketTotalsWriter {
+
+		private final Map<List<Object>, NumberFormat> currencyFormats = new HashMap<List<Object>, NumberFormat>();
+		private PricingContext lastContext;
+		private NumberFormat lastCurrencyFormat;
+		private boolean receiptWritten;
+
+		ReceiptWriter(OutputStreamWriter writer) {
+			super(writer);
+		}
+
+		@Override
+		void append(BasketTotals totals) throws IOException {
+			PricingContext context = getPricingContext(totals);
+			NumberFormat currencyFormat = getCurrencyFormat(context);
+			if (receiptWritten) {
+				buffer.append('\n');
+			}
+			msgService.appendMessage(buffer, context.getLocale(), SUBTOTAL,
+					formatCurrency(totals.getSubTotal(), context, currencyFormat));
+			buffer.append('\n');
+			appendOffers(totals.getOfferTotals(), context, currencyFormat);
+			msgService.appendMessage(buffer, context.getLocale(), TOTAL,
+					formatCurrency(totals.getTotal(), context, currencyFormat));
+			buffer.append('\n');
+			receiptWritten = true;
+		}
+
+		/**
+		 * Appends each {@link Offer} according to its appendPrintMessage()
+		 * call, one per line
+		 */
+		private void appendOffers(Map<Offer, BigDecimal> offerTotals,
+				PricingContext context, NumberFormat currencyFormat)
+				throws IOException {
+			if (offerTotals == null || offerTotals.isEmpty()) {
+				msgService.appendMessage(buffer, context.getLocale(),
+						NO_OFFERS_AVAILABLE);
+				buffer.append('\n');
+			} else {
+				for (Entry<Offer, BigDecimal> offerEntry : offerTotals
+						.entrySet()) {
+					String formattedTotalDiscount = formatCurrency(
+							offerEntry.getValue(), context, currencyFormat);
+					offerEntry.getKey().appendPrintMessage(buffer,
+							formattedTotalDiscount, context);
+					buffer.append('\n');
+				}
+			}
+		}
+
+		/**
+		 * Baskets in a batch usually share one context, so the format for the
+		 * last context is checked before the cache.
+		 */
+		private NumberFormat getCurrencyFormat(PricingContext context) {
+			if (context != lastContext) {
+				List<Object> key = Arrays.<Object> asList(context.getLocale(),
+						context.getCurrency());
+				NumberFormat currencyFormat = currencyFormats.get(key);
+				if (currencyFormat == null) {
+					currencyFormat = createCurrencyFormat(context);
+					currencyFormats.put(key, currencyFormat);
+				}
+				lastContext = context;
+				lastCurrencyFormat = currencyFormat;
+			}
+			return lastCurrencyFormat;
+		}
+	}
+
 }
@@ -1,53 +1,56 @@
 package com.bjss.pricebasket.service.impl;
 
-import static com.bjss.pricebasket.util.ValidateUtil.validateNotNull;
-
 import java.math.BigDecimal;
-import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
 
-import javax.inject.Inject;
 import javax.inject.Named;
 
 import com.bjss.pricebasket.data.Basket;
 import com.bjss.pricebasket.data.BasketTotals;
 import com.bjss.pricebasket.data.Item;
 import com.bjss.pricebasket.data.Offer;
+import com.bjss.pricebasket.data.PricingContext;
 import com.bjss.pricebasket.service.BasketService;
-import com.bjss.pricebasket.service.ItemService;
 
 /**
+ * Keeps all per-basket state on the stack, so baskets can be priced in
+ * parallel.
+ * 
  * @see BasketService
  * @author Leon
  *
  */
 @Named
-public class BasketServiceImpl implements BasketService {
-
-	@Inject
-	ItemService itemService;
+public class BasketServiceImpl extends AbstractBasketService {
 
 	@Override
-	public BasketTotals calculateBasketTotals(Basket basket) {
-		validateNotNull(basket, "basket");
+	BasketTotals priceBasket(Basket basket, PricingContext context) {
 		BasketTotals totals = new BasketTotals();
 
 		// A map that stores how many of each item there is in the basket.
 		// Used to calculate offerTotals.
-		Map<Item, Integer> itemTallies = new HashMap<Item, Integer>();
+		Map<Item, Integer> itemTallies = createItemTallies(context);
 
 		BigDecimal subTotal = calculateSubTotal(basket, itemTallies);
 		Map<Offer, BigDecimal> offerTotals = calculateOfferTotals(basket,
-				itemTallies);
+				itemTallies, context);
 		BigDecimal total = calculateTotal(subTotal, offerTotals);
 
 		totals.setSubTotal(subTotal);
 		totals.setOfferTotals(offerTotals);
 		totals.setTotal(total);
+		totals.setPricingContext(context);
+		totals.setCatalogueVersion(context.getCatalogue().getCatalogueVersion());
 		return totals;
 	}
 
+	@Override
+	RunningTotals createRunningTotals(PricingContext context) {
+		return new BigDecimalRunningTotals();
+	}
+
 	/**
 	 * Subtracts total of all discounts from the subtotal
 	 * @param subTotal
@@ -71,32 +74,26 @@ public class BasketServiceImpl implements BasketService {
 	 * @param itemTallies
 	 *            the item counts from the calculateSubTotal call. Used to
 	 *            calculate the applicability of certain {@link Offer}s
+	 * @param context
+	 *            the conditions the {@link Offer}s are evaluated under
 	 * @return
 	 */
 	private Map<Offer, BigDecimal> calculateOfferTotals(Basket basket,
-			Map<Item, Integer> itemTallies) {
-		Map<Offer, BigDecimal> offerTotals = new HashMap<Offer, BigDecimal>();
-		for (Item item : basket.getItems()) {
-			List<Offer> offers = itemService.getOffers(item);
-			for (Offer offer : offers) {
-				if (offer.isApplicable(itemTallies)) {
-					BigDecimal offerDiscount = offer.calculateDiscount();
-					BigDecimal totalOfferDiscount = offerTotals.get(offer);
-					if (totalOfferDiscount == null) {
-						offerTotals.put(offer, offerDiscount);
-					} else {
-						offerTotals.put(offer,
-								totalOfferDiscount.add(offerDiscount));
-					}
-				}
-			}
+			Map<Item, Integer> itemTallies, PricingContext context) {
+		Map<Offer, Integer> offerApplications = countOfferApplications(basket,
+				itemTallies, context);
+		Map<Offer, BigDecimal> offerTotals = new OfferMap<BigDecimal>(
+				offerApplications.size());
+		for (Entry<Offer, Integer> entry : offerApplications.entrySet()) {
+			Offer offer = entry.getKey();
+			offerTotals.put(offer, offer.calculateDiscount(entry.getValue()));
 		}
 		return offerTotals;
 	}
 
 	/**
-	 * Iterates through all {@link Item}s in the {@link Basket}, summing their
-	 * price and also keep a track of the count of each Item.
+	 * Sums the price of each line in the {@link Basket} multiplied by its
+	 * quantity, and records the quantity of each Item.
 	 * 
 	 * @param basket
 	 * @param itemTallies
@@ -107,16 +104,70 @@ public class BasketServiceImpl implements BasketService {
 	private BigDecimal calculateSubTotal(Basket basket,
 			Map<Item, Integer> itemTallies) {
 		BigDecimal subtotal = BigDecimal.ZERO;
-		for (Item item : basket.getItems()) {
-			subtotal = subtotal.add(item.getPrice());
-			Integer tally = itemTallies.get(item);
-			if (tally == null) {
-				itemTallies.put(item, 1);
+		for (Entry<Item, Integer> line : basket.getLines().entrySet()) {
+			Item item = line.getKey();
+			int quantity = line.getValue();
+			subtotal = subtotal.add(quantity == 1 ? item.getPrice() : item
+					.getPrice().multiply(BigDecimal.valueOf(quantity)));
+			itemTallies.put(item, quantity);
+		}
+		return subtotal;
+	}
+
+	/**
+	 * Keeps the subtotal as a running sum. A BigDecimal sum has the largest
+	 * scale of its terms, which may be the scale of a line since removed, so
+	 * the units of each price scale are counted, and the subtotal is returned
+	 * at the largest scale of the lines in the basket, as calculateSubTotal()
+	 * returns it.
+	 */
+	private final class BigDecimalRunningTotals extends RunningTotals {
+
+		private BigDecimal subTotal = BigDecimal.ZERO;
+		private final TreeMap<Integer, Integer> unitsByScale = new TreeMap<Integer, Integer>();
+		private final Map<Offer, BigDecimal> offerTotals = new OfferMap<BigDecimal>();
+
+		@Override
+		void addUnits(Item item, int quantity) {
+			subTotal = subTotal.add(item.getPrice().multiply(
+					BigDecimal.valueOf(quantity)));
+			int scale = item.getPrice().scale();
+			Integer units = unitsByScale.get(scale);
+			int newUnits = (units == null ? 0 : units) + quantity;
+			if (newUnits == 0) {
+				unitsByScale.remove(scale);
 			} else {
-				itemTallies.put(item, tally + 1);
+				unitsByScale.put(scale, newUnits);
 			}
 		}
-		return subtotal;
+
+		@Override
+		void setApplications(Offer offer, int applications) {
+			if (applications == 0) {
+				offerTotals.remove(offer);
+			} else {
+				offerTotals.put(offer, offer.calculateDiscount(applications));
+			}
+		}
+
+		@Override
+		BasketTotals getBasketTotals(PricingContext context) {
+			int scale = unitsByScale.isEmpty() ? 0 : Math.max(0,
+					unitsByScale.lastKey());
+			BigDecimal basketSubTotal = subTotal.setScale(scale);
+			Map<Offer, BigDecimal> basketOfferTotals = new OfferMap<BigDecimal>(
+					offerTotals.size());
+			basketOfferTotals.putAll(offerTotals);
+
+			BasketTotals totals = new BasketTotals();
+			totals.setSubTotal(basketSubTotal);
+			totals.setOfferTotals(basketOfferTotals);
+			totals.setTotal(calculateTotal(basketSubTotal, basketOfferTotals));
+			totals.setPricingContext(context);
+			totals.setCatalogueVersion(context.getCatalogue()
+					.getCatalogueVersion());
+			return totals;
+		}
 	}
 
 }
@@ -0,0 +1,449 @@
+package com.bjss.pricebasket.service.impl;
+
+import static com.bjss.pricebasket.util.ValidateUtil.validateNotNull;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import javax.inject.Inject;
+
+import com.bjss.pricebasket.catalogue.CatalogueOrdinals;
+import com.bjss.pricebasket.data.Basket;
+import com.bjss.pricebasket.data.BasketTotals;
+import com.bjss.pricebasket.data.Item;
+import com.bjss.pricebasket.data.Offer;
+import com.bjss.pricebasket.data.PricingContext;
+import com.bjss.pricebasket.metrics.PricingMetrics;
+import com.bjss.pricebasket.service.ItemService;
+
+/**
+ * A size-bounded cache of the {@link BasketTotals} of the baskets priced by a
+ * {@link AbstractBasketService}, so a basket that is priced again, eg. the
+ * same meal deal, is not priced from scratch.
+ *
+ * Baskets are looked up by a {@link Signature}: the ordinal and quantity of
+ * each line, the catalogue the basket is priced against, and the validity
+ * period of its pricing instant. Offers are taken first come in basket order,
+ * so the lines are kept in basket order, unless no item of the catalogue is
+ * required by more than one {@link Offer}; then the order of the lines can
+ * not change which Offers apply, so they are sorted, and baskets of the same
+ * items in any order share their totals.
+ *
+ * The validity period is the number of expiry times of the catalogue's
+ * Offers before the pricing instant. Two instants in the same period have the
+ * same Offers expired, so the totals of one are the totals of the other, and
+ * an Offer expiring starts a new period, whichever day it falls on.
+ *
+ * The catalogue is matched by identity, so a reloaded catalogue never hits
+ * the totals of the one it replaced, even if it has the same version. When a
+ * newer catalogue is first seen the cache is cleared, as the totals of the
+ * older ones are only hit by baskets still pinned to them.
+ *
+ * Baskets priced against a catalogue that does not number its items, or with
+ * an item that is not in the catalogue, are priced without the cache.
+ *
+ * The entries are split into segments by the hash of the signature, each a
+ * LinkedHashMap in access order locked on its own, so the least recently used
+ * totals of a segment are evicted when it is full. Lookups, and the totals
+ * evicted, are counted in the {@link PricingMetrics}.
+ *
+ * Enable with the "basketCache" Spring profile.
+ *
+ * @author Leon Danser
+ *
+ */
+public class BasketTotalsCache {
+
+	static final int DEFAULT_MAXIMUM_SIZE = 10000;
+
+	private static final int MAX_SEGMENTS = 16;
+
+	@Inject
+	PricingMetrics pricingMetrics = PricingMetrics.NO_METRICS;
+
+	private int maximumSize;
+	private Segment[] segments;
+	private int segmentShift;
+
+	/* the newest catalogue seen, and the last older one */
+	private volatile Schedule newestSchedule;
+	private volatile Schedule olderSchedule;
+
+	public BasketTotalsCache() {
+		this(DEFAULT_MAXIMUM_SIZE);
+	}
+
+	public BasketTotalsCache(int maximumSize) {
+		setMaximumSize(maximumSize);
+	}
+
+	/**
+	 * The signature of the basket priced by the service under the context, or
+	 * null if its totals can not be cached
+	 *
+	 * @param service
+	 *            the service pricing the basket, as services that price with
+	 *            different arithmetic may share the cache
+	 * @param context
+	 *            the context, pinned to the catalogue the basket is priced
+	 *            against
+	 */
+	Signature sign(Object service, Basket basket, PricingContext context) {
+		validateNotNull(basket, "basket");
+		validateNotNull(context, "context");
+		Schedule schedule = getSchedule(context.getCatalogue());
+		if (schedule == null) {
+			return null;
+		}
+		Map<Item, Integer> basketLines = basket.getLines();
+		long[] order = new long[basketLines.size()];
+		int[] quantities = new int[order.length];
+		int index = 0;
+		for (Entry<Item, Integer> line : basketLines.entrySet()) {
+			int ordinal = schedule.ordinals.getOrdinal(line.getKey());
+			if (ordinal == Item.NO_ORDINAL) {
+				return null;
+			}
+			order[index] = (long) ordinal << 32 | index;
+			quantities[index] = line.getValue();
+			index++;
+		}
+		if (schedule.orderIndependent) {
+			Arrays.sort(order);
+		}
+		long[] lines = new long[order.length];
+		for (int i = 0; i < order.length; i++) {
+			lines[i] = order[i] & 0xFFFFFFFF00000000L
+					| quantities[(int) order[i]];
+		}
+		int validityPeriod = schedule.getValidityPeriod(context
+				.getPricingTime());
+		return new Signature(service, schedule, validityPeriod, lines,
+				schedule.orderIndependent ? order : null);
+	}
+
+	/**
+	 * The totals of the basket of the signature, or null if they are not in
+	 * the cache
+	 *
+	 * @param context
+	 *            the context the basket is priced under, given to the totals
+	 */
+	BasketTotals get(Signature signature, PricingContext context) {
+		Segment segment = getSegment(signature);
+		CachedTotals cached;
+		synchronized (segment) {
+			cached = segment.get(signature);
+		}
+		pricingMetrics.recordBasketCacheLookup(cached != null);
+		return cached == null ? null : cached.createTotals(signature, context);
+	}
+
+	void put(Signature signature, BasketTotals totals) {
+		CachedTotals cached = new CachedTotals(totals,
+				signature.schedule.ordinals);
+		Segment segment = getSegment(signature);
+		synchronized (segment) {
+			segment.put(signature, cached);
+		}
+	}
+
+	/**
+	 * Removes every entry
+	 */
+	public void clear() {
+		for (Segment segment : segments) {
+			synchronized (segment) {
+				segment.clear();
+			}
+		}
+	}
+
+	/**
+	 * The number of totals in the cache
+	 */
+	public int size() {
+		int size = 0;
+		for (Segment segment : segments) {
+			synchronized (segment) {
+				size += segment.size();
+			}
+		}
+		return size;
+	}
+
+	/**
+	 * Chosen by the high bits of the scrambled hash, as each segment hashes
+	 * its keys by the low bits
+	 */
+	private Segment getSegment(Signature signature) {
+		if (segments.length == 1) {
+			return segments[0];
+		}
+		return segments[signature.hash * 0x9E3779B9 >>> segmentShift];
+	}
+
+	/**
+	 * The expiry times of the catalogue, or null if it does not number its
+	 * items. Built when the catalogue is first seen, or seen again after
+	 * another older one.
+	 */
+	private Schedule getSchedule(ItemService catalogue) {
+		Schedule newest = newestSchedule;
+		if (newest != null && newest.catalogue == catalogue) {
+			return newest;
+		}
+		Schedule older = olderSchedule;
+		if (older != null && older.catalogue == catalogue) {
+			return older;
+		}
+		CatalogueOrdinals ordinals = catalogue.getOrdinals();
+		if (ordinals == null) {
+			return null;
+		}
+		Schedule schedule = new Schedule(catalogue, ordinals);
+		if (newest == null
+				|| catalogue.getCatalogueVersion() >= newest.catalogue
+						.getCatalogueVersion()) {
+			newestSchedule = schedule;
+			olderSchedule = null;
+			clear();
+		} else {
+			olderSchedule = schedule;
+		}
+		return schedule;
+	}
+
+	public int getMaximumSize() {
+		return maximumSize;
+	}
+
+	/**
+	 * The number of totals kept, at most. Clears the cache.
+	 */
+	public void setMaximumSize(int maximumSize) {
+		if (maximumSize <= 0) {
+			throw new IllegalArgumentException(
+					"[maximumSize] should be positive");
+		}
+		int segmentCount = Math.min(MAX_SEGMENTS,
+				Integer.highestOneBit(maximumSize));
+		Segment[] newSegments = new Segment[segmentCount];
+		for (int i = 0; i < segmentCount; i++) {
+			// the first segments take the remainder
+			newSegments[i] = new Segment(maximumSize / segmentCount
+					+ (i < maximumSize % segmentCount ? 1 : 0));
+		}
+		this.maximumSize = maximumSize;
+		this.segments = newSegments;
+		this.segmentShift = 32 - Integer.numberOfTrailingZeros(segmentCount);
+	}
+
+	/**
+	 * The catalogue a basket is priced against, and what the cache needs to
+	 * know of its Offers
+	 */
+	static final class Schedule {
+
+		final ItemService catalogue;
+		final CatalogueOrdinals ordinals;
+		/* the distinct expiry times of the Offers, in ascending order */
+		final long[] expiryTimes;
+		final boolean orderIndependent;
+
+		Schedule(ItemService catalogue, CatalogueOrdinals ordinals) {
+			this.catalogue = catalogue;
+			this.ordinals = ordinals;
+			long[] times = new long[ordinals.getOfferCount()];
+			int[] requiringOffers = new int[ordinals.getItemCount()];
+			boolean independent = true;
+			for (int i = 0; i < times.length; i++) {
+				Offer offer = ordinals.getOffer(i);
+				times[i] = offer.getExpiryTime();
+				Map<Item, Integer> requiredItems = offer.getRequiredItems();
+				if (requiredItems != null) {
+					for (Item requiredItem : requiredItems.keySet()) {
+						independent &= ++requiringOffers[ordinals
+								.getOrdinal(requiredItem)] == 1;
+					}
+				}
+			}
+			Arrays.sort(times);
+			int count = 0;
+			for (int i = 0; i < times.length; i++) {
+				if (count == 0 || times[i] != times[count - 1]) {
+					times[count++] = times[i];
+				}
+			}
+			expiryTimes = Arrays.copyOf(times, count);
+			orderIndependent = independent;
+		}
+
+		/**
+		 * The number of expiry times before the pricing instant. An Offer
+		 * applies at its expiry time, so is expired in the periods after it.
+		 */
+		int getValidityPeriod(long pricingTime) {
+			int index = Arrays.binarySearch(expiryTimes, pricingTime);
+			return index >= 0 ? index : -index - 1;
+		}
+	}
+
+	/**
+	 * What the totals of a basket depend on. Lines are packed into longs: the
+	 * ordinal of the item in the high half and its quantity in the low half.
+	 */
+	static final class Signature {
+
+		final Object service;
+		final Schedule schedule;
+		final int validityPeriod;
+		final long[] lines;
+		/*
+		 * the ordinal and position in the basket of each line, by ordinal, if
+		 * the lines are sorted, else null. Not part of the signature.
+		 */
+		final long[] positions;
+		final int hash;
+
+		Signature(Object service, Schedule schedule, int validityPeriod,
+				long[] lines, long[] positions) {
+			this.service = service;
+			this.schedule = schedule;
+			this.validityPeriod = validityPeriod;
+			this.lines = lines;
+			this.positions = positions;
+			int h = System.identityHashCode(schedule.catalogue);
+			h = 31 * h + validityPeriod;
+			this.hash = 31 * h + Arrays.hashCode(lines);
+		}
+
+		/**
+		 * The position in the basket of the line of the item
+		 */
+		int getPosition(int ordinal) {
+			int index = Arrays.binarySearch(positions, (long) ordinal << 32);
+			return (int) positions[index >= 0 ? index : -index - 1];
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) {
+				return true;
+			}
+			if (!(obj instanceof Signature)) {
+				return false;
+			}
+			Signature other = (Signature) obj;
+			return hash == other.hash && service == other.service
+					&& schedule.catalogue == other.schedule.catalogue
+					&& validityPeriod == other.validityPeriod
+					&& Arrays.equals(lines, other.lines);
+		}
+	}
+
+	/**
+	 * The totals of a basket, without its context. The Offers are kept in the
+	 * order they applied, with the ordinal of the item each discounts, so a
+	 * basket of the same lines in another order gets them in its own order.
+	 */
+	private static final class CachedTotals {
+
+		final BigDecimal subTotal;
+		final BigDecimal total;
+		final long catalogueVersion;
+		final Offer[] offers;
+		final BigDecimal[] discounts;
+		final int[] itemOrdinals;
+
+		CachedTotals(BasketTotals totals, CatalogueOrdinals ordinals) {
+			subTotal = totals.getSubTotal();
+			total = totals.getTotal();
+			catalogueVersion = totals.getCatalogueVersion();
+			Map<Offer, BigDecimal> offerTotals = totals.getOfferTotals();
+			offers = new Offer[offerTotals.size()];
+			discounts = new BigDecimal[offers.length];
+			itemOrdinals = new int[offers.length];
+			int i = 0;
+			for (Entry<Offer, BigDecimal> entry : offerTotals.entrySet()) {
+				offers[i] = entry.getKey();
+				discounts[i] = entry.getValue();
+				Item item = entry.getKey().getItem();
+				itemOrdinals[i] = item == null ? Item.NO_ORDINAL : ordinals
+						.getOrdinal(item);
+				i++;
+			}
+		}
+
+		BasketTotals createTotals(Signature signature, PricingContext context) {
+			BasketTotals totals = new BasketTotals();
+			totals.setSubTotal(subTotal);
+			totals.setTotal(total);
+			totals.setCatalogueVersion(catalogueVersion);
+			totals.setPricingContext(context);
+			Map<Offer, BigDecimal> offerTotals = new OfferMap<BigDecimal>(
+					offers.length);
+			if (signature.positions == null) {
+				for (int i = 0; i < offers.length; i++) {
+					offerTotals.put(offers[i], discounts[i]);
+				}
+			} else {
+				// the Offers of each line apply in the order of the lines,
+				// and in catalogue order within a line
+				int[] order = new int[offers.length];
+				int[] positions = new int[offers.length];
+				for (int i = 0; i < offers.length; i++) {
+					int position = signature.getPosition(itemOrdinals[i]);
+					int j = i;
+					while (j > 0 && positions[j - 1] > position) {
+						order[j] = order[j - 1];
+						positions[j] = positions[j - 1];
+						j--;
+					}
+					order[j] = i;
+					positions[j] = position;
+				}
+				for (int i : order) {
+					offerTotals.put(offers[i], discounts[i]);
+				}
+			}
+			totals.setOfferTotals(offerTotals);
+			return totals;
+		}
+	}
+
+	/**
+	 * The least recently used totals are evicted when the segment is full
+	 */
+	private final class Segment extends
+			LinkedHashMap<Signature, CachedTotals> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final int capacity;
+
+		Segment(int capacity) {
+			super(16, 0.75f, true);
+			this.capacity = capacity;
+		}
+
+		@Override
+		protected boolean removeEldestEntry(
+				Entry<Signature, CachedTotals> eldest) {
+			if (size() > capacity) {
+				pricingMetrics.recordBasketCacheEviction();
+				return true;
+			}
+			return false;
+		}
+	}
+
+}
@@ -0,0 +1,100 @@
+package com.bjss.pricebasket.service.impl;
+
+import static com.bjss.pricebasket.util.MinorUnitUtil.toMinorUnits;
+import static com.bjss.pricebasket.util.ValidateUtil.validateNotNull;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import com.bjss.pricebasket.data.BasketTotals;
+import com.bjss.pricebasket.data.Offer;
+import com.bjss.pricebasket.service.BasketTotalsWriter;
+import com.bjss.pricebasket.service.OutputFormat;
+
+/**
+ * Writes {@link BasketTotals} in the {@link OutputFormat#BINARY} format.
+ * Baskets are numbered from 1 in the order they are written. Offers are given
+ * an index in the order they are first written; an offer with no id is
+ * written with an empty id. Each basket is one variable-length record, with
+ * the index and discount of each offer applied after its totals.
+ * 
+ * Output is buffered in blocks of BLOCK_SIZE bytes.
+ * 
+ * @author Leon Danser
+ * 
+ */
+final class BinaryBasketTotalsWriter implements BasketTotalsWriter {
+
+	private final DataOutputStream out;
+	private final Map<String, Integer> offerIndexes = new HashMap<String, Integer>();
+	private long basketCount;
+
+	BinaryBasketTotalsWriter(OutputStream out) throws IOException {
+		validateNotNull(out, "out");
+		this.out = new DataOutputStream(new BufferedOutputStream(out,
+				BasketPrinterServiceImpl.BLOCK_SIZE));
+		this.out.writeInt(OutputFormat.BINARY_MAGIC);
+	}
+
+	@Override
+	public void write(BasketTotals totals) throws IOException {
+		validateNotNull(totals, "totals");
+		Map<Offer, BigDecimal> offerTotals = totals.getOfferTotals();
+		int offerCount = offerTotals == null ? 0 : offerTotals.size();
+		int[] indexes = new int[offerCount];
+		long[] discounts = new long[offerCount];
+		int i = 0;
+		if (offerTotals != null) {
+			for (Entry<Offer, BigDecimal> offerEntry : offerTotals.entrySet()) {
+				indexes[i] = getOfferIndex(offerEntry.getKey());
+				discounts[i] = toMinorUnits(offerEntry.getValue());
+				i++;
+			}
+		}
+
+		basketCount++;
+		out.writeByte(OutputFormat.BINARY_BASKET_TAG);
+		out.writeLong(basketCount);
+		out.writeLong(toMinorUnits(totals.getSubTotal()));
+		out.writeLong(toMinorUnits(totals.getTotal()));
+		out.writeInt(offerCount);
+		for (i = 0; i < offerCount; i++) {
+			out.writeInt(indexes[i]);
+			out.writeLong(discounts[i]);
+		}
+	}
+
+	/**
+	 * The index of the offer, writing an offer record first if the offer has
+	 * not been written before
+	 */
+	private int getOfferIndex(Offer offer) throws IOException {
+		String id = offer.getId() == null ? "" : offer.getId();
+		Integer index = offerIndexes.get(id);
+		if (index == null) {
+			index = offerIndexes.size();
+			offerIndexes.put(id, index);
+			out.writeByte(OutputFormat.BINARY_OFFER_TAG);
+			out.writeInt(index);
+			out.writeUTF(id);
+		}
+		return index;
+	}
+
+	@Override
+	public void flush() throws IOException {
+		out.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+		out.close();
+	}
+
+}
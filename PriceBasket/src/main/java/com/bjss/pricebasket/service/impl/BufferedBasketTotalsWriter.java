@@ -0,0 +1,66 @@
+package com.bjss.pricebasket.service.impl;
+
+import static com.bjss.pricebasket.util.ValidateUtil.validateNotNull;
+
+import java.io.IOException;
+import java.io.Writer;
+
+import com.bjss.pricebasket.data.BasketTotals;
+import com.bjss.pricebasket.service.BasketTotalsWriter;
+
+/**
+ * A {@link BasketTotalsWriter} for text formats. Each {@link BasketTotals} is
+ * appended to a shared buffer, which is written to the stream once it holds
+ * BLOCK_SIZE characters. The buffer grows as totals are appended, so a writer
+ * of a few totals never holds a whole block.
+ * 
+ * @author Leon Danser
+ * 
+ */
+abstract class BufferedBasketTotalsWriter implements BasketTotalsWriter {
+
+	static final int BLOCK_SIZE = BasketPrinterServiceImpl.BLOCK_SIZE;
+
+	private final Writer writer;
+	final StringBuilder buffer = new StringBuilder();
+
+	BufferedBasketTotalsWriter(Writer writer) {
+		validateNotNull(writer, "writer");
+		this.writer = writer;
+	}
+
+	@Override
+	public final void write(BasketTotals totals) throws IOException {
+		validateNotNull(totals, "totals");
+		append(totals);
+		if (buffer.length() >= BLOCK_SIZE) {
+			writeBuffer();
+		}
+	}
+
+	/**
+	 * Appends the totals to the buffer
+	 */
+	abstract void append(BasketTotals totals) throws IOException;
+
+	private void writeBuffer() throws IOException {
+		writer.append(buffer);
+		writer.flush();
+		buffer.setLength(0);
+	}
+
+	@Override
+	public void flush() throws IOException {
+		writeBuffer();
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			writeBuffer();
+		} finally {
+			writer.close();
+		}
+	}
+
+}
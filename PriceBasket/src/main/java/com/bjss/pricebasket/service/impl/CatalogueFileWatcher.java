@@ -0,0 +1,141 @@
+package com.bjss.pricebasket.service.impl;
+
+import static com.bjss.pricebasket.util.ValidateUtil.validateNotNull;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Watches catalogue files on disk, and reloads the catalogue when any of them
+ * changes. Files are checked every intervalMillis on a daemon thread, by
+ * their last modified time and length.
+ *
+ * A reload that fails, eg. because a file is still being written, is logged
+ * and the current catalogue is kept. The files are then checked again at the
+ * next interval, so the reload is retried until it succeeds.
+ *
+ * @author Leon Danser
+ *
+ */
+class CatalogueFileWatcher {
+
+	private static final Log LOG = LogFactory.getLog(CatalogueFileWatcher.class);
+
+	/**
+	 * Reloads the catalogue from the watched files
+	 */
+	interface Reloader {
+		void reload() throws Exception;
+	}
+
+	private final List<File> files;
+	private final long[] lastModified;
+	private final long[] lengths;
+	private final Reloader reloader;
+	private ScheduledExecutorService executor;
+
+	/**
+	 * Records the current state of the files, which are taken to have been
+	 * loaded already
+	 */
+	CatalogueFileWatcher(List<File> files, Reloader reloader) {
+		validateNotNull(files, "files");
+		validateNotNull(reloader, "reloader");
+		this.files = new ArrayList<File>(files);
+		this.reloader = reloader;
+		lastModified = new long[files.size()];
+		lengths = new long[files.size()];
+		recordFiles();
+	}
+
+	/**
+	 * Starts checking the files every intervalMillis
+	 */
+	synchronized void start(long intervalMillis) {
+		if (executor != null) {
+			throw new IllegalStateException("Watcher is already running");
+		}
+		executor = Executors
+				.newSingleThreadScheduledExecutor(new ThreadFactory() {
+					@Override
+					public Thread newThread(Runnable runnable) {
+						Thread thread = new Thread(runnable,
+								"catalogue-file-watcher");
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+		executor.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				checkFiles();
+			}
+		}, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+	}
+
+	synchronized void stop() {
+		if (executor != null) {
+			executor.shutdownNow();
+			executor = null;
+		}
+	}
+
+	/**
+	 * Reloads the catalogue if any of the files has changed since it was last
+	 * loaded
+	 *
+	 * @return true if the catalogue was reloaded
+	 */
+	synchronized boolean checkFiles() {
+		if (!hasChanged()) {
+			return false;
+		}
+		try {
+			// recorded first, so a change made during the reload is seen next time
+			long[] modifiedBefore = lastModified.clone();
+			long[] lengthsBefore = lengths.clone();
+			recordFiles();
+			try {
+				reloader.reload();
+			} catch (Exception e) {
+				System.arraycopy(modifiedBefore, 0, lastModified, 0,
+						lastModified.length);
+				System.arraycopy(lengthsBefore, 0, lengths, 0, lengths.length);
+				throw e;
+			}
+			LOG.info("Reloaded the catalogue from " + files);
+			return true;
+		} catch (Exception e) {
+			LOG.warn("Could not reload the catalogue from " + files
+					+ ", keeping the current catalogue", e);
+			return false;
+		}
+	}
+
+	private boolean hasChanged() {
+		for (int i = 0; i < files.size(); i++) {
+			File file = files.get(i);
+			if (file.lastModified() != lastModified[i]
+					|| file.length() != lengths[i]) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private void recordFiles() {
+		for (int i = 0; i < files.size(); i++) {
+			lastModified[i] = files.get(i).lastModified();
+			lengths[i] = files.get(i).length();
+		}
+	}
+
+}
@@ -0,0 +1,248 @@
+package com.bjss.pricebasket.service.impl;
+
+import static com.bjss.pricebasket.util.ValidateUtil.validateNotNull;
+
+import java.io.IOException;
+import java.text.MessageFormat;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.MissingResourceException;
+import java.util.ResourceBundle;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.springframework.context.NoSuchMessageException;
+import org.springframework.context.i18n.LocaleContextHolder;
+
+import com.bjss.pricebasket.service.MsgService;
+
+/**
+ * A {@link MsgService} that reads the resource bundle itself, and compiles
+ * every message of a locale once into a {@link MessageTemplate} rather than
+ * having a MessageSource build a MessageFormat for each call. Messages
+ * without params, such as item display names, are resolved once and returned
+ * from the cache.
+ *
+ * Gives the same messages as {@link MsgServiceImpl} with a
+ * ResourceBundleMessageSource for the same basename. Messages that can not be
+ * compiled, or params other than Strings, are formatted with a MessageFormat
+ * as before. Messages can also be appended straight to an Appendable.
+ *
+ * The bundle files are checked for changes at most once every cacheMillis.
+ * When a file has changed, the bundle is reloaded and the messages of that
+ * locale are compiled again. A negative cacheMillis never reloads.
+ *
+ * Safe for concurrent use: the compiled messages of a locale are not modified
+ * once built, and are replaced as a whole on reload.
+ *
+ * Enable with the "compiledMessages" Spring profile.
+ *
+ * @author Leon Danser
+ *
+ */
+public class CompiledMsgServiceImpl implements MsgService {
+
+	private static final long NEVER_RELOAD = -1;
+
+	private String basename = "resources";
+	private long cacheMillis = 1000;
+	private boolean useCodeAsDefaultMessage;
+	private ClassLoader bundleClassLoader = CompiledMsgServiceImpl.class
+			.getClassLoader();
+
+	private final ConcurrentMap<Locale, CompiledBundle> bundles = new ConcurrentHashMap<Locale, CompiledBundle>();
+
+	@Override
+	public String getMessage(String key, Object... params) {
+		return getMessage(LocaleContextHolder.getLocale(), key, params);
+	}
+
+	@Override
+	public String getMessage(Locale locale, String key, Object... params) {
+		CompiledBundle compiledBundle = getBundle(locale, key);
+		String pattern = compiledBundle.patterns.get(key);
+		if (pattern == null) {
+			return getDefaultMessage(locale, key);
+		}
+		if (params.length == 0) {
+			// as with a MessageSource, the pattern is returned as it is
+			return pattern;
+		}
+		MessageTemplate template = compiledBundle.templates.get(key);
+		if (template != null && MessageTemplate.canRender(params)) {
+			return template.render(params);
+		}
+		return new MessageFormat(pattern, locale).format(params);
+	}
+
+	@Override
+	public void appendMessage(Appendable out, Locale locale, String key,
+			Object... params) throws IOException {
+		validateNotNull(out, "out");
+		MessageTemplate template = params.length == 0 ? null : getBundle(
+				locale, key).templates.get(key);
+		if (template != null && MessageTemplate.canRender(params)) {
+			template.append(out, params);
+		} else {
+			out.append(getMessage(locale, key, params));
+		}
+	}
+
+	private String getDefaultMessage(Locale locale, String key) {
+		if (useCodeAsDefaultMessage) {
+			return key;
+		}
+		throw new NoSuchMessageException(key, locale);
+	}
+
+	private CompiledBundle getBundle(Locale locale, String key) {
+		validateNotNull(locale, "locale");
+		validateNotNull(key, "key");
+		return getBundle(locale);
+	}
+
+	/**
+	 * The compiled messages for the locale, reloaded if the bundle has changed
+	 * since they were last checked
+	 */
+	private CompiledBundle getBundle(Locale locale) {
+		CompiledBundle compiledBundle = bundles.get(locale);
+		if (compiledBundle == null) {
+			compiledBundle = compile(loadBundle(locale));
+			bundles.put(locale, compiledBundle);
+		} else if (cacheMillis >= 0
+				&& System.currentTimeMillis() >= compiledBundle.nextCheck) {
+			ResourceBundle bundle = loadBundle(locale);
+			if (bundle != compiledBundle.bundle) {
+				compiledBundle = compile(bundle);
+				bundles.put(locale, compiledBundle);
+			} else {
+				compiledBundle.nextCheck = System.currentTimeMillis()
+						+ cacheMillis;
+			}
+		}
+		return compiledBundle;
+	}
+
+	/**
+	 * ResourceBundle keeps the loaded bundle until cacheMillis has passed,
+	 * then returns a new instance only if the file has been modified.
+	 *
+	 * @return the bundle, or null if there is no bundle for the basename
+	 */
+	private ResourceBundle loadBundle(Locale locale) {
+		try {
+			return ResourceBundle.getBundle(basename, locale,
+					bundleClassLoader, new ReloadingControl(cacheMillis));
+		} catch (MissingResourceException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Reads every message of the bundle, including those inherited from
+	 * parent bundles, and compiles those that can be
+	 */
+	private CompiledBundle compile(ResourceBundle bundle) {
+		Map<String, String> patterns = new HashMap<String, String>();
+		Map<String, MessageTemplate> templates = new HashMap<String, MessageTemplate>();
+		if (bundle != null) {
+			Enumeration<String> keys = bundle.getKeys();
+			while (keys.hasMoreElements()) {
+				String key = keys.nextElement();
+				String pattern = bundle.getString(key);
+				patterns.put(key, pattern);
+				MessageTemplate template = MessageTemplate.compile(pattern);
+				if (template != null) {
+					templates.put(key, template);
+				}
+			}
+		}
+		return new CompiledBundle(bundle, Collections.unmodifiableMap(patterns),
+				Collections.unmodifiableMap(templates),
+				System.currentTimeMillis() + cacheMillis);
+	}
+
+	/**
+	 * The bundle basename on the classpath, eg. "resources"
+	 */
+	public String getBasename() {
+		return basename;
+	}
+
+	public void setBasename(String basename) {
+		validateNotNull(basename, "basename");
+		this.basename = basename;
+		bundles.clear();
+	}
+
+	/**
+	 * How long the messages of a locale are used before checking whether the
+	 * bundle files have changed. A negative value never checks.
+	 */
+	public long getCacheMillis() {
+		return cacheMillis;
+	}
+
+	public void setCacheMillis(long cacheMillis) {
+		this.cacheMillis = cacheMillis < 0 ? NEVER_RELOAD : cacheMillis;
+	}
+
+	/**
+	 * Whether to return the key of a message that is not in the bundle,
+	 * rather than throw a NoSuchMessageException
+	 */
+	public boolean isUseCodeAsDefaultMessage() {
+		return useCodeAsDefaultMessage;
+	}
+
+	public void setUseCodeAsDefaultMessage(boolean useCodeAsDefaultMessage) {
+		this.useCodeAsDefaultMessage = useCodeAsDefaultMessage;
+	}
+
+	public void setBundleClassLoader(ClassLoader bundleClassLoader) {
+		validateNotNull(bundleClassLoader, "bundleClassLoader");
+		this.bundleClassLoader = bundleClassLoader;
+		bundles.clear();
+	}
+
+	/**
+	 * The messages of one locale. Only nextCheck changes once built.
+	 */
+	private static class CompiledBundle {
+		final ResourceBundle bundle;
+		final Map<String, String> patterns;
+		final Map<String, MessageTemplate> templates;
+		volatile long nextCheck;
+
+		CompiledBundle(ResourceBundle bundle, Map<String, String> patterns,
+				Map<String, MessageTemplate> templates, long nextCheck) {
+			this.bundle = bundle;
+			this.patterns = patterns;
+			this.templates = templates;
+			this.nextCheck = nextCheck;
+		}
+	}
+
+	/**
+	 * Expires cached bundles after cacheMillis, so that ResourceBundle checks
+	 * whether the files have been modified.
+	 */
+	private static class ReloadingControl extends ResourceBundle.Control {
+
+		private final long cacheMillis;
+
+		ReloadingControl(long cacheMillis) {
+			this.cacheMillis = cacheMillis;
+		}
+
+		@Override
+		public long getTimeToLive(String baseName, Locale locale) {
+			return cacheMillis < 0 ? TTL_NO_EXPIRATION_CONTROL : cacheMillis;
+		}
+	}
+
+}
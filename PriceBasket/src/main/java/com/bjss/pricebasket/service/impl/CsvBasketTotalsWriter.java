@@ -0,0 +1,87 @@
+package com.bjss.pricebasket.service.impl;
+
+import static com.bjss.pricebasket.util.MinorUnitUtil.toMinorUnits;
+
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import com.bjss.pricebasket.data.BasketTotals;
+import com.bjss.pricebasket.data.Offer;
+import com.bjss.pricebasket.service.OutputFormat;
+
+/**
+ * Writes {@link BasketTotals} in the {@link OutputFormat#CSV} format. Baskets
+ * are numbered from 1 in the order they are written. Offer ids are quoted as
+ * in RFC 4180 if they contain a comma, quote or line break.
+ * 
+ * @author Leon Danser
+ * 
+ */
+final class CsvBasketTotalsWriter extends BufferedBasketTotalsWriter {
+
+	static final String HEADER = "basket,subtotal,total,offer_id,offer_discount";
+
+	private long basketCount;
+
+	CsvBasketTotalsWriter(Writer writer) {
+		super(writer);
+		buffer.append(HEADER).append('\n');
+	}
+
+	@Override
+	void append(BasketTotals totals) {
+		basketCount++;
+		long subTotal = toMinorUnits(totals.getSubTotal());
+		long total = toMinorUnits(totals.getTotal());
+		Map<Offer, BigDecimal> offerTotals = totals.getOfferTotals();
+		if (offerTotals == null || offerTotals.isEmpty()) {
+			appendBasket(subTotal, total);
+			buffer.append(",,\n");
+			return;
+		}
+		for (Entry<Offer, BigDecimal> offerEntry : offerTotals.entrySet()) {
+			appendBasket(subTotal, total);
+			buffer.append(',');
+			appendField(offerEntry.getKey().getId());
+			buffer.append(',').append(toMinorUnits(offerEntry.getValue()))
+					.append('\n');
+		}
+	}
+
+	private void appendBasket(long subTotal, long total) {
+		buffer.append(basketCount).append(',').append(subTotal).append(',')
+				.append(total);
+	}
+
+	private void appendField(String value) {
+		if (value == null) {
+			return;
+		}
+		if (!needsQuotes(value)) {
+			buffer.append(value);
+			return;
+		}
+		buffer.append('"');
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c == '"') {
+				buffer.append('"');
+			}
+			buffer.append(c);
+		}
+		buffer.append('"');
+	}
+
+	private static boolean needsQuotes(String value) {
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c == ',' || c == '"' || c == '\n' || c == '\r') {
+				return true;
+			}
+		}
+		return false;
+	}
+
+}
@@ -0,0 +1,129 @@
+package com.bjss.pricebasket.service.impl;
+
+import static com.bjss.pricebasket.util.ValidateUtil.validateNotNull;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+
+import com.bjss.pricebasket.data.Basket;
+import com.bjss.pricebasket.data.Item;
+import com.bjss.pricebasket.data.Offer;
+import com.bjss.pricebasket.data.PricingContext;
+import com.bjss.pricebasket.metrics.PricingMetrics;
+import com.bjss.pricebasket.service.ItemService;
+import com.bjss.pricebasket.service.OfferAllocator;
+
+/**
+ * Applies {@link Offer}s in the order they are met: lines are visited in
+ * basket order, and each unit of a line evaluates every Offer on its Item in
+ * turn, in catalogue order. An Offer takes the required items it needs as it
+ * applies, so Offers competing for the same required items resolve the same
+ * way in every {@link com.bjss.pricebasket.service.BasketService}, though not
+ * necessarily to the customer's best advantage.
+ *
+ * Only the Offers the {@link ItemService} returns for the tallies are
+ * evaluated, so Offers whose required items are not in the basket are not.
+ *
+ * Rather than evaluating unit by unit, all units of a line are evaluated with
+ * a single countApplications() call per Offer when that gives the same
+ * result: when the Item has one Offer, or its Offers have no required items
+ * in common.
+ *
+ * The applications are counted in an {@link OfferMap}, hashed by the ordinal
+ * of each Offer rather than its definition.
+ *
+ * Each countApplications() call is recorded as an evaluation of the Offer in
+ * the {@link PricingMetrics}, and as a hit if the Offer applied. The
+ * {@link OptimalOfferAllocator} starts from this allocation, so with it the
+ * hits are those of the greedy allocation.
+ *
+ * @author Leon Danser
+ *
+ */
+@Named
+public class GreedyOfferAllocator implements OfferAllocator {
+
+	@Inject
+	PricingMetrics pricingMetrics = PricingMetrics.NO_METRICS;
+
+	@Override
+	public Map<Offer, Integer> allocate(Basket basket,
+			Map<Item, Integer> itemTallies, PricingContext context) {
+		validateNotNull(basket, "basket");
+		validateNotNull(itemTallies, "itemTallies");
+		ItemService catalogue = getCatalogue(context);
+		OfferMap<Integer> offerApplications = new OfferMap<Integer>();
+		for (Entry<Item, Integer> line : basket.getLines().entrySet()) {
+			List<Offer> offers = catalogue.getOffers(line.getKey(),
+					itemTallies);
+			if (offers.isEmpty()) {
+				continue;
+			}
+			int quantity = line.getValue();
+			if (offers.size() == 1 || haveDisjointRequiredItems(offers)) {
+				for (Offer offer : offers) {
+					addApplications(offerApplications, offer,
+							offer.countApplications(itemTallies, quantity,
+									context));
+				}
+			} else {
+				for (int unit = 0; unit < quantity; unit++) {
+					for (Offer offer : offers) {
+						addApplications(offerApplications, offer,
+								offer.countApplications(itemTallies, 1, context));
+					}
+				}
+			}
+		}
+		return offerApplications;
+	}
+
+	/**
+	 * The catalogue the context is pinned to
+	 */
+	static ItemService getCatalogue(PricingContext context) {
+		validateNotNull(context, "context");
+		if (context.getCatalogue() == null) {
+			throw new IllegalArgumentException(
+					"[context] should be pinned to a catalogue");
+		}
+		return context.getCatalogue();
+	}
+
+	private void addApplications(OfferMap<Integer> offerApplications,
+			Offer offer, int applications) {
+		pricingMetrics.recordOfferEvaluation(offer, applications);
+		if (applications > 0) {
+			Integer total = offerApplications.getSame(offer);
+			offerApplications.put(offer, total == null ? applications
+					: total + applications);
+		}
+	}
+
+	/**
+	 * Offers with no required items in common can not affect each other, so
+	 * the order they are evaluated in does not matter.
+	 */
+	private boolean haveDisjointRequiredItems(List<Offer> offers) {
+		Set<Item> requiredItems = new HashSet<Item>();
+		for (Offer offer : offers) {
+			Map<Item, Integer> offerRequiredItems = offer.getRequiredItems();
+			if (offerRequiredItems == null) {
+				continue;
+			}
+			for (Item item : offerRequiredItems.keySet()) {
+				if (!requiredItems.add(item)) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+}
@@ -0,0 +1,252 @@
+package com.bjss.pricebasket.service.impl;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.bjss.pricebasket.catalogue.CatalogueOrdinals;
+import com.bjss.pricebasket.data.Basket;
+import com.bjss.pricebasket.data.BasketTotals;
+import com.bjss.pricebasket.data.Item;
+import com.bjss.pricebasket.data.ItemTallies;
+import com.bjss.pricebasket.data.Offer;
+import com.bjss.pricebasket.data.PricingContext;
+import com.bjss.pricebasket.service.ItemService;
+import com.bjss.pricebasket.service.OfferAllocator;
+import com.bjss.pricebasket.service.PricingSession;
+
+/**
+ * Re-evaluates only the {@link Offer}s a change to the basket can affect.
+ *
+ * A change to an {@link Item} affects the Offers on it, and the Offers that
+ * require it. Each affected Offer consumes its required items, so the Offers
+ * that require any of those items are affected too, and so on. No Offer
+ * outside that set reads or consumes the tallies of its required items, so
+ * allocating the affected Offers on their own, in basket order and from the
+ * basket quantities of their required items, gives the same applications as
+ * allocating the whole basket; the applications of every other Offer are
+ * unchanged.
+ *
+ * The subtotal and discounts are kept by the {@link RunningTotals} of the
+ * service that opened the session. If the catalogue numbers its items, every
+ * reallocation counts the affected lines in the same {@link ItemTallies}.
+ *
+ * @author Leon Danser
+ *
+ */
+final class IncrementalPricingSession implements PricingSession {
+
+	private final Basket basket = new Basket();
+	private final PricingContext context;
+	private final ItemService catalogue;
+	private final OfferAllocator offerAllocator;
+	private final RunningTotals totals;
+	/* null if the catalogue does not number its items */
+	private final ItemTallies reusedTallies;
+
+	/* the order each line was added in, which is the order of the basket */
+	private final Map<Item, Long> lineSequences = new HashMap<Item, Long>();
+	private long nextSequence;
+
+	/* each required item mapped to the lines with an Offer that requires it */
+	private final Map<Item, Set<Item>> requiringLines = new HashMap<Item, Set<Item>>();
+
+	private final Comparator<Item> basketOrder = new Comparator<Item>() {
+		@Override
+		public int compare(Item a, Item b) {
+			return Long.compare(lineSequences.get(a), lineSequences.get(b));
+		}
+	};
+
+	/**
+	 * @param context
+	 *            the conditions to price under, pinned to a catalogue
+	 * @param offerAllocator
+	 *            the allocator of the service that opened the session
+	 * @param totals
+	 *            the totals of the service that opened the session
+	 */
+	IncrementalPricingSession(PricingContext context,
+			OfferAllocator offerAllocator, RunningTotals totals) {
+		this.catalogue = GreedyOfferAllocator.getCatalogue(context);
+		this.context = context;
+		this.offerAllocator = offerAllocator;
+		this.totals = totals;
+		CatalogueOrdinals ordinals = catalogue.getOrdinals();
+		this.reusedTallies = ordinals == null ? null : new ItemTallies(ordinals);
+	}
+
+	@Override
+	public void addItem(Item item) {
+		addItem(item, 1);
+	}
+
+	@Override
+	public void addItem(Item item, int quantity) {
+		basket.addItem(item, quantity);
+		if (!lineSequences.containsKey(item)) {
+			lineSequences.put(item, nextSequence++);
+			addRequiringLine(item);
+		}
+		totals.addUnits(item, quantity);
+		reallocate(item);
+	}
+
+	@Override
+	public void removeItem(Item item) {
+		removeItem(item, 1);
+	}
+
+	@Override
+	public void removeItem(Item item, int quantity) {
+		basket.removeItem(item, quantity);
+		if (basket.getQuantity(item) == 0) {
+			lineSequences.remove(item);
+			removeRequiringLine(item);
+		}
+		totals.addUnits(item, -quantity);
+		reallocate(item);
+	}
+
+	@Override
+	public Map<Item, Integer> getLines() {
+		return basket.getLines();
+	}
+
+	@Override
+	public PricingContext getPricingContext() {
+		return context;
+	}
+
+	@Override
+	public BasketTotals getTotals() {
+		return totals.getBasketTotals(context);
+	}
+
+	/**
+	 * Allocates the Offers affected by a change to the quantity of the Item
+	 */
+	private void reallocate(Item changed) {
+		Set<Item> affectedLines = new HashSet<Item>();
+		Set<Item> requiredItems = new HashSet<Item>();
+		Deque<Item> pending = new ArrayDeque<Item>();
+		addAffectedLine(changed, affectedLines, requiredItems, pending);
+		if (requiredItems.add(changed)) {
+			pending.push(changed);
+		}
+		while (!pending.isEmpty()) {
+			Set<Item> lines = requiringLines.get(pending.pop());
+			if (lines != null) {
+				for (Item line : lines) {
+					addAffectedLine(line, affectedLines, requiredItems, pending);
+				}
+			}
+		}
+		if (affectedLines.isEmpty()) {
+			return;
+		}
+
+		List<Item> lines = new ArrayList<Item>(affectedLines.size());
+		for (Item line : affectedLines) {
+			if (lineSequences.containsKey(line)) {
+				lines.add(line);
+			}
+		}
+		Collections.sort(lines, basketOrder);
+		Basket affected = new Basket();
+		Map<Item, Integer> itemTallies = createItemTallies();
+		for (Item line : lines) {
+			int quantity = basket.getQuantity(line);
+			affected.addItem(line, quantity);
+			itemTallies.put(line, quantity);
+		}
+		for (Item item : requiredItems) {
+			int quantity = basket.getQuantity(item);
+			if (quantity > 0) {
+				itemTallies.put(item, quantity);
+			}
+		}
+
+		Map<Offer, Integer> offerApplications = offerAllocator.allocate(
+				affected, itemTallies, context);
+		for (Item line : affectedLines) {
+			for (Offer offer : catalogue.getOffers(line)) {
+				Integer applications = OfferMap.getSame(offerApplications,
+						offer);
+				totals.setApplications(offer, applications == null ? 0
+						: applications);
+			}
+		}
+	}
+
+	private Map<Item, Integer> createItemTallies() {
+		if (reusedTallies == null) {
+			return new HashMap<Item, Integer>();
+		}
+		reusedTallies.reset(catalogue.getOrdinals());
+		return reusedTallies;
+	}
+
+	/**
+	 * Adds the line, if it has Offers, and the required items of its Offers
+	 * not yet seen
+	 */
+	private void addAffectedLine(Item line, Set<Item> affectedLines,
+			Set<Item> requiredItems, Deque<Item> pending) {
+		List<Offer> offers = catalogue.getOffers(line);
+		if (offers.isEmpty() || !affectedLines.add(line)) {
+			return;
+		}
+		for (Offer offer : offers) {
+			Map<Item, Integer> offerRequiredItems = offer.getRequiredItems();
+			if (offerRequiredItems == null) {
+				continue;
+			}
+			for (Item item : offerRequiredItems.keySet()) {
+				if (requiredItems.add(item)) {
+					pending.push(item);
+				}
+			}
+		}
+	}
+
+	private void addRequiringLine(Item line) {
+		for (Offer offer : catalogue.getOffers(line)) {
+			Map<Item, Integer> offerRequiredItems = offer.getRequiredItems();
+			if (offerRequiredItems == null) {
+				continue;
+			}
+			for (Item item : offerRequiredItems.keySet()) {
+				Set<Item> lines = requiringLines.get(item);
+				if (lines == null) {
+					lines = new HashSet<Item>();
+					requiringLines.put(item, lines);
+				}
+				lines.add(line);
+			}
+		}
+	}
+
+	private void removeRequiringLine(Item line) {
+		for (Offer offer : catalogue.getOffers(line)) {
+			Map<Item, Integer> offerRequiredItems = offer.getRequiredItems();
+			if (offerRequiredItems == null) {
+				continue;
+			}
+			for (Item item : offerRequiredItems.keySet()) {
+				Set<Item> lines = requiringLines.get(item);
+				if (lines != null && lines.remove(line) && lines.isEmpty()) {
+					requiringLines.remove(item);
+				}
+			}
+		}
+	}
+
+}
@@ -0,0 +1,144 @@
+package com.bjss.pricebasket.service.impl;
+
+import static com.bjss.pricebasket.util.ValidateUtil.validateNotNull;
+
+import java.util.Map;
+import java.util.Map.Entry;
+
+import com.bjss.pricebasket.data.Item;
+
+/**
+ * The {@link Item}s of a catalogue by each of their keys: the key they are
+ * configured with, and their barcodes. Keys are matched ignoring case.
+ *
+ * Keys are folded to lower case once, when the table is built, into an open
+ * addressing table with linear probing, together with their hash codes. A
+ * lookup hashes and compares the name character by character, folding each
+ * character as it goes, so it does not copy or lower case the name and does
+ * not allocate. Probes only read the hash codes until one matches.
+ * Characters are folded with Character.toLowerCase(), whatever the default
+ * locale.
+ *
+ * Not modified once built, so it is safe for concurrent reads.
+ *
+ * @author Leon Danser
+ *
+ */
+final class ItemKeyTable {
+
+	/* the hash of an empty slot, which no key is given */
+	private static final int EMPTY = 0;
+
+	private final String[] keys;
+	private final int[] hashes;
+	private final Item[] items;
+	private final int mask;
+
+	/**
+	 * @param itemsByKey
+	 *            the items, each by the key it is configured with
+	 * @throws IllegalArgumentException
+	 *             if two items have the same key, ignoring case
+	 */
+	ItemKeyTable(Map<String, Item> itemsByKey) {
+		int keyCount = itemsByKey.size();
+		for (Item item : itemsByKey.values()) {
+			keyCount += item.getBarcodes().size();
+		}
+		// at most half full, so probes stay short
+		int capacity = Integer.highestOneBit(Math.max(keyCount, 1)) * 4;
+		keys = new String[capacity];
+		hashes = new int[capacity];
+		items = new Item[capacity];
+		mask = capacity - 1;
+		for (Entry<String, Item> entry : itemsByKey.entrySet()) {
+			put(entry.getKey(), entry.getValue());
+			for (String barcode : entry.getValue().getBarcodes()) {
+				put(barcode, entry.getValue());
+			}
+		}
+	}
+
+	private void put(String key, Item item) {
+		String folded = fold(key);
+		int hash = hash(folded);
+		int i = hash & mask;
+		while (hashes[i] != EMPTY) {
+			if (hashes[i] == hash && keys[i].equals(folded)) {
+				if (items[i] == item) {
+					return;
+				}
+				throw new IllegalArgumentException(String.format(
+						"Key [%s] of item [%s] is already a key of item [%s]",
+						key, item.getId(), items[i].getId()));
+			}
+			i = (i + 1) & mask;
+		}
+		keys[i] = folded;
+		hashes[i] = hash;
+		items[i] = item;
+	}
+
+	/**
+	 * The Item with the key or barcode, ignoring case
+	 *
+	 * @return the Item, or null if no Item has the key
+	 */
+	Item get(CharSequence key) {
+		validateNotNull(key, "key");
+		int hash = hash(key);
+		for (int i = hash & mask;; i = (i + 1) & mask) {
+			int candidate = hashes[i];
+			if (candidate == EMPTY) {
+				return null;
+			}
+			if (candidate == hash && matches(keys[i], key)) {
+				return items[i];
+			}
+		}
+	}
+
+	/**
+	 * Whether the key matches the folded key, folding its characters in
+	 * place
+	 */
+	private static boolean matches(String folded, CharSequence key) {
+		int length = folded.length();
+		if (key.length() != length) {
+			return false;
+		}
+		for (int i = 0; i < length; i++) {
+			if (fold(key.charAt(i)) != folded.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static int hash(CharSequence key) {
+		int hash = 0;
+		for (int i = 0; i < key.length(); i++) {
+			hash = 31 * hash + fold(key.charAt(i));
+		}
+		// spread the high bits into the bits the mask keeps
+		hash ^= hash >>> 16;
+		return hash == EMPTY ? 1 : hash;
+	}
+
+	private static String fold(String key) {
+		char[] chars = new char[key.length()];
+		for (int i = 0; i < chars.length; i++) {
+			chars[i] = fold(key.charAt(i));
+		}
+		return new String(chars);
+	}
+
+	static char fold(char c) {
+		// one unsigned comparison for A-Z
+		if ((char) (c - 'A') <= 'Z' - 'A') {
+			return (char) (c + ('a' - 'A'));
+		}
+		return c < 0x80 ? c : Character.toLowerCase(c);
+	}
+
+}
@@ -2,28 +2,52 @@ package com.bjss.pricebasket.service.impl;
 
 import static com.bjss.pricebasket.util.ValidateUtil.validateNotNull;
 
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 
+import javax.inject.Inject;
 import javax.inject.Named;
 
 import org.springframework.beans.BeansException;
 import org.springframework.context.ApplicationContext;
 import org.springframework.context.ApplicationContextAware;
 
+import com.bjss.pricebasket.catalogue.Catalogue;
+import com.bjss.pricebasket.catalogue.CatalogueOrdinals;
 import com.bjss.pricebasket.data.Item;
 import com.bjss.pricebasket.data.Offer;
+import com.bjss.pricebasket.metrics.PricingMetrics;
 import com.bjss.pricebasket.service.ItemService;
 
 /**
  * ItemServiceImpl is ApplicationContextAware so that it can collect all Spring
  * configured Item and Offer beans.
- * 
+ *
+ * Once the beans are collected, the {@link Offer}s are compiled into an
+ * {@link OfferNetwork}, indexed by the {@link Item} they apply to so that
+ * getOffers() is a single map lookup that does not allocate, and by the
+ * first of their required items so that a basket is only evaluated against
+ * the Offers it could meet. The {@link Item}s are put in an
+ * {@link ItemKeyTable} by their id and their barcodes, so getItem() matches
+ * names ignoring case without lower casing or copying them. Items and Offers
+ * are numbered by {@link CatalogueOrdinals}, so baskets can be counted in
+ * arrays.
+ *
+ * The items and offer index are published together as an immutable
+ * {@link ItemServiceSnapshot}. Subclasses that reload the catalogue build the
+ * next snapshot off to the side and replace the current one with a single
+ * volatile write, so lookups never lock and never see a partly loaded
+ * catalogue. Baskets are priced against one snapshot with getSnapshot().
+ *
+ * The time taken to compile each catalogue is recorded in the
+ * {@link PricingMetrics}.
+ *
  * @author Leon Danser
- * 
+ *
  */
 @Named
 public class ItemServiceImpl implements ItemService, ApplicationContextAware {
@@ -31,6 +55,18 @@ public class ItemServiceImpl implements ItemService, ApplicationContextAware {
 	Map<String, Item> items = new HashMap<String, Item>();
 	Map<String, Offer> offers = new LinkedHashMap<String, Offer>();
 
+	@Inject
+	PricingMetrics pricingMetrics = PricingMetrics.NO_METRICS;
+
+	private long catalogueVersion;
+
+	/*
+	 * The items, and the immutable network of the Offers, preserving the
+	 * configured Offer order.
+	 */
+	private volatile ItemServiceSnapshot snapshot = createSnapshot(0, items,
+			Collections.<Offer> emptyList(), pricingMetrics);
+
 	@Override
 	public void setApplicationContext(ApplicationContext applicationContext)
 			throws BeansException {
@@ -38,24 +74,98 @@ public class ItemServiceImpl implements ItemService, ApplicationContextAware {
 				.getBeansOfType(Item.class);
 		offers = (Map<String, Offer>) applicationContext
 				.getBeansOfType(Offer.class);
+		buildOfferIndex();
+	}
+
+	/**
+	 * Replaces the items and offers with those of a catalogue loaded without
+	 * the application context, and publishes them with a rebuilt offer index.
+	 * Items are keyed by their id and their barcodes. If two items have the
+	 * same key the current catalogue is kept.
+	 */
+	synchronized void loadCatalogue(Catalogue catalogue) {
+		validateNotNull(catalogue, "catalogue");
+		Map<String, Item> catalogueItems = new HashMap<String, Item>(catalogue
+				.getItems().size() * 2);
+		for (Item item : catalogue.getItems()) {
+			catalogueItems.put(item.getId(), item);
+		}
+		Map<String, Offer> catalogueOffers = new LinkedHashMap<String, Offer>(
+				catalogue.getOffers().size() * 2);
+		for (Offer offer : catalogue.getOffers()) {
+			catalogueOffers.put(offer.getId(), offer);
+		}
+		publish(catalogue.getVersion(), catalogueItems, catalogueOffers);
+	}
+
+	/**
+	 * Compiles the current items map into an {@link ItemKeyTable} and the
+	 * current offers map into an {@link OfferNetwork}, and publishes them as
+	 * the next snapshot. Must be called whenever the items or offers map is
+	 * modified. The maps must not be modified once published.
+	 *
+	 * @throws IllegalArgumentException
+	 *             if two items have the same key, ignoring case
+	 */
+	void buildOfferIndex() {
+		publish(catalogueVersion, items, offers);
+	}
+
+	private void publish(long version, Map<String, Item> catalogueItems,
+			Map<String, Offer> catalogueOffers) {
+		long start = System.nanoTime();
+		snapshot = createSnapshot(version, catalogueItems,
+				catalogueOffers.values(), pricingMetrics);
+		items = catalogueItems;
+		offers = catalogueOffers;
+		catalogueVersion = version;
+		pricingMetrics.recordCatalogueLoad(System.nanoTime() - start);
+	}
+
+	private static ItemServiceSnapshot createSnapshot(long version,
+			Map<String, Item> catalogueItems, Collection<Offer> catalogueOffers,
+			PricingMetrics pricingMetrics) {
+		ItemKeyTable keyTable = new ItemKeyTable(catalogueItems);
+		CatalogueOrdinals ordinals = new CatalogueOrdinals(
+				catalogueItems.values(), catalogueOffers);
+		return new ItemServiceSnapshot(version, keyTable, new OfferNetwork(
+				catalogueOffers, ordinals), ordinals, pricingMetrics);
 	}
 
 	@Override
 	public Item getItem(String name) {
-		validateNotNull(name, "name");
-		return items.get(name.toLowerCase());
+		return snapshot.getItem(name);
 	}
 
+	/**
+	 * Returns the pre-built, read-only List of {@link Offer}s for the item.
+	 */
 	@Override
 	public List<Offer> getOffers(Item item) {
-		validateNotNull(item, "item");
-		List<Offer> offersForItem = new LinkedList<Offer>();
-		for (Offer offer : offers.values()) {
-			if (item.equals(offer.getItem())) {
-				offersForItem.add(offer);
-			}
-		}
-		return offersForItem;
+		return snapshot.getOffers(item);
+	}
+
+	@Override
+	public List<Offer> getOffers(Item item, Map<Item, Integer> itemTallies) {
+		return snapshot.getOffers(item, itemTallies);
+	}
+
+	@Override
+	public long getCatalogueVersion() {
+		return snapshot.getCatalogueVersion();
+	}
+
+	@Override
+	public CatalogueOrdinals getOrdinals() {
+		return snapshot.getOrdinals();
+	}
+
+	/**
+	 * The current snapshot, which is not changed by later reloads
+	 */
+	@Override
+	public ItemService getSnapshot() {
+		return snapshot;
 	}
 
 }
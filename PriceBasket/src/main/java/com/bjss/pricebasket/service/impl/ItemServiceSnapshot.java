@@ -0,0 +1,89 @@
+package com.bjss.pricebasket.service.impl;
+
+import static com.bjss.pricebasket.util.ValidateUtil.validateNotNull;
+
+import java.util.List;
+import java.util.Map;
+
+import com.bjss.pricebasket.catalogue.CatalogueOrdinals;
+import com.bjss.pricebasket.data.Item;
+import com.bjss.pricebasket.data.Offer;
+import com.bjss.pricebasket.metrics.PricingMetrics;
+import com.bjss.pricebasket.service.ItemService;
+
+/**
+ * One version of the catalogue of an {@link ItemServiceImpl}: its items in an
+ * {@link ItemKeyTable}, its offers compiled into an {@link OfferNetwork}, and
+ * the {@link CatalogueOrdinals} of both. None are modified once the snapshot
+ * is published, so it is safe for concurrent reads, and a reload replaces the
+ * whole snapshot rather than changing it.
+ *
+ * Lookups, and the unknown items among them, are counted in the
+ * {@link PricingMetrics} of the service.
+ *
+ * @author Leon Danser
+ *
+ */
+final class ItemServiceSnapshot implements ItemService {
+
+	private final long catalogueVersion;
+	private final ItemKeyTable items;
+	private final OfferNetwork offerNetwork;
+	private final CatalogueOrdinals ordinals;
+	private final PricingMetrics pricingMetrics;
+
+	ItemServiceSnapshot(long catalogueVersion, ItemKeyTable items,
+			OfferNetwork offerNetwork, CatalogueOrdinals ordinals,
+			PricingMetrics pricingMetrics) {
+		this.catalogueVersion = catalogueVersion;
+		this.items = items;
+		this.offerNetwork = offerNetwork;
+		this.ordinals = ordinals;
+		this.pricingMetrics = pricingMetrics;
+	}
+
+	/**
+	 * Finds the item by its id or one of its barcodes, ignoring case,
+	 * without allocating
+	 */
+	@Override
+	public Item getItem(String name) {
+		validateNotNull(name, "name");
+		Item item = items.get(name);
+		pricingMetrics.recordItemLookup(item != null);
+		return item;
+	}
+
+	/**
+	 * Returns the pre-built, read-only List of {@link Offer}s for the item.
+	 */
+	@Override
+	public List<Offer> getOffers(Item item) {
+		return offerNetwork.getOffers(item);
+	}
+
+	/**
+	 * Returns the pre-built List of {@link Offer}s for the item when none are
+	 * left out, or else a List of those not left out.
+	 */
+	@Override
+	public List<Offer> getOffers(Item item, Map<Item, Integer> itemTallies) {
+		return offerNetwork.getOffers(item, itemTallies);
+	}
+
+	@Override
+	public long getCatalogueVersion() {
+		return catalogueVersion;
+	}
+
+	@Override
+	public CatalogueOrdinals getOrdinals() {
+		return ordinals;
+	}
+
+	@Override
+	public ItemService getSnapshot() {
+		return this;
+	}
+
+}
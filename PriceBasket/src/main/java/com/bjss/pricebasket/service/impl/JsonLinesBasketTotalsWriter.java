@@ -0,0 +1,77 @@
+package com.bjss.pricebasket.service.impl;
+
+import static com.bjss.pricebasket.util.MinorUnitUtil.toMinorUnits;
+
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import com.bjss.pricebasket.data.BasketTotals;
+import com.bjss.pricebasket.data.Offer;
+import com.bjss.pricebasket.service.OutputFormat;
+
+/**
+ * Writes {@link BasketTotals} in the {@link OutputFormat#JSON_LINES} format.
+ * Baskets are numbered from 1 in the order they are written.
+ * 
+ * @author Leon Danser
+ * 
+ */
+final class JsonLinesBasketTotalsWriter extends BufferedBasketTotalsWriter {
+
+	private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+	private long basketCount;
+
+	JsonLinesBasketTotalsWriter(Writer writer) {
+		super(writer);
+	}
+
+	@Override
+	void append(BasketTotals totals) {
+		basketCount++;
+		buffer.append("{\"basket\":").append(basketCount)
+				.append(",\"subtotal\":")
+				.append(toMinorUnits(totals.getSubTotal()))
+				.append(",\"total\":").append(toMinorUnits(totals.getTotal()))
+				.append(",\"offers\":[");
+		Map<Offer, BigDecimal> offerTotals = totals.getOfferTotals();
+		if (offerTotals != null) {
+			boolean first = true;
+			for (Entry<Offer, BigDecimal> offerEntry : offerTotals.entrySet()) {
+				if (!first) {
+					buffer.append(',');
+				}
+				buffer.append("{\"id\":");
+				appendString(offerEntry.getKey().getId());
+				buffer.append(",\"discount\":")
+						.append(toMinorUnits(offerEntry.getValue()))
+						.append('}');
+				first = false;
+			}
+		}
+		buffer.append("]}\n");
+	}
+
+	private void appendString(String value) {
+		if (value == null) {
+			buffer.append("null");
+			return;
+		}
+		buffer.append('"');
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c == '"' || c == '\\') {
+				buffer.append('\\').append(c);
+			} else if (c < 0x20) {
+				buffer.append("\\u00").append(HEX_DIGITS[c >> 4])
+						.append(HEX_DIGITS[c & 0xf]);
+			} else {
+				buffer.append(c);
+			}
+		}
+		buffer.append('"');
+	}
+
+}
@@ -0,0 +1,139 @@
+package com.bjss.pricebasket.service.impl;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A message pattern split once into literal text and argument indexes, so it
+ * can be rendered by appending the pieces in turn rather than parsing the
+ * pattern with a MessageFormat each time.
+ *
+ * Only patterns of plain text and simple arguments, eg. "{0} {1}% off: -{2}",
+ * can be compiled. Patterns that use quotes or format types need a
+ * MessageFormat and are not compiled.
+ *
+ * Immutable, so one instance can be rendered by many threads at once.
+ *
+ * @author Leon Danser
+ *
+ */
+final class MessageTemplate {
+
+	/** literals[i] comes before argument i, and the last literal after all */
+	private final String[] literals;
+	private final int[] argumentIndexes;
+
+	private MessageTemplate(String[] literals, int[] argumentIndexes) {
+		this.literals = literals;
+		this.argumentIndexes = argumentIndexes;
+	}
+
+	/**
+	 * Compiles the pattern
+	 *
+	 * @param pattern
+	 *            a MessageFormat pattern
+	 * @return the compiled template, or null if the pattern needs a
+	 *         MessageFormat
+	 */
+	static MessageTemplate compile(String pattern) {
+		List<String> literals = new ArrayList<String>();
+		List<Integer> argumentIndexes = new ArrayList<Integer>();
+		StringBuilder literal = new StringBuilder();
+		int i = 0;
+		while (i < pattern.length()) {
+			char c = pattern.charAt(i);
+			if (c == '\'') {
+				return null;
+			} else if (c == '{') {
+				int end = pattern.indexOf('}', i);
+				Integer argumentIndex = end < 0 ? null : parseArgumentIndex(pattern
+						.substring(i + 1, end));
+				if (argumentIndex == null) {
+					return null;
+				}
+				literals.add(literal.toString());
+				literal.setLength(0);
+				argumentIndexes.add(argumentIndex);
+				i = end + 1;
+			} else {
+				literal.append(c);
+				i++;
+			}
+		}
+		literals.add(literal.toString());
+
+		int[] indexes = new int[argumentIndexes.size()];
+		for (int j = 0; j < indexes.length; j++) {
+			indexes[j] = argumentIndexes.get(j);
+		}
+		return new MessageTemplate(literals.toArray(new String[literals.size()]),
+				indexes);
+	}
+
+	/**
+	 * @return the index, or null if it is not a plain argument index
+	 */
+	private static Integer parseArgumentIndex(String argument) {
+		if (argument.isEmpty() || argument.length() > 2) {
+			return null;
+		}
+		for (int i = 0; i < argument.length(); i++) {
+			if (!Character.isDigit(argument.charAt(i))) {
+				return null;
+			}
+		}
+		return Integer.valueOf(argument);
+	}
+
+	/**
+	 * Whether the params can be rendered by this template with the same
+	 * result as a MessageFormat. Only Strings and nulls are, as other types
+	 * are formatted for the locale.
+	 */
+	static boolean canRender(Object[] params) {
+		for (Object param : params) {
+			if (param != null && !(param instanceof String)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Appends the message with the params in place of the arguments. As with
+	 * MessageFormat, an argument with no param is appended as it appears in
+	 * the pattern.
+	 *
+	 * @param out
+	 *            where to append the message
+	 * @param params
+	 *            Strings or nulls, see canRender()
+	 */
+	void append(Appendable out, Object[] params) throws IOException {
+		for (int i = 0; i < argumentIndexes.length; i++) {
+			out.append(literals[i]);
+			int argumentIndex = argumentIndexes[i];
+			if (argumentIndex < params.length) {
+				out.append(String.valueOf(params[argumentIndex]));
+			} else {
+				out.append('{').append(Integer.toString(argumentIndex))
+						.append('}');
+			}
+		}
+		out.append(literals[argumentIndexes.length]);
+	}
+
+	String render(Object[] params) {
+		StringBuilder sb = new StringBuilder();
+		try {
+			append(sb, params);
+		} catch (IOException e) {
+			// StringBuilder does not throw IOException
+			throw new IllegalStateException(e);
+		}
+		return sb.toString();
+	}
+
+}
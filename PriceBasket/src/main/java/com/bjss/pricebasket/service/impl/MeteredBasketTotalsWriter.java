@@ -0,0 +1,49 @@
+package com.bjss.pricebasket.service.impl;
+
+import static com.bjss.pricebasket.util.ValidateUtil.validateNotNull;
+
+import java.io.IOException;
+
+import com.bjss.pricebasket.data.BasketTotals;
+import com.bjss.pricebasket.metrics.PricingMetrics;
+import com.bjss.pricebasket.service.BasketTotalsWriter;
+
+/**
+ * Records the time taken by each write() of another
+ * {@link BasketTotalsWriter} in the {@link PricingMetrics}. A write that
+ * fills the buffer of the writer includes writing the buffer to its stream.
+ *
+ * @author Leon Danser
+ *
+ */
+final class MeteredBasketTotalsWriter implements BasketTotalsWriter {
+
+	private final BasketTotalsWriter writer;
+	private final PricingMetrics pricingMetrics;
+
+	MeteredBasketTotalsWriter(BasketTotalsWriter writer,
+			PricingMetrics pricingMetrics) {
+		validateNotNull(writer, "writer");
+		validateNotNull(pricingMetrics, "pricingMetrics");
+		this.writer = writer;
+		this.pricingMetrics = pricingMetrics;
+	}
+
+	@Override
+	public void write(BasketTotals totals) throws IOException {
+		long start = System.nanoTime();
+		writer.write(totals);
+		pricingMetrics.recordTotalsWritten(System.nanoTime() - start);
+	}
+
+	@Override
+	public void flush() throws IOException {
+		writer.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+		writer.close();
+	}
+
+}
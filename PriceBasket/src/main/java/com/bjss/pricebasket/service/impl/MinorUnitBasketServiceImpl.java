@@ -0,0 +1,237 @@
+package com.bjss.pricebasket.service.impl;
+
+import java.math.BigDecimal;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import com.bjss.pricebasket.catalogue.CatalogueOrdinals;
+import com.bjss.pricebasket.data.Basket;
+import com.bjss.pricebasket.data.BasketTotals;
+import com.bjss.pricebasket.data.Item;
+import com.bjss.pricebasket.data.Offer;
+import com.bjss.pricebasket.data.PricingContext;
+import com.bjss.pricebasket.service.BasketService;
+
+/**
+ * A {@link BasketService} that does its arithmetic with longs rather than
+ * BigDecimals. Offers are applied with exactly the same rules as
+ * {@link BasketServiceImpl}.
+ *
+ * The subtotal is held in minor units (pence). Discounts are held in units of
+ * 1/10,000 of a minor unit, which is exact for any percentage discount of up
+ * to 4 decimal places (eg. 12.5% is 0.125) applied to a whole-pence price. No
+ * rounding happens here: the discount and total values are exact, and are
+ * rounded once, when the {@link BasketTotals} are formatted for output. This
+ * is the same rounding point as {@link BasketServiceImpl}, so both print the
+ * same totals.
+ *
+ * The discount units of one application of each offer are worked out once
+ * per catalogue, in an array indexed by offer ordinal, as each Item works out
+ * its minor unit price once. Offers without an ordinal in the catalogue
+ * priced against are converted when they are applied. BigDecimals are only
+ * created when the results are copied into the {@link BasketTotals}.
+ *
+ * Enable with the "minorUnitPricing" Spring profile.
+ *
+ * @author Leon Danser
+ *
+ */
+public class MinorUnitBasketServiceImpl extends AbstractBasketService {
+
+	/** Decimal places of the currency held by a discount unit */
+	static final int DISCOUNT_SCALE = 6;
+	private static final int MINOR_UNIT_SCALE = 2;
+	private static final long DISCOUNT_UNITS_PER_MINOR_UNIT = 10000;
+	/** Marks an offer whose discount can not be held in discount units */
+	private static final long NO_DISCOUNT_UNITS = Long.MIN_VALUE;
+
+	/** The discount units of the offers of the last catalogue priced against */
+	private volatile DiscountUnits discountUnits;
+
+	@Override
+	BasketTotals priceBasket(Basket basket, PricingContext context) {
+
+		// A map that stores how many of each item there is in the basket.
+		// Used to calculate offerTotals.
+		Map<Item, Integer> itemTallies = createItemTallies(context);
+
+		long subTotal = calculateSubTotal(basket, itemTallies);
+		Map<Offer, Integer> offerApplications = countOfferApplications(basket,
+				itemTallies, context);
+
+		DiscountUnits units = getDiscountUnits(context);
+		long discounts = 0;
+		Map<Offer, BigDecimal> offerTotals = new OfferMap<BigDecimal>(
+				offerApplications.size());
+		for (Entry<Offer, Integer> entry : offerApplications.entrySet()) {
+			Offer offer = entry.getKey();
+			long offerDiscount = Math.multiplyExact(
+					units.getDiscountUnits(offer), entry.getValue());
+			discounts = Math.addExact(discounts, offerDiscount);
+			offerTotals.put(offer,
+					BigDecimal.valueOf(offerDiscount, DISCOUNT_SCALE));
+		}
+		long total = Math.subtractExact(Math.multiplyExact(subTotal,
+				DISCOUNT_UNITS_PER_MINOR_UNIT), discounts);
+
+		BasketTotals totals = new BasketTotals();
+		totals.setSubTotal(BigDecimal.valueOf(subTotal, MINOR_UNIT_SCALE));
+		totals.setOfferTotals(offerTotals);
+		totals.setTotal(BigDecimal.valueOf(total, DISCOUNT_SCALE));
+		totals.setPricingContext(context);
+		totals.setCatalogueVersion(context.getCatalogue().getCatalogueVersion());
+		return totals;
+	}
+
+	@Override
+	RunningTotals createRunningTotals(PricingContext context) {
+		return new MinorUnitRunningTotals(getDiscountUnits(context));
+	}
+
+	/**
+	 * Sums the minor unit price of each line in the {@link Basket} multiplied
+	 * by its quantity, and records the quantity of each Item.
+	 *
+	 * @return the subtotal in minor units
+	 */
+	private long calculateSubTotal(Basket basket, Map<Item, Integer> itemTallies) {
+		long subTotal = 0;
+		for (Entry<Item, Integer> line : basket.getLines().entrySet()) {
+			Item item = line.getKey();
+			int quantity = line.getValue();
+			subTotal = Math.addExact(subTotal, Math.multiplyExact(
+					item.getMinorUnitPrice(), (long) quantity));
+			itemTallies.put(item, quantity);
+		}
+		return subTotal;
+	}
+
+	/**
+	 * The discount units of the offers of the catalogue of the pinned context,
+	 * worked out when a catalogue is first priced against
+	 */
+	private DiscountUnits getDiscountUnits(PricingContext context) {
+		CatalogueOrdinals ordinals = context.getCatalogue().getOrdinals();
+		DiscountUnits units = discountUnits;
+		if (units == null || units.ordinals != ordinals) {
+			units = new DiscountUnits(ordinals);
+			discountUnits = units;
+		}
+		return units;
+	}
+
+	/**
+	 * Converts the discount of a single application of the {@link Offer} into
+	 * discount units.
+	 *
+	 * @throws IllegalStateException
+	 *             if the discount can not be held exactly in discount units
+	 */
+	static long toDiscountUnits(Offer offer) {
+		BigDecimal discount = offer.calculateDiscount();
+		try {
+			return discount.setScale(DISCOUNT_SCALE).unscaledValue()
+					.longValueExact();
+		} catch (ArithmeticException e) {
+			throw new IllegalStateException(String.format(
+					"Discount %s of offer [%s] has more than %d decimal places",
+					discount, offer.getId(), DISCOUNT_SCALE), e);
+		}
+	}
+
+	/**
+	 * The discount units of one application of each {@link Offer} of a
+	 * catalogue, indexed by offer ordinal. The offers of a catalogue are not
+	 * modified once it is published, so they are converted once. An offer that
+	 * can not be converted is converted again when it is applied, so it fails
+	 * only the baskets it applies to.
+	 */
+	static final class DiscountUnits {
+
+		final CatalogueOrdinals ordinals;
+		private final long[] units;
+
+		DiscountUnits(CatalogueOrdinals ordinals) {
+			this.ordinals = ordinals;
+			units = new long[ordinals == null ? 0 : ordinals.getOfferCount()];
+			for (int ordinal = 0; ordinal < units.length; ordinal++) {
+				try {
+					units[ordinal] = toDiscountUnits(ordinals.getOffer(ordinal));
+				} catch (IllegalStateException e) {
+					units[ordinal] = NO_DISCOUNT_UNITS;
+				}
+			}
+		}
+
+		/**
+		 * The discount units of a single application of the {@link Offer}
+		 *
+		 * @throws IllegalStateException
+		 *             if the discount can not be held exactly in discount units
+		 */
+		long getDiscountUnits(Offer offer) {
+			int ordinal = offer.getOrdinal();
+			if (ordinal >= 0 && ordinal < units.length
+					&& ordinals.getOffer(ordinal) == offer
+					&& units[ordinal] != NO_DISCOUNT_UNITS) {
+				return units[ordinal];
+			}
+			return toDiscountUnits(offer);
+		}
+	}
+
+	/**
+	 * Keeps the subtotal in minor units and the discount of each Offer in
+	 * discount units, as calculateBasketTotals() does.
+	 */
+	private final class MinorUnitRunningTotals extends RunningTotals {
+
+		private final DiscountUnits units;
+		private long subTotal;
+		private final Map<Offer, Long> offerDiscounts = new OfferMap<Long>();
+
+		MinorUnitRunningTotals(DiscountUnits units) {
+			this.units = units;
+		}
+
+		@Override
+		void addUnits(Item item, int quantity) {
+			subTotal = Math.addExact(subTotal, Math.multiplyExact(
+					item.getMinorUnitPrice(), (long) quantity));
+		}
+
+		@Override
+		void setApplications(Offer offer, int applications) {
+			if (applications == 0) {
+				offerDiscounts.remove(offer);
+			} else {
+				offerDiscounts.put(offer, Math.multiplyExact(
+						units.getDiscountUnits(offer), applications));
+			}
+		}
+
+		@Override
+		BasketTotals getBasketTotals(PricingContext context) {
+			long discounts = 0;
+			Map<Offer, BigDecimal> offerTotals = new OfferMap<BigDecimal>(
+					offerDiscounts.size());
+			for (Entry<Offer, Long> entry : offerDiscounts.entrySet()) {
+				discounts = Math.addExact(discounts, entry.getValue());
+				offerTotals.put(entry.getKey(),
+						BigDecimal.valueOf(entry.getValue(), DISCOUNT_SCALE));
+			}
+			long total = Math.subtractExact(Math.multiplyExact(subTotal,
+					DISCOUNT_UNITS_PER_MINOR_UNIT), discounts);
+
+			BasketTotals totals = new BasketTotals();
+			totals.setSubTotal(BigDecimal.valueOf(subTotal, MINOR_UNIT_SCALE));
+			totals.setOfferTotals(offerTotals);
+			totals.setTotal(BigDecimal.valueOf(total, DISCOUNT_SCALE));
+			totals.setPricingContext(context);
+			totals.setCatalogueVersion(context.getCatalogue()
+					.getCatalogueVersion());
+			return totals;
+		}
+	}
+
+}
@@ -1,5 +1,6 @@
 package com.bjss.pricebasket.service.impl;
 
+import java.io.IOException;
 import java.util.Locale;
 
 import javax.annotation.Resource;
@@ -14,6 +15,12 @@ import com.bjss.pricebasket.service.MsgService;
  * This class acts as a wrapper for the Spring injected MessageSource resource
  * bundle. This service uses the System configured locale
  * 
+ * Safe for concurrent use: the MessageSource caches its bundles and formats
+ * thread safely. Note that the locale is held per thread by
+ * LocaleContextHolder, so threads that have not set a locale use the System
+ * default. Callers that already know the locale, eg. from a PricingContext,
+ * should pass it in to avoid the thread local lookup.
+ * 
  * @author Leon Danser
  * 
  */
@@ -29,4 +36,15 @@ public class MsgServiceImpl implements MsgService {
 		return messageSource.getMessage(key, params, locale);
 	}
 
+	@Override
+	public String getMessage(Locale locale, String key, Object... params) {
+		return messageSource.getMessage(key, params, locale);
+	}
+
+	@Override
+	public void appendMessage(Appendable out, Locale locale, String key,
+			Object... params) throws IOException {
+		out.append(getMessage(locale, key, params));
+	}
+
 }
@@ -0,0 +1,270 @@
+package com.bjss.pricebasket.service.impl;
+
+import static com.bjss.pricebasket.util.ValidateUtil.validateNotNull;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import com.bjss.pricebasket.data.Offer;
+
+/**
+ * A Map of the {@link Offer}s that apply to a basket, in the order they were
+ * first put, hashed by the ordinal of each Offer in its catalogue rather
+ * than by its hashCode(), which hashes the whole definition of the Offer.
+ * Offers without an ordinal are hashed by id.
+ *
+ * Offers with an ordinal are found by identity, as they are the instances
+ * of their catalogue. Offers without one may be decoded again by each
+ * lookup of a catalogue that is not held on the heap, so are found by id,
+ * which is unique within a catalogue. The Map methods fall back to
+ * equality, so totals can be compared with those priced against another
+ * catalogue, but put() adds an Offer that is equal to another but is not
+ * the same offer as a new entry. The pricing services use getSame(), which
+ * does not fall back.
+ *
+ * Sized to the Offers that apply, which are usually far fewer than the
+ * Offers of the catalogue. Removing an Offer rebuilds the table, as only
+ * sessions remove them.
+ *
+ * @author Leon Danser
+ *
+ */
+final class OfferMap<V> extends AbstractMap<Offer, V> {
+
+	private Offer[] keys;
+	private Object[] values;
+	private int size;
+	/* the position of each key plus 1 by hash, 0 for an empty slot */
+	private int[] table;
+
+	private final Set<Entry<Offer, V>> entrySet = new EntrySet();
+
+	OfferMap() {
+		this(4);
+	}
+
+	/**
+	 * @param expectedSize
+	 *            the number of Offers expected, which may be exceeded
+	 */
+	OfferMap(int expectedSize) {
+		int capacity = Math.max(expectedSize, 2);
+		keys = new Offer[capacity];
+		values = new Object[capacity];
+		table = new int[tableSize(capacity)];
+	}
+
+	/* at most half full */
+	private static int tableSize(int capacity) {
+		return Integer.highestOneBit(capacity - 1) * 4;
+	}
+
+	private static int hash(Offer offer) {
+		int ordinal = offer.getOrdinal();
+		if (ordinal >= 0) {
+			return ordinal;
+		}
+		String id = offer.getId();
+		return id == null ? System.identityHashCode(offer) : id.hashCode();
+	}
+
+	/**
+	 * Whether the Offers are the same instance, or neither has an ordinal and
+	 * they have the same id
+	 */
+	private static boolean isSame(Offer key, Offer offer) {
+		if (key == offer) {
+			return true;
+		}
+		if (key.getOrdinal() >= 0 || offer.getOrdinal() >= 0) {
+			return false;
+		}
+		String id = offer.getId();
+		return id != null && id.equals(key.getId());
+	}
+
+	/**
+	 * The position of the same Offer, or -1
+	 */
+	private int position(Offer offer) {
+		int mask = table.length - 1;
+		for (int i = hash(offer) & mask;; i = (i + 1) & mask) {
+			int position = table[i] - 1;
+			if (position < 0) {
+				return -1;
+			}
+			if (isSame(keys[position], offer)) {
+				return position;
+			}
+		}
+	}
+
+	/**
+	 * The position of the same instance, else of an equal Offer, or -1
+	 */
+	private int positionOfEqual(Object key) {
+		if (!(key instanceof Offer)) {
+			return -1;
+		}
+		int position = position((Offer) key);
+		if (position >= 0
+				&& (keys[position] == key || keys[position].equals(key))) {
+			return position;
+		}
+		for (int i = 0; i < size; i++) {
+			if (keys[i].equals(key)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * The value of the same Offer, without falling back to equality
+	 *
+	 * @return the value, or null if the Offer is not in the map
+	 */
+	@SuppressWarnings("unchecked")
+	V getSame(Offer offer) {
+		int position = position(offer);
+		return position < 0 ? null : (V) values[position];
+	}
+
+	/**
+	 * The value of the same Offer in the map, without falling back to
+	 * equality if it is an OfferMap
+	 */
+	@SuppressWarnings("unchecked")
+	static <V> V getSame(Map<Offer, V> map, Offer offer) {
+		if (map instanceof OfferMap) {
+			return ((OfferMap<V>) map).getSame(offer);
+		}
+		return map.get(offer);
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public V get(Object key) {
+		int position = positionOfEqual(key);
+		return position < 0 ? null : (V) values[position];
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		return positionOfEqual(key) >= 0;
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public V put(Offer key, V value) {
+		validateNotNull(key, "offer");
+		int position = position(key);
+		if (position >= 0) {
+			V previous = (V) values[position];
+			values[position] = value;
+			return previous;
+		}
+		if (size == keys.length) {
+			keys = Arrays.copyOf(keys, size * 2);
+			values = Arrays.copyOf(values, size * 2);
+			rebuildTable();
+		}
+		keys[size] = key;
+		values[size] = value;
+		size++;
+		insert(size - 1);
+		return null;
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public V remove(Object key) {
+		int position = positionOfEqual(key);
+		if (position < 0) {
+			return null;
+		}
+		V previous = (V) values[position];
+		System.arraycopy(keys, position + 1, keys, position, size - position
+				- 1);
+		System.arraycopy(values, position + 1, values, position, size
+				- position - 1);
+		size--;
+		keys[size] = null;
+		values[size] = null;
+		rebuildTable();
+		return previous;
+	}
+
+	@Override
+	public void clear() {
+		Arrays.fill(keys, 0, size, null);
+		Arrays.fill(values, 0, size, null);
+		Arrays.fill(table, 0);
+		size = 0;
+	}
+
+	private void rebuildTable() {
+		table = new int[tableSize(keys.length)];
+		for (int position = 0; position < size; position++) {
+			insert(position);
+		}
+	}
+
+	private void insert(int position) {
+		int mask = table.length - 1;
+		int i = hash(keys[position]) & mask;
+		while (table[i] != 0) {
+			i = (i + 1) & mask;
+		}
+		table[i] = position + 1;
+	}
+
+	@Override
+	public Set<Entry<Offer, V>> entrySet() {
+		return entrySet;
+	}
+
+	private final class EntrySet extends AbstractSet<Entry<Offer, V>> {
+
+		@Override
+		public Iterator<Entry<Offer, V>> iterator() {
+			return new Iterator<Entry<Offer, V>>() {
+
+				private int next;
+
+				@Override
+				public boolean hasNext() {
+					return next < size;
+				}
+
+				@Override
+				@SuppressWarnings("unchecked")
+				public Entry<Offer, V> next() {
+					if (next >= size) {
+						throw new NoSuchElementException();
+					}
+					Entry<Offer, V> entry = new SimpleImmutableEntry<Offer, V>(
+							keys[next], (V) values[next]);
+					next++;
+					return entry;
+				}
+			};
+		}
+
+		@Override
+		public int size() {
+			return size;
+		}
+	}
+
+}
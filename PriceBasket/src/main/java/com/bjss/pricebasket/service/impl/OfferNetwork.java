@@ -0,0 +1,229 @@
+package com.bjss.pricebasket.service.impl;
+
+import static com.bjss.pricebasket.util.ValidateUtil.validateNotNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import com.bjss.pricebasket.catalogue.CatalogueOrdinals;
+import com.bjss.pricebasket.data.Item;
+import com.bjss.pricebasket.data.Offer;
+
+/**
+ * The {@link Offer}s of a catalogue, compiled when the catalogue is loaded
+ * into a table indexed by the ordinal of the {@link Item} each Offer applies
+ * to and by the item that guards it: the first of its required items. An
+ * Offer whose guard is not in the basket neither applies nor consumes any
+ * item, so it is left out of the Offers evaluated for the basket.
+ *
+ * The Offers of an Item are filtered by whichever is smaller: its guarded
+ * Offers, each checked against the tallies, or the tallies, each looked up
+ * in the Offers it guards. A basket is then evaluated against the Offers
+ * whose conditions it could meet, however many Offers the catalogue has.
+ *
+ * Not modified once built, so it is safe for concurrent reads.
+ *
+ * @author Leon Danser
+ *
+ */
+final class OfferNetwork {
+
+	private final CatalogueOrdinals ordinals;
+	/* the Node of each Item by ordinal, null if it has no Offers */
+	private final Node[] nodes;
+
+	/**
+	 * @param offers
+	 *            the Offers of the catalogue, in catalogue order
+	 * @param ordinals
+	 *            the ordinals of the catalogue, which number every Item the
+	 *            Offers apply to
+	 */
+	OfferNetwork(Collection<Offer> offers, CatalogueOrdinals ordinals) {
+		this.ordinals = ordinals;
+		Map<Item, List<Offer>> offersByItem = new LinkedHashMap<Item, List<Offer>>();
+		for (Offer offer : offers) {
+			if (offer.getItem() == null) {
+				// can not be looked up, as getOffers() requires an Item
+				continue;
+			}
+			List<Offer> offersForItem = offersByItem.get(offer.getItem());
+			if (offersForItem == null) {
+				offersForItem = new ArrayList<Offer>(1);
+				offersByItem.put(offer.getItem(), offersForItem);
+			}
+			offersForItem.add(offer);
+		}
+		nodes = new Node[ordinals.getItemCount()];
+		for (Entry<Item, List<Offer>> entry : offersByItem.entrySet()) {
+			nodes[ordinals.getOrdinal(entry.getKey())] = new Node(
+					entry.getValue());
+		}
+	}
+
+	/**
+	 * The Node of the Item, or null if no Offer applies to it
+	 */
+	private Node getNode(Item item) {
+		int ordinal = ordinals.getOrdinal(item);
+		return ordinal == Item.NO_ORDINAL ? null : nodes[ordinal];
+	}
+
+	/**
+	 * All the Offers applied to the Item, as a read-only List
+	 */
+	List<Offer> getOffers(Item item) {
+		validateNotNull(item, "item");
+		Node node = getNode(item);
+		if (node == null) {
+			return Collections.emptyList();
+		}
+		return node.offers;
+	}
+
+	/**
+	 * The Offers applied to the Item whose guard is in the tallies, in
+	 * catalogue order, as a read-only List
+	 */
+	List<Offer> getOffers(Item item, Map<Item, Integer> itemTallies) {
+		validateNotNull(item, "item");
+		validateNotNull(itemTallies, "itemTallies");
+		Node node = getNode(item);
+		if (node == null) {
+			return Collections.emptyList();
+		}
+		if (node.guardPositions.isEmpty()) {
+			return node.offers;
+		}
+		int[] positions;
+		int count = 0;
+		if (node.guardedCount <= itemTallies.size()) {
+			// fewer guarded Offers than tallies
+			positions = new int[node.guards.length];
+			for (int i = 0; i < node.guards.length; i++) {
+				if (node.guards[i] == null
+						|| itemTallies.containsKey(node.guards[i])) {
+					positions[count++] = i;
+				}
+			}
+		} else {
+			int[][] guarded = new int[itemTallies.size()][];
+			int size = node.unguardedPositions.length;
+			int guards = 0;
+			for (Item tallied : itemTallies.keySet()) {
+				int[] guardedPositions = node.guardPositions.get(tallied);
+				if (guardedPositions != null) {
+					guarded[guards++] = guardedPositions;
+					size += guardedPositions.length;
+				}
+			}
+			positions = Arrays.copyOf(node.unguardedPositions, size);
+			count = node.unguardedPositions.length;
+			for (int i = 0; i < guards; i++) {
+				System.arraycopy(guarded[i], 0, positions, count,
+						guarded[i].length);
+				count += guarded[i].length;
+			}
+			Arrays.sort(positions);
+		}
+		if (count == node.guards.length) {
+			return node.offers;
+		}
+		Offer[] offers = new Offer[count];
+		for (int i = 0; i < count; i++) {
+			offers[i] = node.offers.get(positions[i]);
+		}
+		return Collections.unmodifiableList(Arrays.asList(offers));
+	}
+
+	/**
+	 * The Offers whose guard is in the tallies, for catalogues that are not
+	 * compiled
+	 */
+	static List<Offer> filterOffers(List<Offer> offers,
+			Map<Item, Integer> itemTallies) {
+		validateNotNull(itemTallies, "itemTallies");
+		List<Offer> filtered = null;
+		for (int i = 0; i < offers.size(); i++) {
+			Item guard = getGuard(offers.get(i));
+			if (guard == null || itemTallies.containsKey(guard)) {
+				if (filtered != null) {
+					filtered.add(offers.get(i));
+				}
+			} else if (filtered == null) {
+				filtered = new ArrayList<Offer>(offers.subList(0, i));
+			}
+		}
+		return filtered == null ? offers : Collections
+				.unmodifiableList(filtered);
+	}
+
+	/**
+	 * The first required item of the Offer, or null if it has none
+	 */
+	static Item getGuard(Offer offer) {
+		Map<Item, Integer> requiredItems = offer.getRequiredItems();
+		if (requiredItems == null || requiredItems.isEmpty()) {
+			return null;
+		}
+		return requiredItems.keySet().iterator().next();
+	}
+
+	/**
+	 * The Offers of one Item, and the position of each of them by guard
+	 */
+	private static final class Node {
+
+		final List<Offer> offers;
+		/* the guard of the Offer at each position, null if unguarded */
+		final Item[] guards;
+		final int guardedCount;
+		final int[] unguardedPositions;
+		final Map<Item, int[]> guardPositions;
+
+		Node(List<Offer> offersForItem) {
+			Offer[] offerArray = offersForItem.toArray(new Offer[offersForItem
+					.size()]);
+			offers = Collections.unmodifiableList(Arrays.asList(offerArray));
+			guards = new Item[offerArray.length];
+			Map<Item, List<Integer>> positionsByGuard = new HashMap<Item, List<Integer>>();
+			List<Integer> unguarded = new ArrayList<Integer>();
+			for (int i = 0; i < offerArray.length; i++) {
+				guards[i] = getGuard(offerArray[i]);
+				if (guards[i] == null) {
+					unguarded.add(i);
+					continue;
+				}
+				List<Integer> positions = positionsByGuard.get(guards[i]);
+				if (positions == null) {
+					positions = new ArrayList<Integer>(1);
+					positionsByGuard.put(guards[i], positions);
+				}
+				positions.add(i);
+			}
+			guardedCount = offerArray.length - unguarded.size();
+			unguardedPositions = toArray(unguarded);
+			guardPositions = new HashMap<Item, int[]>(
+					positionsByGuard.size() * 2);
+			for (Entry<Item, List<Integer>> entry : positionsByGuard.entrySet()) {
+				guardPositions.put(entry.getKey(), toArray(entry.getValue()));
+			}
+		}
+
+		private static int[] toArray(List<Integer> list) {
+			int[] array = new int[list.size()];
+			for (int i = 0; i < array.length; i++) {
+				array[i] = list.get(i);
+			}
+			return array;
+		}
+	}
+
+}
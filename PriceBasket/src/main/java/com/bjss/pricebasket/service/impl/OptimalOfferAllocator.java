@@ -0,0 +1,550 @@
+package com.bjss.pricebasket.service.impl;
+
+import static com.bjss.pricebasket.util.ValidateUtil.validateNotNull;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import com.bjss.pricebasket.data.Basket;
+import com.bjss.pricebasket.data.Item;
+import com.bjss.pricebasket.data.Offer;
+import com.bjss.pricebasket.data.PricingContext;
+import com.bjss.pricebasket.service.ItemService;
+import com.bjss.pricebasket.service.OfferAllocator;
+
+/**
+ * Allocates the required items of a {@link Basket} to the {@link Offer}s that
+ * compete for them so that the total discount is as large as possible,
+ * rather than in the order the Offers are met.
+ *
+ * Each application of an Offer consumes its required items, and an Offer
+ * applies at most as many times as it would on its own. Offers are grouped
+ * by the required items they share; an Offer that shares none takes all its
+ * applications, and each group of competing Offers is searched by branch and
+ * bound. The bound relaxes each Offer to the required item it is most
+ * limited by, and fills each of those items fractionally in order of
+ * discount per unit required.
+ *
+ * The search starts from the allocation of the {@link GreedyOfferAllocator},
+ * and only replaces it with a strictly better one, so the discount is never
+ * less than the greedy discount, and is the same allocation when no better
+ * one exists. The search of a basket stops when its time budget runs out,
+ * keeping the best allocation found so far, so the latency of a basket is
+ * bounded however many Offers overlap.
+ *
+ * Enable with the "optimalOffers" Spring profile.
+ *
+ * @author Leon Danser
+ *
+ */
+public class OptimalOfferAllocator implements OfferAllocator {
+
+	static final long DEFAULT_TIME_BUDGET_MICROS = 1000;
+
+	/* search nodes visited between checks of the clock, a power of two */
+	private static final int NODES_PER_CLOCK_CHECK = 256;
+
+	private OfferAllocator greedyAllocator = new GreedyOfferAllocator();
+
+	private long timeBudgetMicros = DEFAULT_TIME_BUDGET_MICROS;
+
+	@Override
+	public Map<Offer, Integer> allocate(Basket basket,
+			Map<Item, Integer> itemTallies, PricingContext context) {
+		validateNotNull(basket, "basket");
+		validateNotNull(itemTallies, "itemTallies");
+		ItemService catalogue = GreedyOfferAllocator.getCatalogue(context);
+		long deadline = System.nanoTime() + timeBudgetMicros * 1000;
+
+		// the Offers of the basket in basket order, looked up once, as a
+		// catalogue may return new instances of them from every lookup
+		List<Offer> basketOffers = new ArrayList<Offer>();
+		List<Integer> lineQuantities = new ArrayList<Integer>();
+		// only Offers that share a required item can do better than greedy
+		Map<Item, Integer> requiringOffers = new HashMap<Item, Integer>();
+		for (Entry<Item, Integer> line : basket.getLines().entrySet()) {
+			for (Offer offer : catalogue
+					.getOffers(line.getKey(), itemTallies)) {
+				basketOffers.add(offer);
+				lineQuantities.add(line.getValue());
+				Map<Item, Integer> requiredItems = offer.getRequiredItems();
+				if (requiredItems == null) {
+					continue;
+				}
+				for (Entry<Item, Integer> required : requiredItems.entrySet()) {
+					if (required.getValue() > 0) {
+						Integer count = requiringOffers.get(required.getKey());
+						requiringOffers.put(required.getKey(),
+								count == null ? 1 : count + 1);
+					}
+				}
+			}
+		}
+		List<Offer> sharingOffers = new ArrayList<Offer>();
+		List<Integer> sharingQuantities = new ArrayList<Integer>();
+		// the tallies of their required items, before greedy consumes them
+		Map<Item, Integer> requiredTallies = new HashMap<Item, Integer>();
+		for (int i = 0; i < basketOffers.size(); i++) {
+			Offer offer = basketOffers.get(i);
+			if (sharesRequiredItems(offer, requiringOffers)) {
+				sharingOffers.add(offer);
+				sharingQuantities.add(lineQuantities.get(i));
+				for (Item item : offer.getRequiredItems().keySet()) {
+					Integer tally = itemTallies.get(item);
+					if (tally != null) {
+						requiredTallies.put(item, tally);
+					}
+				}
+			}
+		}
+
+		Map<Offer, Integer> greedyApplications = greedyAllocator.allocate(
+				basket, itemTallies, context);
+		if (sharingOffers.isEmpty()) {
+			return greedyApplications;
+		}
+
+		List<Candidate> candidates = new ArrayList<Candidate>();
+		// Offers hash their whole definition, so the instances looked up above
+		// are found by identity
+		Map<Offer, Integer> searchedApplications = new IdentityHashMap<Offer, Integer>();
+		Map<Item, Integer> probe = new HashMap<Item, Integer>();
+		for (int i = 0; i < sharingOffers.size(); i++) {
+			Offer offer = sharingOffers.get(i);
+			Candidate candidate = new Candidate(offer,
+					sharingQuantities.get(i), requiredTallies, context, probe);
+			if (candidate.maxApplications > 0) {
+				Integer greedy = OfferMap.getSame(greedyApplications, offer);
+				candidate.applications = greedy == null ? 0 : Math.min(greedy,
+						candidate.maxApplications);
+				candidates.add(candidate);
+			}
+			searchedApplications.put(offer, 0);
+		}
+
+		boolean improved = false;
+		for (List<Candidate> group : groupByRequiredItems(candidates)) {
+			if (group.size() == 1) {
+				// the Offers it competed with do not apply
+				Candidate candidate = group.get(0);
+				improved |= candidate.applications < candidate.maxApplications;
+				candidate.applications = candidate.maxApplications;
+			} else if (timeBudgetMicros > 0) {
+				try {
+					improved |= new Search(group, requiredTallies, deadline)
+							.run();
+				} catch (ArithmeticException e) {
+					// discounts too large to compare as longs, keep the greedy
+					// allocation
+				}
+			}
+		}
+		if (!improved) {
+			return greedyApplications;
+		}
+
+		// the required items of the sharing Offers are theirs alone, so are
+		// consumed again from the tallies greedy started from
+		for (Candidate candidate : candidates) {
+			searchedApplications.put(candidate.offer, candidate.applications);
+		}
+		itemTallies.putAll(requiredTallies);
+		Map<Offer, Integer> offerApplications = new OfferMap<Integer>();
+		for (Offer offer : basketOffers) {
+			boolean searched = searchedApplications.containsKey(offer);
+			Integer applications = searched ? searchedApplications.get(offer)
+					: OfferMap.getSame(greedyApplications, offer);
+			if (applications != null && applications > 0) {
+				offerApplications.put(offer, applications);
+				if (searched) {
+					consumeRequiredItems(offer, applications, itemTallies);
+				}
+			}
+		}
+		return offerApplications;
+	}
+
+	private static boolean sharesRequiredItems(Offer offer,
+			Map<Item, Integer> requiringOffers) {
+		Map<Item, Integer> requiredItems = offer.getRequiredItems();
+		if (requiredItems != null) {
+			for (Entry<Item, Integer> required : requiredItems.entrySet()) {
+				if (required.getValue() > 0
+						&& requiringOffers.get(required.getKey()) > 1) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	private static void consumeRequiredItems(Offer offer, int applications,
+			Map<Item, Integer> itemTallies) {
+		Map<Item, Integer> requiredItems = offer.getRequiredItems();
+		if (requiredItems == null) {
+			return;
+		}
+		for (Entry<Item, Integer> required : requiredItems.entrySet()) {
+			if (required.getValue() > 0) {
+				itemTallies.put(required.getKey(),
+						itemTallies.get(required.getKey())
+								- required.getValue() * applications);
+			}
+		}
+	}
+
+	/**
+	 * Groups the candidates connected by the required items they share, in
+	 * order of their first candidate
+	 */
+	private List<List<Candidate>> groupByRequiredItems(
+			List<Candidate> candidates) {
+		int[] parents = new int[candidates.size()];
+		Map<Item, Integer> firstCandidates = new HashMap<Item, Integer>();
+		for (int i = 0; i < parents.length; i++) {
+			parents[i] = i;
+			for (Item item : candidates.get(i).requiredItems) {
+				Integer first = firstCandidates.get(item);
+				if (first == null) {
+					firstCandidates.put(item, i);
+				} else {
+					parents[findRoot(parents, i)] = findRoot(parents, first);
+				}
+			}
+		}
+		Map<Integer, List<Candidate>> groups = new LinkedHashMap<Integer, List<Candidate>>();
+		for (int i = 0; i < parents.length; i++) {
+			int root = findRoot(parents, i);
+			List<Candidate> group = groups.get(root);
+			if (group == null) {
+				group = new ArrayList<Candidate>();
+				groups.put(root, group);
+			}
+			group.add(candidates.get(i));
+		}
+		return new ArrayList<List<Candidate>>(groups.values());
+	}
+
+	private static int findRoot(int[] parents, int i) {
+		while (parents[i] != i) {
+			parents[i] = parents[parents[i]];
+			i = parents[i];
+		}
+		return i;
+	}
+
+	/**
+	 * The allocator whose allocation the search starts from
+	 */
+	public OfferAllocator getGreedyAllocator() {
+		return greedyAllocator;
+	}
+
+	public void setGreedyAllocator(OfferAllocator greedyAllocator) {
+		validateNotNull(greedyAllocator, "greedyAllocator");
+		this.greedyAllocator = greedyAllocator;
+	}
+
+	/**
+	 * The longest the search of a basket may take. 0 keeps the greedy
+	 * allocation of Offers that compete.
+	 */
+	public long getTimeBudgetMicros() {
+		return timeBudgetMicros;
+	}
+
+	public void setTimeBudgetMicros(long timeBudgetMicros) {
+		if (timeBudgetMicros < 0) {
+			throw new IllegalArgumentException(
+					"[timeBudgetMicros] should not be negative");
+		}
+		this.timeBudgetMicros = timeBudgetMicros;
+	}
+
+	/**
+	 * An Offer that applies to the basket, and the required items each
+	 * application consumes
+	 */
+	private static final class Candidate {
+
+		final Offer offer;
+		final int maxApplications;
+		final Item[] requiredItems;
+		final int[] quantities;
+		int applications;
+
+		/**
+		 * Evaluates the offer on its own against the tallies of its required
+		 * items, which are the only tallies it reads
+		 */
+		Candidate(Offer offer, int quantity, Map<Item, Integer> itemTallies,
+				PricingContext context, Map<Item, Integer> probe) {
+			this.offer = offer;
+			Map<Item, Integer> offerRequiredItems = offer.getRequiredItems();
+			Item[] items = new Item[offerRequiredItems.size()];
+			int[] itemQuantities = new int[items.length];
+			int count = 0;
+			probe.clear();
+			for (Entry<Item, Integer> required : offerRequiredItems.entrySet()) {
+				Integer tally = itemTallies.get(required.getKey());
+				if (tally != null) {
+					probe.put(required.getKey(), tally);
+				}
+				if (required.getValue() > 0) {
+					items[count] = required.getKey();
+					itemQuantities[count++] = required.getValue();
+				}
+			}
+			maxApplications = offer.countApplications(probe, quantity, context);
+			requiredItems = Arrays.copyOf(items, count);
+			quantities = Arrays.copyOf(itemQuantities, count);
+		}
+	}
+
+	/**
+	 * A depth-first branch and bound search of a group of competing
+	 * candidates. Discounts are compared as longs at the largest scale of the
+	 * group.
+	 */
+	private static final class Search {
+
+		private final long deadline;
+		private final int size;
+		/* per candidate, in search order */
+		private final long[] discounts;
+		private final int[] maxApplications;
+		private final int[][] resources;
+		private final int[][] quantities;
+		/* the resource each candidate is relaxed to by the bound */
+		private final int[] boundResources;
+		private final int[] boundQuantities;
+		/* per resource, the candidates relaxed to it, in search order */
+		private final int[][] boundCandidates;
+		private final int[] remaining;
+		private final int[] applications;
+		private final int[] bestApplications;
+		private final Candidate[] ordered;
+		private long bestDiscount;
+		private long nodes;
+		private boolean timedOut;
+		private boolean improved;
+
+		Search(List<Candidate> group, Map<Item, Integer> itemTallies,
+				long deadline) {
+			this.deadline = deadline;
+			size = group.size();
+
+			Map<Item, Integer> resourceIndexes = new HashMap<Item, Integer>();
+			List<Integer> tallies = new ArrayList<Integer>();
+			for (Candidate candidate : group) {
+				for (Item item : candidate.requiredItems) {
+					if (!resourceIndexes.containsKey(item)) {
+						resourceIndexes.put(item, tallies.size());
+						Integer tally = itemTallies.get(item);
+						tallies.add(tally == null ? 0 : tally);
+					}
+				}
+			}
+			remaining = new int[tallies.size()];
+			for (int i = 0; i < remaining.length; i++) {
+				remaining[i] = tallies.get(i);
+			}
+
+			int scale = 0;
+			for (Candidate candidate : group) {
+				scale = Math.max(scale, candidate.offer.calculateDiscount()
+						.scale());
+			}
+			final long[] candidateDiscounts = new long[size];
+			final double[] ratios = new double[size];
+			int[] candidateBoundResources = new int[size];
+			int[] candidateBoundQuantities = new int[size];
+			for (int c = 0; c < size; c++) {
+				Candidate candidate = group.get(c);
+				BigDecimal discount = candidate.offer.calculateDiscount();
+				candidateDiscounts[c] = discount.setScale(scale).unscaledValue()
+						.longValueExact();
+				// the required item that limits the candidate most
+				int limiting = 0;
+				for (int i = 1; i < candidate.requiredItems.length; i++) {
+					if ((long) remaining[resourceIndexes
+							.get(candidate.requiredItems[i])]
+							* candidate.quantities[limiting] < (long) remaining[resourceIndexes
+							.get(candidate.requiredItems[limiting])]
+							* candidate.quantities[i]) {
+						limiting = i;
+					}
+				}
+				candidateBoundResources[c] = resourceIndexes
+						.get(candidate.requiredItems[limiting]);
+				candidateBoundQuantities[c] = candidate.quantities[limiting];
+				ratios[c] = (double) candidateDiscounts[c]
+						/ candidate.quantities[limiting];
+			}
+
+			// the best discount per required unit first, so the greedy
+			// choices of the search are tried first and the bound is tight
+			Integer[] order = new Integer[size];
+			for (int c = 0; c < size; c++) {
+				order[c] = c;
+			}
+			Arrays.sort(order, new Comparator<Integer>() {
+				@Override
+				public int compare(Integer a, Integer b) {
+					return Double.compare(ratios[b], ratios[a]);
+				}
+			});
+
+			ordered = new Candidate[size];
+			discounts = new long[size];
+			maxApplications = new int[size];
+			resources = new int[size][];
+			quantities = new int[size][];
+			boundResources = new int[size];
+			boundQuantities = new int[size];
+			applications = new int[size];
+			bestApplications = new int[size];
+			int[] boundCounts = new int[remaining.length];
+			for (int position = 0; position < size; position++) {
+				int c = order[position];
+				Candidate candidate = group.get(c);
+				ordered[position] = candidate;
+				discounts[position] = candidateDiscounts[c];
+				maxApplications[position] = candidate.maxApplications;
+				resources[position] = new int[candidate.requiredItems.length];
+				for (int i = 0; i < resources[position].length; i++) {
+					resources[position][i] = resourceIndexes
+							.get(candidate.requiredItems[i]);
+				}
+				quantities[position] = candidate.quantities;
+				boundResources[position] = candidateBoundResources[c];
+				boundQuantities[position] = candidateBoundQuantities[c];
+				boundCounts[boundResources[position]]++;
+				bestApplications[position] = candidate.applications;
+				bestDiscount = Math.addExact(bestDiscount, Math.multiplyExact(
+						discounts[position], candidate.applications));
+			}
+			boundCandidates = new int[remaining.length][];
+			for (int r = 0; r < remaining.length; r++) {
+				boundCandidates[r] = new int[boundCounts[r]];
+				boundCounts[r] = 0;
+			}
+			for (int position = 0; position < size; position++) {
+				int r = boundResources[position];
+				boundCandidates[r][boundCounts[r]++] = position;
+			}
+		}
+
+		/**
+		 * Searches for the best allocation, and sets the applications of the
+		 * group's candidates to it
+		 *
+		 * @return true if it is better than the allocation the candidates had
+		 */
+		boolean run() {
+			search(0, 0);
+			for (int position = 0; position < size; position++) {
+				ordered[position].applications = bestApplications[position];
+			}
+			return improved;
+		}
+
+		private void search(int position, long discount) {
+			if ((++nodes & (NODES_PER_CLOCK_CHECK - 1)) == 0
+					&& System.nanoTime() - deadline > 0) {
+				timedOut = true;
+			}
+			if (timedOut) {
+				return;
+			}
+			if (position == size) {
+				if (discount > bestDiscount) {
+					bestDiscount = discount;
+					improved = true;
+					System.arraycopy(applications, 0, bestApplications, 0,
+							size);
+				}
+				return;
+			}
+			int most = discounts[position] > 0 ? available(position) : 0;
+			// bounds every allocation with fewer applications of this
+			// candidate, as the rest can not gain more than all remaining
+			long restBound = bound(position + 1);
+			for (int count = most; count >= 0 && !timedOut; count--) {
+				long withCount = Math.addExact(discount,
+						Math.multiplyExact(discounts[position], count));
+				if (Math.addExact(withCount, restBound) <= bestDiscount) {
+					break;
+				}
+				consume(position, count);
+				if (Math.addExact(withCount, bound(position + 1)) > bestDiscount) {
+					applications[position] = count;
+					search(position + 1, withCount);
+				}
+				consume(position, -count);
+			}
+			applications[position] = 0;
+		}
+
+		/**
+		 * The most applications the remaining required items allow
+		 */
+		private int available(int position) {
+			int most = maxApplications[position];
+			for (int i = 0; i < resources[position].length; i++) {
+				most = Math.min(most, remaining[resources[position][i]]
+						/ quantities[position][i]);
+			}
+			return most;
+		}
+
+		private void consume(int position, int count) {
+			for (int i = 0; i < resources[position].length; i++) {
+				remaining[resources[position][i]] -= quantities[position][i]
+						* count;
+			}
+		}
+
+		/**
+		 * An upper bound of the discount the candidates from position on can
+		 * add: each resource is filled, fractionally, by the candidates
+		 * relaxed to it in order of discount per unit
+		 */
+		private long bound(int from) {
+			long bound = 0;
+			for (int r = 0; r < boundCandidates.length; r++) {
+				long capacity = remaining[r];
+				for (int position : boundCandidates[r]) {
+					if (position < from || discounts[position] <= 0) {
+						continue;
+					}
+					int quantity = boundQuantities[position];
+					int most = available(position);
+					long taken = Math.min(most, capacity / quantity);
+					bound = Math.addExact(bound,
+							Math.multiplyExact(discounts[position], taken));
+					capacity -= taken * quantity;
+					if (taken < most) {
+						if (capacity > 0) {
+							// the fraction of an application, rounded up
+							bound = Math.addExact(bound, (Math.multiplyExact(
+									discounts[position], capacity) + quantity - 1)
+									/ quantity);
+						}
+						break;
+					}
+				}
+			}
+			return bound;
+		}
+	}
+
+}
@@ -0,0 +1,40 @@
+package com.bjss.pricebasket.service.impl;
+
+import com.bjss.pricebasket.data.BasketTotals;
+import com.bjss.pricebasket.data.Item;
+import com.bjss.pricebasket.data.Offer;
+import com.bjss.pricebasket.data.PricingContext;
+
+/**
+ * The totals of a {@link IncrementalPricingSession}, kept up to date as
+ * {@link Item}s are added and removed, with the arithmetic of the
+ * {@link AbstractBasketService} that opened the session. The BasketTotals
+ * returned must be the same as that service calculates for the same basket.
+ *
+ * @author Leon Danser
+ *
+ */
+abstract class RunningTotals {
+
+	/**
+	 * Adds the price of quantity units of the {@link Item} to the subtotal
+	 *
+	 * @param quantity
+	 *            the number of units added, or negative for units removed
+	 */
+	abstract void addUnits(Item item, int quantity);
+
+	/**
+	 * Sets the number of times the {@link Offer} applies
+	 *
+	 * @param applications
+	 *            the number of applications, or 0 if it no longer applies
+	 */
+	abstract void setApplications(Offer offer, int applications);
+
+	/**
+	 * A copy of the totals as they are now
+	 */
+	abstract BasketTotals getBasketTotals(PricingContext context);
+
+}
@@ -0,0 +1,181 @@
+package com.bjss.pricebasket.service.impl;
+
+import static com.bjss.pricebasket.util.ValidateUtil.validateNotNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.PostConstruct;
+import javax.inject.Inject;
+
+import com.bjss.pricebasket.catalogue.CatalogueChangedException;
+import com.bjss.pricebasket.catalogue.CatalogueOrdinals;
+import com.bjss.pricebasket.catalogue.SharedCatalogue;
+import com.bjss.pricebasket.catalogue.SharedCatalogueWriter;
+import com.bjss.pricebasket.data.Item;
+import com.bjss.pricebasket.data.Offer;
+import com.bjss.pricebasket.metrics.PricingMetrics;
+import com.bjss.pricebasket.service.ItemService;
+import com.bjss.pricebasket.service.MsgService;
+
+/**
+ * An {@link ItemService} that reads items and offers in place from a
+ * {@link SharedCatalogue}: a memory-mapped file that every pricing process on
+ * the host shares, rather than each holding its own copy on the heap.
+ *
+ * Catalogues published to the file by a {@link SharedCatalogueWriter} are
+ * seen by the next lookup, without restarting. Each lookup sees one
+ * published catalogue. A snapshot is pinned to the catalogue published when
+ * it is taken; once another is published, its lookups throw a
+ * {@link CatalogueChangedException} rather than return items and offers of
+ * two versions.
+ *
+ * Lookups, and the unknown items among them, are counted in the
+ * {@link PricingMetrics}.
+ *
+ * Enable with the "sharedCatalogue" Spring profile, which also skips loading
+ * basket-config.xml.
+ *
+ * @author Leon Danser
+ *
+ */
+public class SharedItemServiceImpl implements ItemService {
+
+	@Inject
+	MsgService msgService;
+
+	@Inject
+	PricingMetrics pricingMetrics = PricingMetrics.NO_METRICS;
+
+	private File catalogueFile;
+
+	private SharedCatalogue catalogue;
+
+	/**
+	 * Maps the shared catalogue file
+	 *
+	 * @throws IOException
+	 *             if the file can not be read
+	 */
+	@PostConstruct
+	public void open() throws IOException {
+		if (catalogueFile == null) {
+			throw new IllegalStateException("[catalogueFile] should not be null");
+		}
+		long start = System.nanoTime();
+		catalogue = new SharedCatalogue(catalogueFile, msgService);
+		pricingMetrics.recordCatalogueLoad(System.nanoTime() - start);
+	}
+
+	@Override
+	public Item getItem(String name) {
+		Item item = catalogue.getItem(name);
+		pricingMetrics.recordItemLookup(item != null);
+		return item;
+	}
+
+	@Override
+	public List<Offer> getOffers(Item item) {
+		return catalogue.getOffers(item);
+	}
+
+	/**
+	 * The shared catalogue is read in place rather than compiled, so the
+	 * offers of the item are filtered as they are read.
+	 */
+	@Override
+	public List<Offer> getOffers(Item item, Map<Item, Integer> itemTallies) {
+		return OfferNetwork.filterOffers(catalogue.getOffers(item),
+				itemTallies);
+	}
+
+	/**
+	 * The shared catalogue file, eg. catalogue.shared
+	 */
+	public File getCatalogueFile() {
+		return catalogueFile;
+	}
+
+	public void setCatalogueFile(File catalogueFile) {
+		validateNotNull(catalogueFile, "catalogueFile");
+		this.catalogueFile = catalogueFile;
+	}
+
+	/**
+	 * The version of the catalogue currently published to the file
+	 */
+	@Override
+	public long getCatalogueVersion() {
+		return catalogue.getVersion();
+	}
+
+	/**
+	 * Items are created as they are read, so are not numbered
+	 * 
+	 * @return null
+	 */
+	@Override
+	public CatalogueOrdinals getOrdinals() {
+		return null;
+	}
+
+	/**
+	 * Catalogues are published to the file in place, so an earlier version
+	 * can not be kept. The snapshot is pinned to the catalogue currently
+	 * published, and its lookups fail with a CatalogueChangedException once
+	 * another is published.
+	 */
+	@Override
+	public ItemService getSnapshot() {
+		return new Snapshot(catalogue.pin());
+	}
+
+	/**
+	 * The lookups of a basket, pinned to one published catalogue
+	 */
+	private class Snapshot implements ItemService {
+
+		private final SharedCatalogue.Pinned pinned;
+
+		Snapshot(SharedCatalogue.Pinned pinned) {
+			this.pinned = pinned;
+		}
+
+		@Override
+		public Item getItem(String name) {
+			Item item = pinned.getItem(name);
+			pricingMetrics.recordItemLookup(item != null);
+			return item;
+		}
+
+		@Override
+		public List<Offer> getOffers(Item item) {
+			return pinned.getOffers(item);
+		}
+
+		@Override
+		public List<Offer> getOffers(Item item,
+				Map<Item, Integer> itemTallies) {
+			return OfferNetwork.filterOffers(pinned.getOffers(item),
+					itemTallies);
+		}
+
+		@Override
+		public long getCatalogueVersion() {
+			return pinned.getVersion();
+		}
+
+		@Override
+		public CatalogueOrdinals getOrdinals() {
+			return null;
+		}
+
+		@Override
+		public ItemService getSnapshot() {
+			return this;
+		}
+	}
+
+}
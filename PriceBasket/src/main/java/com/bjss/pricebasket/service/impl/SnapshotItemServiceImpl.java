@@ -0,0 +1,126 @@
+package com.bjss.pricebasket.service.impl;
+
+import static com.bjss.pricebasket.util.ValidateUtil.validateNotNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.inject.Inject;
+
+import org.springframework.context.ApplicationContext;
+
+import com.bjss.pricebasket.catalogue.Catalogue;
+import com.bjss.pricebasket.catalogue.CatalogueCompiler;
+import com.bjss.pricebasket.catalogue.CatalogueSnapshotReader;
+import com.bjss.pricebasket.service.ItemService;
+import com.bjss.pricebasket.service.MsgService;
+
+/**
+ * An {@link ItemService} that loads its items and offers from a catalogue
+ * snapshot compiled by the {@link CatalogueCompiler}, rather than collecting
+ * them from the application context. The snapshot is read when the service
+ * is initialised and, if reloadMillis is set, again whenever the file changes.
+ * Compiling a new snapshot to the same file publishes it to the running
+ * service without a restart.
+ * 
+ * Enable with the "catalogueSnapshot" Spring profile, which also skips
+ * loading basket-config.xml.
+ * 
+ * @author Leon Danser
+ * 
+ */
+public class SnapshotItemServiceImpl extends ItemServiceImpl {
+
+	@Inject
+	MsgService msgService;
+
+	private File snapshotFile;
+
+	private long reloadMillis;
+
+	private CatalogueFileWatcher watcher;
+
+	/**
+	 * Items and offers come from the snapshot, so the application context is
+	 * not searched for them.
+	 */
+	@Override
+	public void setApplicationContext(ApplicationContext applicationContext) {
+	}
+
+	/**
+	 * Reads the snapshot file and indexes its offers, then watches the file
+	 * for changes if reloadMillis is set
+	 * 
+	 * @throws IOException
+	 *             if the snapshot file can not be read
+	 */
+	@PostConstruct
+	public void load() throws IOException {
+		if (snapshotFile == null) {
+			throw new IllegalStateException("[snapshotFile] should not be null");
+		}
+		CatalogueFileWatcher created = null;
+		if (reloadMillis > 0 && watcher == null) {
+			// created first, so a change made while loading is reloaded
+			created = new CatalogueFileWatcher(
+					Collections.singletonList(snapshotFile),
+					new CatalogueFileWatcher.Reloader() {
+						@Override
+						public void reload() throws IOException {
+							readSnapshot();
+						}
+					});
+		}
+		readSnapshot();
+		if (created != null) {
+			// started once loaded, so a reload never races the first load
+			// and is not overwritten by it
+			created.start(reloadMillis);
+			watcher = created;
+		}
+	}
+
+	private void readSnapshot() throws IOException {
+		loadCatalogue(new CatalogueSnapshotReader().read(snapshotFile,
+				msgService));
+	}
+
+	/**
+	 * Stops watching the snapshot file
+	 */
+	@PreDestroy
+	public void close() {
+		if (watcher != null) {
+			watcher.stop();
+		}
+	}
+
+	/**
+	 * The snapshot file to load, eg. catalogue.snapshot
+	 */
+	public File getSnapshotFile() {
+		return snapshotFile;
+	}
+
+	public void setSnapshotFile(File snapshotFile) {
+		validateNotNull(snapshotFile, "snapshotFile");
+		this.snapshotFile = snapshotFile;
+	}
+
+	/**
+	 * How often the snapshot file is checked for changes. 0, the default,
+	 * never reloads.
+	 */
+	public long getReloadMillis() {
+		return reloadMillis;
+	}
+
+	public void setReloadMillis(long reloadMillis) {
+		this.reloadMillis = reloadMillis;
+	}
+
+}
@@ -0,0 +1,199 @@
+package com.bjss.pricebasket.service.impl;
+
+import static com.bjss.pricebasket.util.ValidateUtil.validateNotNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.inject.Inject;
+
+import org.springframework.context.ApplicationContext;
+import org.springframework.core.io.DefaultResourceLoader;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.ResourceLoader;
+
+import com.bjss.pricebasket.catalogue.StreamingCatalogueLoader;
+import com.bjss.pricebasket.service.ItemService;
+import com.bjss.pricebasket.service.MsgService;
+
+/**
+ * An {@link ItemService} that streams its items and offers from catalogue
+ * files with the {@link StreamingCatalogueLoader}, rather than collecting
+ * them from the application context. No bean is created for an item or offer,
+ * so large catalogues load in a fraction of the time and memory. The files
+ * are read when the service is initialised and, if reloadMillis is set, again
+ * whenever one of them changes on disk. Each load is versioned with the time
+ * it was read.
+ *
+ * The catalogue is an XML file in the basket-config.xml format. Items can also
+ * be read from a CSV file of "id,price" lines, to which the offers of the
+ * catalogue may refer.
+ *
+ * Enable with the "streamingCatalogue" Spring profile, which also skips
+ * loading basket-config.xml as beans.
+ *
+ * @author Leon Danser
+ *
+ */
+public class StreamingItemServiceImpl extends ItemServiceImpl {
+
+	private static final String CSV_ENCODING = "UTF-8";
+
+	@Inject
+	MsgService msgService;
+
+	private ResourceLoader resourceLoader = new DefaultResourceLoader();
+
+	private String catalogueLocation;
+
+	private String itemsLocation;
+
+	private long reloadMillis;
+
+	private CatalogueFileWatcher watcher;
+
+	/**
+	 * Items and offers come from the catalogue files, so the application
+	 * context is only used to find them.
+	 */
+	@Override
+	public void setApplicationContext(ApplicationContext applicationContext) {
+		resourceLoader = applicationContext;
+	}
+
+	/**
+	 * Reads the catalogue files and indexes their offers, then watches those
+	 * that are files for changes if reloadMillis is set
+	 *
+	 * @throws IOException
+	 *             if a catalogue file can not be read
+	 */
+	@PostConstruct
+	public void load() throws IOException {
+		if (catalogueLocation == null) {
+			throw new IllegalStateException(
+					"[catalogueLocation] should not be null");
+		}
+		CatalogueFileWatcher created = null;
+		if (reloadMillis > 0 && watcher == null) {
+			// created first, so a change made while loading is reloaded
+			created = new CatalogueFileWatcher(getWatchedFiles(),
+					new CatalogueFileWatcher.Reloader() {
+						@Override
+						public void reload() throws IOException {
+							readCatalogue();
+						}
+					});
+		}
+		readCatalogue();
+		if (created != null) {
+			// started once loaded, so a reload never races the first load
+			// and is not overwritten by it
+			created.start(reloadMillis);
+			watcher = created;
+		}
+	}
+
+	private void readCatalogue() throws IOException {
+		StreamingCatalogueLoader loader = new StreamingCatalogueLoader(
+				msgService);
+		if (itemsLocation != null) {
+			Reader in = new InputStreamReader(getResource(itemsLocation)
+					.getInputStream(), CSV_ENCODING);
+			try {
+				loader.readItemsCsv(in, itemsLocation);
+			} finally {
+				in.close();
+			}
+		}
+		InputStream in = getResource(catalogueLocation).getInputStream();
+		try {
+			loader.readXml(in, catalogueLocation);
+		} finally {
+			in.close();
+		}
+		// versions increase even if two loads are read in the same millisecond
+		loadCatalogue(loader.build(Math.max(System.currentTimeMillis(),
+				getCatalogueVersion() + 1)));
+	}
+
+	/**
+	 * Stops watching the catalogue files
+	 */
+	@PreDestroy
+	public void close() {
+		if (watcher != null) {
+			watcher.stop();
+		}
+	}
+
+	private Resource getResource(String location) {
+		return resourceLoader.getResource(location);
+	}
+
+	/**
+	 * The catalogue locations that are files on disk. Other resources, eg.
+	 * inside a jar, can not change.
+	 */
+	private List<File> getWatchedFiles() {
+		List<File> files = new ArrayList<File>(2);
+		for (String location : new String[] { itemsLocation,
+				catalogueLocation }) {
+			if (location == null) {
+				continue;
+			}
+			try {
+				files.add(getResource(location).getFile());
+			} catch (IOException e) {
+				// not a file
+			}
+		}
+		return files;
+	}
+
+	/**
+	 * The location of the catalogue XML, eg.
+	 * classpath:/META-INF/basket-config.xml or file:catalogue.xml
+	 */
+	public String getCatalogueLocation() {
+		return catalogueLocation;
+	}
+
+	public void setCatalogueLocation(String catalogueLocation) {
+		validateNotNull(catalogueLocation, "catalogueLocation");
+		this.catalogueLocation = catalogueLocation;
+	}
+
+	/**
+	 * The location of an optional CSV file of items, read before the
+	 * catalogue XML. An item in both is taken from the XML.
+	 */
+	public String getItemsLocation() {
+		return itemsLocation;
+	}
+
+	public void setItemsLocation(String itemsLocation) {
+		this.itemsLocation = itemsLocation == null || itemsLocation.isEmpty() ? null
+				: itemsLocation;
+	}
+
+	/**
+	 * How often the catalogue files are checked for changes. 0, the default,
+	 * never reloads.
+	 */
+	public long getReloadMillis() {
+		return reloadMillis;
+	}
+
+	public void setReloadMillis(long reloadMillis) {
+		this.reloadMillis = reloadMillis;
+	}
+
+}
@@ -0,0 +1,36 @@
+package com.bjss.pricebasket.util;
+
+/**
+ * Orders plain reads and writes of shared memory, such as a memory-mapped
+ * file, that the Java memory model says nothing about. Needed by seqlocks,
+ * whose data is read and written without locks or volatile fields.
+ *
+ * Java 8 has no public API for fences, so a volatile write or read of a
+ * static field is used instead, which HotSpot compiles to at least the same
+ * barriers.
+ *
+ * @author Leon Danser
+ *
+ */
+public final class MemoryFences {
+
+	private static volatile int fence;
+
+	private MemoryFences() {
+	}
+
+	/**
+	 * Reads before the fence are not reordered with reads or writes after it
+	 */
+	public static void loadFence() {
+		int ignored = fence;
+	}
+
+	/**
+	 * Writes before the fence are not reordered with writes after it
+	 */
+	public static void storeFence() {
+		fence = 0;
+	}
+
+}
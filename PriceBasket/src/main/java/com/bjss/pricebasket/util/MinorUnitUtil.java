@@ -0,0 +1,38 @@
+package com.bjss.pricebasket.util;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * Converts currency values to whole minor units, eg. pence, for output that
+ * is read by other systems rather than people.
+ * 
+ * @author Leon Danser
+ * 
+ */
+public class MinorUnitUtil {
+
+	public static final int MINOR_UNIT_SCALE = 2;
+
+	/**
+	 * Rounds the value to whole minor units the same way the printed receipt
+	 * does, so values read from machine output match the receipt: values of 1
+	 * or more are rounded half even, as by a currency NumberFormat, and
+	 * fractions of 1 are rounded half up, as pence are.
+	 * 
+	 * @param value
+	 *            the currency value in major units, eg. pounds
+	 * @return the value in minor units
+	 * @throws ArithmeticException
+	 *             if the value does not fit in a long
+	 */
+	public static long toMinorUnits(BigDecimal value)
+			throws IllegalArgumentException, ArithmeticException {
+		ValidateUtil.validateNotNull(value, "value");
+		RoundingMode roundingMode = BigDecimal.ONE.compareTo(value) <= 0 ? RoundingMode.HALF_EVEN
+				: RoundingMode.HALF_UP;
+		return value.movePointRight(MINOR_UNIT_SCALE)
+				.setScale(0, roundingMode).longValueExact();
+	}
+
+}
@@ -1,22 +1,39 @@
 package com.bjss.pricebasket;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.fail;
 import static org.mockito.Matchers.any;
 import static org.mockito.Mockito.*;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.io.PrintStream;
+import java.io.StringReader;
 import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
 
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.ArgumentMatcher;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 
+import com.bjss.pricebasket.catalogue.CatalogueChangedException;
 import com.bjss.pricebasket.data.Basket;
 import com.bjss.pricebasket.data.BasketTotals;
 import com.bjss.pricebasket.data.Item;
+import com.bjss.pricebasket.data.PricingContext;
 import com.bjss.pricebasket.service.BasketPrinterService;
 import com.bjss.pricebasket.service.BasketService;
+import com.bjss.pricebasket.service.BasketTotalsWriter;
 import com.bjss.pricebasket.service.ItemService;
+import com.bjss.pricebasket.service.OutputFormat;
 
 public class PriceBasketRunnerTest {
 
@@ -24,6 +41,7 @@ public class PriceBasketRunnerTest {
 	private BasketService basketService;
 	private ItemService itemService;
 	private BasketPrinterService basketPrinterService;
+	private BasketTotalsWriter basketTotalsWriter;
 
 	@Before
 	public void setUp() {
@@ -31,10 +49,14 @@ public class PriceBasketRunnerTest {
 		basketService = mock(BasketService.class);
 		itemService = mock(ItemService.class);
 		basketPrinterService = mock(BasketPrinterService.class);
+		basketTotalsWriter = mock(BasketTotalsWriter.class);
+		when(basketPrinterService.openWriter(any(OutputStream.class),
+				any(OutputFormat.class))).thenReturn(basketTotalsWriter);
 
 		runner.basketService = basketService;
 		runner.basketPrinterService = basketPrinterService;
 		runner.itemService = itemService;
+		when(itemService.getSnapshot()).thenReturn(itemService);
 
 	}
 
@@ -55,12 +77,12 @@ public class PriceBasketRunnerTest {
 
 		class IsEmptyBasket extends ArgumentMatcher<Basket> {
 			public boolean matches(Object b) {
-				return ((Basket) b).getItems().isEmpty();
+				return ((Basket) b).getDistinctItems().isEmpty();
 			}
 		}
 
 		verify(basketService).calculateBasketTotals(
-				argThat(new IsEmptyBasket()));
+				argThat(new IsEmptyBasket()), any(PricingContext.class));
 		verify(basketPrinterService).write(any(PrintStream.class),
 				any(BasketTotals.class));
 		
@@ -86,18 +108,307 @@ public class PriceBasketRunnerTest {
 		class IsPopulatedBasket extends ArgumentMatcher<Basket> {
 			public boolean matches(Object b) {
 				Basket basket = (Basket) b;
-				return basket.getItems().size() == 3
-						&& basket.getItems().contains(testItem1)
-						&& basket.getItems().contains(testItem2)
-						&& basket.getItems().contains(testItem3);
+				return basket.getDistinctItems().size() == 3
+						&& basket.getDistinctItems().contains(testItem1)
+						&& basket.getDistinctItems().contains(testItem2)
+						&& basket.getDistinctItems().contains(testItem3);
 			}
 		}
 
 		verify(basketService).calculateBasketTotals(
-				argThat(new IsPopulatedBasket()));
+				argThat(new IsPopulatedBasket()), any(PricingContext.class));
 		verify(basketPrinterService).write(any(PrintStream.class),
 				any(BasketTotals.class));
 		
 	}
 
+	@Test
+	public void testWithQuantities() {
+		runner.setItems(new String[] { "testitem1*3", "testitem1",
+				"testitem2*0", "testitem2*x", "testitem2*2", "baditem*2" });
+
+		final Item testItem1 = new Item("testitem1", new BigDecimal("1.00"));
+		final Item testItem2 = new Item("testitem2", new BigDecimal("2.00"));
+		when(itemService.getItem("testitem1")).thenReturn(testItem1);
+		when(itemService.getItem("testitem2")).thenReturn(testItem2);
+
+		runner.run();
+
+		class HasQuantities extends ArgumentMatcher<Basket> {
+			public boolean matches(Object b) {
+				Basket basket = (Basket) b;
+				return basket.getDistinctItems().size() == 2
+						&& basket.getQuantity(testItem1) == 4
+						&& basket.getQuantity(testItem2) == 2;
+			}
+		}
+
+		verify(basketService).calculateBasketTotals(
+				argThat(new HasQuantities()), any(PricingContext.class));
+	}
+
+	@Test
+	public void testQuantitiesThatOverflowAreSkipped() {
+		runner.setItems(new String[] { "testitem1*2000000000",
+				"testitem1*2000000000", "testitem2*2000000000", "testitem2" });
+
+		final Item testItem1 = new Item("testitem1", new BigDecimal("1.00"));
+		final Item testItem2 = new Item("testitem2", new BigDecimal("2.00"));
+		when(itemService.getItem("testitem1")).thenReturn(testItem1);
+		when(itemService.getItem("testitem2")).thenReturn(testItem2);
+
+		runner.run();
+
+		class HasQuantities extends ArgumentMatcher<Basket> {
+			public boolean matches(Object b) {
+				Basket basket = (Basket) b;
+				return basket.getItemCount() == 2000000001
+						&& basket.getQuantity(testItem1) == 2000000000
+						&& basket.getQuantity(testItem2) == 1;
+			}
+		}
+
+		verify(basketService).calculateBasketTotals(
+				argThat(new HasQuantities()), any(PricingContext.class));
+	}
+
+	@Test
+	public void testBatch() throws IOException {
+		final Item testItem1 = new Item("testitem1", new BigDecimal("1.00"));
+		final Item testItem2 = new Item("testitem2", new BigDecimal("2.00"));
+		when(itemService.getItem("testitem1")).thenReturn(testItem1);
+		when(itemService.getItem("testitem2")).thenReturn(testItem2);
+
+		// record the basket sizes at the time of the call as the runner reuses
+		// the list for the next chunk
+		final List<Integer> basketSizes = new ArrayList<Integer>();
+		when(basketService.calculateAllBasketTotals(anyCollectionOf(Basket.class),
+				any(PricingContext.class)))
+				.thenAnswer(new Answer<List<BasketTotals>>() {
+					@Override
+					public List<BasketTotals> answer(InvocationOnMock invocation) {
+						@SuppressWarnings("unchecked")
+						Collection<Basket> baskets = (Collection<Basket>) invocation
+								.getArguments()[0];
+						List<BasketTotals> totals = new ArrayList<BasketTotals>();
+						for (Basket basket : baskets) {
+							basketSizes.add(basket.getDistinctItems().size());
+							totals.add(new BasketTotals());
+						}
+						return totals;
+					}
+				});
+
+		String input = "testitem1 testitem2\n\n  testitem2\tbaditem \n";
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		PrintStream out = new PrintStream(baos);
+
+		assertEquals(2, runner.runBatch(new StringReader(input), out));
+
+		assertEquals(Arrays.asList(2, 1), basketSizes);
+		verify(basketPrinterService).openWriter(out, OutputFormat.RECEIPT);
+		verify(basketTotalsWriter, times(2)).write(any(BasketTotals.class));
+		verify(basketTotalsWriter).flush();
+		verify(basketTotalsWriter, never()).close();
+	}
+
+	@Test
+	public void testBatchPricesInChunks() {
+		final Item testItem1 = new Item("testitem1", new BigDecimal("1.00"));
+		when(itemService.getItem("testitem1")).thenReturn(testItem1);
+
+		final List<Integer> chunkSizes = new ArrayList<Integer>();
+		when(basketService.calculateAllBasketTotals(anyCollectionOf(Basket.class),
+				any(PricingContext.class)))
+				.thenAnswer(new Answer<List<BasketTotals>>() {
+					@Override
+					public List<BasketTotals> answer(InvocationOnMock invocation) {
+						Collection<?> baskets = (Collection<?>) invocation
+								.getArguments()[0];
+						chunkSizes.add(baskets.size());
+						return Collections.nCopies(baskets.size(),
+								new BasketTotals());
+					}
+				});
+
+		StringBuilder input = new StringBuilder();
+		int basketCount = PriceBasketRunner.BATCH_CHUNK_SIZE * 2 + 1;
+		for (int i = 0; i < basketCount; i++) {
+			input.append("testitem1\n");
+		}
+		PrintStream out = new PrintStream(new ByteArrayOutputStream());
+
+		assertEquals(basketCount,
+				runner.runBatch(new StringReader(input.toString()), out));
+		assertEquals(Arrays.asList(PriceBasketRunner.BATCH_CHUNK_SIZE,
+				PriceBasketRunner.BATCH_CHUNK_SIZE, 1), chunkSizes);
+	}
+
+	@Test
+	public void testBatchUsesOnePricingContext() {
+		final Item testItem1 = new Item("testitem1", new BigDecimal("1.00"));
+		when(itemService.getItem("testitem1")).thenReturn(testItem1);
+		when(basketService.calculateAllBasketTotals(anyCollectionOf(Basket.class),
+				any(PricingContext.class))).thenAnswer(
+				new Answer<List<BasketTotals>>() {
+					@Override
+					public List<BasketTotals> answer(InvocationOnMock invocation) {
+						Collection<?> baskets = (Collection<?>) invocation
+								.getArguments()[0];
+						return Collections.nCopies(baskets.size(),
+								new BasketTotals());
+					}
+				});
+		final PricingContext context = new PricingContext(0, Locale.UK);
+		runner.setPricingContext(context);
+
+		StringBuilder input = new StringBuilder();
+		for (int i = 0; i < PriceBasketRunner.BATCH_CHUNK_SIZE + 1; i++) {
+			input.append("testitem1\n");
+		}
+		runner.runBatch(new StringReader(input.toString()), new PrintStream(
+				new ByteArrayOutputStream()));
+
+		// each chunk is pinned to a catalogue snapshot, at the same instant
+		class IsPinnedContext extends ArgumentMatcher<PricingContext> {
+			public boolean matches(Object c) {
+				PricingContext pinned = (PricingContext) c;
+				return pinned.getPricingTime() == context.getPricingTime()
+						&& pinned.getLocale() == context.getLocale()
+						&& pinned.getCatalogue() == itemService;
+			}
+		}
+		verify(basketService, times(2)).calculateAllBasketTotals(
+				anyCollectionOf(Basket.class), argThat(new IsPinnedContext()));
+		verify(itemService, times(2)).getSnapshot();
+	}
+
+	@Test
+	public void testBatchCreatesBasketsFromSnapshot() {
+		ItemService snapshot = mock(ItemService.class);
+		when(itemService.getSnapshot()).thenReturn(snapshot);
+		when(snapshot.getItem("testitem1")).thenReturn(
+				new Item("testitem1", new BigDecimal("1.00")));
+		when(basketService.calculateAllBasketTotals(anyCollectionOf(Basket.class),
+				any(PricingContext.class))).thenReturn(
+				Collections.singletonList(new BasketTotals()));
+
+		runner.runBatch(new StringReader("testitem1\n"), new PrintStream(
+				new ByteArrayOutputStream()));
+
+		verify(snapshot).getItem("testitem1");
+		verify(itemService, never()).getItem(any(String.class));
+	}
+
+	@Test
+	public void testBatchPricedAgainWhenCatalogueChanges() throws IOException {
+		final Item testItem1 = new Item("testitem1", new BigDecimal("1.00"));
+		ItemService stale = mock(ItemService.class);
+		when(stale.getItem("testitem1")).thenThrow(
+				new CatalogueChangedException("published"));
+		ItemService published = mock(ItemService.class);
+		when(published.getItem("testitem1")).thenReturn(testItem1);
+		when(itemService.getSnapshot()).thenReturn(stale, published);
+		// published again while the chunk is priced
+		when(basketService.calculateAllBasketTotals(anyCollectionOf(Basket.class),
+				any(PricingContext.class))).thenThrow(
+				new CatalogueChangedException("published")).thenReturn(
+				Arrays.asList(new BasketTotals(), new BasketTotals()));
+
+		assertEquals(2, runner.runBatch(new StringReader(
+				"testitem1\ntestitem1*2\n"), new PrintStream(
+				new ByteArrayOutputStream())));
+
+		verify(itemService, times(3)).getSnapshot();
+		verify(basketTotalsWriter, times(2)).write(any(BasketTotals.class));
+		verify(published, times(4)).getItem("testitem1");
+	}
+
+	@Test
+	public void testBatchFailsWhenCatalogueKeepsChanging() throws IOException {
+		when(itemService.getItem("testitem1")).thenThrow(
+				new CatalogueChangedException("published"));
+
+		try {
+			runner.runBatch(new StringReader("testitem1\n"), new PrintStream(
+					new ByteArrayOutputStream()));
+			fail();
+		} catch (CatalogueChangedException e) {
+			// expected
+		}
+		verify(itemService, times(PriceBasketRunner.MAX_PRICING_ATTEMPTS))
+				.getSnapshot();
+		verify(basketTotalsWriter, never()).write(any(BasketTotals.class));
+	}
+
+	@Test
+	public void testBatchWithPinnedContextIsNotRetried() throws IOException {
+		when(itemService.getItem("testitem1")).thenThrow(
+				new CatalogueChangedException("published"));
+
+		try {
+			runner.runBatch(new StringReader("testitem1\n"),
+					new ByteArrayOutputStream(), OutputFormat.CSV, PricingContext
+							.now(Locale.UK).pinCatalogue(itemService));
+			fail();
+		} catch (CatalogueChangedException e) {
+			// expected
+		}
+		verify(itemService, times(1)).getItem("testitem1");
+	}
+
+	@Test
+	public void testBatchUsesOutputFormat() throws IOException {
+		final Item testItem1 = new Item("testitem1", new BigDecimal("1.00"));
+		when(itemService.getItem("testitem1")).thenReturn(testItem1);
+		when(basketService.calculateAllBasketTotals(anyCollectionOf(Basket.class),
+				any(PricingContext.class))).thenAnswer(
+				new Answer<List<BasketTotals>>() {
+					@Override
+					public List<BasketTotals> answer(InvocationOnMock invocation) {
+						Collection<?> baskets = (Collection<?>) invocation
+								.getArguments()[0];
+						return Collections.nCopies(baskets.size(),
+								new BasketTotals());
+					}
+				});
+		runner.setOutputFormat(OutputFormat.CSV);
+		PrintStream out = new PrintStream(new ByteArrayOutputStream());
+
+		assertEquals(1, runner.runBatch(new StringReader("testitem1\n"), out));
+
+		verify(basketPrinterService).openWriter(out, OutputFormat.CSV);
+		verify(basketTotalsWriter).write(any(BasketTotals.class));
+		verify(basketTotalsWriter).flush();
+	}
+
+	@Test
+	public void testRunUsesOutputFormat() throws IOException {
+		when(itemService.getItem("testitem1")).thenReturn(
+				new Item("testitem1", new BigDecimal("1.00")));
+		when(basketService.calculateBasketTotals(any(Basket.class),
+				any(PricingContext.class))).thenReturn(new BasketTotals());
+		runner.setOutputFormat(OutputFormat.JSON_LINES);
+		runner.setItems(new String[] { "testitem1" });
+
+		runner.run();
+
+		verify(basketPrinterService).openWriter(System.out,
+				OutputFormat.JSON_LINES);
+		verify(basketPrinterService, never()).write(any(PrintStream.class),
+				any(BasketTotals.class));
+		verify(basketTotalsWriter).write(any(BasketTotals.class));
+		verify(basketTotalsWriter).flush();
+	}
+
+	@Test
+	public void testSetNullOutputFormat() {
+		try {
+			runner.setOutputFormat(null);
+			fail();
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
 }
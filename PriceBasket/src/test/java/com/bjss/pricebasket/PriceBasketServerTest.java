@@ -0,0 +1,181 @@
+package com.bjss.pricebasket;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.bjss.pricebasket.data.PricingContext;
+import com.bjss.pricebasket.service.OutputFormat;
+
+public class PriceBasketServerTest {
+
+	private PriceBasketServer server;
+	private PriceBasketRunner runner;
+	private List<String> baskets;
+
+	@Before
+	public void setUp() throws IOException {
+		baskets = new ArrayList<String>();
+		runner = mock(PriceBasketRunner.class);
+		when(runner.getOutputFormat()).thenReturn(OutputFormat.RECEIPT);
+		when(
+				runner.runBatch(any(Reader.class), any(OutputStream.class),
+						any(OutputFormat.class), any(PricingContext.class)))
+				.thenAnswer(new Answer<Long>() {
+					@Override
+					public Long answer(InvocationOnMock invocation)
+							throws IOException {
+						BufferedReader reader = new BufferedReader(
+								(Reader) invocation.getArguments()[0]);
+						OutputStream out = (OutputStream) invocation
+								.getArguments()[1];
+						String line;
+						while ((line = reader.readLine()) != null) {
+							baskets.add(line);
+							out.write(("priced " + line + "\n").getBytes("UTF-8"));
+						}
+						return (long) baskets.size();
+					}
+				});
+
+		server = new PriceBasketServer();
+		server.runner = runner;
+		server.setPort(0);
+		server.setThreads(2);
+		server.start();
+	}
+
+	@After
+	public void tearDown() {
+		server.stop();
+	}
+
+	@Test
+	public void testGetPricesItems() throws IOException {
+		HttpURLConnection connection = open("?items=Apple+Soup*2");
+
+		assertEquals(200, connection.getResponseCode());
+		assertEquals("text/plain; charset=IBM850",
+				connection.getContentType());
+		assertEquals("priced Apple Soup*2\n",
+				read(connection.getInputStream()));
+		verify(runner).runBatch(any(Reader.class), any(OutputStream.class),
+				eq(OutputFormat.RECEIPT), any(PricingContext.class));
+	}
+
+	@Test
+	public void testPostPricesOneBasketPerLine() throws IOException {
+		HttpURLConnection connection = open("?format=json");
+		connection.setRequestMethod("POST");
+		connection.setDoOutput(true);
+		OutputStream body = connection.getOutputStream();
+		body.write("Apple Milk\nBread\n".getBytes("UTF-8"));
+		body.close();
+
+		assertEquals(200, connection.getResponseCode());
+		assertEquals("application/x-ndjson; charset=UTF-8",
+				connection.getContentType());
+		assertEquals("priced Apple Milk\npriced Bread\n",
+				read(connection.getInputStream()));
+		verify(runner).runBatch(any(Reader.class), any(OutputStream.class),
+				eq(OutputFormat.JSON_LINES), any(PricingContext.class));
+	}
+
+	@Test
+	public void testUnknownFormat() throws IOException {
+		HttpURLConnection connection = open("?items=Apple&format=xml");
+
+		assertEquals(400, connection.getResponseCode());
+		verify(runner, never()).runBatch(any(Reader.class),
+				any(OutputStream.class), any(OutputFormat.class),
+				any(PricingContext.class));
+	}
+
+	@Test
+	public void testMethodNotAllowed() throws IOException {
+		HttpURLConnection connection = open("");
+		connection.setRequestMethod("DELETE");
+
+		assertEquals(405, connection.getResponseCode());
+		assertEquals("GET, POST", connection.getHeaderField("Allow"));
+	}
+
+	@Test
+	public void testStartTwice() throws IOException {
+		try {
+			server.start();
+			fail();
+		} catch (IllegalStateException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testStop() {
+		server.stop();
+		assertNull(server.getAddress());
+		server.stop();
+	}
+
+	@Test
+	public void testParseQuery() throws IOException {
+		Map<String, String> params = PriceBasketServer
+				.parseQuery("items=Apple+Soup%2A2&format=csv&empty");
+		assertEquals("Apple Soup*2", params.get("items"));
+		assertEquals("csv", params.get("format"));
+		assertEquals("", params.get("empty"));
+		assertEquals(0, PriceBasketServer.parseQuery(null).size());
+	}
+
+	@Test
+	public void testSetInvalidPort() {
+		try {
+			server.setPort(70000);
+			fail();
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	private HttpURLConnection open(String query) throws IOException {
+		URL url = new URL("http", "localhost", server.getAddress().getPort(),
+				PriceBasketServer.PRICE_PATH + query);
+		return (HttpURLConnection) url.openConnection();
+	}
+
+	private static String read(InputStream in) throws IOException {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		byte[] buffer = new byte[1024];
+		int read;
+		while ((read = in.read(buffer)) >= 0) {
+			baos.write(buffer, 0, read);
+		}
+		in.close();
+		return baos.toString("UTF-8");
+	}
+
+}
@@ -0,0 +1,41 @@
+package com.bjss.pricebasket.catalogue;
+
+import static org.junit.Assert.assertEquals;
+
+import java.math.BigDecimal;
+import java.text.SimpleDateFormat;
+import java.util.Collections;
+
+import org.junit.Test;
+
+import com.bjss.pricebasket.data.Item;
+import com.bjss.pricebasket.data.PercentageOffer;
+
+public class CatalogueCompilerTest {
+
+	@Test
+	public void testLoad() throws Exception {
+		Catalogue catalogue = new CatalogueCompiler().load(
+				"classpath:/META-INF/basket-config.xml", 3);
+
+		assertEquals(3, catalogue.getVersion());
+		assertEquals(4, catalogue.getItems().size());
+		assertEquals(new Item("apple", new BigDecimal("1.00")), catalogue
+				.getItems().get(0));
+		assertEquals(2, catalogue.getOffers().size());
+
+		PercentageOffer applesOffer = (PercentageOffer) catalogue.getOffers()
+				.get(0);
+		assertEquals("applesOffer", applesOffer.getId());
+		assertEquals(new SimpleDateFormat("yyyy-MM-dd").parse("2014-03-08"),
+				applesOffer.getExpiryDate());
+
+		PercentageOffer breadOffer = (PercentageOffer) catalogue.getOffers()
+				.get(1);
+		assertEquals("breadOffer", breadOffer.getId());
+		assertEquals(new BigDecimal("0.5"), breadOffer.getDiscount());
+		assertEquals(Collections.singletonMap(new Item("soup", new BigDecimal(
+				"0.65")), 2), breadOffer.getRequiredItems());
+	}
+
+}
@@ -0,0 +1,111 @@
+package com.bjss.pricebasket.catalogue;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.bjss.pricebasket.data.Item;
+import com.bjss.pricebasket.data.Offer;
+import com.bjss.pricebasket.data.PercentageOffer;
+
+public class CatalogueOrdinalsTest {
+
+	private final Item bread = new Item("bread", new BigDecimal("0.80"));
+	private final Item soup = new Item("soup", new BigDecimal("0.65"));
+	private final Item milk = new Item("milk", new BigDecimal("1.30"));
+
+	private PercentageOffer createOffer(String id, Item item,
+			Item requiredItem) {
+		PercentageOffer offer = new PercentageOffer();
+		offer.setId(id);
+		offer.setItem(item);
+		offer.setDiscount(new BigDecimal("0.1"));
+		Map<Item, Integer> requiredItems = new HashMap<Item, Integer>();
+		requiredItems.put(requiredItem, 1);
+		offer.setRequiredItems(requiredItems);
+		return offer;
+	}
+
+	@Test
+	public void testNumbersItemsAndOffers() {
+		Offer breadOffer = createOffer("breadOffer", bread, soup);
+		Offer milkOffer = createOffer("milkOffer", milk, bread);
+		CatalogueOrdinals ordinals = new CatalogueOrdinals(
+				Arrays.asList(bread), Arrays.asList(breadOffer, milkOffer));
+
+		// catalogue items first, then those only the offers refer to
+		assertEquals(3, ordinals.getItemCount());
+		assertEquals(0, ordinals.getOrdinal(bread));
+		assertEquals(1, ordinals.getOrdinal(soup));
+		assertEquals(2, ordinals.getOrdinal(milk));
+		assertSame(soup, ordinals.getItem(1));
+		assertEquals(1, soup.getOrdinal());
+
+		assertEquals(2, ordinals.getOfferCount());
+		assertSame(milkOffer, ordinals.getOffer(1));
+		assertEquals(1, milkOffer.getOrdinal());
+	}
+
+	@Test
+	public void testEqualItems() {
+		CatalogueOrdinals ordinals = new CatalogueOrdinals(Arrays.asList(
+				bread, new Item("bread", new BigDecimal("0.80")), soup),
+				Collections.<Offer> emptyList());
+
+		assertEquals(2, ordinals.getItemCount());
+		assertEquals(1, ordinals.getOrdinal(new Item("soup", new BigDecimal(
+				"0.65"))));
+		assertEquals(Item.NO_ORDINAL, ordinals.getOrdinal(milk));
+		assertEquals(Item.NO_ORDINAL,
+				ordinals.getOrdinal(new Item("soup", new BigDecimal("0.66"))));
+	}
+
+	/**
+	 * An item keeps the ordinal of the last catalogue that numbered it, so
+	 * the catalogues numbered before it check the ordinal against their own.
+	 */
+	@Test
+	public void testItemInTwoCatalogues() {
+		CatalogueOrdinals first = new CatalogueOrdinals(Arrays.asList(bread,
+				soup), Collections.<Offer> emptyList());
+		CatalogueOrdinals second = new CatalogueOrdinals(Arrays.asList(soup),
+				Collections.<Offer> emptyList());
+
+		assertEquals(0, soup.getOrdinal());
+		assertEquals(1, first.getOrdinal(soup));
+		assertEquals(0, second.getOrdinal(soup));
+		assertEquals(Item.NO_ORDINAL, second.getOrdinal(bread));
+	}
+
+	@Test
+	public void testNullArguments() {
+		try {
+			new CatalogueOrdinals(null, Collections.<Offer> emptyList());
+			fail();
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+		try {
+			new CatalogueOrdinals(Collections.<Item> emptyList(), null);
+			fail();
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+		try {
+			new CatalogueOrdinals(Collections.<Item> emptyList(),
+					Collections.<Offer> emptyList()).getOrdinal(null);
+			fail();
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+}
@@ -0,0 +1,122 @@
+package com.bjss.pricebasket.catalogue;
+
+import static com.bjss.pricebasket.catalogue.CatalogueSnapshotWriterTest.createOffer;
+import static com.bjss.pricebasket.catalogue.CatalogueSnapshotWriterTest.write;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Locale;
+
+import org.junit.Test;
+
+import com.bjss.pricebasket.data.Item;
+import com.bjss.pricebasket.data.Offer;
+import com.bjss.pricebasket.data.PercentageOffer;
+import com.bjss.pricebasket.data.PricingContext;
+import com.bjss.pricebasket.service.mock.MockMsgService;
+
+public class CatalogueSnapshotReaderTest {
+
+	@Test
+	public void testReadGivesMsgService() throws IOException {
+		Item bread = new Item("bread", new BigDecimal("0.80"));
+		Catalogue catalogue = new Catalogue(1, Collections.singletonList(bread),
+				Collections.<Offer> singletonList(createOffer("breadOffer",
+						bread, "0.5")));
+		MockMsgService msgService = new MockMsgService();
+		msgService.addMessage("item.name.bread", "Bread");
+		msgService.addMessage("percentage.offer", "%s %s%% off: -%s");
+
+		Catalogue read = new CatalogueSnapshotReader().read(
+				ByteBuffer.wrap(write(catalogue)), msgService, "test");
+
+		assertEquals("Bread", read.getItems().get(0).getDisplayName());
+		assertEquals("Bread 50% off: -40p", ((PercentageOffer) read.getOffers()
+				.get(0)).buildPrintMessage("40p", new PricingContext(0,
+				Locale.UK)));
+	}
+
+	@Test
+	public void testReadNotASnapshot() {
+		assertRejected(new byte[] { 1, 2, 3, 4, 5, 6, 7, 8 });
+		assertRejected(new byte[0]);
+	}
+
+	@Test
+	public void testReadUnknownFormatVersion() throws IOException {
+		byte[] snapshot = write(new Catalogue(1, Collections.<Item> emptyList(),
+				Collections.<Offer> emptyList()));
+		ByteBuffer.wrap(snapshot).putInt(4, CatalogueSnapshot.FORMAT_VERSION + 1);
+		assertRejected(snapshot);
+	}
+
+	@Test
+	public void testReadTruncated() throws IOException {
+		Item apple = new Item("apple", new BigDecimal("1.00"));
+		apple.setBarcodes(Arrays.asList("5000112637922"));
+		byte[] snapshot = write(new Catalogue(1, Arrays.asList(apple),
+				Collections.<Offer> singletonList(createOffer("appleOffer",
+						apple, "0.1"))));
+		for (int length = 0; length < snapshot.length; length++) {
+			assertRejected(Arrays.copyOf(snapshot, length));
+		}
+	}
+
+	@Test
+	public void testReadCorruptCounts() throws IOException {
+		byte[] empty = write(new Catalogue(1, Collections.<Item> emptyList(),
+				Collections.<Offer> emptyList()));
+		// the item count, then the offer count
+		for (int offset : new int[] { 16, 20 }) {
+			byte[] snapshot = empty.clone();
+			ByteBuffer.wrap(snapshot).putInt(offset, -1);
+			assertRejected(snapshot, "corrupt");
+			ByteBuffer.wrap(snapshot).putInt(offset, Integer.MAX_VALUE);
+			assertRejected(snapshot, "truncated");
+		}
+
+		Item apple = new Item("apple", new BigDecimal("1.00"));
+		byte[] snapshot = write(new Catalogue(1, Arrays.asList(apple),
+				Collections.<Offer> emptyList()));
+		// the barcode count of the item
+		ByteBuffer.wrap(snapshot).putInt(20 + 4 + 5 + 12, Integer.MAX_VALUE);
+		assertRejected(snapshot, "truncated");
+	}
+
+	@Test
+	public void testReadEmpty() throws IOException {
+		Catalogue read = new CatalogueSnapshotReader().read(
+				ByteBuffer.wrap(write(new Catalogue(7, Collections
+						.<Item> emptyList(), Collections.<Offer> emptyList()))),
+				null, "test");
+		assertEquals(7, read.getVersion());
+		assertSame(0, read.getItems().size());
+	}
+
+	private static void assertRejected(byte[] snapshot, String problem) {
+		try {
+			new CatalogueSnapshotReader().read(ByteBuffer.wrap(snapshot),
+					new MockMsgService(), "test");
+			fail();
+		} catch (IllegalArgumentException e) {
+			assertEquals("Snapshot [test] is " + problem, e.getMessage());
+		}
+	}
+
+	private static void assertRejected(byte[] snapshot) {
+		try {
+			new CatalogueSnapshotReader().read(ByteBuffer.wrap(snapshot),
+					new MockMsgService(), "test");
+			fail();
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+}
@@ -0,0 +1,169 @@
+package com.bjss.pricebasket.catalogue;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.bjss.pricebasket.data.Item;
+import com.bjss.pricebasket.data.MultiBuyOffer;
+import com.bjss.pricebasket.data.Offer;
+import com.bjss.pricebasket.data.PercentageOffer;
+import com.bjss.pricebasket.service.mock.MockMsgService;
+
+public class CatalogueSnapshotWriterTest {
+
+	@Test
+	public void testWriteAndRead() throws IOException {
+		Item apple = new Item("apple", new BigDecimal("1.00"));
+		Item soup = new Item("soup", new BigDecimal("0.65"));
+		soup.setBarcodes(Arrays.asList("5000111018655", "012345678905"));
+		Item bread = new Item("bread", new BigDecimal("0.80"));
+		PercentageOffer appleOffer = createOffer("appleOffer", apple, "0.1");
+		appleOffer.setExpiryDate(new Date(1394236800000L));
+		// as configured offers with no required items
+		appleOffer.setRequiredItems(new LinkedHashMap<Item, Integer>());
+		PercentageOffer breadOffer = createOffer("breadOffer", bread, "0.5");
+		Map<Item, Integer> requiredItems = new LinkedHashMap<Item, Integer>();
+		requiredItems.put(soup, 2);
+		requiredItems.put(apple, 1);
+		breadOffer.setRequiredItems(requiredItems);
+		Catalogue catalogue = new Catalogue(42, Arrays.asList(apple, soup,
+				bread), Arrays.<Offer> asList(appleOffer, breadOffer));
+
+		MockMsgService msgService = new MockMsgService();
+		Catalogue read = new CatalogueSnapshotReader().read(
+				ByteBuffer.wrap(write(catalogue)), msgService, "test");
+
+		assertEquals(42, read.getVersion());
+		assertEquals(catalogue.getItems(), read.getItems());
+		assertEquals(catalogue.getOffers(), read.getOffers());
+		assertEquals(soup.getBarcodes(), read.getItems().get(1).getBarcodes());
+		assertEquals(Collections.emptyList(), read.getItems().get(0)
+				.getBarcodes());
+		// required items keep their order, and refer to the read items
+		PercentageOffer readBreadOffer = (PercentageOffer) read.getOffers()
+				.get(1);
+		assertEquals(Arrays.asList(soup, apple), Arrays.asList(readBreadOffer
+				.getRequiredItems().keySet().toArray()));
+		assertSame(read.getItems().get(2), readBreadOffer.getItem());
+		assertNull(((PercentageOffer) read.getOffers().get(0))
+				.getRequiredItems().get(soup));
+	}
+
+	@Test
+	public void testWriteAndReadMultiBuyOffers() throws IOException {
+		Item apple = new Item("apple", new BigDecimal("1.00"));
+		Item soup = new Item("soup", new BigDecimal("0.65"));
+		MultiBuyOffer soupOffer = new MultiBuyOffer();
+		soupOffer.setId("soupOffer");
+		soupOffer.setItem(soup);
+		soupOffer.setQuantity(3);
+		soupOffer.setFreeQuantity(1);
+		soupOffer.setExpiryDate(new Date(1394236800000L));
+		MultiBuyOffer appleOffer = new MultiBuyOffer();
+		appleOffer.setId("appleOffer");
+		appleOffer.setItem(apple);
+		appleOffer.setQuantity(2);
+		appleOffer.setGroupPrice(new BigDecimal("1.50"));
+		PercentageOffer percentageOffer = createOffer("percentageOffer", apple,
+				"0.1");
+		percentageOffer.setRequiredItems(new LinkedHashMap<Item, Integer>());
+		Catalogue catalogue = new Catalogue(1, Arrays.asList(apple, soup),
+				Arrays.<Offer> asList(soupOffer, appleOffer, percentageOffer));
+
+		Catalogue read = new CatalogueSnapshotReader().read(
+				ByteBuffer.wrap(write(catalogue)), new MockMsgService(),
+				"test");
+
+		assertEquals(catalogue.getOffers(), read.getOffers());
+		MultiBuyOffer readSoupOffer = (MultiBuyOffer) read.getOffers().get(0);
+		assertSame(read.getItems().get(1), readSoupOffer.getItem());
+		assertEquals(Collections.singletonMap(soup, 3),
+				readSoupOffer.getRequiredItems());
+		assertEquals(soupOffer.getExpiryTime(), readSoupOffer.getExpiryTime());
+	}
+
+	@Test
+	public void testWriteFile() throws IOException {
+		File file = File.createTempFile("catalogue", ".snapshot");
+		file.deleteOnExit();
+		Catalogue catalogue = new Catalogue(1, Collections.singletonList(new Item(
+				"apple", new BigDecimal("1.00"))), Collections.<Offer> emptyList());
+
+		new CatalogueSnapshotWriter().write(catalogue, file);
+
+		assertFalse(new File(file.getPath() + ".tmp").exists());
+		assertEquals(catalogue.getItems(), new CatalogueSnapshotReader().read(
+				file, new MockMsgService()).getItems());
+	}
+
+	@Test
+	public void testWriteOfferWithUnknownItem() throws IOException {
+		Item apple = new Item("apple", new BigDecimal("1.00"));
+		Catalogue catalogue = new Catalogue(1, Collections.<Item> emptyList(),
+				Collections.<Offer> singletonList(createOffer("appleOffer",
+						apple, "0.1")));
+		try {
+			write(catalogue);
+			fail();
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testWritePriceWithTooManyDigits() throws IOException {
+		Catalogue catalogue = new Catalogue(1, Collections.singletonList(new Item(
+				"apple", new BigDecimal("1e30").add(new BigDecimal("0.01")))),
+				Collections.<Offer> emptyList());
+		try {
+			write(catalogue);
+			fail();
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testWriteDuplicateItem() throws IOException {
+		Item apple = new Item("apple", new BigDecimal("1.00"));
+		Catalogue catalogue = new Catalogue(1, Arrays.asList(apple, apple),
+				Collections.<Offer> emptyList());
+		try {
+			write(catalogue);
+			fail();
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	static byte[] write(Catalogue catalogue) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		new CatalogueSnapshotWriter().write(catalogue, out);
+		return out.toByteArray();
+	}
+
+	static PercentageOffer createOffer(String id, Item item, String discount) {
+		PercentageOffer offer = new PercentageOffer();
+		offer.setId(id);
+		offer.setItem(item);
+		offer.setDiscount(new BigDecimal(discount));
+		return offer;
+	}
+
+}
@@ -0,0 +1,290 @@
+package com.bjss.pricebasket.catalogue;
+
+import static com.bjss.pricebasket.catalogue.CatalogueSnapshotWriterTest.createOffer;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+import com.bjss.pricebasket.data.Item;
+import com.bjss.pricebasket.data.MultiBuyOffer;
+import com.bjss.pricebasket.data.Offer;
+import com.bjss.pricebasket.data.PercentageOffer;
+import com.bjss.pricebasket.service.mock.MockMsgService;
+
+public class SharedCatalogueTest {
+
+	@Test
+	public void testReadPublishedCatalogue() throws IOException {
+		Catalogue expected = new CatalogueCompiler().load(
+				"classpath:/META-INF/basket-config.xml", 7);
+		SharedCatalogue catalogue = new SharedCatalogue(publish(expected),
+				new MockMsgService());
+
+		assertEquals(7, catalogue.getVersion());
+		for (Item item : expected.getItems()) {
+			assertEquals(item, catalogue.getItem(item.getId().toUpperCase()));
+		}
+		assertNull(catalogue.getItem("cheese"));
+		assertEquals(Collections.singletonList(expected.getOffers().get(0)),
+				catalogue.getOffers(catalogue.getItem("apple")));
+		assertEquals(Collections.singletonList(expected.getOffers().get(1)),
+				catalogue.getOffers(catalogue.getItem("bread")));
+		assertEquals(0, catalogue.getOffers(catalogue.getItem("soup")).size());
+		assertEquals(0,
+				catalogue.getOffers(new Item("cheese", BigDecimal.ONE)).size());
+	}
+
+	@Test
+	public void testOffersKeepCatalogueOrder() throws IOException {
+		Item apple = new Item("apple", new BigDecimal("1.00"));
+		Item soup = new Item("soup", new BigDecimal("0.65"));
+		PercentageOffer firstOffer = createOffer("firstOffer", apple, "0.1");
+		firstOffer.setExpiryDate(new Date(1394236800000L));
+		firstOffer.setRequiredItems(new LinkedHashMap<Item, Integer>());
+		PercentageOffer soupOffer = createOffer("soupOffer", soup, "0.2");
+		soupOffer.setRequiredItems(new LinkedHashMap<Item, Integer>());
+		PercentageOffer secondOffer = createOffer("secondOffer", apple, "0.25");
+		Map<Item, Integer> requiredItems = new LinkedHashMap<Item, Integer>();
+		requiredItems.put(soup, 2);
+		secondOffer.setRequiredItems(requiredItems);
+		SharedCatalogue catalogue = new SharedCatalogue(publish(new Catalogue(
+				1, Arrays.asList(apple, soup), Arrays.<Offer> asList(
+						firstOffer, soupOffer, secondOffer))),
+				new MockMsgService());
+
+		assertEquals(Arrays.<Offer> asList(firstOffer, secondOffer),
+				catalogue.getOffers(apple));
+	}
+
+	@Test
+	public void testReadMultiBuyOffers() throws IOException {
+		Item apple = new Item("apple", new BigDecimal("1.00"));
+		Item soup = new Item("soup", new BigDecimal("0.65"));
+		MultiBuyOffer threeForTwo = new MultiBuyOffer();
+		threeForTwo.setId("threeForTwo");
+		threeForTwo.setItem(soup);
+		threeForTwo.setQuantity(3);
+		threeForTwo.setFreeQuantity(1);
+		threeForTwo.setExpiryDate(new Date(1394236800000L));
+		MultiBuyOffer twoForPrice = new MultiBuyOffer();
+		twoForPrice.setId("twoForPrice");
+		twoForPrice.setItem(soup);
+		twoForPrice.setQuantity(2);
+		twoForPrice.setGroupPrice(new BigDecimal("1.10"));
+		PercentageOffer appleOffer = createOffer("appleOffer", apple, "0.1");
+		Map<Item, Integer> requiredItems = new LinkedHashMap<Item, Integer>();
+		requiredItems.put(soup, 1);
+		appleOffer.setRequiredItems(requiredItems);
+		SharedCatalogue catalogue = new SharedCatalogue(publish(new Catalogue(
+				1, Arrays.asList(apple, soup), Arrays.<Offer> asList(
+						threeForTwo, appleOffer, twoForPrice))),
+				new MockMsgService());
+
+		List<Offer> soupOffers = catalogue.getOffers(soup);
+		assertEquals(Arrays.<Offer> asList(threeForTwo, twoForPrice),
+				soupOffers);
+		assertEquals(Collections.singletonMap(soup, 3), soupOffers.get(0)
+				.getRequiredItems());
+		assertEquals(threeForTwo.getExpiryTime(), soupOffers.get(0)
+				.getExpiryTime());
+		assertEquals(Collections.<Offer> singletonList(appleOffer),
+				catalogue.getOffers(apple));
+	}
+
+	@Test
+	public void testSeesLaterPublish() throws IOException {
+		File file = SharedCatalogueWriterTest.createTempFile();
+		SharedCatalogueWriter writer = new SharedCatalogueWriter(file, 4096);
+		try {
+			writer.publish(createCatalogue(1, "1.00"));
+			SharedCatalogue catalogue = new SharedCatalogue(file,
+					new MockMsgService());
+			Item apple = catalogue.getItem("apple");
+			assertEquals(1, catalogue.getOffers(apple).size());
+
+			writer.publish(createCatalogue(2, "1.20"));
+
+			assertEquals(2, catalogue.getVersion());
+			assertEquals(new BigDecimal("1.20"), catalogue.getItem("apple")
+					.getPrice());
+			// the item of the earlier catalogue no longer matches
+			assertEquals(0, catalogue.getOffers(apple).size());
+		} finally {
+			writer.close();
+		}
+	}
+
+	@Test
+	public void testLookupsReturnSameInstancesUntilPublish()
+			throws IOException {
+		File file = SharedCatalogueWriterTest.createTempFile();
+		SharedCatalogueWriter writer = new SharedCatalogueWriter(file, 4096);
+		try {
+			writer.publish(createCatalogue(1, "1.00"));
+			SharedCatalogue catalogue = new SharedCatalogue(file,
+					new MockMsgService());
+			Item apple = catalogue.getItem("apple");
+			List<Offer> offers = catalogue.getOffers(apple);
+
+			assertSame(apple, catalogue.getItem("APPLE"));
+			assertSame(offers, catalogue.getOffers(apple));
+			assertSame(offers, catalogue.getOffers(new Item("apple",
+					new BigDecimal("1.00"))));
+			assertEquals(catalogue.getItem("soup"), offers.get(0)
+					.getRequiredItems().keySet().iterator().next());
+
+			writer.publish(createCatalogue(2, "1.00"));
+
+			Item republished = catalogue.getItem("apple");
+			assertNotSame(apple, republished);
+			assertEquals(apple, republished);
+			assertNotSame(offers, catalogue.getOffers(apple));
+			assertEquals(offers, catalogue.getOffers(apple));
+		} finally {
+			writer.close();
+		}
+	}
+
+	@Test
+	public void testPinnedLookupsFailAfterPublish() throws IOException {
+		File file = SharedCatalogueWriterTest.createTempFile();
+		SharedCatalogueWriter writer = new SharedCatalogueWriter(file, 4096);
+		try {
+			writer.publish(createCatalogue(1, "1.00"));
+			SharedCatalogue catalogue = new SharedCatalogue(file,
+					new MockMsgService());
+			SharedCatalogue.Pinned pinned = catalogue.pin();
+			Item apple = pinned.getItem("apple");
+
+			assertEquals(1, pinned.getVersion());
+			assertSame(catalogue.getOffers(apple), pinned.getOffers(apple));
+
+			writer.publish(createCatalogue(2, "1.00"));
+
+			assertEquals(1, pinned.getVersion());
+			try {
+				pinned.getOffers(apple);
+				fail();
+			} catch (CatalogueChangedException e) {
+				// expected
+			}
+			try {
+				pinned.getItem("apple");
+				fail();
+			} catch (CatalogueChangedException e) {
+				// expected
+			}
+			assertEquals(2, catalogue.pin().getVersion());
+		} finally {
+			writer.close();
+		}
+	}
+
+	@Test
+	public void testConcurrentPublishIsNeverTorn() throws Exception {
+		File file = SharedCatalogueWriterTest.createTempFile();
+		final SharedCatalogueWriter writer = new SharedCatalogueWriter(file,
+				4096);
+		writer.publish(createCatalogue(0, "0"));
+		final SharedCatalogue catalogue = new SharedCatalogue(file,
+				new MockMsgService());
+		final AtomicBoolean running = new AtomicBoolean(true);
+		final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+		List<Thread> readers = new ArrayList<Thread>();
+		for (int i = 0; i < 2; i++) {
+			Thread reader = new Thread() {
+				@Override
+				public void run() {
+					try {
+						while (running.get()) {
+							Item apple = catalogue.getItem("apple");
+							List<Offer> offers = catalogue.getOffers(apple);
+							// every catalogue has one offer on the apple
+							if (!offers.isEmpty()) {
+								assertEquals(apple, offers.get(0).getItem());
+							}
+						}
+					} catch (Throwable e) {
+						failure.set(e);
+					}
+				}
+			};
+			reader.start();
+			readers.add(reader);
+		}
+		try {
+			for (int version = 1; version < 2000; version++) {
+				// each version has a different price, so a torn read shows
+				writer.publish(createCatalogue(version,
+						Integer.toString(version)));
+			}
+		} finally {
+			running.set(false);
+			for (Thread reader : readers) {
+				reader.join();
+			}
+			writer.close();
+		}
+		if (failure.get() != null) {
+			throw new AssertionError(failure.get());
+		}
+		assertEquals(1999, catalogue.getVersion());
+	}
+
+	@Test
+	public void testOpenFileThatIsNotShared() throws IOException {
+		File file = File.createTempFile("catalogue", ".snapshot");
+		file.deleteOnExit();
+		new CatalogueSnapshotWriter().write(new CatalogueCompiler().load(
+				"classpath:/META-INF/basket-config.xml", 1), file);
+		try {
+			new SharedCatalogue(file, new MockMsgService());
+			fail();
+		} catch (IllegalArgumentException e) {
+			assertTrue(e.getMessage().endsWith("should be a shared catalogue"));
+		}
+		assertFalse(file.length() == 0);
+	}
+
+	static File publish(Catalogue catalogue) throws IOException {
+		File file = SharedCatalogueWriterTest.createTempFile();
+		SharedCatalogueWriter writer = new SharedCatalogueWriter(file, 4096);
+		try {
+			writer.publish(catalogue);
+		} finally {
+			writer.close();
+		}
+		return file;
+	}
+
+	private static Catalogue createCatalogue(long version, String applePrice) {
+		Item apple = new Item("apple", new BigDecimal(applePrice));
+		Item soup = new Item("soup", new BigDecimal("0.65"));
+		PercentageOffer offer = createOffer("appleOffer", apple, "0.1");
+		Map<Item, Integer> requiredItems = new LinkedHashMap<Item, Integer>();
+		requiredItems.put(soup, 1);
+		offer.setRequiredItems(requiredItems);
+		return new Catalogue(version, Arrays.asList(soup, apple),
+				Collections.<Offer> singletonList(offer));
+	}
+
+}
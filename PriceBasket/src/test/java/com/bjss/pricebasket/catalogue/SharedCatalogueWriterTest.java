@@ -0,0 +1,146 @@
+package com.bjss.pricebasket.catalogue;
+
+import static com.bjss.pricebasket.catalogue.CatalogueSnapshotWriterTest.createOffer;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Test;
+
+import com.bjss.pricebasket.data.Item;
+import com.bjss.pricebasket.data.Offer;
+import com.bjss.pricebasket.service.mock.MockMsgService;
+
+public class SharedCatalogueWriterTest {
+
+	@Test
+	public void testCreate() throws IOException {
+		File file = createTempFile();
+
+		SharedCatalogueWriter writer = new SharedCatalogueWriter(file, 4096);
+		writer.close();
+
+		assertEquals(4096, file.length());
+		SharedCatalogue catalogue = new SharedCatalogue(file,
+				new MockMsgService());
+		assertEquals(0, catalogue.getVersion());
+		assertEquals(null, catalogue.getItem("apple"));
+	}
+
+	@Test
+	public void testOpenExistingKeepsSize() throws IOException {
+		File file = createTempFile();
+		new SharedCatalogueWriter(file, 4096).close();
+
+		SharedCatalogueWriter writer = new SharedCatalogueWriter(file, 8192);
+		try {
+			assertEquals(4096, writer.getCapacity());
+		} finally {
+			writer.close();
+		}
+	}
+
+	@Test
+	public void testOpenFileThatIsNotShared() throws IOException {
+		File file = createTempFile();
+		FileOutputStream out = new FileOutputStream(file);
+		try {
+			out.write(new byte[128]);
+		} finally {
+			out.close();
+		}
+		try {
+			new SharedCatalogueWriter(file, 4096);
+			fail();
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testCapacityTooSmall() throws IOException {
+		try {
+			new SharedCatalogueWriter(createTempFile(), 16);
+			fail();
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testPublishCatalogueThatDoesNotFit() throws IOException {
+		Item[] items = new Item[100];
+		for (int i = 0; i < items.length; i++) {
+			items[i] = new Item("item" + i, new BigDecimal("1.00"));
+		}
+		SharedCatalogueWriter writer = new SharedCatalogueWriter(
+				createTempFile(), 1024);
+		try {
+			writer.publish(new Catalogue(1, Arrays.asList(items),
+					Collections.<Offer> emptyList()));
+			fail();
+		} catch (IllegalArgumentException e) {
+			// expected
+		} finally {
+			writer.close();
+		}
+	}
+
+	@Test
+	public void testEncodeDuplicateId() {
+		Catalogue catalogue = new Catalogue(1, Arrays.asList(new Item("apple",
+				new BigDecimal("1.00")), new Item("apple", new BigDecimal(
+				"0.90"))), Collections.<Offer> emptyList());
+		try {
+			SharedCatalogueWriter.encode(catalogue);
+			fail();
+		} catch (IllegalArgumentException e) {
+			assertEquals("Item [apple] should only be in the catalogue once",
+					e.getMessage());
+		}
+	}
+
+	@Test
+	public void testEncodeItemWithBarcodes() {
+		Item apple = new Item("apple", new BigDecimal("1.00"));
+		apple.setBarcodes(Arrays.asList("5000112637922"));
+		Catalogue catalogue = new Catalogue(1, Arrays.asList(apple),
+				Collections.<Offer> emptyList());
+		try {
+			SharedCatalogueWriter.encode(catalogue);
+			fail();
+		} catch (IllegalArgumentException e) {
+			assertEquals("Item [apple] has barcodes, which can not be shared",
+					e.getMessage());
+		}
+	}
+
+	@Test
+	public void testEncodeOfferWithUnknownItem() {
+		Catalogue catalogue = new Catalogue(1, Collections.<Item> emptyList(),
+				Collections.<Offer> singletonList(createOffer("appleOffer",
+						new Item("apple", new BigDecimal("1.00")), "0.1")));
+		try {
+			SharedCatalogueWriter.encode(catalogue);
+			fail();
+		} catch (IllegalArgumentException e) {
+			assertEquals(
+					"Item [apple] of offer [appleOffer] should be in the catalogue",
+					e.getMessage());
+		}
+	}
+
+	static File createTempFile() throws IOException {
+		File file = File.createTempFile("catalogue", ".shared");
+		file.deleteOnExit();
+		// the writer creates the catalogue in an empty file
+		return file;
+	}
+
+}
@@ -0,0 +1,259 @@
+package com.bjss.pricebasket.catalogue;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Test;
+
+import com.bjss.pricebasket.data.Item;
+import com.bjss.pricebasket.data.MultiBuyOffer;
+import com.bjss.pricebasket.data.PercentageOffer;
+import com.bjss.pricebasket.service.mock.MockMsgService;
+
+public class StreamingCatalogueLoaderTest {
+
+	private static final String HEADER = "<beans:beans xmlns=\"http://www.bjss.com/schema/price-basket\""
+			+ " xmlns:beans=\"http://www.springframework.org/schema/beans\">";
+	private static final String FOOTER = "</beans:beans>";
+
+	@Test
+	public void testReadXmlMatchesCompiler() throws Exception {
+		StreamingCatalogueLoader loader = new StreamingCatalogueLoader(
+				new MockMsgService());
+		InputStream in = getClass().getResourceAsStream(
+				"/META-INF/basket-config.xml");
+		try {
+			loader.readXml(in, "basket-config.xml");
+		} finally {
+			in.close();
+		}
+		Catalogue catalogue = loader.build(4);
+
+		Catalogue expected = new CatalogueCompiler().load(
+				"classpath:/META-INF/basket-config.xml", 4);
+		assertEquals(4, catalogue.getVersion());
+		assertEquals(expected.getItems(), catalogue.getItems());
+		assertEquals(expected.getOffers(), catalogue.getOffers());
+		PercentageOffer applesOffer = (PercentageOffer) catalogue.getOffers()
+				.get(0);
+		assertSame(catalogue.getItems().get(0), applesOffer.getItem());
+	}
+
+	@Test
+	public void testReadItemsCsv() throws IOException {
+		StreamingCatalogueLoader loader = new StreamingCatalogueLoader(
+				new MockMsgService());
+		loader.readItemsCsv(new StringReader(
+				"id,price\n# comment\n\nApple,1.00\n pear , 0.50 \n"), "items.csv");
+		Catalogue catalogue = loader.build(0);
+
+		assertEquals(2, catalogue.getItems().size());
+		assertEquals(new Item("apple", new BigDecimal("1.00")), catalogue
+				.getItems().get(0));
+		assertEquals(new Item("pear", new BigDecimal("0.50")), catalogue
+				.getItems().get(1));
+		assertEquals(0, catalogue.getOffers().size());
+	}
+
+	@Test
+	public void testReadBarcodes() throws IOException {
+		StreamingCatalogueLoader loader = new StreamingCatalogueLoader(
+				new MockMsgService());
+		loader.readItemsCsv(new StringReader(
+				"id,price,barcodes\napple,1.00, 5000112637922  012345678905\npear,0.50\n"),
+				"items.csv");
+		loader.readXml(xml("<item id=\"soup\" price=\"0.65\" barcodes=\"5000111018655\" />"),
+				"catalogue.xml");
+		Catalogue catalogue = loader.build(0);
+
+		assertEquals(Arrays.asList("5000112637922", "012345678905"), catalogue
+				.getItems().get(0).getBarcodes());
+		assertEquals(Collections.emptyList(), catalogue.getItems().get(1)
+				.getBarcodes());
+		assertEquals(Arrays.asList("5000111018655"), catalogue.getItems()
+				.get(2).getBarcodes());
+	}
+
+	@Test
+	public void testOfferRefersToCsvItemsAndLaterItems() throws IOException {
+		StreamingCatalogueLoader loader = new StreamingCatalogueLoader(
+				new MockMsgService());
+		loader.readItemsCsv(new StringReader("soup,0.65\n"), "items.csv");
+		loader.readXml(
+				xml("<percentageOffer id=\"breadOffer\" itemRef=\"Bread\" discount=\"0.5\">"
+						+ "<requiredItems><itemRef ref=\"soup\" quantity=\"2\" /></requiredItems>"
+						+ "</percentageOffer><item id=\"Bread\" price=\"0.80\" />"),
+				"catalogue.xml");
+		Catalogue catalogue = loader.build(0);
+
+		PercentageOffer offer = (PercentageOffer) catalogue.getOffers().get(0);
+		Item bread = new Item("bread", new BigDecimal("0.80"));
+		assertEquals(bread, offer.getItem());
+		assertEquals(Collections.singletonMap(new Item("soup", new BigDecimal(
+				"0.65")), 2), offer.getRequiredItems());
+	}
+
+	@Test
+	public void testReadMultiBuyOffers() {
+		StreamingCatalogueLoader loader = new StreamingCatalogueLoader(
+				new MockMsgService());
+		loader.readXml(
+				xml("<multiBuyOffer id=\"soupOffer\" itemRef=\"soup\" quantity=\"3\" freeQuantity=\"1\" expiryDate=\"2014-03-01\" />"
+						+ "<item id=\"soup\" price=\"0.65\" />"
+						+ "<multiBuyOffer id=\"appleOffer\" itemRef=\"apple\" quantity=\"2\" groupPrice=\"1.50\" />"
+						+ "<item id=\"apple\" price=\"1.00\" />"),
+				"catalogue.xml");
+		Catalogue catalogue = loader.build(0);
+
+		MultiBuyOffer soupOffer = (MultiBuyOffer) catalogue.getOffers().get(0);
+		assertSame(catalogue.getItems().get(0), soupOffer.getItem());
+		assertEquals(3, soupOffer.getQuantity());
+		assertEquals(1, soupOffer.getFreeQuantity());
+		assertEquals(new BigDecimal("0.65"), soupOffer.calculateDiscount());
+		MultiBuyOffer appleOffer = (MultiBuyOffer) catalogue.getOffers()
+				.get(1);
+		assertEquals(new BigDecimal("1.50"), appleOffer.getGroupPrice());
+		assertEquals(Collections.singletonMap(catalogue.getItems().get(1), 2),
+				appleOffer.getRequiredItems());
+	}
+
+	@Test
+	public void testMultiBuyOfferWithoutGroup() {
+		try {
+			new StreamingCatalogueLoader(new MockMsgService()).readXml(
+					xml("<multiBuyOffer id=\"soupOffer\" itemRef=\"soup\" quantity=\"3\" />"),
+					"catalogue.xml");
+			fail();
+		} catch (IllegalArgumentException e) {
+			assertEquals(
+					"Offer [soupOffer] should have either a freeQuantity or a groupPrice",
+					e.getMessage());
+		}
+	}
+
+	@Test
+	public void testLaterItemReplacesEarlier() throws IOException {
+		StreamingCatalogueLoader loader = new StreamingCatalogueLoader(
+				new MockMsgService());
+		loader.readItemsCsv(new StringReader("apple,1.00\n"), "items.csv");
+		loader.readXml(xml("<item id=\"apple\" price=\"0.90\" />"),
+				"catalogue.xml");
+		Catalogue catalogue = loader.build(0);
+
+		assertEquals(Collections.singletonList(new Item("apple",
+				new BigDecimal("0.90"))), catalogue.getItems());
+	}
+
+	@Test
+	public void testEqualPricesShareInstance() throws IOException {
+		StreamingCatalogueLoader loader = new StreamingCatalogueLoader(
+				new MockMsgService());
+		loader.readItemsCsv(new StringReader("apple,1.00\npear,1.00\n"),
+				"items.csv");
+		Catalogue catalogue = loader.build(0);
+
+		assertSame(catalogue.getItems().get(0).getPrice(), catalogue
+				.getItems().get(1).getPrice());
+	}
+
+	@Test
+	public void testUnknownItem() {
+		StreamingCatalogueLoader loader = new StreamingCatalogueLoader(
+				new MockMsgService());
+		loader.readXml(
+				xml("<percentageOffer id=\"breadOffer\" itemRef=\"bread\" discount=\"0.5\" />"),
+				"catalogue.xml");
+		try {
+			loader.build(0);
+			fail();
+		} catch (IllegalArgumentException e) {
+			assertEquals(
+					"Item [bread] of offer [breadOffer] should be in the catalogue",
+					e.getMessage());
+		}
+	}
+
+	@Test
+	public void testNegativeQuantity() {
+		try {
+			new StreamingCatalogueLoader(new MockMsgService()).readXml(
+					xml("<percentageOffer id=\"breadOffer\" itemRef=\"bread\" discount=\"0.5\">"
+							+ "<requiredItems><itemRef ref=\"soup\" quantity=\"-1\" /></requiredItems>"
+							+ "</percentageOffer>"), "catalogue.xml");
+			fail();
+		} catch (IllegalArgumentException e) {
+			assertEquals(
+					"Quantity for requiredItem [soup] must be a positive number",
+					e.getMessage());
+		}
+	}
+
+	@Test
+	public void testMissingAttribute() {
+		try {
+			new StreamingCatalogueLoader(new MockMsgService()).readXml(
+					xml("<item id=\"apple\" />"), "catalogue.xml");
+			fail();
+		} catch (IllegalArgumentException e) {
+			assertEquals(
+					"<item> at line 1 of [catalogue.xml] should have the attribute price",
+					e.getMessage());
+		}
+	}
+
+	@Test
+	public void testInvalidPrice() {
+		try {
+			new StreamingCatalogueLoader(new MockMsgService()).readXml(
+					xml("<item id=\"apple\" price=\"one\" />"), "catalogue.xml");
+			fail();
+		} catch (IllegalArgumentException e) {
+			assertEquals("[apple] should have a number, but was [one]",
+					e.getMessage());
+		}
+	}
+
+	@Test
+	public void testMalformedXml() {
+		try {
+			new StreamingCatalogueLoader(new MockMsgService()).readXml(
+					new ByteArrayInputStream("<item".getBytes()),
+					"catalogue.xml");
+			fail();
+		} catch (IllegalArgumentException e) {
+			assertEquals("Could not read the catalogue [catalogue.xml]",
+					e.getMessage());
+		}
+	}
+
+	@Test
+	public void testInvalidCsvLine() throws IOException {
+		try {
+			new StreamingCatalogueLoader(new MockMsgService()).readItemsCsv(
+					new StringReader("apple,1.00\napple\n"), "items.csv");
+			fail();
+		} catch (IllegalArgumentException e) {
+			assertEquals("Line 2 of [items.csv] should be id,price or id,price,barcodes",
+					e.getMessage());
+		}
+	}
+
+	private static InputStream xml(String elements) {
+		try {
+			return new ByteArrayInputStream((HEADER + elements + FOOTER)
+					.getBytes("UTF-8"));
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+}
@@ -0,0 +1,175 @@
+package com.bjss.pricebasket.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map.Entry;
+
+import org.junit.Test;
+
+public class BasketTest {
+
+	private final Item testItem1 = new Item("testitem1", new BigDecimal("1.00"));
+	private final Item testItem2 = new Item("testitem2", new BigDecimal("2.00"));
+
+	@Test
+	public void testEmptyBasket() {
+		Basket basket = new Basket();
+		assertTrue(basket.getDistinctItems().isEmpty());
+		assertTrue(basket.getLines().isEmpty());
+		assertEquals(0, basket.getItemCount());
+		assertEquals(0, basket.getQuantity(testItem1));
+	}
+
+	@Test
+	public void testAddItemMergesLines() {
+		Basket basket = new Basket();
+		basket.addItem(testItem2);
+		basket.addItem(testItem1, 2000);
+		basket.addItem(testItem2, 3);
+
+		assertEquals(2, basket.getLines().size());
+		assertEquals(2004, basket.getItemCount());
+		assertEquals(2000, basket.getQuantity(testItem1));
+		assertEquals(4, basket.getQuantity(testItem2));
+
+		// lines are kept in the order the items were first added
+		assertEquals(Arrays.asList(testItem2, testItem1),
+				Arrays.asList(basket.getDistinctItems().toArray()));
+		Iterator<Entry<Item, Integer>> lines = basket.getLines().entrySet()
+				.iterator();
+		assertEquals(Integer.valueOf(4), lines.next().getValue());
+		assertEquals(Integer.valueOf(2000), lines.next().getValue());
+	}
+
+	@Test
+	public void testAddItemNull() {
+		try {
+			new Basket().addItem(null, 1);
+			fail();
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testAddItemInvalidQuantity() {
+		Basket basket = new Basket();
+		try {
+			basket.addItem(testItem1, 0);
+			fail();
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+		try {
+			basket.addItem(testItem1, -1);
+			fail();
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+		assertTrue(basket.getDistinctItems().isEmpty());
+	}
+
+	@Test
+	public void testRemoveItem() {
+		Basket basket = new Basket();
+		basket.addItem(testItem1, 3);
+		basket.addItem(testItem2);
+
+		basket.removeItem(testItem1, 2);
+		assertEquals(1, basket.getQuantity(testItem1));
+		assertEquals(2, basket.getItemCount());
+
+		// the line goes with its last unit, and comes back at the end
+		basket.removeItem(testItem1);
+		assertEquals(Arrays.asList(testItem2),
+				Arrays.asList(basket.getDistinctItems().toArray()));
+		basket.addItem(testItem1);
+		assertEquals(Arrays.asList(testItem2, testItem1),
+				Arrays.asList(basket.getDistinctItems().toArray()));
+		assertEquals(2, basket.getItemCount());
+	}
+
+	@Test
+	public void testRemoveItemInvalidQuantity() {
+		Basket basket = new Basket();
+		basket.addItem(testItem1, 2);
+		try {
+			basket.removeItem(testItem1, 0);
+			fail();
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+		try {
+			basket.removeItem(testItem1, 3);
+			fail();
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+		try {
+			basket.removeItem(testItem2);
+			fail();
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+		assertEquals(2, basket.getQuantity(testItem1));
+		assertEquals(2, basket.getItemCount());
+	}
+
+	@SuppressWarnings("deprecation")
+	@Test
+	public void testItemsHaveAnEntryPerUnit() {
+		Basket basket = new Basket();
+		basket.addItem(testItem1, 2);
+		basket.addItem(testItem2);
+		basket.addItem(testItem1);
+
+		List<Item> items = basket.getItems();
+		assertEquals(Arrays.asList(testItem1, testItem1, testItem1, testItem2),
+				items);
+		// a copy
+		items.clear();
+		assertEquals(4, basket.getItemCount());
+	}
+
+	@SuppressWarnings("deprecation")
+	@Test
+	public void testSetItems() {
+		Basket basket = new Basket();
+		basket.addItem(testItem1, 5);
+		basket.setItems(Arrays.asList(testItem2, testItem1, testItem2));
+
+		assertEquals(2, basket.getQuantity(testItem2));
+		assertEquals(1, basket.getQuantity(testItem1));
+		assertEquals(3, basket.getItemCount());
+		assertEquals(Arrays.asList(testItem2, testItem1),
+				Arrays.asList(basket.getDistinctItems().toArray()));
+
+		// an invalid list leaves the basket as it was
+		try {
+			basket.setItems(Arrays.asList(testItem1, null));
+			fail();
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+		assertEquals(3, basket.getItemCount());
+	}
+
+	@Test
+	public void testLinesAreReadOnly() {
+		Basket basket = new Basket();
+		basket.addItem(testItem1);
+		try {
+			basket.getLines().put(testItem2, 1);
+			fail();
+		} catch (UnsupportedOperationException e) {
+			// expected
+		}
+	}
+
+}
@@ -0,0 +1,126 @@
+package com.bjss.pricebasket.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.bjss.pricebasket.catalogue.CatalogueOrdinals;
+
+public class ItemTalliesTest {
+
+	private final Item bread = new Item("bread", new BigDecimal("0.80"));
+	private final Item soup = new Item("soup", new BigDecimal("0.65"));
+	private final Item milk = new Item("milk", new BigDecimal("1.30"));
+
+	private CatalogueOrdinals createOrdinals(Item... items) {
+		return new CatalogueOrdinals(Arrays.asList(items),
+				Collections.<Offer> emptyList());
+	}
+
+	@Test
+	public void testTallies() {
+		ItemTallies itemTallies = new ItemTallies(createOrdinals(bread, soup));
+		assertTrue(itemTallies.isEmpty());
+		assertEquals(ItemTallies.NOT_TALLIED, itemTallies.getTally(soup));
+
+		itemTallies.setTally(soup, 2);
+		itemTallies.put(bread, 0);
+		// milk is not in the catalogue
+		itemTallies.setTally(milk, 1);
+
+		assertEquals(3, itemTallies.size());
+		assertEquals(2, itemTallies.getTally(soup));
+		assertEquals(new Integer(0), itemTallies.get(bread));
+		assertEquals(new Integer(1), itemTallies.get(milk));
+		assertEquals(new Integer(2),
+				itemTallies.get(new Item("soup", new BigDecimal("0.65"))));
+		assertTrue(itemTallies.containsKey(bread));
+		assertFalse(itemTallies.containsKey("bread"));
+		assertEquals(Arrays.asList(soup, bread, milk), new ArrayList<Item>(
+				itemTallies.keySet()));
+
+		Map<Item, Integer> expected = new HashMap<Item, Integer>();
+		expected.put(soup, 2);
+		expected.put(bread, 0);
+		expected.put(milk, 1);
+		assertEquals(expected, itemTallies);
+		assertEquals(itemTallies, expected);
+	}
+
+	@Test
+	public void testRemove() {
+		ItemTallies itemTallies = new ItemTallies(createOrdinals(bread, soup));
+		itemTallies.setTally(bread, 1);
+		itemTallies.setTally(soup, 2);
+		itemTallies.setTally(milk, 3);
+
+		assertEquals(new Integer(1), itemTallies.remove(bread));
+		assertEquals(new Integer(3), itemTallies.remove(milk));
+		assertNull(itemTallies.remove(bread));
+		assertEquals(Collections.singletonMap(soup, 2), itemTallies);
+
+		itemTallies.setTally(bread, 4);
+		assertEquals(Arrays.asList(soup, bread), new ArrayList<Item>(
+				itemTallies.keySet()));
+	}
+
+	@Test
+	public void testReset() {
+		ItemTallies itemTallies = new ItemTallies(createOrdinals(bread));
+		itemTallies.setTally(bread, 1);
+		itemTallies.setTally(milk, 1);
+
+		itemTallies.reset(createOrdinals(bread));
+		assertTrue(itemTallies.isEmpty());
+		assertEquals(ItemTallies.NOT_TALLIED, itemTallies.getTally(bread));
+
+		// a larger catalogue
+		itemTallies.reset(createOrdinals(soup, bread, milk));
+		itemTallies.setTally(milk, 5);
+		assertEquals(Collections.singletonMap(milk, 5), itemTallies);
+
+		itemTallies.clear();
+		assertTrue(itemTallies.isEmpty());
+	}
+
+	@Test
+	public void testInvalidTallies() {
+		ItemTallies itemTallies = new ItemTallies(createOrdinals(bread));
+		try {
+			itemTallies.setTally(bread, -1);
+			fail();
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+		try {
+			itemTallies.put(bread, null);
+			fail();
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+		try {
+			itemTallies.put(null, 1);
+			fail();
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+		try {
+			new ItemTallies(null);
+			fail();
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+}
@@ -1,6 +1,14 @@
 package com.bjss.pricebasket.data;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 import org.junit.Test;
 
@@ -18,4 +26,87 @@ public class ItemTest {
 		assertEquals("Test Item", item.getDisplayName());
 	}
 
+	@Test
+	public void testMinorUnitPrice() {
+		assertEquals(65, new Item("testitem", new BigDecimal("0.65"))
+				.getMinorUnitPrice());
+		assertEquals(100, new Item("testitem", new BigDecimal("1"))
+				.getMinorUnitPrice());
+		assertEquals(130, new Item("testitem", new BigDecimal("1.300"))
+				.getMinorUnitPrice());
+	}
+
+	@Test
+	public void testMinorUnitPriceFractionOfMinorUnit() {
+		Item item = new Item("testitem", new BigDecimal("0.655"));
+		try {
+			item.getMinorUnitPrice();
+			fail();
+		} catch (IllegalStateException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testBarcodes() {
+		Item item = new Item("testitem", new BigDecimal("0.65"));
+		assertTrue(item.getBarcodes().isEmpty());
+
+		List<String> barcodes = new ArrayList<String>(Arrays.asList(
+				"5000112637922", "012345678905"));
+		item.setBarcodes(barcodes);
+		barcodes.clear();
+		assertEquals(Arrays.asList("5000112637922", "012345678905"),
+				item.getBarcodes());
+		try {
+			item.getBarcodes().add("0");
+			fail();
+		} catch (UnsupportedOperationException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testOrdinal() {
+		Item item = new Item("testitem", new BigDecimal("0.65"));
+		assertEquals(Item.NO_ORDINAL, item.getOrdinal());
+		item.setOrdinal(3);
+		assertEquals(3, item.getOrdinal());
+
+		// not part of the identity of the item
+		assertEquals(new Item("testitem", new BigDecimal("0.65")), item);
+		assertEquals(new Item("testitem", new BigDecimal("0.65")).hashCode(),
+				item.hashCode());
+	}
+
+	@Test
+	public void testHashCodeAfterSetters() {
+		Item item = new Item();
+		Item other = new Item("testitem", new BigDecimal("0.65"));
+		assertFalse(other.equals(item));
+
+		item.setId("testitem");
+		item.setPrice(new BigDecimal("0.65"));
+		assertEquals(other, item);
+		assertEquals(other.hashCode(), item.hashCode());
+
+		item.setPrice(new BigDecimal("0.66"));
+		assertFalse(other.equals(item));
+	}
+
+	@Test
+	public void testInvalidBarcodes() {
+		Item item = new Item("testitem", new BigDecimal("0.65"));
+		for (List<String> barcodes : Arrays.asList(null,
+				Arrays.asList((String) null), Arrays.asList(""),
+				Arrays.asList("5000 112637922"), Arrays.asList("501\t"))) {
+			try {
+				item.setBarcodes(barcodes);
+				fail(String.valueOf(barcodes));
+			} catch (IllegalArgumentException e) {
+				// expected
+			}
+		}
+	}
+
 }
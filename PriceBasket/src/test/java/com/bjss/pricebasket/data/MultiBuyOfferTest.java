@@ -0,0 +1,240 @@
+package com.bjss.pricebasket.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.bjss.pricebasket.catalogue.CatalogueOrdinals;
+import com.bjss.pricebasket.service.mock.MockMsgService;
+
+public class MultiBuyOfferTest {
+
+	private Item soup;
+	private MockMsgService mockMsgService;
+
+	@Before
+	public void setUp() {
+		mockMsgService = new MockMsgService();
+		mockMsgService.addMessage("multibuy.offer", "%s %s for %s: -%s");
+		mockMsgService.addMessage("item.name.soup", "Soup");
+		soup = new Item("soup", new BigDecimal("0.65"));
+		soup.msgService = mockMsgService;
+	}
+
+	private MultiBuyOffer createThreeForTwo() {
+		MultiBuyOffer offer = new MultiBuyOffer();
+		offer.msgService = mockMsgService;
+		offer.setId("soupOffer");
+		offer.setItem(soup);
+		offer.setQuantity(3);
+		offer.setFreeQuantity(1);
+		return offer;
+	}
+
+	private MultiBuyOffer createThreeForPrice(String groupPrice) {
+		MultiBuyOffer offer = new MultiBuyOffer();
+		offer.msgService = mockMsgService;
+		offer.setId("soupOffer");
+		offer.setItem(soup);
+		offer.setQuantity(3);
+		offer.setGroupPrice(new BigDecimal(groupPrice));
+		return offer;
+	}
+
+	@Test
+	public void testRequiredItemsAreTheGroup() {
+		MultiBuyOffer offer = new MultiBuyOffer();
+		assertNull(offer.getRequiredItems());
+		offer.setQuantity(3);
+		assertNull(offer.getRequiredItems());
+		offer.setItem(soup);
+		assertEquals(Collections.singletonMap(soup, 3),
+				offer.getRequiredItems());
+	}
+
+	@Test
+	public void testCalculateDiscountFreeQuantity() {
+		MultiBuyOffer offer = createThreeForTwo();
+
+		assertEquals(new BigDecimal("0.65"), offer.calculateDiscount());
+		assertEquals(new BigDecimal("6.50"), offer.calculateDiscount(10));
+	}
+
+	@Test
+	public void testCalculateDiscountGroupPrice() {
+		assertEquals(new BigDecimal("0.45"), createThreeForPrice("1.50")
+				.calculateDiscount());
+		// never more than the price of the units
+		assertEquals(BigDecimal.ZERO, createThreeForPrice("2.00")
+				.calculateDiscount());
+	}
+
+	@Test
+	public void testCalculateDiscountWithoutGroup() {
+		MultiBuyOffer offer = createThreeForTwo();
+		offer.setGroupPrice(new BigDecimal("1.50"));
+		try {
+			offer.calculateDiscount();
+			fail();
+		} catch (IllegalStateException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testValidateGroup() {
+		MultiBuyOffer.validateGroup("offer", 3, 2, null);
+		MultiBuyOffer.validateGroup("offer", 3, 0, BigDecimal.ONE);
+		assertInvalidGroup(0, 1, null);
+		assertInvalidGroup(3, 0, null);
+		assertInvalidGroup(3, 3, null);
+		assertInvalidGroup(3, 1, BigDecimal.ONE);
+		assertInvalidGroup(3, 0, new BigDecimal("-1"));
+	}
+
+	private void assertInvalidGroup(int quantity, int freeQuantity,
+			BigDecimal groupPrice) {
+		try {
+			MultiBuyOffer.validateGroup("offer", quantity, freeQuantity,
+					groupPrice);
+			fail();
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testIsApplicable() {
+		MultiBuyOffer offer = createThreeForTwo();
+		Map<Item, Integer> itemTallies = new HashMap<Item, Integer>();
+		itemTallies.put(soup, 5);
+
+		assertTrue(offer.isApplicable(itemTallies));
+		assertEquals(new Integer(2), itemTallies.get(soup));
+		assertFalse(offer.isApplicable(itemTallies));
+		assertEquals(new Integer(2), itemTallies.get(soup));
+	}
+
+	@Test
+	public void testCountApplications() {
+		MultiBuyOffer offer = createThreeForTwo();
+		Map<Item, Integer> itemTallies = new HashMap<Item, Integer>();
+		itemTallies.put(soup, 30001);
+
+		assertEquals(10000, offer.countApplications(itemTallies, 30001,
+				PricingContext.now(Locale.UK)));
+		assertEquals(new Integer(1), itemTallies.get(soup));
+	}
+
+	@Test
+	public void testCountApplicationsMatchesIsApplicable() {
+		for (int tally = 0; tally <= 10; tally++) {
+			for (int maxApplications = 0; maxApplications <= 4; maxApplications++) {
+				Map<Item, Integer> counted = new HashMap<Item, Integer>();
+				counted.put(soup, tally);
+				Map<Item, Integer> evaluated = new HashMap<Item, Integer>(
+						counted);
+				int applications = 0;
+				for (int i = 0; i < maxApplications; i++) {
+					if (createThreeForTwo().isApplicable(evaluated)) {
+						applications++;
+					}
+				}
+
+				assertEquals(applications, createThreeForTwo()
+						.countApplications(counted, maxApplications,
+								PricingContext.now(Locale.UK)));
+				assertEquals(evaluated, counted);
+			}
+		}
+	}
+
+	@Test
+	public void testCountApplicationsItemTallies() {
+		MultiBuyOffer offer = createThreeForTwo();
+		ItemTallies itemTallies = new ItemTallies(new CatalogueOrdinals(
+				Arrays.asList(soup), Collections.<Offer> singletonList(offer)));
+		itemTallies.setTally(soup, 7);
+
+		assertEquals(2, offer.countApplications(itemTallies, 7,
+				PricingContext.now(Locale.UK)));
+		assertEquals(1, itemTallies.getTally(soup));
+
+		// not in the basket at all, so nothing is tallied
+		itemTallies.reset(new CatalogueOrdinals(Arrays.asList(soup),
+				Collections.<Offer> singletonList(offer)));
+		assertEquals(0, offer.countApplications(itemTallies, 7,
+				PricingContext.now(Locale.UK)));
+		assertTrue(itemTallies.isEmpty());
+	}
+
+	@Test
+	public void testCountApplicationsAfterExpiry() {
+		MultiBuyOffer offer = createThreeForTwo();
+		Calendar expiry = Calendar.getInstance();
+		expiry.set(2014, Calendar.MARCH, 1, 0, 0, 0);
+		offer.setExpiryDate(expiry.getTime());
+		Map<Item, Integer> itemTallies = new HashMap<Item, Integer>();
+		itemTallies.put(soup, 6);
+
+		assertEquals(0, offer.countApplications(itemTallies, 6,
+				new PricingContext(offer.getExpiryTime() + 1, Locale.UK)));
+		// the units are taken even so
+		assertEquals(new Integer(0), itemTallies.get(soup));
+
+		itemTallies.put(soup, 6);
+		assertEquals(2, offer.countApplications(itemTallies, 6,
+				new PricingContext(offer.getExpiryTime(), Locale.UK)));
+	}
+
+	@Test
+	public void testExpiryTime() {
+		MultiBuyOffer offer = createThreeForTwo();
+		assertEquals(Long.MAX_VALUE, offer.getExpiryTime());
+		Calendar expiry = Calendar.getInstance();
+		expiry.set(2014, Calendar.MARCH, 1, 0, 0, 0);
+		expiry.set(Calendar.MILLISECOND, 0);
+		offer.setExpiryDate(expiry.getTime());
+		expiry.add(Calendar.DATE, 1);
+		assertEquals(expiry.getTimeInMillis(), offer.getExpiryTime());
+	}
+
+	@Test
+	public void testBuildPrintMessage() {
+		assertEquals("Soup 3 for 2: -65p",
+				createThreeForTwo().buildPrintMessage("65p"));
+		assertEquals("Soup 3 for 1.50: -45p", createThreeForPrice("1.5")
+				.buildPrintMessage("45p", PricingContext.now(Locale.UK)));
+	}
+
+	@Test
+	public void testAppendPrintMessage() throws IOException {
+		StringBuilder sb = new StringBuilder("Subtotal\n");
+		createThreeForTwo().appendPrintMessage(sb, "65p",
+				PricingContext.now(Locale.UK));
+		assertEquals("Subtotal\nSoup 3 for 2: -65p", sb.toString());
+	}
+
+	@Test
+	public void testEquals() {
+		assertEquals(createThreeForTwo(), createThreeForTwo());
+		assertEquals(createThreeForTwo().hashCode(), createThreeForTwo()
+				.hashCode());
+		assertFalse(createThreeForTwo().equals(createThreeForPrice("1.50")));
+	}
+
+}
@@ -5,13 +5,20 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.assertFalse;
 
+import java.io.IOException;
 import java.math.BigDecimal;
+import java.util.Arrays;
 import java.util.Calendar;
+import java.util.Collections;
+import java.util.Date;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
 import java.util.Map;
 
 import org.junit.Test;
 
+import com.bjss.pricebasket.catalogue.CatalogueOrdinals;
 import com.bjss.pricebasket.service.mock.MockMsgService;
 
 public class PercentageOfferTest {
@@ -209,6 +216,33 @@ public class PercentageOfferTest {
 		assertEquals(new Integer(2), itemTallies.get(requiredItem1));
 	}
 
+	/**
+	 * An offer whose first required item is not tallied changes no tally, so
+	 * it can be left out of the offers evaluated for the basket, even when it
+	 * has expired
+	 */
+	@Test
+	public void testFirstRequiredItemNotTalliedChangesNoTallies() {
+		Item requiredItem1 = new Item("reqitem1", new BigDecimal("1.00"));
+		Item requiredItem2 = new Item("reqitem2", new BigDecimal("1.00"));
+		PercentageOffer percentageOffer = new PercentageOffer();
+		percentageOffer.setId("testItemOffer");
+		percentageOffer.setDiscount(new BigDecimal("0.25"));
+		percentageOffer.setExpiryDate(new Date(0));
+		Map<Item, Integer> requiredItems = new LinkedHashMap<Item, Integer>();
+		requiredItems.put(requiredItem1, 1);
+		requiredItems.put(requiredItem2, 1);
+		percentageOffer.setRequiredItems(requiredItems);
+		PricingContext context = PricingContext.now(Locale.UK);
+
+		Map<Item, Integer> itemTallies = new HashMap<Item, Integer>();
+		itemTallies.put(requiredItem2, 3);
+		assertEquals(0, percentageOffer.countApplications(itemTallies, 3,
+				context));
+		assertEquals(new Integer(3), itemTallies.get(requiredItem2));
+		assertEquals(1, itemTallies.size());
+	}
+
 	@Test
 	public void testBuildPrintMessageNullTotal() {
 		PercentageOffer percentageOffer = new PercentageOffer();
@@ -270,4 +304,224 @@ public class PercentageOfferTest {
 
 	}
 
+	@Test
+	public void testCalculateDiscountApplications() {
+		PercentageOffer percentageOffer = new PercentageOffer();
+		percentageOffer.setId("testItemOffer");
+		percentageOffer.setDiscount(new BigDecimal("0.25"));
+		percentageOffer.setItem(new Item("testitem", new BigDecimal("4.00")));
+
+		assertEquals(new BigDecimal("3000.0000"),
+				percentageOffer.calculateDiscount(3000));
+	}
+
+	@Test
+	public void testCountApplicationsNoRequiredItems() {
+		PercentageOffer percentageOffer = new PercentageOffer();
+		percentageOffer.setId("testItemOffer");
+		percentageOffer.setDiscount(new BigDecimal("0.25"));
+
+		assertEquals(5000, percentageOffer.countApplications(
+				new HashMap<Item, Integer>(), 5000, PricingContext.now(Locale.UK)));
+	}
+
+	@Test
+	public void testCountApplicationsNegative() {
+		PercentageOffer percentageOffer = new PercentageOffer();
+		try {
+			percentageOffer.countApplications(new HashMap<Item, Integer>(), -1,
+					PricingContext.now(Locale.UK));
+			fail();
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testCountApplicationsWithRequiredItems() {
+		Item requiredItem1 = new Item("reqitem", new BigDecimal("1.00"));
+		PercentageOffer percentageOffer = new PercentageOffer();
+		percentageOffer.setId("testItemOffer");
+		percentageOffer.setDiscount(new BigDecimal("0.25"));
+		Map<Item, Integer> requiredItems = new HashMap<Item, Integer>();
+		requiredItems.put(requiredItem1, 3);
+		percentageOffer.setRequiredItems(requiredItems);
+
+		Map<Item, Integer> itemTallies = new HashMap<Item, Integer>();
+		itemTallies.put(requiredItem1, 3001);
+
+		assertEquals(1000, percentageOffer.countApplications(itemTallies, 2000,
+				PricingContext.now(Locale.UK)));
+		assertEquals(new Integer(1), itemTallies.get(requiredItem1));
+	}
+
+	@Test
+	public void testCountApplicationsPartlyMetRequiredItems() {
+		Item requiredItem1 = new Item("reqitem1", new BigDecimal("1.00"));
+		Item requiredItem2 = new Item("reqitem2", new BigDecimal("1.00"));
+		PercentageOffer percentageOffer = new PercentageOffer();
+		percentageOffer.setId("testItemOffer");
+		percentageOffer.setDiscount(new BigDecimal("0.25"));
+		Map<Item, Integer> requiredItems = new LinkedHashMap<Item, Integer>();
+		requiredItems.put(requiredItem1, 1);
+		requiredItems.put(requiredItem2, 2);
+		percentageOffer.setRequiredItems(requiredItems);
+
+		Map<Item, Integer> itemTallies = new HashMap<Item, Integer>();
+		itemTallies.put(requiredItem1, 10);
+		itemTallies.put(requiredItem2, 5);
+
+		// same as 4 isApplicable() calls: 2 succeed, and the 2 that fail on
+		// requiredItem2 still use up requiredItem1
+		assertEquals(2, percentageOffer.countApplications(itemTallies, 4,
+				PricingContext.now(Locale.UK)));
+		assertEquals(new Integer(6), itemTallies.get(requiredItem1));
+		assertEquals(new Integer(1), itemTallies.get(requiredItem2));
+	}
+
+	@Test
+	public void testCountApplicationsItemTallies() {
+		Item requiredItem1 = new Item("reqitem1", new BigDecimal("1.00"));
+		Item requiredItem2 = new Item("reqitem2", new BigDecimal("1.00"));
+		PercentageOffer percentageOffer = new PercentageOffer();
+		percentageOffer.setId("testItemOffer");
+		percentageOffer.setDiscount(new BigDecimal("0.25"));
+		Map<Item, Integer> requiredItems = new LinkedHashMap<Item, Integer>();
+		requiredItems.put(requiredItem1, 1);
+		requiredItems.put(requiredItem2, 2);
+		percentageOffer.setRequiredItems(requiredItems);
+
+		// requiredItem2 is not in the catalogue
+		ItemTallies itemTallies = new ItemTallies(new CatalogueOrdinals(
+				Arrays.asList(requiredItem1), Collections.<Offer> emptyList()));
+		itemTallies.setTally(requiredItem1, 10);
+		itemTallies.setTally(requiredItem2, 5);
+
+		assertEquals(2, percentageOffer.countApplications(itemTallies, 4,
+				PricingContext.now(Locale.UK)));
+		assertEquals(6, itemTallies.getTally(requiredItem1));
+		assertEquals(1, itemTallies.getTally(requiredItem2));
+
+		itemTallies.reset(new CatalogueOrdinals(Arrays.asList(requiredItem1),
+				Collections.<Offer> emptyList()));
+		assertEquals(0, percentageOffer.countApplications(itemTallies, 4,
+				PricingContext.now(Locale.UK)));
+		assertTrue(itemTallies.isEmpty());
+	}
+
+	@Test
+	public void testCountApplicationsAfterExpiry() {
+		Item requiredItem1 = new Item("reqitem", new BigDecimal("1.00"));
+		PercentageOffer percentageOffer = new PercentageOffer();
+		percentageOffer.setId("testItemOffer");
+		percentageOffer.setDiscount(new BigDecimal("0.25"));
+		Calendar expiryCalendar = Calendar.getInstance();
+		expiryCalendar.set(2014, 2, 28);
+		percentageOffer.setExpiryDate(expiryCalendar.getTime());
+		Map<Item, Integer> requiredItems = new HashMap<Item, Integer>();
+		requiredItems.put(requiredItem1, 1);
+		percentageOffer.setRequiredItems(requiredItems);
+
+		Map<Item, Integer> itemTallies = new HashMap<Item, Integer>();
+		itemTallies.put(requiredItem1, 5);
+
+		Calendar now = Calendar.getInstance();
+		now.set(2014, 3, 1);
+		PricingContext context = new PricingContext(now.getTimeInMillis(),
+				Locale.UK);
+
+		assertEquals(0, percentageOffer.countApplications(itemTallies, 3,
+				context));
+		// as with isApplicable(), required items are used up regardless
+		assertEquals(new Integer(2), itemTallies.get(requiredItem1));
+	}
+
+	@Test
+	public void testExpiryTime() {
+		PercentageOffer percentageOffer = new PercentageOffer();
+		assertEquals(Long.MAX_VALUE, percentageOffer.getExpiryTime());
+
+		Calendar expiryCalendar = Calendar.getInstance();
+		expiryCalendar.set(2014, 2, 28, 0, 0, 0);
+		expiryCalendar.set(Calendar.MILLISECOND, 0);
+		percentageOffer.setExpiryDate(expiryCalendar.getTime());
+		expiryCalendar.add(Calendar.DATE, 1);
+		assertEquals(expiryCalendar.getTimeInMillis(),
+				percentageOffer.getExpiryTime());
+
+		percentageOffer.setExpiryDate(null);
+		assertEquals(Long.MAX_VALUE, percentageOffer.getExpiryTime());
+	}
+
+	@Test
+	public void testCountApplicationsNullContext() {
+		PercentageOffer percentageOffer = new PercentageOffer();
+		try {
+			percentageOffer.countApplications(new HashMap<Item, Integer>(), 1,
+					null);
+			fail();
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testCountApplicationsOnExpiryDate() {
+		PercentageOffer percentageOffer = new PercentageOffer();
+		percentageOffer.setId("testItemOffer");
+		percentageOffer.setDiscount(new BigDecimal("0.25"));
+		Calendar expiryCalendar = Calendar.getInstance();
+		expiryCalendar.clear();
+		expiryCalendar.set(2014, 2, 28);
+		percentageOffer.setExpiryDate(expiryCalendar.getTime());
+
+		// midnight at the end of the expiry date is the last instant
+		expiryCalendar.add(Calendar.DATE, 1);
+		long lastInstant = expiryCalendar.getTimeInMillis();
+
+		assertEquals(2, percentageOffer.countApplications(
+				new HashMap<Item, Integer>(), 2, new PricingContext(
+						lastInstant, Locale.UK)));
+		assertEquals(0, percentageOffer.countApplications(
+				new HashMap<Item, Integer>(), 2, new PricingContext(
+						lastInstant + 1, Locale.UK)));
+	}
+
+	@Test
+	public void testBuildPrintMessageWithContext() {
+		PercentageOffer percentageOffer = new PercentageOffer();
+		percentageOffer.setId("testItemOffer");
+		percentageOffer.setDiscount(new BigDecimal("0.1"));
+		Item item = new Item("testitem", new BigDecimal("1.00"));
+		percentageOffer.setItem(item);
+		MockMsgService mockMsgService = new MockMsgService();
+		mockMsgService.addMessage("percentage.offer", "%s %s%% off: -%s");
+		mockMsgService.addMessage("item.name.testitem", "Test Item");
+		percentageOffer.msgService = mockMsgService;
+		item.msgService = mockMsgService;
+
+		assertEquals("Test Item 10% off: -10p",
+				percentageOffer.buildPrintMessage("10p",
+						PricingContext.now(Locale.UK)));
+	}
+
+	@Test
+	public void testAppendPrintMessage() throws IOException {
+		PercentageOffer percentageOffer = new PercentageOffer();
+		percentageOffer.setId("testItemOffer");
+		percentageOffer.setDiscount(new BigDecimal("0.5"));
+		Item item = new Item("testitem", new BigDecimal("1.00"));
+		percentageOffer.setItem(item);
+		MockMsgService mockMsgService = new MockMsgService();
+		mockMsgService.addMessage("percentage.offer", "%s %s%% off: -%s");
+		mockMsgService.addMessage("item.name.testitem", "Test Item");
+		percentageOffer.msgService = mockMsgService;
+		item.msgService = mockMsgService;
+
+		StringBuilder sb = new StringBuilder("Subtotal\n");
+		percentageOffer.appendPrintMessage(sb, "50p",
+				PricingContext.now(Locale.UK));
+		assertEquals("Subtotal\nTest Item 50% off: -50p", sb.toString());
+	}
+
 }
@@ -0,0 +1,82 @@
+package com.bjss.pricebasket.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.junit.Assert.fail;
+
+import java.util.Currency;
+import java.util.Locale;
+
+import org.junit.Test;
+
+import com.bjss.pricebasket.service.ItemService;
+
+public class PricingContextTest {
+
+	@Test
+	public void testNullLocale() {
+		try {
+			new PricingContext(0, null);
+			fail();
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testCurrencyOfLocale() {
+		PricingContext context = new PricingContext(1393632000000L, Locale.UK);
+
+		assertEquals(1393632000000L, context.getPricingTime());
+		assertEquals(1393632000000L, context.getPricingDate().getTime());
+		assertEquals(Locale.UK, context.getLocale());
+		assertEquals(Currency.getInstance("GBP"), context.getCurrency());
+	}
+
+	@Test
+	public void testLocaleWithoutCountry() {
+		assertNull(new PricingContext(0, Locale.ENGLISH).getCurrency());
+	}
+
+	@Test
+	public void testCurrencyOverridesLocale() {
+		PricingContext context = new PricingContext(0, Locale.UK,
+				Currency.getInstance("EUR"));
+
+		assertEquals(Currency.getInstance("EUR"), context.getCurrency());
+	}
+
+	@Test
+	public void testPinCatalogue() {
+		ItemService itemService = mock(ItemService.class);
+		ItemService snapshot = mock(ItemService.class);
+		when(itemService.getSnapshot()).thenReturn(snapshot);
+		PricingContext context = new PricingContext(1393632000000L, Locale.UK);
+		assertNull(context.getCatalogue());
+
+		PricingContext pinned = context.pinCatalogue(itemService);
+
+		assertSame(snapshot, pinned.getCatalogue());
+		assertEquals(context.getPricingTime(), pinned.getPricingTime());
+		assertEquals(context.getLocale(), pinned.getLocale());
+		assertEquals(context.getCurrency(), pinned.getCurrency());
+		// a pinned context stays pinned to the same version
+		assertSame(pinned, pinned.pinCatalogue(itemService));
+		verify(itemService).getSnapshot();
+	}
+
+	@Test
+	public void testPinCatalogueNull() {
+		try {
+			new PricingContext(0, Locale.UK).pinCatalogue(null);
+			fail();
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+}
@@ -0,0 +1,121 @@
+package com.bjss.pricebasket.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+
+	@Test
+	public void testEmptyHistogram() {
+		LatencySnapshot snapshot = new LatencyHistogram().getSnapshot();
+		assertEquals(0, snapshot.getCount());
+		assertEquals(0, snapshot.getMeanNanos());
+		assertEquals(0, snapshot.getP99Nanos());
+		assertEquals(0, snapshot.getMaxNanos());
+	}
+
+	@Test
+	public void testBucketsCoverEveryValueOnce() {
+		long previousHighest = -1;
+		for (int i = 0; i < LatencyHistogram.BUCKET_COUNT; i++) {
+			long highest = LatencyHistogram.highestValue(i);
+			assertEquals(i, LatencyHistogram.bucketIndex(previousHighest + 1));
+			assertEquals(i, LatencyHistogram.bucketIndex(highest));
+			// within 12.5% of the lowest value of the bucket
+			assertTrue(highest - previousHighest - 1 <= Math.max(1,
+					(previousHighest + 1) / 8));
+			previousHighest = highest;
+		}
+		assertEquals(LatencyHistogram.MAX_VALUE, previousHighest);
+	}
+
+	@Test
+	public void testPercentiles() {
+		LatencyHistogram histogram = new LatencyHistogram(1);
+		for (int i = 1; i <= 1000; i++) {
+			histogram.record(i * 1000L);
+		}
+		LatencySnapshot snapshot = histogram.getSnapshot();
+		assertEquals(1000, snapshot.getCount());
+		assertEquals(500500, snapshot.getMeanNanos());
+		assertEquals(1000000, snapshot.getMaxNanos());
+		assertWithinBucket(500000, snapshot.getP50Nanos());
+		assertWithinBucket(900000, snapshot.getP90Nanos());
+		assertWithinBucket(990000, snapshot.getP99Nanos());
+		// never above the largest latency
+		assertEquals(1000000, snapshot.getP999Nanos());
+	}
+
+	private void assertWithinBucket(long expected, long actual) {
+		assertTrue(actual + " for " + expected, actual >= expected
+				&& actual <= expected + expected / 8);
+	}
+
+	@Test
+	public void testOutOfRangeValues() {
+		LatencyHistogram histogram = new LatencyHistogram(2);
+		histogram.record(-5);
+		histogram.record(Long.MAX_VALUE);
+		LatencySnapshot snapshot = histogram.getSnapshot();
+		assertEquals(2, snapshot.getCount());
+		assertEquals(0, snapshot.getP50Nanos());
+		assertEquals(LatencyHistogram.MAX_VALUE, snapshot.getMaxNanos());
+	}
+
+	@Test
+	public void testInvalidStripeCount() {
+		try {
+			new LatencyHistogram(0);
+			fail();
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	/**
+	 * Latencies recorded by many threads at once are all counted, whichever
+	 * stripes they share
+	 */
+	@Test
+	public void testConcurrentRecording() throws InterruptedException {
+		final LatencyHistogram histogram = new LatencyHistogram(3);
+		final int threadCount = 8;
+		final int recordsPerThread = 20000;
+		final CountDownLatch start = new CountDownLatch(1);
+		Thread[] threads = new Thread[threadCount];
+		for (int t = 0; t < threadCount; t++) {
+			final long seed = t;
+			threads[t] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					Random random = new Random(seed);
+					try {
+						start.await();
+					} catch (InterruptedException e) {
+						return;
+					}
+					for (int i = 0; i < recordsPerThread; i++) {
+						histogram.record(1 + random.nextInt(100000));
+					}
+				}
+			});
+			threads[t].start();
+		}
+		start.countDown();
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		LatencySnapshot snapshot = histogram.getSnapshot();
+		assertEquals(threadCount * recordsPerThread, snapshot.getCount());
+		assertTrue(snapshot.getMaxNanos() <= 100000);
+		assertTrue(snapshot.getP50Nanos() > 40000
+				&& snapshot.getP50Nanos() < 60000);
+	}
+
+}
@@ -0,0 +1,159 @@
+package com.bjss.pricebasket.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.math.BigDecimal;
+import java.util.Properties;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.TabularData;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.bjss.pricebasket.data.Item;
+import com.bjss.pricebasket.data.PercentageOffer;
+
+public class PricingMetricsExporterTest {
+
+	private static final String OBJECT_NAME = "com.bjss.pricebasket:type=PricingMetrics,name=test";
+
+	private PricingMetrics metrics;
+	private PricingMetricsExporter exporter;
+	private File snapshotFile;
+
+	@Before
+	public void setUp() throws IOException {
+		metrics = new PricingMetrics();
+		exporter = new PricingMetricsExporter();
+		exporter.pricingMetrics = metrics;
+		exporter.setObjectName(OBJECT_NAME);
+		snapshotFile = File.createTempFile("metrics", ".properties");
+		exporter.setSnapshotFile(snapshotFile);
+	}
+
+	@After
+	public void tearDown() {
+		exporter.stop();
+		snapshotFile.delete();
+	}
+
+	@Test
+	public void testPublishesMXBean() throws Exception {
+		PercentageOffer offer = new PercentageOffer();
+		offer.setId("breadOffer");
+		offer.setItem(new Item("bread", new BigDecimal("0.80")));
+		metrics.recordItemLookup(false);
+		metrics.recordBasketPriced(2000);
+		metrics.recordOfferEvaluation(offer, 1);
+		exporter.start();
+
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		ObjectName name = new ObjectName(OBJECT_NAME);
+		assertEquals(1L, server.getAttribute(name, "UnknownItems"));
+		CompositeData basketPricing = (CompositeData) server.getAttribute(
+				name, "BasketPricing");
+		assertEquals(1L, basketPricing.get("count"));
+		assertEquals(2000L, basketPricing.get("maxNanos"));
+		TabularData hits = (TabularData) server.getAttribute(name,
+				"OfferHits");
+		assertEquals(1, hits.size());
+
+		exporter.stop();
+		assertFalse(server.isRegistered(name));
+	}
+
+	@Test
+	public void testCanNotRegisterTwice() throws JMException {
+		exporter.start();
+		PricingMetricsExporter second = new PricingMetricsExporter();
+		second.pricingMetrics = new PricingMetrics();
+		second.setObjectName(OBJECT_NAME);
+		try {
+			second.start();
+			fail();
+		} catch (JMException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testWritesSnapshot() throws IOException {
+		PercentageOffer offer = new PercentageOffer();
+		offer.setId("breadOffer");
+		offer.setItem(new Item("bread", new BigDecimal("0.80")));
+		metrics.recordItemLookup(true);
+		metrics.recordItemLookup(false);
+		metrics.recordTotalsWritten(700);
+		metrics.recordOfferEvaluation(offer, 0);
+		metrics.recordBasketCacheLookup(true);
+		metrics.recordBasketCacheLookup(true);
+		metrics.recordBasketCacheLookup(true);
+		metrics.recordBasketCacheLookup(false);
+		exporter.writeSnapshot();
+
+		Properties snapshot = load(snapshotFile);
+		assertEquals("2", snapshot.getProperty("itemLookups"));
+		assertEquals("1", snapshot.getProperty("unknownItems"));
+		assertEquals("0", snapshot.getProperty("basketsPriced"));
+		assertEquals("1", snapshot.getProperty("totalsWritten"));
+		assertEquals("700", snapshot.getProperty("totalsWriting.maxNanos"));
+		assertEquals("1", snapshot.getProperty("offer.breadOffer.evaluations"));
+		assertEquals("0", snapshot.getProperty("offer.breadOffer.hits"));
+		assertEquals("3", snapshot.getProperty("basketCacheHits"));
+		assertEquals("1", snapshot.getProperty("basketCacheMisses"));
+		assertEquals("0.750", snapshot.getProperty("basketCache.hitRatio"));
+		assertEquals("0", snapshot.getProperty("basketCacheEvictions"));
+		assertTrue(Double.parseDouble(snapshot
+				.getProperty("itemLookups.perSecond")) > 0);
+
+		// rates are since the previous snapshot
+		exporter.writeSnapshot();
+		assertEquals("0.0", load(snapshotFile).getProperty(
+				"itemLookups.perSecond"));
+		assertEquals("0.000", load(snapshotFile).getProperty(
+				"basketCache.hitRatio"));
+		assertFalse(new File(snapshotFile.getPath() + ".tmp").exists());
+	}
+
+	@Test
+	public void testWritesSnapshotsPeriodically() throws Exception {
+		snapshotFile.delete();
+		exporter.setSnapshotMillis(20);
+		exporter.start();
+		long deadline = System.currentTimeMillis() + 5000;
+		while (!snapshotFile.exists() && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertTrue(snapshotFile.exists());
+
+		// and once more when stopped
+		metrics.recordBasketPriced(100);
+		exporter.stop();
+		assertEquals("1", load(snapshotFile).getProperty("basketsPriced"));
+	}
+
+	private Properties load(File file) throws IOException {
+		Properties properties = new Properties();
+		InputStream in = new FileInputStream(file);
+		try {
+			properties.load(in);
+		} finally {
+			in.close();
+		}
+		return properties;
+	}
+
+}
@@ -0,0 +1,102 @@
+package com.bjss.pricebasket.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.math.BigDecimal;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.bjss.pricebasket.data.Item;
+import com.bjss.pricebasket.data.PercentageOffer;
+
+public class PricingMetricsTest {
+
+	private PercentageOffer createOffer(String id) {
+		PercentageOffer offer = new PercentageOffer();
+		offer.setId(id);
+		offer.setItem(new Item("bread", new BigDecimal("0.80")));
+		offer.setDiscount(new BigDecimal("0.5"));
+		return offer;
+	}
+
+	@Test
+	public void testItemLookups() {
+		PricingMetrics metrics = new PricingMetrics();
+		metrics.recordItemLookup(true);
+		metrics.recordItemLookup(false);
+		metrics.recordItemLookup(true);
+		assertEquals(3, metrics.getItemLookups());
+		assertEquals(1, metrics.getUnknownItems());
+	}
+
+	@Test
+	public void testNoMetricsRecordNothing() {
+		PricingMetrics metrics = PricingMetrics.NO_METRICS;
+		metrics.recordItemLookup(false);
+		metrics.recordBasketPriced(1000);
+		metrics.recordBasketCacheLookup(true);
+		metrics.recordOfferEvaluation(createOffer("bread"), 1);
+		assertEquals(0, metrics.getItemLookups());
+		assertEquals(0, metrics.getBasketPricing().getCount());
+		assertEquals(0, metrics.getBasketCacheHits());
+		assertTrue(metrics.getOfferHits().isEmpty());
+	}
+
+	@Test
+	public void testLatencies() {
+		PricingMetrics metrics = new PricingMetrics();
+		metrics.recordBasketPriced(1000);
+		metrics.recordBasketPriced(3000);
+		metrics.recordTotalsWritten(500);
+		assertEquals(2, metrics.getBasketPricing().getCount());
+		assertEquals(2000, metrics.getBasketPricing().getMeanNanos());
+		assertEquals(1, metrics.getTotalsWriting().getCount());
+		assertEquals(0, metrics.getCatalogueLoading().getCount());
+	}
+
+	@Test
+	public void testBasketCache() {
+		PricingMetrics metrics = new PricingMetrics();
+		metrics.recordBasketCacheLookup(false);
+		metrics.recordBasketCacheLookup(true);
+		metrics.recordBasketCacheLookup(true);
+		metrics.recordBasketCacheEviction();
+		assertEquals(2, metrics.getBasketCacheHits());
+		assertEquals(1, metrics.getBasketCacheMisses());
+		assertEquals(1, metrics.getBasketCacheEvictions());
+	}
+
+	@Test
+	public void testOfferEvaluationsAndHits() {
+		PricingMetrics metrics = new PricingMetrics();
+		PercentageOffer breadOffer = createOffer("breadOffer");
+		PercentageOffer appleOffer = createOffer("appleOffer");
+		metrics.recordOfferEvaluation(breadOffer, 0);
+		metrics.recordOfferEvaluation(breadOffer, 2);
+		metrics.recordOfferEvaluation(appleOffer, 0);
+		// counted by id, so the counts carry over a catalogue reload
+		metrics.recordOfferEvaluation(createOffer("breadOffer"), 1);
+
+		Map<String, Long> evaluations = metrics.getOfferEvaluations();
+		assertEquals(2, evaluations.size());
+		assertEquals(Long.valueOf(3), evaluations.get("breadOffer"));
+		assertEquals(Long.valueOf(1), evaluations.get("appleOffer"));
+		Map<String, Long> hits = metrics.getOfferHits();
+		assertEquals(Long.valueOf(2), hits.get("breadOffer"));
+		assertEquals(Long.valueOf(0), hits.get("appleOffer"));
+	}
+
+	@Test
+	public void testNullOffer() {
+		try {
+			new PricingMetrics().recordOfferEvaluation(null, 1);
+			fail();
+		} catch (IllegalArgumentException e) {
+			assertTrue(e.getMessage().contains("[offer]"));
+		}
+	}
+
+}
@@ -3,6 +3,7 @@ package com.bjss.pricebasket.parser;
 import static org.junit.Assert.*;
 
 import java.math.BigDecimal;
+import java.util.Arrays;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -36,6 +37,18 @@ public class ItemDefinitionParserTest {
 				item.getPropertyValues().getPropertyValue("id").getValue());
 		assertEquals(new BigDecimal("12.50"),
 				item.getPropertyValues().getPropertyValue("price").getValue());
+		assertNull(item.getPropertyValues().getPropertyValue("barcodes"));
+	}
+
+	@Test
+	public void testParseItemWithBarcodes() throws Exception {
+		Document document = testUtil.getDocument("itemWithBarcodes.xml");
+
+		parser.doParse(document.getDocumentElement(), bean);
+
+		AbstractBeanDefinition item = bean.getBeanDefinition();
+		assertEquals(Arrays.asList("5000112637922", "012345678905"), item
+				.getPropertyValues().getPropertyValue("barcodes").getValue());
 	}
 
 }
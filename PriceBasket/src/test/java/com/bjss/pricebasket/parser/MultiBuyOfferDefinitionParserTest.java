@@ -0,0 +1,89 @@
+package com.bjss.pricebasket.parser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.math.BigDecimal;
+import java.text.SimpleDateFormat;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.beans.MutablePropertyValues;
+import org.springframework.beans.factory.config.RuntimeBeanReference;
+import org.springframework.beans.factory.support.BeanDefinitionBuilder;
+import org.w3c.dom.Document;
+
+public class MultiBuyOfferDefinitionParserTest {
+
+	private ParserTestUtil testUtil;
+	private MultiBuyOfferDefinitionParser parser;
+	private BeanDefinitionBuilder bean;
+
+	@Before
+	public void setUp() {
+		testUtil = new ParserTestUtil(this.getClass());
+		parser = new MultiBuyOfferDefinitionParser();
+		bean = BeanDefinitionBuilder.rootBeanDefinition(parser
+				.getBeanClass(null));
+	}
+
+	@Test
+	public void testParseFreeQuantity() throws Exception {
+		Document document = testUtil.getDocument("freeQuantity.xml");
+
+		parser.doParse(document.getDocumentElement(), bean);
+
+		MutablePropertyValues values = bean.getBeanDefinition()
+				.getPropertyValues();
+		assertEquals("testOffer", values.getPropertyValue("id").getValue());
+		assertEquals("testItem1", ((RuntimeBeanReference) values
+				.getPropertyValue("item").getValue()).getBeanName());
+		assertEquals(3, values.getPropertyValue("quantity").getValue());
+		assertEquals(1, values.getPropertyValue("freeQuantity").getValue());
+		assertNull(values.getPropertyValue("groupPrice"));
+		assertEquals(new SimpleDateFormat("yyyy-MM-dd").parse("2014-03-01"),
+				values.getPropertyValue("expiryDate").getValue());
+	}
+
+	@Test
+	public void testParseGroupPrice() throws Exception {
+		Document document = testUtil.getDocument("groupPrice.xml");
+
+		parser.doParse(document.getDocumentElement(), bean);
+
+		MutablePropertyValues values = bean.getBeanDefinition()
+				.getPropertyValues();
+		assertEquals(3, values.getPropertyValue("quantity").getValue());
+		assertEquals(new BigDecimal("1.50"),
+				values.getPropertyValue("groupPrice").getValue());
+		assertNull(values.getPropertyValue("freeQuantity"));
+		assertNull(values.getPropertyValue("expiryDate"));
+	}
+
+	@Test
+	public void testParseFreeQuantityAndGroupPrice() throws Exception {
+		Document document = testUtil
+				.getDocument("freeQuantityAndGroupPrice.xml");
+
+		try {
+			parser.doParse(document.getDocumentElement(), bean);
+			fail();
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testParseAllFree() throws Exception {
+		Document document = testUtil.getDocument("allFree.xml");
+
+		try {
+			parser.doParse(document.getDocumentElement(), bean);
+			fail();
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+}
@@ -1,15 +1,213 @@
 package com.bjss.pricebasket.parser;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
 import org.junit.Test;
 import org.springframework.context.support.ClassPathXmlApplicationContext;
 
+import com.bjss.pricebasket.PriceBasketServer;
+import com.bjss.pricebasket.catalogue.CatalogueCompiler;
+import com.bjss.pricebasket.catalogue.CatalogueSnapshotWriter;
+import com.bjss.pricebasket.catalogue.SharedCatalogueWriter;
+import com.bjss.pricebasket.data.Basket;
+import com.bjss.pricebasket.data.BasketTotals;
+import com.bjss.pricebasket.data.Item;
+import com.bjss.pricebasket.data.PricingContext;
+import com.bjss.pricebasket.metrics.PricingMetrics;
+import com.bjss.pricebasket.metrics.PricingMetricsExporter;
+import com.bjss.pricebasket.service.BasketService;
+import com.bjss.pricebasket.service.ItemService;
+import com.bjss.pricebasket.service.MsgService;
+import com.bjss.pricebasket.service.PricingSession;
+import com.bjss.pricebasket.service.impl.BasketServiceImpl;
+import com.bjss.pricebasket.service.impl.CompiledMsgServiceImpl;
+import com.bjss.pricebasket.service.impl.GreedyOfferAllocator;
+import com.bjss.pricebasket.service.impl.MinorUnitBasketServiceImpl;
+import com.bjss.pricebasket.service.impl.MsgServiceImpl;
+import com.bjss.pricebasket.service.impl.OptimalOfferAllocator;
+import com.bjss.pricebasket.service.impl.SharedItemServiceImpl;
+import com.bjss.pricebasket.service.impl.SnapshotItemServiceImpl;
+import com.bjss.pricebasket.service.impl.StreamingItemServiceImpl;
+
 public class SpringConfigLoadingTest {
 
 	@Test
 	public void testLoading() {
 		ClassPathXmlApplicationContext context = new ClassPathXmlApplicationContext(
 				"classpath:/META-INF/applicationContext.xml");
+		assertTrue(context.getBean(BasketService.class) instanceof BasketServiceImpl);
+		assertTrue(context.getBean(MsgService.class) instanceof MsgServiceImpl);
+		assertTrue(context.getBean(BasketServiceImpl.class).getOfferAllocator() instanceof GreedyOfferAllocator);
+		// only the --server option creates a server
+		assertTrue(context.getBeansOfType(PriceBasketServer.class).isEmpty());
+		context.close();
+	}
+
+	@Test
+	public void testLoadingServerProfile() {
+		ClassPathXmlApplicationContext context = new ClassPathXmlApplicationContext();
+		context.getEnvironment().setActiveProfiles("server");
+		context.setConfigLocation("classpath:/META-INF/applicationContext.xml");
+		context.refresh();
+		assertEquals(1, context.getBeansOfType(PriceBasketServer.class).size());
 		context.close();
 	}
 
+	@Test
+	public void testLoadingOptimalOffersProfile() {
+		ClassPathXmlApplicationContext context = new ClassPathXmlApplicationContext();
+		context.getEnvironment().setActiveProfiles("optimalOffers", "minorUnitPricing");
+		context.setConfigLocation("classpath:/META-INF/applicationContext.xml");
+		context.refresh();
+		MinorUnitBasketServiceImpl basketService = (MinorUnitBasketServiceImpl) context.getBean(BasketService.class);
+		assertTrue(basketService.getOfferAllocator() instanceof OptimalOfferAllocator);
+		assertEquals(1000, ((OptimalOfferAllocator) basketService.getOfferAllocator()).getTimeBudgetMicros());
+		context.close();
+	}
+
+	@Test
+	public void testLoadingMetricsProfile() throws JMException {
+		ClassPathXmlApplicationContext context = new ClassPathXmlApplicationContext();
+		context.getEnvironment().setActiveProfiles("metrics", "optimalOffers");
+		context.setConfigLocation("classpath:/META-INF/applicationContext.xml");
+		context.refresh();
+		ObjectName name = new ObjectName(PricingMetricsExporter.DEFAULT_OBJECT_NAME);
+		assertEquals(0, context.getBean(PricingMetricsExporter.class).getSnapshotMillis());
+		assertTrue(ManagementFactory.getPlatformMBeanServer().isRegistered(name));
+
+		// every service records into the same metrics
+		ItemService itemService = context.getBean(ItemService.class);
+		Basket basket = new Basket();
+		basket.addItem(itemService.getItem("soup"), 2);
+		basket.addItem(itemService.getItem("bread"));
+		context.getBean(BasketService.class).calculateBasketTotals(basket);
+		PricingMetrics metrics = context.getBean(PricingMetrics.class);
+		assertEquals(2, metrics.getItemLookups());
+		assertEquals(1, metrics.getBasketPricing().getCount());
+		assertEquals(Long.valueOf(1), metrics.getOfferHits().get("breadOffer"));
+
+		context.close();
+		assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(name));
+	}
+
+	@Test
+	public void testLoadingMinorUnitPricingProfile() {
+		ClassPathXmlApplicationContext context = new ClassPathXmlApplicationContext();
+		context.getEnvironment().setActiveProfiles("minorUnitPricing");
+		context.setConfigLocation("classpath:/META-INF/applicationContext.xml");
+		context.refresh();
+		assertTrue(context.getBean(BasketService.class) instanceof MinorUnitBasketServiceImpl);
+		context.close();
+	}
+
+	@Test
+	public void testLoadingCompiledMessagesProfile() {
+		ClassPathXmlApplicationContext context = new ClassPathXmlApplicationContext();
+		context.getEnvironment().setActiveProfiles("compiledMessages");
+		context.setConfigLocation("classpath:/META-INF/applicationContext.xml");
+		context.refresh();
+		assertTrue(context.getBean(MsgService.class) instanceof CompiledMsgServiceImpl);
+		context.close();
+	}
+
+	@Test
+	public void testLoadingCatalogueSnapshotProfile() throws IOException {
+		File snapshotFile = File.createTempFile("catalogue", ".snapshot");
+		snapshotFile.deleteOnExit();
+		new CatalogueSnapshotWriter().write(new CatalogueCompiler().load(
+				"classpath:/META-INF/basket-config.xml", 5), snapshotFile);
+		System.setProperty("pricebasket.catalogue.snapshot",
+				snapshotFile.getPath());
+		try {
+			ClassPathXmlApplicationContext context = new ClassPathXmlApplicationContext();
+			context.getEnvironment().setActiveProfiles("catalogueSnapshot");
+			context.setConfigLocation("classpath:/META-INF/applicationContext.xml");
+			context.refresh();
+			ItemService itemService = context.getBean(ItemService.class);
+			assertTrue(itemService instanceof SnapshotItemServiceImpl);
+			assertEquals(5,
+					((SnapshotItemServiceImpl) itemService).getCatalogueVersion());
+			// basket-config.xml is not loaded
+			assertEquals(0, context.getBeansOfType(Item.class).size());
+			assertEquals("Bread", itemService.getItem("bread").getDisplayName());
+			context.close();
+		} finally {
+			System.clearProperty("pricebasket.catalogue.snapshot");
+		}
+	}
+
+	@Test
+	public void testLoadingStreamingCatalogueProfile() {
+		ClassPathXmlApplicationContext context = new ClassPathXmlApplicationContext();
+		context.getEnvironment().setActiveProfiles("streamingCatalogue");
+		context.setConfigLocation("classpath:/META-INF/applicationContext.xml");
+		context.refresh();
+		ItemService itemService = context.getBean(ItemService.class);
+		assertTrue(itemService instanceof StreamingItemServiceImpl);
+		// basket-config.xml is streamed rather than loaded as beans
+		assertEquals(0, context.getBeansOfType(Item.class).size());
+		assertEquals("Bread", itemService.getItem("bread").getDisplayName());
+		assertEquals(1, itemService.getOffers(itemService.getItem("bread"))
+				.size());
+		context.close();
+	}
+
+	@Test
+	public void testLoadingSharedCatalogueProfile() throws IOException {
+		File catalogueFile = File.createTempFile("catalogue", ".shared");
+		catalogueFile.deleteOnExit();
+		SharedCatalogueWriter writer = new SharedCatalogueWriter(
+				catalogueFile, 4096);
+		try {
+			writer.publish(new CatalogueCompiler().load(
+					"classpath:/META-INF/basket-config.xml", 6));
+		} finally {
+			writer.close();
+		}
+		System.setProperty("pricebasket.catalogue.shared",
+				catalogueFile.getPath());
+		try {
+			ClassPathXmlApplicationContext context = new ClassPathXmlApplicationContext();
+			context.getEnvironment().setActiveProfiles("sharedCatalogue");
+			context.setConfigLocation("classpath:/META-INF/applicationContext.xml");
+			context.refresh();
+			ItemService itemService = context.getBean(ItemService.class);
+			assertTrue(itemService instanceof SharedItemServiceImpl);
+			assertEquals(6,
+					((SharedItemServiceImpl) itemService).getCatalogueVersion());
+			// basket-config.xml is not loaded
+			assertEquals(0, context.getBeansOfType(Item.class).size());
+			assertEquals("Bread", itemService.getItem("bread").getDisplayName());
+
+			// a session gives the same totals as pricing the whole basket
+			BasketService basketService = context.getBean(BasketService.class);
+			// before the apple offer expires
+			PricingSession session = basketService
+					.openSession(new PricingContext(1393632000000L, Locale.UK));
+			Item apple = itemService.getItem("apple");
+			session.addItem(apple, 3);
+			Basket basket = new Basket();
+			basket.addItem(apple, 3);
+			BasketTotals expected = basketService.calculateBasketTotals(basket,
+					session.getPricingContext());
+			assertEquals(1, expected.getOfferTotals().size());
+			assertEquals(expected.getOfferTotals(), session.getTotals()
+					.getOfferTotals());
+			assertEquals(expected.getTotal(), session.getTotals().getTotal());
+			context.close();
+		} finally {
+			System.clearProperty("pricebasket.catalogue.shared");
+		}
+	}
+
 }
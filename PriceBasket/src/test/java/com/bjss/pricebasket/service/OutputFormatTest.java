@@ -0,0 +1,30 @@
+package com.bjss.pricebasket.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+public class OutputFormatTest {
+
+	@Test
+	public void testForOptionName() {
+		assertEquals(OutputFormat.RECEIPT, OutputFormat.forOptionName("receipt"));
+		assertEquals(OutputFormat.CSV, OutputFormat.forOptionName("CSV"));
+		assertEquals(OutputFormat.JSON_LINES, OutputFormat.forOptionName("json"));
+		assertEquals(OutputFormat.BINARY, OutputFormat.forOptionName("binary"));
+	}
+
+	@Test
+	public void testForUnknownOptionName() {
+		try {
+			OutputFormat.forOptionName("xml");
+			fail();
+		} catch (IllegalArgumentException e) {
+			assertEquals(
+					"Output format [xml] should be one of receipt, csv, json, binary",
+					e.getMessage());
+		}
+	}
+
+}
@@ -0,0 +1,472 @@
+package com.bjss.pricebasket.service.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.bjss.pricebasket.catalogue.CatalogueChangedException;
+import com.bjss.pricebasket.data.Basket;
+import com.bjss.pricebasket.data.BasketTotals;
+import com.bjss.pricebasket.data.Item;
+import com.bjss.pricebasket.data.PricingContext;
+import com.bjss.pricebasket.service.Flow;
+
+public class BasketPricingProcessorTest {
+
+	private ItemServiceImpl itemService;
+	private ExecutorService executor;
+	private List<Basket> baskets;
+
+	@Before
+	public void setUp() {
+		itemService = new ItemServiceImpl();
+		executor = Executors.newFixedThreadPool(4);
+		baskets = new ArrayList<Basket>();
+		for (int i = 1; i <= 100; i++) {
+			Basket basket = new Basket();
+			basket.addItem(new Item("item" + i, new BigDecimal(i)));
+			baskets.add(basket);
+		}
+	}
+
+	@After
+	public void tearDown() {
+		executor.shutdownNow();
+	}
+
+	private BasketServiceImpl createBasketService() {
+		BasketServiceImpl basketService = new BasketServiceImpl();
+		basketService.itemService = itemService;
+		return basketService;
+	}
+
+	/**
+	 * Prices the first baskets slowly, so later batches finish first
+	 */
+	private BasketServiceImpl createSlowBasketService() {
+		BasketServiceImpl basketService = new BasketServiceImpl() {
+			@Override
+			public BasketTotals calculateBasketTotals(Basket basket,
+					PricingContext context) {
+				if (basket == baskets.get(0) || basket == baskets.get(1)) {
+					sleep(50);
+				}
+				return super.calculateBasketTotals(basket, context);
+			}
+		};
+		basketService.itemService = itemService;
+		return basketService;
+	}
+
+	private static void sleep(long millis) {
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void assertInOrder(List<BasketTotals> totals) {
+		assertEquals(baskets.size(), totals.size());
+		for (int i = 0; i < totals.size(); i++) {
+			assertEquals(new BigDecimal(i + 1), totals.get(i).getSubTotal());
+		}
+	}
+
+	@Test
+	public void testPublishesInOrder() throws InterruptedException {
+		BasketPricingProcessor processor = new BasketPricingProcessor(
+				createSlowBasketService(), itemService, executor);
+		processor.setBatchSize(4);
+		TestPublisher publisher = new TestPublisher(true);
+		TestSubscriber subscriber = new TestSubscriber(Long.MAX_VALUE);
+		processor.subscribe(subscriber);
+		publisher.subscribe(processor);
+
+		subscriber.await();
+		assertNull(subscriber.error);
+		assertInOrder(subscriber.totals);
+	}
+
+	@Test
+	public void testBatchesShareContext() throws InterruptedException {
+		BasketPricingProcessor processor = new BasketPricingProcessor(
+				createBasketService(), itemService, executor);
+		processor.setBatchSize(10);
+		processor.setLocale(Locale.FRANCE);
+		TestPublisher publisher = new TestPublisher();
+		publisher.subscribe(processor);
+		// the first baskets are each priced at once, and hold the batches in
+		// flight until there is a subscriber, so the rest wait together
+		for (int i = 0; i < 20; i++) {
+			processor.onNext(baskets.get(i));
+		}
+		publisher.complete();
+		TestSubscriber subscriber = new TestSubscriber(Long.MAX_VALUE);
+		processor.subscribe(subscriber);
+
+		subscriber.await();
+		assertEquals(20, subscriber.totals.size());
+		PricingContext context = subscriber.totals.get(4).getPricingContext();
+		assertEquals(Locale.FRANCE, context.getLocale());
+		assertNotSame(subscriber.totals.get(3).getPricingContext(), context);
+		assertSame(context, subscriber.totals.get(13).getPricingContext());
+		assertNotSame(context, subscriber.totals.get(14).getPricingContext());
+	}
+
+	@Test
+	public void testRespectsDemand() throws InterruptedException {
+		BasketPricingProcessor processor = new BasketPricingProcessor(
+				createSlowBasketService(), itemService, executor);
+		processor.setBatchSize(4);
+		processor.setMaxBatchesInFlight(2);
+		TestPublisher publisher = new TestPublisher();
+		TestSubscriber subscriber = new TestSubscriber(0);
+		processor.subscribe(subscriber);
+		publisher.subscribe(processor);
+		// no more baskets are requested than fit in the batches in flight
+		assertEquals(8, publisher.requested);
+		publisher.emitAll();
+		assertEquals(8, publisher.emitted);
+
+		for (int i = 1; i <= baskets.size(); i++) {
+			subscriber.request(1);
+			subscriber.awaitTotals(i);
+			sleep(1);
+			synchronized (subscriber) {
+				assertEquals(i, subscriber.totals.size());
+			}
+			assertTrue(publisher.emitted - i <= 8);
+			publisher.emitAll();
+		}
+		publisher.complete();
+
+		subscriber.await();
+		assertNull(subscriber.error);
+		assertInOrder(subscriber.totals);
+	}
+
+	@Test
+	public void testPricingErrorCancelsUpstream() throws InterruptedException {
+		final IllegalStateException failure = new IllegalStateException();
+		BasketServiceImpl basketService = new BasketServiceImpl() {
+			@Override
+			public BasketTotals calculateBasketTotals(Basket basket,
+					PricingContext context) {
+				if (basket == baskets.get(5)) {
+					throw failure;
+				}
+				return super.calculateBasketTotals(basket, context);
+			}
+		};
+		basketService.itemService = itemService;
+		BasketPricingProcessor processor = new BasketPricingProcessor(
+				basketService, itemService, executor);
+		processor.setBatchSize(1);
+		TestPublisher publisher = new TestPublisher(true);
+		TestSubscriber subscriber = new TestSubscriber(Long.MAX_VALUE);
+		processor.subscribe(subscriber);
+		publisher.subscribe(processor);
+
+		subscriber.await();
+		assertSame(failure, subscriber.error);
+		assertEquals(5, subscriber.totals.size());
+		assertTrue(publisher.cancelled);
+	}
+
+	@Test
+	public void testBatchPricedAgainWhenCatalogueChanges()
+			throws InterruptedException {
+		final AtomicInteger failures = new AtomicInteger();
+		BasketServiceImpl basketService = new BasketServiceImpl() {
+			@Override
+			public BasketTotals calculateBasketTotals(Basket basket,
+					PricingContext context) {
+				// published again the first time basket 4 is priced, then
+				// again while it is priced again
+				if (basket == baskets.get(3)
+						&& failures.getAndIncrement() < 2) {
+					throw new CatalogueChangedException("published");
+				}
+				return super.calculateBasketTotals(basket, context);
+			}
+		};
+		basketService.itemService = itemService;
+		BasketPricingProcessor processor = new BasketPricingProcessor(
+				basketService, itemService, executor);
+		TestPublisher publisher = new TestPublisher(true);
+		TestSubscriber subscriber = new TestSubscriber(Long.MAX_VALUE);
+		processor.subscribe(subscriber);
+		publisher.subscribe(processor);
+
+		subscriber.await();
+		assertNull(subscriber.error);
+		assertInOrder(subscriber.totals);
+		assertEquals(3, failures.get());
+		assertFalse(publisher.cancelled);
+	}
+
+	@Test
+	public void testCatalogueThatKeepsChangingFails()
+			throws InterruptedException {
+		BasketServiceImpl basketService = new BasketServiceImpl() {
+			@Override
+			public BasketTotals calculateBasketTotals(Basket basket,
+					PricingContext context) {
+				if (basket == baskets.get(5)) {
+					throw new CatalogueChangedException("published");
+				}
+				return super.calculateBasketTotals(basket, context);
+			}
+		};
+		basketService.itemService = itemService;
+		BasketPricingProcessor processor = new BasketPricingProcessor(
+				basketService, itemService, executor);
+		processor.setBatchSize(1);
+		TestPublisher publisher = new TestPublisher(true);
+		TestSubscriber subscriber = new TestSubscriber(Long.MAX_VALUE);
+		processor.subscribe(subscriber);
+		publisher.subscribe(processor);
+
+		subscriber.await();
+		assertTrue(subscriber.error instanceof CatalogueChangedException);
+		assertEquals(5, subscriber.totals.size());
+		assertTrue(publisher.cancelled);
+	}
+
+	@Test
+	public void testPricingErrorIsSignalled() throws InterruptedException {
+		final AssertionError failure = new AssertionError();
+		BasketServiceImpl basketService = new BasketServiceImpl() {
+			@Override
+			public BasketTotals calculateBasketTotals(Basket basket,
+					PricingContext context) {
+				if (basket == baskets.get(5)) {
+					throw failure;
+				}
+				return super.calculateBasketTotals(basket, context);
+			}
+		};
+		basketService.itemService = itemService;
+		BasketPricingProcessor processor = new BasketPricingProcessor(
+				basketService, itemService, executor);
+		processor.setBatchSize(1);
+		TestPublisher publisher = new TestPublisher(true);
+		TestSubscriber subscriber = new TestSubscriber(Long.MAX_VALUE);
+		processor.subscribe(subscriber);
+		publisher.subscribe(processor);
+
+		subscriber.await();
+		assertSame(failure, subscriber.error);
+		assertEquals(5, subscriber.totals.size());
+		assertTrue(publisher.cancelled);
+	}
+
+	@Test
+	public void testUpstreamErrorAfterTotals() throws InterruptedException {
+		BasketPricingProcessor processor = new BasketPricingProcessor(
+				createSlowBasketService(), itemService, executor);
+		TestPublisher publisher = new TestPublisher();
+		TestSubscriber subscriber = new TestSubscriber(Long.MAX_VALUE);
+		processor.subscribe(subscriber);
+		publisher.subscribe(processor);
+
+		publisher.emitAll();
+		IllegalStateException failure = new IllegalStateException();
+		processor.onError(failure);
+
+		subscriber.await();
+		assertSame(failure, subscriber.error);
+		assertEquals(publisher.emitted, subscriber.totals.size());
+		assertFalse(publisher.cancelled);
+	}
+
+	@Test
+	public void testCancel() {
+		BasketPricingProcessor processor = new BasketPricingProcessor(
+				createBasketService(), itemService, executor);
+		TestPublisher publisher = new TestPublisher();
+		TestSubscriber subscriber = new TestSubscriber(0);
+		processor.subscribe(subscriber);
+		publisher.subscribe(processor);
+
+		subscriber.subscription.cancel();
+
+		assertTrue(publisher.cancelled);
+		assertEquals(1, subscriber.latch.getCount());
+	}
+
+	@Test
+	public void testInvalidRequest() throws InterruptedException {
+		BasketPricingProcessor processor = new BasketPricingProcessor(
+				createBasketService(), itemService, executor);
+		TestPublisher publisher = new TestPublisher();
+		TestSubscriber subscriber = new TestSubscriber(0);
+		processor.subscribe(subscriber);
+		publisher.subscribe(processor);
+
+		subscriber.request(0);
+
+		subscriber.await();
+		assertTrue(subscriber.error instanceof IllegalArgumentException);
+		assertTrue(publisher.cancelled);
+	}
+
+	@Test
+	public void testSecondSubscriberRejected() throws InterruptedException {
+		BasketPricingProcessor processor = new BasketPricingProcessor(
+				createBasketService(), itemService, executor);
+		processor.subscribe(new TestSubscriber(0));
+		TestSubscriber second = new TestSubscriber(0);
+
+		processor.subscribe(second);
+
+		second.await();
+		assertTrue(second.error instanceof IllegalStateException);
+	}
+
+	@Test
+	public void testInvalidBatchSize() {
+		BasketPricingProcessor processor = new BasketPricingProcessor(
+				createBasketService(), itemService, executor);
+		try {
+			processor.setBatchSize(0);
+			fail();
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	/**
+	 * Emits the test baskets as far as they are requested, when told to, or
+	 * as they are requested if emitting on request
+	 */
+	private class TestPublisher {
+
+		private final boolean emitOnRequest;
+		Flow.Subscriber<? super Basket> subscriber;
+		volatile long requested;
+		volatile int emitted;
+		volatile boolean cancelled;
+		private boolean completed;
+
+		TestPublisher() {
+			this(false);
+		}
+
+		TestPublisher(boolean emitOnRequest) {
+			this.emitOnRequest = emitOnRequest;
+		}
+
+		void subscribe(Flow.Subscriber<? super Basket> subscriber) {
+			this.subscriber = subscriber;
+			subscriber.onSubscribe(new Flow.Subscription() {
+				@Override
+				public void request(long n) {
+					synchronized (TestPublisher.this) {
+						requested += n;
+					}
+					if (emitOnRequest) {
+						emitAll();
+					}
+				}
+
+				@Override
+				public void cancel() {
+					cancelled = true;
+				}
+			});
+		}
+
+		synchronized void emitAll() {
+			while (emitted < requested && emitted < baskets.size()
+					&& !cancelled) {
+				subscriber.onNext(baskets.get(emitted++));
+			}
+			if (emitOnRequest && emitted == baskets.size() && !completed) {
+				completed = true;
+				subscriber.onComplete();
+			}
+		}
+
+		void complete() {
+			subscriber.onComplete();
+		}
+	}
+
+	private static class TestSubscriber implements
+			Flow.Subscriber<BasketTotals> {
+
+		private final long initialRequest;
+		final List<BasketTotals> totals = Collections
+				.synchronizedList(new ArrayList<BasketTotals>());
+		final CountDownLatch latch = new CountDownLatch(1);
+		volatile Flow.Subscription subscription;
+		volatile Throwable error;
+
+		TestSubscriber(long initialRequest) {
+			this.initialRequest = initialRequest;
+		}
+
+		@Override
+		public void onSubscribe(Flow.Subscription subscription) {
+			this.subscription = subscription;
+			if (initialRequest > 0) {
+				subscription.request(initialRequest);
+			}
+		}
+
+		@Override
+		public synchronized void onNext(BasketTotals item) {
+			totals.add(item);
+			notifyAll();
+		}
+
+		@Override
+		public void onError(Throwable throwable) {
+			error = throwable;
+			latch.countDown();
+		}
+
+		@Override
+		public void onComplete() {
+			latch.countDown();
+		}
+
+		void request(long n) {
+			subscription.request(n);
+		}
+
+		synchronized void awaitTotals(int count) throws InterruptedException {
+			long deadline = System.currentTimeMillis() + 5000;
+			while (totals.size() < count
+					&& System.currentTimeMillis() < deadline) {
+				wait(100);
+			}
+		}
+
+		void await() throws InterruptedException {
+			assertTrue(latch.await(5, TimeUnit.SECONDS));
+		}
+	}
+
+}
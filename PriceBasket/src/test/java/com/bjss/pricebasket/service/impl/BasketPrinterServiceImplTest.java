@@ -1,12 +1,15 @@
 package com.bjss.pricebasket.service.impl;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.PrintStream;
 import java.math.BigDecimal;
+import java.util.Currency;
 import java.util.HashMap;
 import java.util.Locale;
 import java.util.Map;
@@ -18,6 +21,10 @@ import org.springframework.context.i18n.LocaleContextHolder;
 import com.bjss.pricebasket.data.BasketTotals;
 import com.bjss.pricebasket.data.Offer;
 import com.bjss.pricebasket.data.PercentageOffer;
+import com.bjss.pricebasket.data.PricingContext;
+import com.bjss.pricebasket.metrics.PricingMetrics;
+import com.bjss.pricebasket.service.BasketTotalsWriter;
+import com.bjss.pricebasket.service.OutputFormat;
 import com.bjss.pricebasket.service.mock.MockMsgService;
 
 public class BasketPrinterServiceImplTest {
@@ -113,17 +120,174 @@ public class BasketPrinterServiceImplTest {
 		ps.close();
 	}
 
+	@Test
+	public void testWriteUsesPricingContext() throws IOException {
+		BasketPrinterServiceImpl basketPrinterService = new BasketPrinterServiceImpl();
+		basketPrinterService.msgService = mockMsgService;
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		PrintStream ps = new PrintStream(baos);
+		BasketTotals basketTotals = new BasketTotals();
+		basketTotals.setSubTotal(new BigDecimal("5.4"));
+		basketTotals.setTotal(new BigDecimal("5.4"));
+		basketTotals.setPricingContext(new PricingContext(0, Locale.US));
+
+		basketPrinterService.write(ps, basketTotals);
+		assertEquals(
+				"Subtotal: $5.40\n(No offers available)\nTotal price: $5.40\n",
+				baos.toString(BasketPrinterServiceImpl.ENCODING));
+
+		baos.reset();
+		basketTotals.setPricingContext(new PricingContext(0, Locale.US,
+				Currency.getInstance("GBP")));
+		basketPrinterService.write(ps, basketTotals);
+		assertEquals(
+				"Subtotal: \u00a35.40\n(No offers available)\nTotal price: \u00a35.40\n",
+				baos.toString(BasketPrinterServiceImpl.ENCODING));
+
+		baos.close();
+		ps.close();
+	}
+
+	@Test
+	public void testOpenWriterWritesManyReceipts() throws IOException {
+		BasketPrinterServiceImpl basketPrinterService = new BasketPrinterServiceImpl();
+		basketPrinterService.msgService = mockMsgService;
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		BasketTotals basketTotals = new BasketTotals();
+		basketTotals.setSubTotal(new BigDecimal("5.4"));
+		basketTotals.setTotal(new BigDecimal("0.5"));
+		basketTotals.setPricingContext(new PricingContext(0, Locale.UK));
+
+		BasketTotalsWriter writer = basketPrinterService.openWriter(baos);
+		writer.write(basketTotals);
+		writer.write(basketTotals);
+		// small receipts are buffered until flushed
+		assertEquals(0, baos.size());
+		writer.flush();
+		writer.write(basketTotals);
+		writer.flush();
+
+		String receipt = "Subtotal: \u00a35.40\n(No offers available)\nTotal price: 50p\n";
+		assertEquals(receipt + "\n" + receipt + "\n" + receipt,
+				baos.toString(BasketPrinterServiceImpl.ENCODING));
+	}
+
+	@Test
+	public void testWritesAreRecordedInMetrics() throws IOException {
+		BasketPrinterServiceImpl basketPrinterService = new BasketPrinterServiceImpl();
+		basketPrinterService.msgService = mockMsgService;
+		PricingMetrics metrics = new PricingMetrics();
+		basketPrinterService.pricingMetrics = metrics;
+		BasketTotals basketTotals = new BasketTotals();
+		basketTotals.setSubTotal(new BigDecimal("5.4"));
+		basketTotals.setTotal(new BigDecimal("5.4"));
+		basketTotals.setPricingContext(new PricingContext(0, Locale.UK));
+
+		basketPrinterService.write(new PrintStream(new ByteArrayOutputStream()),
+				basketTotals);
+		BasketTotalsWriter writer = basketPrinterService.openWriter(
+				new ByteArrayOutputStream(), OutputFormat.CSV);
+		writer.write(basketTotals);
+		writer.write(basketTotals);
+		writer.flush();
+
+		assertEquals(3, metrics.getTotalsWriting().getCount());
+	}
+
+	@Test
+	public void testOpenWriterFlushesInBlocks() throws IOException {
+		BasketPrinterServiceImpl basketPrinterService = new BasketPrinterServiceImpl();
+		basketPrinterService.msgService = mockMsgService;
+		final int[] flushes = new int[1];
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		FilterOutputStream out = new FilterOutputStream(baos) {
+			@Override
+			public void flush() throws IOException {
+				flushes[0]++;
+				super.flush();
+			}
+		};
+		BasketTotals basketTotals = new BasketTotals();
+		basketTotals.setSubTotal(new BigDecimal("5.4"));
+		basketTotals.setTotal(new BigDecimal("5.4"));
+		basketTotals.setPricingContext(new PricingContext(0, Locale.UK));
+
+		BasketTotalsWriter writer = basketPrinterService.openWriter(out);
+		int receipts = 0;
+		while (baos.size() == 0) {
+			writer.write(basketTotals);
+			receipts++;
+		}
+
+		assertEquals(1, flushes[0]);
+		assertTrue(baos.size() >= BasketPrinterServiceImpl.BLOCK_SIZE);
+		assertTrue(receipts > 1);
+	}
+
+	@Test
+	public void testCloseWriterClosesStream() throws IOException {
+		BasketPrinterServiceImpl basketPrinterService = new BasketPrinterServiceImpl();
+		basketPrinterService.msgService = mockMsgService;
+		final boolean[] closed = new boolean[1];
+		ByteArrayOutputStream baos = new ByteArrayOutputStream() {
+			@Override
+			public void close() throws IOException {
+				closed[0] = true;
+			}
+		};
+		BasketTotals basketTotals = new BasketTotals();
+		basketTotals.setSubTotal(new BigDecimal("5.4"));
+		basketTotals.setTotal(new BigDecimal("5.4"));
+
+		BasketTotalsWriter writer = basketPrinterService.openWriter(baos);
+		writer.write(basketTotals);
+		writer.close();
+
+		assertTrue(closed[0]);
+		assertTrue(baos.size() > 0);
+	}
+
 	private PercentageOffer createOffer(String id, final String printMessage,
 			final String expectedTotalDiscount) {
 		PercentageOffer offer = new PercentageOffer() {
 			@Override
-			public String buildPrintMessage(String totalDiscount) {
+			public void appendPrintMessage(Appendable out,
+					String totalDiscount, PricingContext context)
+					throws IOException {
 				assertEquals(expectedTotalDiscount, totalDiscount);
-				return printMessage;
+				out.append(printMessage);
 			}
 		};
 		offer.setId(id);
 		return offer;
 	}
 
+	@Test
+	public void testOpenWriterWithOutputFormat() throws IOException {
+		BasketPrinterServiceImpl basketPrinterService = new BasketPrinterServiceImpl();
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		BasketTotals basketTotals = new BasketTotals();
+		basketTotals.setSubTotal(new BigDecimal("5.4"));
+		basketTotals.setTotal(new BigDecimal("5.4"));
+
+		BasketTotalsWriter writer = basketPrinterService.openWriter(baos,
+				OutputFormat.CSV);
+		writer.write(basketTotals);
+		writer.flush();
+
+		assertEquals(CsvBasketTotalsWriter.HEADER + "\n1,540,540,,\n",
+				baos.toString(BasketPrinterServiceImpl.DATA_ENCODING));
+	}
+
+	@Test
+	public void testOpenWriterNullOutputFormat() {
+		try {
+			new BasketPrinterServiceImpl().openWriter(
+					new ByteArrayOutputStream(), null);
+			fail();
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
 }
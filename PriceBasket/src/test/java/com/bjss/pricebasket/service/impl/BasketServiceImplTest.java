@@ -5,16 +5,33 @@ import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
 
 import org.junit.Before;
 import org.junit.Test;
 
+import com.bjss.pricebasket.catalogue.Catalogue;
+import com.bjss.pricebasket.catalogue.CatalogueChangedException;
 import com.bjss.pricebasket.data.Basket;
 import com.bjss.pricebasket.data.BasketTotals;
 import com.bjss.pricebasket.data.Item;
+import com.bjss.pricebasket.data.MultiBuyOffer;
 import com.bjss.pricebasket.data.Offer;
 import com.bjss.pricebasket.data.PercentageOffer;
+import com.bjss.pricebasket.data.PricingContext;
+import com.bjss.pricebasket.metrics.PricingMetrics;
+import com.bjss.pricebasket.service.ItemService;
 
 public class BasketServiceImplTest {
 
@@ -48,6 +65,7 @@ public class BasketServiceImplTest {
 
 	private void addToItemService(Offer offer) {
 		itemService.offers.put(offer.getId(), offer);
+		itemService.buildOfferIndex();
 	}
 
 	@Test
@@ -96,11 +114,13 @@ public class BasketServiceImplTest {
 
 		PercentageOffer offer = new PercentageOffer() {
 			@Override
-			public boolean isApplicable(Map<Item, Integer> itemTallies) {
+			public int countApplications(Map<Item, Integer> itemTallies,
+					int maxApplications, PricingContext context) {
 				assertEquals(new Integer(2), itemTallies.get(testItem1));
 				assertEquals(new Integer(1), itemTallies.get(testItem2));
 				assertEquals(new Integer(1), itemTallies.get(testItem3));
-				return super.isApplicable(itemTallies);
+				return super.countApplications(itemTallies, maxApplications,
+						context);
 			}
 		};
 
@@ -129,11 +149,13 @@ public class BasketServiceImplTest {
 		// applicable to testItem1
 		PercentageOffer offer1 = new PercentageOffer() {
 			@Override
-			public boolean isApplicable(Map<Item, Integer> itemTallies) {
+			public int countApplications(Map<Item, Integer> itemTallies,
+					int maxApplications, PricingContext context) {
 				assertEquals(new Integer(2), itemTallies.get(testItem1));
 				assertEquals(new Integer(1), itemTallies.get(testItem2));
 				assertEquals(new Integer(1), itemTallies.get(testItem3));
-				return super.isApplicable(itemTallies);
+				return super.countApplications(itemTallies, maxApplications,
+						context);
 			}
 		};
 
@@ -144,11 +166,13 @@ public class BasketServiceImplTest {
 		// applicable to testItem2
 		PercentageOffer offer2 = new PercentageOffer() {
 			@Override
-			public boolean isApplicable(Map<Item, Integer> itemTallies) {
+			public int countApplications(Map<Item, Integer> itemTallies,
+					int maxApplications, PricingContext context) {
 				assertEquals(new Integer(2), itemTallies.get(testItem1));
 				assertEquals(new Integer(1), itemTallies.get(testItem2));
 				assertEquals(new Integer(1), itemTallies.get(testItem3));
-				return super.isApplicable(itemTallies);
+				return super.countApplications(itemTallies, maxApplications,
+						context);
 			}
 		};
 
@@ -175,5 +199,461 @@ public class BasketServiceImplTest {
 		assertEquals(new BigDecimal("0.200"), totals.getOfferTotals().get(offer2));
 		assertEquals(new BigDecimal("5.340"), totals.getTotal());
 	}
-	
+
+	@Test
+	public void testLargeQuantities() {
+		PercentageOffer offer = new PercentageOffer();
+		offer.setId("testOffer1");
+		offer.setDiscount(new BigDecimal("0.5"));
+		offer.setItem(testItem2);
+		Map<Item, Integer> requiredItems = new HashMap<Item, Integer>();
+		requiredItems.put(testItem1, 2);
+		offer.setRequiredItems(requiredItems);
+		addToItemService(offer);
+
+		Basket basket = new Basket();
+		basket.addItem(testItem1, 50000);
+		basket.addItem(testItem2, 30000);
+
+		BasketTotals totals = basketService.calculateBasketTotals(basket);
+
+		// 50000 x 1.30 + 30000 x 1.00
+		assertEquals(new BigDecimal("95000.00"), totals.getSubTotal());
+		// 25000 of the testItem2 units have the 2 testItem1 units required
+		assertEquals(new BigDecimal("12500.000"), totals.getOfferTotals()
+				.get(offer));
+		assertEquals(new BigDecimal("82500.000"), totals.getTotal());
+	}
+
+	@Test
+	public void testMultiBuyOffers() {
+		MultiBuyOffer threeForTwo = new MultiBuyOffer();
+		threeForTwo.setId("testOffer1");
+		threeForTwo.setItem(testItem1);
+		threeForTwo.setQuantity(3);
+		threeForTwo.setFreeQuantity(1);
+		addToItemService(threeForTwo);
+		MultiBuyOffer twoForPrice = new MultiBuyOffer();
+		twoForPrice.setId("testOffer2");
+		twoForPrice.setItem(testItem3);
+		twoForPrice.setQuantity(2);
+		twoForPrice.setGroupPrice(new BigDecimal("4.00"));
+		addToItemService(twoForPrice);
+
+		Basket basket = new Basket();
+		basket.addItem(testItem1, 10);
+		basket.addItem(testItem3, 5);
+
+		BasketTotals totals = basketService.calculateBasketTotals(basket);
+
+		// 10 x 1.30 + 5 x 2.20
+		assertEquals(new BigDecimal("24.00"), totals.getSubTotal());
+		// 3 groups of three, the tenth unit at full price
+		assertEquals(new BigDecimal("3.90"), totals.getOfferTotals().get(
+				threeForTwo));
+		// 2 groups of two at 4.00 rather than 4.40
+		assertEquals(new BigDecimal("0.80"), totals.getOfferTotals().get(
+				twoForPrice));
+		assertEquals(new BigDecimal("19.30"), totals.getTotal());
+	}
+
+	/**
+	 * Offers are evaluated a whole line at a time where possible. Checks the
+	 * results are exactly the same as evaluating isApplicable() once per unit,
+	 * including offers that compete for required items, expired offers and
+	 * offers whose required items are only partly met.
+	 */
+	@Test
+	public void testOfferApplicationsMatchUnitByUnitEvaluation() {
+		final Item[] items = { testItem1, testItem2, testItem3, testItem4 };
+		PricingContext context = PricingContext.now(Locale.UK);
+		Random random = new Random(7);
+		Date expired = new Date(0);
+		for (int i = 0; i < 12; i++) {
+			PercentageOffer offer = new PercentageOffer();
+			offer.setId("testOffer" + i);
+			offer.setDiscount(new BigDecimal("0.1"));
+			offer.setItem(items[random.nextInt(items.length)]);
+			Map<Item, Integer> requiredItems = new LinkedHashMap<Item, Integer>();
+			int requiredItemCount = random.nextInt(3);
+			for (int j = 0; j < requiredItemCount; j++) {
+				requiredItems.put(items[random.nextInt(items.length)],
+						random.nextInt(4));
+			}
+			offer.setRequiredItems(requiredItems);
+			if (random.nextInt(4) == 0) {
+				offer.setExpiryDate(expired);
+			}
+			addToItemService(offer);
+		}
+
+		for (int i = 0; i < 2000; i++) {
+			Basket basket = new Basket();
+			int lineCount = random.nextInt(6);
+			for (int j = 0; j < lineCount; j++) {
+				basket.addItem(items[random.nextInt(items.length)],
+						1 + random.nextInt(20));
+			}
+
+			Map<Item, Integer> expectedTallies = new HashMap<Item, Integer>(
+					basket.getLines());
+			Map<Offer, Integer> expected = new HashMap<Offer, Integer>();
+			for (Entry<Item, Integer> line : basket.getLines().entrySet()) {
+				for (int unit = 0; unit < line.getValue(); unit++) {
+					for (Offer offer : itemService.getOffers(line.getKey())) {
+						if (offer.isApplicable(expectedTallies)) {
+							Integer count = expected.get(offer);
+							expected.put(offer, count == null ? 1 : count + 1);
+						}
+					}
+				}
+			}
+
+			Map<Item, Integer> actualTallies = new HashMap<Item, Integer>(
+					basket.getLines());
+			Map<Offer, Integer> actual = basketService.countOfferApplications(
+					basket, actualTallies, context);
+
+			assertEquals("basket " + i, expected, actual);
+			assertEquals("basket " + i, expectedTallies, actualTallies);
+		}
+	}
+
+	/**
+	 * Offers are checked for expiry at the pricing instant of the context, not
+	 * the time the basket is priced.
+	 */
+	@Test
+	public void testOfferExpiryUsesPricingContext() {
+		PercentageOffer offer = new PercentageOffer();
+		offer.setId("testOffer1");
+		offer.setDiscount(new BigDecimal("0.1"));
+		offer.setItem(testItem1);
+		Calendar expiryCalendar = Calendar.getInstance();
+		expiryCalendar.clear();
+		expiryCalendar.set(2014, Calendar.MARCH, 1);
+		offer.setExpiryDate(expiryCalendar.getTime());
+		addToItemService(offer);
+
+		Basket basket = new Basket();
+		basket.addItem(testItem1);
+
+		// the expiry date is inclusive, so the offer applies all that day
+		expiryCalendar.set(2014, Calendar.MARCH, 1, 23, 59, 59);
+		PricingContext lastDay = new PricingContext(
+				expiryCalendar.getTimeInMillis(), Locale.UK);
+		BasketTotals totals = basketService.calculateBasketTotals(basket,
+				lastDay);
+		assertEquals(new BigDecimal("0.130"), totals.getOfferTotals().get(offer));
+		assertEquals(lastDay.getPricingTime(), totals.getPricingContext()
+				.getPricingTime());
+
+		expiryCalendar.set(2014, Calendar.MARCH, 2, 0, 0, 1);
+		PricingContext dayAfter = new PricingContext(
+				expiryCalendar.getTimeInMillis(), Locale.UK);
+		totals = basketService.calculateBasketTotals(basket, dayAfter);
+		assertTrue(totals.getOfferTotals().isEmpty());
+
+		List<BasketTotals> allTotals = basketService.calculateAllBasketTotals(
+				Arrays.asList(basket, basket), lastDay);
+		for (BasketTotals basketTotals : allTotals) {
+			assertEquals(1, basketTotals.getOfferTotals().size());
+			assertEquals(lastDay.getPricingTime(), basketTotals
+					.getPricingContext().getPricingTime());
+		}
+	}
+
+	/**
+	 * A basket is priced against the catalogue version its context was pinned
+	 * to, even if the catalogue has been reloaded since.
+	 */
+	@Test
+	public void testPricesAgainstPinnedCatalogue() {
+		itemService.loadCatalogue(new Catalogue(1, Arrays.asList(testItem1),
+				new ArrayList<Offer>()));
+		PricingContext pinned = PricingContext.now(Locale.UK).pinCatalogue(
+				itemService);
+
+		PercentageOffer offer = new PercentageOffer();
+		offer.setId("testOffer1");
+		offer.setDiscount(new BigDecimal("0.1"));
+		offer.setItem(testItem1);
+		itemService.loadCatalogue(new Catalogue(2, Arrays.asList(testItem1),
+				Arrays.<Offer> asList(offer)));
+
+		Basket basket = new Basket();
+		basket.addItem(testItem1);
+		BasketTotals totals = basketService.calculateBasketTotals(basket,
+				pinned);
+		assertEquals(1, totals.getCatalogueVersion());
+		assertTrue(totals.getOfferTotals().isEmpty());
+
+		totals = basketService.calculateBasketTotals(basket);
+		assertEquals(2, totals.getCatalogueVersion());
+		assertEquals(new BigDecimal("0.130"), totals.getOfferTotals().get(offer));
+
+		for (BasketTotals basketTotals : basketService
+				.calculateAllBasketTotals(Arrays.asList(basket, basket), pinned)) {
+			assertEquals(1, basketTotals.getCatalogueVersion());
+		}
+	}
+
+	/**
+	 * Items that are not the instances of the catalogue are counted by
+	 * equality, and items not in it at all are counted too.
+	 */
+	@Test
+	public void testItemsNotInCatalogue() {
+		PercentageOffer offer = new PercentageOffer();
+		offer.setId("testOffer1");
+		offer.setDiscount(new BigDecimal("0.1"));
+		offer.setItem(testItem1);
+		Map<Item, Integer> requiredItems = new HashMap<Item, Integer>();
+		requiredItems.put(testItem2, 1);
+		offer.setRequiredItems(requiredItems);
+		addToItemService(offer);
+
+		Basket basket = new Basket();
+		basket.addItem(new Item("testitem1", new BigDecimal("1.30")));
+		basket.addItem(new Item("unknown", new BigDecimal("0.50")));
+		basket.addItem(new Item("testitem2", new BigDecimal("1.00")));
+		BasketTotals totals = basketService.calculateBasketTotals(basket);
+
+		assertEquals(new BigDecimal("2.80"), totals.getSubTotal());
+		assertEquals(new BigDecimal("0.130"), totals.getOfferTotals().get(offer));
+	}
+
+	/**
+	 * The tallies a thread reuses start empty for every basket, whichever
+	 * catalogue it is priced against.
+	 */
+	@Test
+	public void testTalliesAreNotKeptBetweenBaskets() {
+		PercentageOffer offer = new PercentageOffer();
+		offer.setId("testOffer1");
+		offer.setDiscount(new BigDecimal("0.1"));
+		offer.setItem(testItem1);
+		Map<Item, Integer> requiredItems = new HashMap<Item, Integer>();
+		requiredItems.put(testItem2, 1);
+		offer.setRequiredItems(requiredItems);
+		itemService.loadCatalogue(new Catalogue(1, Arrays.asList(testItem1,
+				testItem2), Arrays.<Offer> asList(offer)));
+
+		Basket withRequiredItem = new Basket();
+		withRequiredItem.addItem(testItem1);
+		withRequiredItem.addItem(testItem2);
+		Basket withoutRequiredItem = new Basket();
+		withoutRequiredItem.addItem(testItem1);
+
+		assertEquals(1, basketService.calculateBasketTotals(withRequiredItem)
+				.getOfferTotals().size());
+		assertTrue(basketService.calculateBasketTotals(withoutRequiredItem)
+				.getOfferTotals().isEmpty());
+
+		itemService.loadCatalogue(new Catalogue(2, Arrays.asList(testItem1,
+				testItem2, testItem3, testItem4), Arrays.<Offer> asList(offer)));
+		assertEquals(1, basketService.calculateBasketTotals(withRequiredItem)
+				.getOfferTotals().size());
+		assertTrue(basketService.calculateBasketTotals(withoutRequiredItem)
+				.getOfferTotals().isEmpty());
+	}
+
+	@Test
+	public void testPricedAgainWhenCatalogueChanges() {
+		PercentageOffer offer = new PercentageOffer();
+		offer.setId("testOffer");
+		offer.setItem(testItem1);
+		offer.setDiscount(new BigDecimal("0.5"));
+		addToItemService(offer);
+		ChangingItemService changingItemService = new ChangingItemService(1);
+		basketService.itemService = changingItemService;
+		Basket basket = new Basket();
+		basket.addItem(testItem1);
+
+		BasketTotals totals = basketService.calculateBasketTotals(basket);
+
+		assertEquals(2, changingItemService.snapshots);
+		assertEquals(new BigDecimal("0.650"), totals.getOfferTotals().get(
+				offer));
+		assertEquals(1, basketService.calculateAllBasketTotals(
+				Arrays.asList(basket)).size());
+	}
+
+	@Test
+	public void testPinnedContextFailsWhenCatalogueChanges() {
+		ChangingItemService changingItemService = new ChangingItemService(1);
+		PricingContext context = PricingContext.now(Locale.UK).pinCatalogue(
+				changingItemService);
+		Basket basket = new Basket();
+		basket.addItem(testItem1);
+
+		try {
+			basketService.calculateBasketTotals(basket, context);
+			fail();
+		} catch (CatalogueChangedException e) {
+			// expected
+		}
+		try {
+			basketService.calculateAllBasketTotals(Arrays.asList(basket),
+					context);
+			fail();
+		} catch (CatalogueChangedException e) {
+			// expected
+		}
+		assertEquals(1, changingItemService.snapshots);
+	}
+
+	@Test
+	public void testCatalogueThatKeepsChangingFails() {
+		ChangingItemService changingItemService = new ChangingItemService(
+				Integer.MAX_VALUE);
+		basketService.itemService = changingItemService;
+		Basket basket = new Basket();
+		basket.addItem(testItem1);
+
+		try {
+			basketService.calculateBasketTotals(basket);
+			fail();
+		} catch (CatalogueChangedException e) {
+			// expected
+		}
+		assertEquals(AbstractBasketService.MAX_PRICING_ATTEMPTS,
+				changingItemService.snapshots);
+	}
+
+	@Test
+	public void testCalculateBasketTotalsNullContext() {
+		try {
+			basketService.calculateBasketTotals(new Basket(), null);
+			fail();
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testCalculateAllBasketTotalsNull() {
+		try {
+			basketService.calculateAllBasketTotals(null);
+			fail();
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	/**
+	 * Prices many baskets that share Items and Offers across several threads
+	 * and checks the results, and their order, match pricing each basket on
+	 * the calling thread.
+	 */
+	@Test
+	public void testCalculateAllBasketTotalsConcurrently() {
+		PercentageOffer offer1 = new PercentageOffer();
+		offer1.setId("testOffer1");
+		offer1.setDiscount(new BigDecimal("0.1"));
+		offer1.setItem(testItem1);
+
+		PercentageOffer offer2 = new PercentageOffer();
+		offer2.setId("testOffer2");
+		offer2.setDiscount(new BigDecimal("0.5"));
+		offer2.setItem(testItem2);
+		Map<Item, Integer> requiredItems = new HashMap<Item, Integer>();
+		requiredItems.put(testItem3, 2);
+		offer2.setRequiredItems(requiredItems);
+
+		addToItemService(offer1);
+		addToItemService(offer2);
+
+		Item[] items = { testItem1, testItem2, testItem3, testItem4 };
+		Random random = new Random(42);
+		List<Basket> baskets = new ArrayList<Basket>();
+		for (int i = 0; i < 5000; i++) {
+			Basket basket = new Basket();
+			int basketSize = random.nextInt(12);
+			for (int j = 0; j < basketSize; j++) {
+				basket.addItem(items[random.nextInt(items.length)]);
+			}
+			baskets.add(basket);
+		}
+
+		PricingMetrics metrics = new PricingMetrics();
+		basketService.pricingMetrics = metrics;
+		ForkJoinPool pool = new ForkJoinPool(8);
+		basketService.setForkJoinPool(pool);
+		List<BasketTotals> allTotals = basketService
+				.calculateAllBasketTotals(baskets);
+		pool.shutdown();
+		assertEquals(baskets.size(), metrics.getBasketPricing().getCount());
+
+		assertEquals(baskets.size(), allTotals.size());
+		for (int i = 0; i < baskets.size(); i++) {
+			BasketTotals expected = basketService.calculateBasketTotals(baskets
+					.get(i));
+			BasketTotals actual = allTotals.get(i);
+			assertEquals(expected.getSubTotal(), actual.getSubTotal());
+			assertEquals(expected.getOfferTotals(), actual.getOfferTotals());
+			assertEquals(expected.getTotal(), actual.getTotal());
+		}
+	}
+
+	@Test
+	public void testPricingIsRecordedInMetrics() {
+		PricingMetrics metrics = new PricingMetrics();
+		basketService.pricingMetrics = metrics;
+		GreedyOfferAllocator allocator = new GreedyOfferAllocator();
+		allocator.pricingMetrics = metrics;
+		basketService.setOfferAllocator(allocator);
+		PercentageOffer offer = new PercentageOffer();
+		offer.setId("testOffer");
+		offer.setItem(testItem1);
+		offer.setDiscount(new BigDecimal("0.1"));
+		addToItemService(offer);
+
+		Basket basket = new Basket();
+		basket.addItem(testItem1);
+		basketService.calculateBasketTotals(basket);
+		basketService.calculateBasketTotals(new Basket());
+		basket.addItem(testItem2);
+		basketService.calculateBasketTotals(basket);
+
+		assertEquals(3, metrics.getBasketPricing().getCount());
+		assertEquals(Long.valueOf(2), metrics.getOfferEvaluations().get(
+				"testOffer"));
+		assertEquals(Long.valueOf(2), metrics.getOfferHits().get("testOffer"));
+	}
+
+
+	/**
+	 * The test ItemService, whose first snapshots are replaced by another
+	 * catalogue before they can be read
+	 */
+	private class ChangingItemService extends ItemServiceImpl {
+
+		private final int changedSnapshots;
+		int snapshots;
+
+		ChangingItemService(int changedSnapshots) {
+			this.changedSnapshots = changedSnapshots;
+		}
+
+		@Override
+		public ItemService getSnapshot() {
+			if (++snapshots > changedSnapshots) {
+				return itemService.getSnapshot();
+			}
+			return new ItemServiceImpl() {
+				@Override
+				public List<Offer> getOffers(Item item) {
+					throw new CatalogueChangedException("changed");
+				}
+
+				@Override
+				public List<Offer> getOffers(Item item,
+						Map<Item, Integer> itemTallies) {
+					throw new CatalogueChangedException("changed");
+				}
+			};
+		}
+	}
+
 }
@@ -0,0 +1,230 @@
+package com.bjss.pricebasket.service.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.bjss.pricebasket.catalogue.Catalogue;
+import com.bjss.pricebasket.data.Basket;
+import com.bjss.pricebasket.data.BasketTotals;
+import com.bjss.pricebasket.data.Item;
+import com.bjss.pricebasket.data.Offer;
+import com.bjss.pricebasket.data.PercentageOffer;
+import com.bjss.pricebasket.data.PricingContext;
+import com.bjss.pricebasket.metrics.PricingMetrics;
+
+public class BasketTotalsCacheTest {
+
+	private BasketServiceImpl basketService;
+	private ItemServiceImpl itemService;
+	private BasketTotalsCache cache;
+	private PricingMetrics metrics;
+
+	private final Item apple = new Item("apple", new BigDecimal("1.00"));
+	private final Item bread = new Item("bread", new BigDecimal("0.80"));
+	private final Item soup = new Item("soup", new BigDecimal("0.65"));
+
+	@Before
+	public void setUp() {
+		metrics = new PricingMetrics();
+		itemService = new ItemServiceImpl();
+		cache = new BasketTotalsCache();
+		cache.pricingMetrics = metrics;
+		basketService = new BasketServiceImpl();
+		basketService.itemService = itemService;
+		basketService.pricingMetrics = metrics;
+		basketService.setBasketTotalsCache(cache);
+	}
+
+	private PercentageOffer createOffer(String id, Item item,
+			Item requiredItem) {
+		PercentageOffer offer = new PercentageOffer();
+		offer.setId(id);
+		offer.setItem(item);
+		offer.setDiscount(new BigDecimal("0.1"));
+		if (requiredItem != null) {
+			Map<Item, Integer> requiredItems = new HashMap<Item, Integer>();
+			requiredItems.put(requiredItem, 1);
+			offer.setRequiredItems(requiredItems);
+		}
+		return offer;
+	}
+
+	private void loadCatalogue(long version, Offer... offers) {
+		itemService.loadCatalogue(new Catalogue(version, Arrays.asList(apple,
+				bread, soup), Arrays.asList(offers)));
+	}
+
+	private Basket createBasket(Item... items) {
+		Basket basket = new Basket();
+		for (Item item : items) {
+			basket.addItem(item);
+		}
+		return basket;
+	}
+
+	@Test
+	public void testRepeatedBasketHits() {
+		PercentageOffer breadOffer = createOffer("breadOffer", bread, soup);
+		loadCatalogue(1, breadOffer);
+
+		PricingContext uk = PricingContext.now(Locale.UK);
+		BasketTotals priced = basketService.calculateBasketTotals(
+				createBasket(bread, soup), uk);
+		PricingContext france = new PricingContext(uk.getPricingTime(),
+				Locale.FRANCE);
+		BasketTotals cached = basketService.calculateBasketTotals(
+				createBasket(bread, soup), france);
+
+		assertEquals(1, metrics.getBasketCacheMisses());
+		assertEquals(1, metrics.getBasketCacheHits());
+		assertEquals(1, cache.size());
+		assertEquals(priced.getSubTotal(), cached.getSubTotal());
+		assertEquals(priced.getTotal(), cached.getTotal());
+		assertEquals(priced.getOfferTotals(), cached.getOfferTotals());
+		assertNotSame(priced.getOfferTotals(), cached.getOfferTotals());
+		assertEquals(1, cached.getCatalogueVersion());
+		assertEquals(Locale.FRANCE, cached.getPricingContext().getLocale());
+		// bulk pricing goes through the cache too
+		basketService.calculateAllBasketTotals(
+				Arrays.asList(createBasket(bread, soup)), uk);
+		assertEquals(2, metrics.getBasketCacheHits());
+	}
+
+	/**
+	 * Without competing offers the order of the lines can not change the
+	 * totals, so baskets of the same lines share them, but each gets its
+	 * offers in its own order.
+	 */
+	@Test
+	public void testLinesInAnyOrderShareTotals() {
+		PercentageOffer appleOffer = createOffer("appleOffer", apple, null);
+		PercentageOffer breadOffer = createOffer("breadOffer", bread, soup);
+		loadCatalogue(1, appleOffer, breadOffer);
+
+		BasketTotals priced = basketService
+				.calculateBasketTotals(createBasket(apple, bread, soup));
+		BasketTotals cached = basketService
+				.calculateBasketTotals(createBasket(soup, bread, apple));
+
+		assertEquals(1, metrics.getBasketCacheHits());
+		assertEquals(Arrays.<Offer> asList(appleOffer, breadOffer),
+				new ArrayList<Offer>(priced.getOfferTotals().keySet()));
+		assertEquals(Arrays.<Offer> asList(breadOffer, appleOffer),
+				new ArrayList<Offer>(cached.getOfferTotals().keySet()));
+		assertEquals(priced.getTotal(), cached.getTotal());
+	}
+
+	@Test
+	public void testCompetingOffersKeepBasketOrder() {
+		PercentageOffer appleOffer = createOffer("appleOffer", apple, soup);
+		PercentageOffer breadOffer = createOffer("breadOffer", bread, soup);
+		loadCatalogue(1, appleOffer, breadOffer);
+
+		BasketTotals breadFirst = basketService
+				.calculateBasketTotals(createBasket(bread, apple, soup));
+		BasketTotals appleFirst = basketService
+				.calculateBasketTotals(createBasket(apple, bread, soup));
+
+		assertEquals(0, metrics.getBasketCacheHits());
+		assertEquals(2, metrics.getBasketCacheMisses());
+		assertEquals(Arrays.<Offer> asList(breadOffer), new ArrayList<Offer>(
+				breadFirst.getOfferTotals().keySet()));
+		assertEquals(Arrays.<Offer> asList(appleOffer), new ArrayList<Offer>(
+				appleFirst.getOfferTotals().keySet()));
+	}
+
+	/**
+	 * An offer applies up to and including its expiry time, so the totals
+	 * cached at that instant are not reused a moment later.
+	 */
+	@Test
+	public void testExpiredOfferStartsNewPeriod() {
+		Calendar expiry = Calendar.getInstance();
+		expiry.set(2016, Calendar.MARCH, 1, 0, 0, 0);
+		expiry.set(Calendar.MILLISECOND, 0);
+		PercentageOffer appleOffer = createOffer("appleOffer", apple, null);
+		appleOffer.setExpiryDate(expiry.getTime());
+		loadCatalogue(1, appleOffer);
+		long expiryTime = appleOffer.getExpiryTime();
+
+		Basket basket = createBasket(apple);
+		assertEquals(1, basketService.calculateBasketTotals(basket,
+				new PricingContext(expiryTime - 3600000, Locale.UK))
+				.getOfferTotals().size());
+		assertEquals(1, basketService.calculateBasketTotals(basket,
+				new PricingContext(expiryTime, Locale.UK)).getOfferTotals()
+				.size());
+		assertEquals(1, metrics.getBasketCacheHits());
+
+		assertTrue(basketService
+				.calculateBasketTotals(basket,
+						new PricingContext(expiryTime + 1, Locale.UK))
+				.getOfferTotals().isEmpty());
+		assertEquals(2, metrics.getBasketCacheMisses());
+	}
+
+	@Test
+	public void testReloadedCatalogueMisses() {
+		loadCatalogue(1, createOffer("breadOffer", bread, soup));
+		Basket basket = createBasket(bread, soup);
+		basketService.calculateBasketTotals(basket);
+
+		// the same version, but another catalogue
+		PercentageOffer newBreadOffer = createOffer("breadOffer", bread, null);
+		loadCatalogue(1, newBreadOffer);
+		BasketTotals totals = basketService.calculateBasketTotals(basket);
+
+		assertEquals(2, metrics.getBasketCacheMisses());
+		assertSame(newBreadOffer, totals.getOfferTotals().keySet().iterator()
+				.next());
+		assertEquals(1, cache.size());
+	}
+
+	@Test
+	public void testItemNotInCatalogueIsNotCached() {
+		loadCatalogue(1);
+		basketService.calculateBasketTotals(createBasket(bread, new Item(
+				"unknown", new BigDecimal("0.50"))));
+
+		assertEquals(0, metrics.getBasketCacheMisses());
+		assertEquals(0, cache.size());
+	}
+
+	@Test
+	public void testEvictsLeastRecentlyUsed() {
+		cache.setMaximumSize(1);
+		loadCatalogue(1);
+		basketService.calculateBasketTotals(createBasket(apple));
+		basketService.calculateBasketTotals(createBasket(bread));
+		basketService.calculateBasketTotals(createBasket(apple));
+
+		assertEquals(3, metrics.getBasketCacheMisses());
+		assertEquals(2, metrics.getBasketCacheEvictions());
+		assertEquals(1, cache.size());
+	}
+
+	@Test
+	public void testInvalidMaximumSize() {
+		try {
+			cache.setMaximumSize(0);
+			fail();
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+}
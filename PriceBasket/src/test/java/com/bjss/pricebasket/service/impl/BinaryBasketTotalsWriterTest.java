@@ -0,0 +1,106 @@
+package com.bjss.pricebasket.service.impl;
+
+import static com.bjss.pricebasket.service.impl.CsvBasketTotalsWriterTest.createTotals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+
+import org.junit.Test;
+
+import com.bjss.pricebasket.service.OutputFormat;
+
+public class BinaryBasketTotalsWriterTest {
+
+	@Test
+	public void testWriteWithAndWithoutOffers() throws IOException {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		BinaryBasketTotalsWriter writer = new BinaryBasketTotalsWriter(baos);
+
+		writer.write(createTotals("5.40", "4.80", "breadOffer", "0.40",
+				"appleOffer", "0.20"));
+		writer.write(createTotals("0.65", "0.65"));
+		writer.write(createTotals("1.30", "1.235", "appleOffer", "0.065"));
+		writer.flush();
+
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(
+				baos.toByteArray()));
+		assertEquals(OutputFormat.BINARY_MAGIC, in.readInt());
+		assertOfferRecord(in, 0, "breadOffer");
+		assertOfferRecord(in, 1, "appleOffer");
+		assertBasketRecord(in, 1, 540, 480, 2);
+		assertOfferEntry(in, 0, 40);
+		assertOfferEntry(in, 1, 20);
+		assertBasketRecord(in, 2, 65, 65, 0);
+		// appleOffer has already been written, so is referred to by index
+		assertBasketRecord(in, 3, 130, 124, 1);
+		assertOfferEntry(in, 1, 7);
+		assertEquals(-1, in.read());
+	}
+
+	@Test
+	public void testBasketRecordSizes() throws IOException {
+		int basketRecord = 1 + 8 + 8 + 8 + 4;
+		int offerEntry = 4 + 8;
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		BinaryBasketTotalsWriter writer = new BinaryBasketTotalsWriter(baos);
+
+		// the same size whatever the values
+		writer.write(createTotals("1", "1"));
+		writer.write(createTotals("1000000", "1000000"));
+		writer.flush();
+		assertEquals(4 + basketRecord * 2, baos.size());
+
+		// an offer record is written the first time the offer is used, then
+		// only its index and discount
+		baos.reset();
+		writer.write(createTotals("1.00", "0.90", "a", "0.10"));
+		writer.flush();
+		assertEquals(1 + 4 + 2 + 1 + basketRecord + offerEntry, baos.size());
+		baos.reset();
+		writer.write(createTotals("1.00", "0.90", "a", "0.10"));
+		writer.flush();
+		assertEquals(basketRecord + offerEntry, baos.size());
+	}
+
+	@Test
+	public void testCloseClosesStream() throws IOException {
+		final boolean[] closed = new boolean[1];
+		BinaryBasketTotalsWriter writer = new BinaryBasketTotalsWriter(
+				new FilterOutputStream(new ByteArrayOutputStream()) {
+					@Override
+					public void close() throws IOException {
+						closed[0] = true;
+					}
+				});
+		writer.close();
+		assertTrue(closed[0]);
+	}
+
+	private static void assertOfferRecord(DataInputStream in, int index,
+			String id) throws IOException {
+		assertEquals(OutputFormat.BINARY_OFFER_TAG, in.readByte());
+		assertEquals(index, in.readInt());
+		assertEquals(id, in.readUTF());
+	}
+
+	private static void assertBasketRecord(DataInputStream in, long basket,
+			long subTotal, long total, int offerCount) throws IOException {
+		assertEquals(OutputFormat.BINARY_BASKET_TAG, in.readByte());
+		assertEquals(basket, in.readLong());
+		assertEquals(subTotal, in.readLong());
+		assertEquals(total, in.readLong());
+		assertEquals(offerCount, in.readInt());
+	}
+
+	private static void assertOfferEntry(DataInputStream in, int index,
+			long discount) throws IOException {
+		assertEquals(index, in.readInt());
+		assertEquals(discount, in.readLong());
+	}
+
+}
@@ -0,0 +1,91 @@
+package com.bjss.pricebasket.service.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class CatalogueFileWatcherTest {
+
+	private File file;
+	private int reloads;
+	private boolean failReload;
+	private CatalogueFileWatcher watcher;
+
+	@Before
+	public void setUp() throws IOException {
+		file = File.createTempFile("catalogue", ".xml");
+		file.deleteOnExit();
+		write("<beans/>");
+		watcher = new CatalogueFileWatcher(Arrays.asList(file),
+				new CatalogueFileWatcher.Reloader() {
+					@Override
+					public void reload() throws IOException {
+						if (failReload) {
+							throw new IOException("test");
+						}
+						reloads++;
+					}
+				});
+	}
+
+	@Test
+	public void testUnchangedFileIsNotReloaded() {
+		assertFalse(watcher.checkFiles());
+		assertEquals(0, reloads);
+	}
+
+	@Test
+	public void testChangedFileIsReloadedOnce() throws IOException {
+		write("<beans></beans>");
+
+		assertTrue(watcher.checkFiles());
+		assertFalse(watcher.checkFiles());
+		assertEquals(1, reloads);
+	}
+
+	@Test
+	public void testFailedReloadIsRetried() throws IOException {
+		write("<beans></beans>");
+		failReload = true;
+
+		assertFalse(watcher.checkFiles());
+		assertFalse(watcher.checkFiles());
+		assertEquals(0, reloads);
+
+		failReload = false;
+		assertTrue(watcher.checkFiles());
+		assertEquals(1, reloads);
+	}
+
+	@Test
+	public void testNoFiles() {
+		CatalogueFileWatcher empty = new CatalogueFileWatcher(
+				Collections.<File> emptyList(),
+				new CatalogueFileWatcher.Reloader() {
+					@Override
+					public void reload() {
+						reloads++;
+					}
+				});
+		assertFalse(empty.checkFiles());
+	}
+
+	private void write(String content) throws IOException {
+		FileOutputStream out = new FileOutputStream(file);
+		try {
+			out.write(content.getBytes("UTF-8"));
+		} finally {
+			out.close();
+		}
+	}
+
+}
@@ -0,0 +1,124 @@
+package com.bjss.pricebasket.service.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.Enumeration;
+import java.util.Locale;
+import java.util.ResourceBundle;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.context.NoSuchMessageException;
+import org.springframework.context.support.ResourceBundleMessageSource;
+
+public class CompiledMsgServiceImplTest {
+
+	private CompiledMsgServiceImpl msgService;
+
+	@Before
+	public void setUp() {
+		msgService = new CompiledMsgServiceImpl();
+		msgService.setBasename("resources");
+	}
+
+	/**
+	 * Every message in resources.properties is the same as from the
+	 * ResourceBundleMessageSource used by {@link MsgServiceImpl}
+	 */
+	@Test
+	public void testMessagesMatchResourceBundleMessageSource() {
+		ResourceBundleMessageSource messageSource = new ResourceBundleMessageSource();
+		messageSource.setBasename("resources");
+		Object[][] paramSets = { {}, { "Apples" }, { "Apples", "10", "20p" },
+				{ 3, 2.5 } };
+
+		Enumeration<String> keys = ResourceBundle.getBundle("resources",
+				Locale.UK).getKeys();
+		while (keys.hasMoreElements()) {
+			String key = keys.nextElement();
+			for (Object[] params : paramSets) {
+				assertEquals(key,
+						messageSource.getMessage(key, params, Locale.UK),
+						msgService.getMessage(Locale.UK, key, params));
+			}
+		}
+	}
+
+	@Test
+	public void testDisplayNamesAreCached() {
+		assertSame(msgService.getMessage(Locale.UK, "item.name.apple"),
+				msgService.getMessage(Locale.UK, "item.name.apple"));
+	}
+
+	@Test
+	public void testAppendMessage() throws IOException {
+		StringBuilder sb = new StringBuilder();
+		msgService.appendMessage(sb, Locale.UK, "percentage.offer", "Apples",
+				"10", "10p");
+		sb.append('\n');
+		msgService.appendMessage(sb, Locale.UK, "no.offers.available");
+		assertEquals("Apples 10% off: -10p\n(No offers available)",
+				sb.toString());
+	}
+
+	@Test
+	public void testMissingMessage() {
+		try {
+			msgService.getMessage(Locale.UK, "no.such.message");
+			fail();
+		} catch (NoSuchMessageException e) {
+			// expected
+		}
+		msgService.setUseCodeAsDefaultMessage(true);
+		assertEquals("no.such.message",
+				msgService.getMessage(Locale.UK, "no.such.message"));
+	}
+
+	@Test
+	public void testReloadsChangedBundle() throws IOException {
+		File dir = File.createTempFile("messages", "");
+		dir.delete();
+		dir.mkdir();
+		File bundleFile = new File(dir, "reloadtest.properties");
+		URLClassLoader classLoader = new URLClassLoader(new URL[] { dir
+				.toURI().toURL() }, null);
+		try {
+			writeBundle(bundleFile, "subtotal=Subtotal: {0}");
+			msgService.setBundleClassLoader(classLoader);
+			msgService.setBasename("reloadtest");
+			msgService.setCacheMillis(0);
+			assertEquals("Subtotal: 1p",
+					msgService.getMessage(Locale.UK, "subtotal", "1p"));
+
+			writeBundle(bundleFile, "subtotal=Sub-total: {0}");
+			// make sure the change is seen whatever the file time resolution
+			bundleFile.setLastModified(System.currentTimeMillis() + 10000);
+			assertEquals("Sub-total: 1p",
+					msgService.getMessage(Locale.UK, "subtotal", "1p"));
+		} finally {
+			classLoader.close();
+			bundleFile.delete();
+			dir.delete();
+		}
+	}
+
+	private void writeBundle(File file, String contents) throws IOException {
+		Writer writer = new OutputStreamWriter(new FileOutputStream(file),
+				"ISO-8859-1");
+		try {
+			writer.write(contents);
+		} finally {
+			writer.close();
+		}
+	}
+
+}
@@ -0,0 +1,95 @@
+package com.bjss.pricebasket.service.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.math.BigDecimal;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.bjss.pricebasket.data.BasketTotals;
+import com.bjss.pricebasket.data.Offer;
+import com.bjss.pricebasket.data.PercentageOffer;
+
+public class CsvBasketTotalsWriterTest {
+
+	@Test
+	public void testWriteHeaderOnly() throws IOException {
+		StringWriter out = new StringWriter();
+		new CsvBasketTotalsWriter(out).flush();
+		assertEquals(CsvBasketTotalsWriter.HEADER + "\n", out.toString());
+	}
+
+	@Test
+	public void testWriteWithAndWithoutOffers() throws IOException {
+		StringWriter out = new StringWriter();
+		CsvBasketTotalsWriter writer = new CsvBasketTotalsWriter(out);
+
+		writer.write(createTotals("5.40", "4.80", "breadOffer", "0.40",
+				"appleOffer", "0.20"));
+		writer.write(createTotals("0.65", "0.65"));
+		writer.flush();
+
+		assertEquals(CsvBasketTotalsWriter.HEADER + "\n"
+				+ "1,540,480,breadOffer,40\n" + "1,540,480,appleOffer,20\n"
+				+ "2,65,65,,\n", out.toString());
+	}
+
+	@Test
+	public void testWriteRoundsToMinorUnits() throws IOException {
+		StringWriter out = new StringWriter();
+		CsvBasketTotalsWriter writer = new CsvBasketTotalsWriter(out);
+
+		writer.write(createTotals("1.30", "1.235", "soupOffer", "0.065"));
+		writer.flush();
+
+		assertEquals(CsvBasketTotalsWriter.HEADER + "\n"
+				+ "1,130,124,soupOffer,7\n", out.toString());
+	}
+
+	@Test
+	public void testWriteQuotesOfferIds() throws IOException {
+		StringWriter out = new StringWriter();
+		CsvBasketTotalsWriter writer = new CsvBasketTotalsWriter(out);
+
+		writer.write(createTotals("1.00", "0.90", "a,\"b\"", "0.10"));
+		writer.flush();
+
+		assertEquals(CsvBasketTotalsWriter.HEADER + "\n"
+				+ "1,100,90,\"a,\"\"b\"\"\",10\n", out.toString());
+	}
+
+	@Test
+	public void testWriteNullTotals() throws IOException {
+		try {
+			new CsvBasketTotalsWriter(new StringWriter()).write(null);
+			fail();
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	/**
+	 * @param offers
+	 *            pairs of offer id and discount
+	 */
+	static BasketTotals createTotals(String subTotal, String total,
+			String... offers) {
+		BasketTotals totals = new BasketTotals();
+		totals.setSubTotal(new BigDecimal(subTotal));
+		totals.setTotal(new BigDecimal(total));
+		Map<Offer, BigDecimal> offerTotals = new LinkedHashMap<Offer, BigDecimal>();
+		for (int i = 0; i < offers.length; i += 2) {
+			PercentageOffer offer = new PercentageOffer();
+			offer.setId(offers[i]);
+			offerTotals.put(offer, new BigDecimal(offers[i + 1]));
+		}
+		totals.setOfferTotals(offerTotals);
+		return totals;
+	}
+
+}
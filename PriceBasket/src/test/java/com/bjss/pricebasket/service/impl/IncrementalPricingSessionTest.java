@@ -0,0 +1,329 @@
+package com.bjss.pricebasket.service.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.bjss.pricebasket.catalogue.Catalogue;
+import com.bjss.pricebasket.catalogue.SharedCatalogueWriter;
+import com.bjss.pricebasket.data.Basket;
+import com.bjss.pricebasket.data.BasketTotals;
+import com.bjss.pricebasket.data.Item;
+import com.bjss.pricebasket.data.Offer;
+import com.bjss.pricebasket.data.PercentageOffer;
+import com.bjss.pricebasket.data.PricingContext;
+import com.bjss.pricebasket.service.PricingSession;
+import com.bjss.pricebasket.service.mock.MockMsgService;
+
+public class IncrementalPricingSessionTest {
+
+	private BasketServiceImpl basketService;
+	private ItemServiceImpl itemService;
+	private PricingContext context;
+	private Item soup;
+	private Item bread;
+	private Item apples;
+
+	@Before
+	public void setUp() {
+		basketService = new BasketServiceImpl();
+		itemService = new ItemServiceImpl();
+		basketService.itemService = itemService;
+		context = PricingContext.now(Locale.UK);
+
+		soup = new Item("soup", new BigDecimal("0.65"));
+		bread = new Item("bread", new BigDecimal("0.80"));
+		apples = new Item("apples", new BigDecimal("1.00"));
+		itemService.items.put(soup.getId(), soup);
+		itemService.items.put(bread.getId(), bread);
+		itemService.items.put(apples.getId(), apples);
+
+		Map<Item, Integer> twoSoups = new HashMap<Item, Integer>();
+		twoSoups.put(soup, 2);
+		itemService.offers.put("breadOffer",
+				createOffer("breadOffer", bread, "0.5", twoSoups));
+		itemService.offers.put("appleOffer",
+				createOffer("appleOffer", apples, "0.1", null));
+		itemService.buildOfferIndex();
+	}
+
+	private PercentageOffer createOffer(String id, Item item, String discount,
+			Map<Item, Integer> requiredItems) {
+		PercentageOffer offer = new PercentageOffer();
+		offer.setId(id);
+		offer.setItem(item);
+		offer.setDiscount(new BigDecimal(discount));
+		offer.setRequiredItems(requiredItems);
+		return offer;
+	}
+
+	private void assertMatchesFullRecompute(String message,
+			AbstractBasketService service, PricingSession session) {
+		Basket basket = new Basket();
+		for (Entry<Item, Integer> line : session.getLines().entrySet()) {
+			basket.addItem(line.getKey(), line.getValue());
+		}
+		BasketTotals expected = service.calculateBasketTotals(basket,
+				session.getPricingContext());
+		BasketTotals actual = session.getTotals();
+		assertEquals(message, expected.getSubTotal(), actual.getSubTotal());
+		assertEquals(message, expected.getOfferTotals(),
+				actual.getOfferTotals());
+		assertEquals(message, expected.getTotal(), actual.getTotal());
+		assertEquals(message, expected.getCatalogueVersion(),
+				actual.getCatalogueVersion());
+	}
+
+	@Test
+	public void testEmptySession() {
+		PricingSession session = basketService.openSession(context);
+
+		BasketTotals totals = session.getTotals();
+		assertEquals(new BigDecimal("0"), totals.getSubTotal());
+		assertTrue(totals.getOfferTotals().isEmpty());
+		assertEquals(new BigDecimal("0"), totals.getTotal());
+		assertMatchesFullRecompute("empty", basketService, session);
+	}
+
+	@Test
+	public void testScanningAppliesOffers() {
+		PricingSession session = basketService.openSession(context);
+
+		session.addItem(bread);
+		session.addItem(soup);
+		assertTrue(session.getTotals().getOfferTotals().isEmpty());
+
+		// the second soup satisfies the bread offer
+		session.addItem(soup);
+		BasketTotals totals = session.getTotals();
+		assertEquals(new BigDecimal("2.10"), totals.getSubTotal());
+		assertEquals(new BigDecimal("0.400"), totals.getOfferTotals().get(
+				itemService.offers.get("breadOffer")));
+		assertEquals(new BigDecimal("1.700"), totals.getTotal());
+
+		session.addItem(apples, 2);
+		assertMatchesFullRecompute("apples", basketService, session);
+		assertEquals(2, session.getTotals().getOfferTotals().size());
+	}
+
+	@Test
+	public void testRemovingRequiredItemWithdrawsOffer() {
+		PricingSession session = basketService.openSession(context);
+		session.addItem(soup, 2);
+		session.addItem(bread);
+		assertEquals(1, session.getTotals().getOfferTotals().size());
+
+		session.removeItem(soup);
+		BasketTotals totals = session.getTotals();
+		assertTrue(totals.getOfferTotals().isEmpty());
+		assertEquals(new BigDecimal("1.45"), totals.getTotal());
+		assertMatchesFullRecompute("soup removed", basketService, session);
+
+		session.removeItem(soup);
+		session.removeItem(bread);
+		assertTrue(session.getLines().isEmpty());
+		assertMatchesFullRecompute("all removed", basketService, session);
+	}
+
+	@Test
+	public void testTotalsAreNotChangedByLaterScans() {
+		PricingSession session = basketService.openSession(context);
+		session.addItem(apples);
+		BasketTotals totals = session.getTotals();
+
+		session.addItem(apples);
+		assertEquals(new BigDecimal("1.00"), totals.getSubTotal());
+		assertEquals(1, totals.getOfferTotals().size());
+		assertEquals(new BigDecimal("2.00"), session.getTotals().getSubTotal());
+	}
+
+	@Test
+	public void testSubTotalScaleFollowsLinesInBasket() {
+		Item loose = new Item("loose", new BigDecimal("0.125"));
+		PricingSession session = basketService.openSession(context);
+		session.addItem(apples);
+		session.addItem(loose);
+		assertEquals(new BigDecimal("1.125"), session.getTotals()
+				.getSubTotal());
+
+		// the sum keeps the scale of the removed line, the subtotal does not
+		session.removeItem(loose);
+		assertEquals(new BigDecimal("1.00"), session.getTotals().getSubTotal());
+		assertMatchesFullRecompute("loose removed", basketService, session);
+	}
+
+	@Test
+	public void testRemoveItemNotInBasket() {
+		PricingSession session = basketService.openSession(context);
+		session.addItem(soup);
+		try {
+			session.removeItem(soup, 2);
+			fail();
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+		try {
+			session.removeItem(bread);
+			fail();
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+		assertMatchesFullRecompute("unchanged", basketService, session);
+	}
+
+	@Test
+	public void testNullContext() {
+		try {
+			basketService.openSession(null);
+			fail();
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testSessionIsPinnedToCatalogue() {
+		Offer breadOffer = itemService.offers.get("breadOffer");
+		itemService.loadCatalogue(new Catalogue(1, Arrays.asList(soup, bread),
+				Collections.<Offer> emptyList()));
+		PricingSession session = basketService.openSession(context);
+		itemService.loadCatalogue(new Catalogue(2, Arrays.asList(soup, bread),
+				Arrays.<Offer> asList(breadOffer)));
+
+		session.addItem(soup, 2);
+		session.addItem(bread);
+		BasketTotals totals = session.getTotals();
+		assertEquals(1, totals.getCatalogueVersion());
+		assertTrue(totals.getOfferTotals().isEmpty());
+		assertSame(session.getPricingContext(), totals.getPricingContext());
+	}
+
+	/**
+	 * Random scans and voids of items with competing, chained and expired
+	 * offers give the same totals as pricing the whole basket after every
+	 * change.
+	 */
+	@Test
+	public void testRandomScansMatchFullRecompute() {
+		assertRandomScansMatchFullRecompute(basketService, 11);
+	}
+
+	@Test
+	public void testRandomScansMatchFullRecomputeInMinorUnits() {
+		MinorUnitBasketServiceImpl minorUnitService = new MinorUnitBasketServiceImpl();
+		minorUnitService.itemService = itemService;
+		assertRandomScansMatchFullRecompute(minorUnitService, 12);
+	}
+
+	@Test
+	public void testRandomScansMatchFullRecomputeWithOptimalOffers() {
+		OptimalOfferAllocator allocator = new OptimalOfferAllocator();
+		allocator.setTimeBudgetMicros(10000000);
+		basketService.setOfferAllocator(allocator);
+		assertRandomScansMatchFullRecompute(basketService, 13);
+	}
+
+	/**
+	 * The shared catalogue decodes its offers from the file rather than
+	 * holding them on the heap
+	 */
+	@Test
+	public void testRandomScansMatchFullRecomputeWithSharedCatalogue()
+			throws IOException {
+		assertRandomScansMatchFullRecompute(basketService, 14, true);
+	}
+
+	private void assertRandomScansMatchFullRecompute(
+			AbstractBasketService service, long seed) {
+		try {
+			assertRandomScansMatchFullRecompute(service, seed, false);
+		} catch (IOException e) {
+			throw new AssertionError(e);
+		}
+	}
+
+	private void assertRandomScansMatchFullRecompute(
+			AbstractBasketService service, long seed, boolean shared)
+			throws IOException {
+		Random random = new Random(seed);
+		Item[] items = new Item[8];
+		for (int i = 0; i < items.length; i++) {
+			items[i] = new Item("random" + i, BigDecimal.valueOf(
+					10 + random.nextInt(300), 2));
+			itemService.items.put(items[i].getId(), items[i]);
+		}
+		itemService.offers.clear();
+		for (int i = 0; i < 12; i++) {
+			Map<Item, Integer> requiredItems = new LinkedHashMap<Item, Integer>();
+			int requiredItemCount = random.nextInt(3);
+			for (int j = 0; j < requiredItemCount; j++) {
+				requiredItems.put(items[random.nextInt(items.length)],
+						random.nextInt(4));
+			}
+			PercentageOffer offer = createOffer("randomOffer" + i,
+					items[random.nextInt(items.length)],
+					"0." + (1 + random.nextInt(9)), requiredItems);
+			if (random.nextInt(4) == 0) {
+				offer.setExpiryDate(new Date(0));
+			}
+			itemService.offers.put(offer.getId(), offer);
+		}
+		itemService.buildOfferIndex();
+		if (shared) {
+			service.itemService = createSharedItemService();
+		}
+
+		for (int transaction = 0; transaction < 100; transaction++) {
+			PricingSession session = service.openSession(context);
+			for (int change = 0; change < 40; change++) {
+				Item item = items[random.nextInt(items.length)];
+				Integer quantity = session.getLines().get(item);
+				if (quantity != null && random.nextInt(3) == 0) {
+					session.removeItem(item, 1 + random.nextInt(quantity));
+				} else {
+					session.addItem(item, 1 + random.nextInt(3));
+				}
+				assertMatchesFullRecompute("transaction " + transaction
+						+ " change " + change, service, session);
+			}
+		}
+	}
+
+
+	private SharedItemServiceImpl createSharedItemService() throws IOException {
+		File file = File.createTempFile("catalogue", ".shared");
+		file.deleteOnExit();
+		SharedCatalogueWriter writer = new SharedCatalogueWriter(file, 65536);
+		try {
+			writer.publish(new Catalogue(1, new ArrayList<Item>(
+					itemService.items.values()), new ArrayList<Offer>(
+					itemService.offers.values())));
+		} finally {
+			writer.close();
+		}
+		SharedItemServiceImpl sharedItemService = new SharedItemServiceImpl();
+		sharedItemService.msgService = new MockMsgService();
+		sharedItemService.setCatalogueFile(file);
+		sharedItemService.open();
+		return sharedItemService;
+	}
+
+}
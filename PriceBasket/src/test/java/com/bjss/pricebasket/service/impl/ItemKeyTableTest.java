@@ -0,0 +1,134 @@
+package com.bjss.pricebasket.service.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.bjss.pricebasket.data.Item;
+
+public class ItemKeyTableTest {
+
+	@Test
+	public void testGetNull() {
+		ItemKeyTable table = new ItemKeyTable(
+				Collections.<String, Item> emptyMap());
+		try {
+			table.get(null);
+			fail();
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testGetEmpty() {
+		ItemKeyTable table = new ItemKeyTable(
+				Collections.<String, Item> emptyMap());
+		assertNull(table.get("apple"));
+		assertNull(table.get(""));
+	}
+
+	@Test
+	public void testGetIgnoresCase() {
+		Item apple = new Item("apple", new BigDecimal("1.00"));
+		Map<String, Item> items = new HashMap<String, Item>();
+		items.put("Apple", apple);
+		ItemKeyTable table = new ItemKeyTable(items);
+
+		assertSame(apple, table.get("apple"));
+		assertSame(apple, table.get("APPLE"));
+		assertSame(apple, table.get(new StringBuilder("aPpLe")));
+		assertNull(table.get("apples"));
+		assertNull(table.get("appl"));
+	}
+
+	@Test
+	public void testGetByBarcode() {
+		Item apple = new Item("apple", new BigDecimal("1.00"));
+		apple.setBarcodes(Arrays.asList("5000112637922", "012345678905"));
+		Item bread = new Item("bread", new BigDecimal("0.80"));
+		Map<String, Item> items = new HashMap<String, Item>();
+		items.put("apple", apple);
+		items.put("bread", bread);
+		ItemKeyTable table = new ItemKeyTable(items);
+
+		assertSame(apple, table.get("apple"));
+		assertSame(apple, table.get("5000112637922"));
+		assertSame(apple, table.get("012345678905"));
+		assertSame(bread, table.get("bread"));
+		assertNull(table.get("5000112637923"));
+	}
+
+	@Test
+	public void testGetNonAscii() {
+		Item creme = new Item("cr\u00e8me", new BigDecimal("1.20"));
+		Map<String, Item> items = new HashMap<String, Item>();
+		items.put("CR\u00c8ME", creme);
+		ItemKeyTable table = new ItemKeyTable(items);
+
+		assertSame(creme, table.get("cr\u00e8me"));
+		assertSame(creme, table.get("Cr\u00c8me"));
+		assertNull(table.get("creme"));
+	}
+
+	@Test
+	public void testDuplicateKey() {
+		Item apple = new Item("apple", new BigDecimal("1.00"));
+		apple.setBarcodes(Arrays.asList("5000112637922"));
+		Item bread = new Item("bread", new BigDecimal("0.80"));
+		bread.setBarcodes(Arrays.asList("5000112637922"));
+		Map<String, Item> items = new HashMap<String, Item>();
+		items.put("apple", apple);
+		items.put("bread", bread);
+		try {
+			new ItemKeyTable(items);
+			fail();
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testDuplicateKeyOfSameItem() {
+		Item apple = new Item("apple", new BigDecimal("1.00"));
+		apple.setBarcodes(Arrays.asList("APPLE", "5000112637922",
+				"5000112637922"));
+		Map<String, Item> items = new HashMap<String, Item>();
+		items.put("apple", apple);
+		ItemKeyTable table = new ItemKeyTable(items);
+		assertSame(apple, table.get("Apple"));
+		assertSame(apple, table.get("5000112637922"));
+	}
+
+	@Test
+	public void testMatchesHashMap() {
+		Random random = new Random(21);
+		Map<String, Item> items = new HashMap<String, Item>();
+		Map<String, Item> expected = new HashMap<String, Item>();
+		for (int i = 0; i < 1000; i++) {
+			String key = "Item" + random.nextInt(100000);
+			Item item = new Item(key, BigDecimal.ONE);
+			items.put(key, item);
+			expected.put(key.toLowerCase(Locale.ROOT), item);
+		}
+		ItemKeyTable table = new ItemKeyTable(items);
+		for (int i = 0; i < 100000; i++) {
+			String key = (random.nextBoolean() ? "ITEM" : "item")
+					+ random.nextInt(100000);
+			assertEquals(key, expected.get(key.toLowerCase(Locale.ROOT)),
+					table.get(key));
+		}
+	}
+
+}
@@ -1,17 +1,23 @@
 package com.bjss.pricebasket.service.impl;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
 import org.junit.Test;
 
+import com.bjss.pricebasket.catalogue.Catalogue;
 import com.bjss.pricebasket.data.Item;
 import com.bjss.pricebasket.data.Offer;
 import com.bjss.pricebasket.data.PercentageOffer;
+import com.bjss.pricebasket.metrics.PricingMetrics;
+import com.bjss.pricebasket.service.ItemService;
 
 public class ItemServiceImplTest {
 
@@ -37,11 +43,28 @@ public class ItemServiceImplTest {
 		ItemServiceImpl itemService = new ItemServiceImpl();
 		Item testItem = new Item("testitem", new BigDecimal("12"));
 		itemService.items.put("testitem", testItem);
+		itemService.buildOfferIndex();
 		assertEquals(null, itemService.getItem("apple"));
 		// getItem method is case insensitive
 		assertEquals(testItem, itemService.getItem("testItem"));
 	}
 
+	@Test
+	public void testGetItemIsCountedInMetrics() {
+		ItemServiceImpl itemService = new ItemServiceImpl();
+		PricingMetrics metrics = new PricingMetrics();
+		itemService.pricingMetrics = metrics;
+		itemService.items.put("testitem", new Item("testitem",
+				new BigDecimal("12")));
+		itemService.buildOfferIndex();
+
+		itemService.getItem("testitem");
+		itemService.getSnapshot().getItem("apple");
+		assertEquals(2, metrics.getItemLookups());
+		assertEquals(1, metrics.getUnknownItems());
+		assertEquals(1, metrics.getCatalogueLoading().getCount());
+	}
+
 	@Test
 	public void testGetOffersNull() {
 		ItemServiceImpl itemService = new ItemServiceImpl();
@@ -75,6 +98,7 @@ public class ItemServiceImplTest {
 		itemService.offers.put("testOffer1", testOffer1);
 		itemService.offers.put("testOffer2", testOffer2);
 		itemService.offers.put("testOffer3", testOffer3);
+		itemService.buildOfferIndex();
 
 		// testItem1 should have 2 matching Offers
 		List<Offer> offers = itemService.getOffers(testItem1);
@@ -92,6 +116,94 @@ public class ItemServiceImplTest {
 		assertTrue(offers.isEmpty());
 	}
 
+	@Test
+	public void testGetOffersReturnsIndexedList() {
+		ItemServiceImpl itemService = new ItemServiceImpl();
+
+		Item testItem1 = new Item("testitem1", new BigDecimal("12.00"));
+		itemService.offers.put("testOffer1", createOffer("testOffer1", testItem1));
+		itemService.buildOfferIndex();
+
+		// repeated lookups are served from the same pre-built index entry
+		assertSame(itemService.getOffers(testItem1),
+				itemService.getOffers(testItem1));
+		try {
+			itemService.getOffers(testItem1).clear();
+			fail();
+		} catch (UnsupportedOperationException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testLoadCatalogue() {
+		ItemServiceImpl itemService = new ItemServiceImpl();
+		Item apple = new Item("apple", new BigDecimal("1.00"));
+		PercentageOffer offer = createOffer("appleOffer", apple);
+		itemService.loadCatalogue(new Catalogue(7, Arrays.asList(apple),
+				Arrays.<Offer> asList(offer)));
+
+		assertEquals(7, itemService.getCatalogueVersion());
+		assertEquals(apple, itemService.getItem("apple"));
+		assertEquals(Arrays.asList(offer), itemService.getOffers(apple));
+	}
+
+	@Test
+	public void testSnapshotIsNotChangedByReload() {
+		ItemServiceImpl itemService = new ItemServiceImpl();
+		Item apple = new Item("apple", new BigDecimal("1.00"));
+		PercentageOffer offer = createOffer("appleOffer", apple);
+		itemService.loadCatalogue(new Catalogue(1, Arrays.asList(apple),
+				Arrays.<Offer> asList(offer)));
+		ItemService snapshot = itemService.getSnapshot();
+
+		Item dearerApple = new Item("apple", new BigDecimal("1.10"));
+		itemService.loadCatalogue(new Catalogue(2, Arrays.asList(dearerApple),
+				Collections.<Offer> emptyList()));
+
+		assertEquals(1, snapshot.getCatalogueVersion());
+		assertEquals(apple, snapshot.getItem("apple"));
+		assertEquals(Arrays.asList(offer), snapshot.getOffers(apple));
+		assertSame(snapshot, snapshot.getSnapshot());
+
+		assertEquals(2, itemService.getCatalogueVersion());
+		assertEquals(dearerApple, itemService.getItem("apple"));
+		assertTrue(itemService.getOffers(dearerApple).isEmpty());
+	}
+
+	@Test
+	public void testGetItemByBarcode() {
+		ItemServiceImpl itemService = new ItemServiceImpl();
+		Item apple = new Item("apple", new BigDecimal("1.00"));
+		apple.setBarcodes(Arrays.asList("5000112637922"));
+		itemService.loadCatalogue(new Catalogue(1, Arrays.asList(apple),
+				Collections.<Offer> emptyList()));
+
+		assertEquals(apple, itemService.getItem("5000112637922"));
+		assertEquals(apple, itemService.getSnapshot().getItem("Apple"));
+	}
+
+	@Test
+	public void testLoadCatalogueWithDuplicateKeyKeepsCatalogue() {
+		ItemServiceImpl itemService = new ItemServiceImpl();
+		Item apple = new Item("apple", new BigDecimal("1.00"));
+		itemService.loadCatalogue(new Catalogue(1, Arrays.asList(apple),
+				Collections.<Offer> emptyList()));
+
+		Item bread = new Item("bread", new BigDecimal("0.80"));
+		bread.setBarcodes(Arrays.asList("APPLE"));
+		try {
+			itemService.loadCatalogue(new Catalogue(2, Arrays.asList(apple,
+					bread), Collections.<Offer> emptyList()));
+			fail();
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+		assertEquals(1, itemService.getCatalogueVersion());
+		assertEquals(apple, itemService.getItem("apple"));
+		assertEquals(null, itemService.getItem("bread"));
+	}
+
 	private PercentageOffer createOffer(String id, Item testItem1) {
 		PercentageOffer offer = new PercentageOffer();
 		offer.setId(id);
@@ -0,0 +1,85 @@
+package com.bjss.pricebasket.service.impl;
+
+import static com.bjss.pricebasket.service.impl.CsvBasketTotalsWriterTest.createTotals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.StringWriter;
+
+import org.junit.Test;
+
+import com.bjss.pricebasket.data.BasketTotals;
+
+public class JsonLinesBasketTotalsWriterTest {
+
+	@Test
+	public void testWriteWithAndWithoutOffers() throws IOException {
+		StringWriter out = new StringWriter();
+		JsonLinesBasketTotalsWriter writer = new JsonLinesBasketTotalsWriter(
+				out);
+
+		writer.write(createTotals("5.40", "4.80", "breadOffer", "0.40",
+				"appleOffer", "0.20"));
+		writer.write(createTotals("0.65", "0.65"));
+		writer.flush();
+
+		assertEquals(
+				"{\"basket\":1,\"subtotal\":540,\"total\":480,\"offers\":["
+						+ "{\"id\":\"breadOffer\",\"discount\":40},"
+						+ "{\"id\":\"appleOffer\",\"discount\":20}]}\n"
+						+ "{\"basket\":2,\"subtotal\":65,\"total\":65,\"offers\":[]}\n",
+				out.toString());
+	}
+
+	@Test
+	public void testWriteNullOfferTotals() throws IOException {
+		StringWriter out = new StringWriter();
+		JsonLinesBasketTotalsWriter writer = new JsonLinesBasketTotalsWriter(
+				out);
+		BasketTotals totals = createTotals("1", "1");
+		totals.setOfferTotals(null);
+
+		writer.write(totals);
+		writer.flush();
+
+		assertEquals(
+				"{\"basket\":1,\"subtotal\":100,\"total\":100,\"offers\":[]}\n",
+				out.toString());
+	}
+
+	@Test
+	public void testWriteEscapesOfferIds() throws IOException {
+		StringWriter out = new StringWriter();
+		JsonLinesBasketTotalsWriter writer = new JsonLinesBasketTotalsWriter(
+				out);
+
+		writer.write(createTotals("1.00", "0.90", "a\"\\\n", "0.10"));
+		writer.write(createTotals("1.00", "0.90", null, "0.10"));
+		writer.flush();
+
+		assertEquals(
+				"{\"basket\":1,\"subtotal\":100,\"total\":90,\"offers\":["
+						+ "{\"id\":\"a\\\"\\\\\\u000a\",\"discount\":10}]}\n"
+						+ "{\"basket\":2,\"subtotal\":100,\"total\":90,\"offers\":["
+						+ "{\"id\":null,\"discount\":10}]}\n", out.toString());
+	}
+
+	@Test
+	public void testWriteNothingUntilBlockIsFull() throws IOException {
+		StringWriter out = new StringWriter();
+		JsonLinesBasketTotalsWriter writer = new JsonLinesBasketTotalsWriter(
+				out);
+
+		writer.write(createTotals("1", "1"));
+		assertEquals("", out.toString());
+		// the buffer grows, rather than holding a block from the start
+		assertTrue(writer.buffer.capacity() < BufferedBasketTotalsWriter.BLOCK_SIZE);
+
+		while (out.getBuffer().length() == 0) {
+			writer.write(createTotals("1", "1"));
+		}
+		assertTrue(out.getBuffer().length() >= BufferedBasketTotalsWriter.BLOCK_SIZE);
+	}
+
+}
@@ -0,0 +1,55 @@
+package com.bjss.pricebasket.service.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.text.MessageFormat;
+import java.util.Locale;
+
+import org.junit.Test;
+
+public class MessageTemplateTest {
+
+	@Test
+	public void testRenderMatchesMessageFormat() {
+		String[] patterns = { "{0} {1}% off: -{2}", "{0}p", "Subtotal: {0}",
+				"plain text", "{1}{0}{1}", "", "{0} and {3}", "a } b {0}" };
+		Object[] params = { "Apples", null, "10p" };
+		for (String pattern : patterns) {
+			MessageTemplate template = MessageTemplate.compile(pattern);
+			assertNotNull(pattern, template);
+			assertEquals(pattern,
+					new MessageFormat(pattern, Locale.UK).format(params),
+					template.render(params));
+		}
+	}
+
+	@Test
+	public void testPatternsNeedingMessageFormat() {
+		assertNull(MessageTemplate.compile("it''s {0}"));
+		assertNull(MessageTemplate.compile("'{0}'"));
+		assertNull(MessageTemplate.compile("{0,number,#.##}"));
+		assertNull(MessageTemplate.compile("{name}"));
+		assertNull(MessageTemplate.compile("unclosed {0"));
+	}
+
+	@Test
+	public void testAppend() throws IOException {
+		StringBuilder sb = new StringBuilder("Subtotal: ");
+		MessageTemplate.compile("{0}p").append(sb, new Object[] { "40" });
+		assertEquals("Subtotal: 40p", sb.toString());
+	}
+
+	@Test
+	public void testCanRender() {
+		assertTrue(MessageTemplate.canRender(new Object[] { "a", null }));
+		assertFalse(MessageTemplate.canRender(new Object[] { "a",
+				BigDecimal.ONE }));
+	}
+
+}
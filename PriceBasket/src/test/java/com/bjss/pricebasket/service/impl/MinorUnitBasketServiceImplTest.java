@@ -0,0 +1,259 @@
+package com.bjss.pricebasket.service.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.context.i18n.LocaleContextHolder;
+
+import com.bjss.pricebasket.catalogue.Catalogue;
+import com.bjss.pricebasket.data.Basket;
+import com.bjss.pricebasket.data.BasketTotals;
+import com.bjss.pricebasket.data.Item;
+import com.bjss.pricebasket.data.Offer;
+import com.bjss.pricebasket.data.PercentageOffer;
+import com.bjss.pricebasket.data.PricingContext;
+import com.bjss.pricebasket.service.mock.MockMsgService;
+
+public class MinorUnitBasketServiceImplTest {
+
+	private static final int CORPUS_SIZE = 20000;
+
+	private MinorUnitBasketServiceImpl basketService;
+	private ItemServiceImpl itemService;
+	private Item testItem1;
+	private Item testItem2;
+
+	@Before
+	public void setUp() {
+		basketService = new MinorUnitBasketServiceImpl();
+		itemService = new ItemServiceImpl();
+		basketService.itemService = itemService;
+
+		testItem1 = new Item("testitem1", new BigDecimal("1.30"));
+		testItem2 = new Item("testitem2", new BigDecimal("0.65"));
+		itemService.items.put(testItem1.getId(), testItem1);
+		itemService.items.put(testItem2.getId(), testItem2);
+	}
+
+	@Test
+	public void testNullBasket() {
+		try {
+			basketService.calculateBasketTotals(null);
+			fail();
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testEmptyBasket() {
+		BasketTotals totals = basketService.calculateBasketTotals(new Basket());
+
+		assertEquals(0, BigDecimal.ZERO.compareTo(totals.getSubTotal()));
+		assertTrue(totals.getOfferTotals().isEmpty());
+		assertEquals(0, BigDecimal.ZERO.compareTo(totals.getTotal()));
+	}
+
+	@Test
+	public void testPricesAgainstPinnedCatalogue() {
+		itemService.loadCatalogue(new Catalogue(1, Arrays.asList(testItem2),
+				Collections.<Offer> emptyList()));
+		PricingContext pinned = PricingContext.now(Locale.UK).pinCatalogue(
+				itemService);
+		PercentageOffer offer = createOffer("testOffer1", testItem2, "0.1");
+		itemService.loadCatalogue(new Catalogue(2, Arrays.asList(testItem2),
+				Arrays.<Offer> asList(offer)));
+
+		Basket basket = new Basket();
+		basket.addItem(testItem2);
+		BasketTotals totals = basketService.calculateBasketTotals(basket,
+				pinned);
+		assertEquals(1, totals.getCatalogueVersion());
+		assertTrue(totals.getOfferTotals().isEmpty());
+
+		totals = basketService.calculateBasketTotals(basket);
+		assertEquals(2, totals.getCatalogueVersion());
+		assertEquals(1, totals.getOfferTotals().size());
+	}
+
+	@Test
+	public void testOfferDiscountIsExact() {
+		PercentageOffer offer = createOffer("testOffer1", testItem2, "0.1");
+		itemService.offers.put(offer.getId(), offer);
+		itemService.buildOfferIndex();
+
+		Basket basket = new Basket();
+		basket.addItem(testItem1);
+		basket.addItem(testItem2);
+		basket.addItem(testItem2);
+		basket.addItem(testItem2);
+
+		BasketTotals totals = basketService.calculateBasketTotals(basket);
+
+		assertEquals(new BigDecimal("3.25"), totals.getSubTotal());
+		// 3 x 6.5p is not rounded by the service
+		assertEquals(new BigDecimal("0.195000"), totals.getOfferTotals()
+				.get(offer));
+		assertEquals(new BigDecimal("3.055000"), totals.getTotal());
+	}
+
+	@Test
+	public void testDiscountConvertedOncePerCatalogue() {
+		final int[] calculations = new int[1];
+		PercentageOffer offer = new PercentageOffer() {
+			@Override
+			public BigDecimal calculateDiscount() {
+				calculations[0]++;
+				return super.calculateDiscount();
+			}
+		};
+		offer.setId("testOffer1");
+		offer.setItem(testItem2);
+		offer.setDiscount(new BigDecimal("0.1"));
+		itemService.offers.put(offer.getId(), offer);
+		itemService.buildOfferIndex();
+
+		Basket basket = new Basket();
+		basket.addItem(testItem2);
+		for (int i = 0; i < 10; i++) {
+			assertEquals(new BigDecimal("0.065000"), basketService
+					.calculateBasketTotals(basket).getOfferTotals().get(offer));
+		}
+		assertEquals(1, calculations[0]);
+
+		// a new catalogue is converted again
+		itemService.buildOfferIndex();
+		basketService.calculateBasketTotals(basket);
+		assertEquals(2, calculations[0]);
+	}
+
+	@Test
+	public void testInexactDiscountFailsOnlyWhenApplied() {
+		PercentageOffer offer = createOffer("testOffer1", testItem2, "0.0000001");
+		itemService.offers.put(offer.getId(), offer);
+		itemService.buildOfferIndex();
+
+		Basket basket = new Basket();
+		basket.addItem(testItem1);
+		assertEquals(new BigDecimal("1.300000"), basketService
+				.calculateBasketTotals(basket).getTotal());
+
+		basket.addItem(testItem2);
+		try {
+			basketService.calculateBasketTotals(basket);
+			fail();
+		} catch (IllegalStateException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testPriceNotInMinorUnits() {
+		Basket basket = new Basket();
+		basket.addItem(new Item("testitem3", new BigDecimal("0.655")));
+		try {
+			basketService.calculateBasketTotals(basket);
+			fail();
+		} catch (IllegalStateException e) {
+			// expected
+		}
+	}
+
+	/**
+	 * Prices a large, randomly generated corpus of baskets with both this
+	 * service and {@link BasketServiceImpl} and checks that the printed
+	 * receipts are identical.
+	 */
+	@Test
+	public void testPrintedTotalsMatchBasketServiceImpl() {
+		Random random = new Random(20140301L);
+
+		Item[] items = new Item[40];
+		for (int i = 0; i < items.length; i++) {
+			items[i] = new Item("item" + i, BigDecimal.valueOf(
+					1 + random.nextInt(1500), 2));
+			itemService.items.put(items[i].getId(), items[i]);
+		}
+		String[] discounts = { "0.1", "0.5", "0.25", "0.333", "0.125",
+				"0.0725", "0.3333", "1" };
+		for (int i = 0; i < 30; i++) {
+			PercentageOffer offer = createOffer("offer" + i,
+					items[random.nextInt(items.length)],
+					discounts[random.nextInt(discounts.length)]);
+			if (random.nextBoolean()) {
+				Map<Item, Integer> requiredItems = new HashMap<Item, Integer>();
+				requiredItems.put(items[random.nextInt(items.length)],
+						1 + random.nextInt(3));
+				offer.setRequiredItems(requiredItems);
+			}
+			itemService.offers.put(offer.getId(), offer);
+		}
+		itemService.buildOfferIndex();
+
+		BasketServiceImpl referenceService = new BasketServiceImpl();
+		referenceService.itemService = itemService;
+		BasketPrinterServiceImpl printer = createPrinter();
+
+		for (int i = 0; i < CORPUS_SIZE; i++) {
+			Basket basket = new Basket();
+			int basketSize = random.nextInt(30);
+			for (int j = 0; j < basketSize; j++) {
+				basket.addItem(items[random.nextInt(items.length)]);
+			}
+			String expected = print(printer,
+					referenceService.calculateBasketTotals(basket));
+			String actual = print(printer,
+					basketService.calculateBasketTotals(basket));
+			assertEquals("basket " + i, expected, actual);
+		}
+	}
+
+	private PercentageOffer createOffer(String id, Item item, String discount) {
+		PercentageOffer offer = new PercentageOffer() {
+			@Override
+			public void appendPrintMessage(Appendable out,
+					String totalDiscount, PricingContext context)
+					throws IOException {
+				out.append(getId()).append(": -").append(totalDiscount);
+			}
+		};
+		offer.setId(id);
+		offer.setItem(item);
+		offer.setDiscount(new BigDecimal(discount));
+		return offer;
+	}
+
+	private BasketPrinterServiceImpl createPrinter() {
+		LocaleContextHolder.setLocale(Locale.UK);
+		MockMsgService mockMsgService = new MockMsgService();
+		mockMsgService.addMessage("no.offers.available",
+				"(No offers available)");
+		mockMsgService.addMessage("subtotal", "Subtotal: %s");
+		mockMsgService.addMessage("total", "Total price: %s");
+		mockMsgService.addMessage("minor.currency", "%sp");
+		BasketPrinterServiceImpl printer = new BasketPrinterServiceImpl();
+		printer.msgService = mockMsgService;
+		return printer;
+	}
+
+	private String print(BasketPrinterServiceImpl printer, BasketTotals totals) {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		printer.write(new PrintStream(baos), totals);
+		return baos.toString();
+	}
+
+}
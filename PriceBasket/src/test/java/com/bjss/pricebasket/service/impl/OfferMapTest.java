@@ -0,0 +1,127 @@
+package com.bjss.pricebasket.service.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.bjss.pricebasket.data.Item;
+import com.bjss.pricebasket.data.Offer;
+import com.bjss.pricebasket.data.PercentageOffer;
+
+public class OfferMapTest {
+
+	private PercentageOffer createOffer(String id, int ordinal) {
+		PercentageOffer offer = new PercentageOffer();
+		offer.setId(id);
+		offer.setItem(new Item(id, new BigDecimal("1.00")));
+		offer.setDiscount(new BigDecimal("0.1"));
+		offer.setOrdinal(ordinal);
+		return offer;
+	}
+
+	@Test
+	public void testPutAndGet() {
+		OfferMap<Integer> offerMap = new OfferMap<Integer>(2);
+		List<Offer> offers = new ArrayList<Offer>();
+		Map<Offer, Integer> expected = new HashMap<Offer, Integer>();
+		// more than the expected size, some with colliding or no ordinals
+		for (int i = 0; i < 20; i++) {
+			Offer offer = createOffer("offer" + i, i % 3 == 0 ? Item.NO_ORDINAL
+					: i * 8);
+			offers.add(offer);
+			assertNull(offerMap.put(offer, i));
+			expected.put(offer, i);
+		}
+		assertEquals(Integer.valueOf(0), offerMap.put(offers.get(0), 100));
+		expected.put(offers.get(0), 100);
+
+		assertEquals(20, offerMap.size());
+		assertEquals(expected, offerMap);
+		for (int i = 1; i < 20; i++) {
+			assertEquals(Integer.valueOf(i), offerMap.getSame(offers.get(i)));
+		}
+		// in the order first put
+		List<Offer> keys = new ArrayList<Offer>(offerMap.keySet());
+		assertEquals(offers, keys);
+	}
+
+	@Test
+	public void testEqualOffer() {
+		OfferMap<Integer> offerMap = new OfferMap<Integer>();
+		offerMap.put(createOffer("offer", 1), 1);
+
+		Offer equal = createOffer("offer", 2);
+		assertEquals(Integer.valueOf(1), offerMap.get(equal));
+		assertTrue(offerMap.containsKey(equal));
+		assertNull(offerMap.getSame(equal));
+		assertNull(OfferMap.getSame(offerMap, equal));
+		assertEquals(Integer.valueOf(1),
+				OfferMap.getSame(new HashMap<Offer, Integer>(offerMap), equal));
+	}
+
+	@Test
+	public void testOfferWithoutOrdinalFoundById() {
+		OfferMap<Integer> offerMap = new OfferMap<Integer>();
+		offerMap.put(createOffer("offer", Item.NO_ORDINAL), 1);
+		offerMap.put(createOffer("other", Item.NO_ORDINAL), 2);
+
+		// decoded again by another lookup of the same catalogue
+		Offer decoded = createOffer("offer", Item.NO_ORDINAL);
+		assertEquals(Integer.valueOf(1), offerMap.getSame(decoded));
+		assertEquals(Integer.valueOf(1), offerMap.put(decoded, 3));
+		assertEquals(2, offerMap.size());
+		assertEquals(Integer.valueOf(3), offerMap.get(decoded));
+
+		// the same id with an ordinal is another catalogue's offer
+		assertNull(offerMap.getSame(createOffer("offer", 1)));
+		// and an offer of the same id and another definition is not equal
+		PercentageOffer changed = createOffer("offer", Item.NO_ORDINAL);
+		changed.setDiscount(new BigDecimal("0.2"));
+		assertNull(offerMap.get(changed));
+		assertEquals(Integer.valueOf(3), offerMap.getSame(changed));
+	}
+
+	@Test
+	public void testRemove() {
+		OfferMap<Integer> offerMap = new OfferMap<Integer>();
+		Offer first = createOffer("first", 0);
+		Offer second = createOffer("second", 4);
+		Offer third = createOffer("third", 8);
+		offerMap.put(first, 1);
+		offerMap.put(second, 2);
+		offerMap.put(third, 3);
+
+		assertEquals(Integer.valueOf(2), offerMap.remove(second));
+		assertNull(offerMap.remove(second));
+		assertEquals(Arrays.<Offer> asList(first, third), new ArrayList<Offer>(
+				offerMap.keySet()));
+		assertEquals(Integer.valueOf(3), offerMap.getSame(third));
+
+		offerMap.clear();
+		assertTrue(offerMap.isEmpty());
+		assertNull(offerMap.getSame(first));
+		offerMap.put(third, 4);
+		assertEquals(Integer.valueOf(4), offerMap.getSame(third));
+	}
+
+	@Test
+	public void testNullOffer() {
+		try {
+			new OfferMap<Integer>().put(null, 1);
+			fail();
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+}
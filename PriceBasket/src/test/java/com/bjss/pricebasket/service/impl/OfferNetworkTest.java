@@ -0,0 +1,193 @@
+package com.bjss.pricebasket.service.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.bjss.pricebasket.catalogue.CatalogueOrdinals;
+import com.bjss.pricebasket.data.Item;
+import com.bjss.pricebasket.data.Offer;
+import com.bjss.pricebasket.data.PercentageOffer;
+
+public class OfferNetworkTest {
+
+	private final Item bread = new Item("bread", new BigDecimal("0.80"));
+	private final Item soup = new Item("soup", new BigDecimal("0.65"));
+	private final Item milk = new Item("milk", new BigDecimal("1.30"));
+
+	private PercentageOffer createOffer(String id, Item item,
+			Item... requiredItems) {
+		PercentageOffer offer = new PercentageOffer();
+		offer.setId(id);
+		offer.setItem(item);
+		offer.setDiscount(new BigDecimal("0.1"));
+		if (requiredItems.length > 0) {
+			Map<Item, Integer> required = new LinkedHashMap<Item, Integer>();
+			for (Item requiredItem : requiredItems) {
+				required.put(requiredItem, 1);
+			}
+			offer.setRequiredItems(required);
+		}
+		return offer;
+	}
+
+	private OfferNetwork createNetwork(List<Offer> offers) {
+		return new OfferNetwork(offers, new CatalogueOrdinals(
+				Collections.<Item> emptyList(), offers));
+	}
+
+	private Map<Item, Integer> tallies(Item... items) {
+		Map<Item, Integer> itemTallies = new HashMap<Item, Integer>();
+		for (Item item : items) {
+			itemTallies.put(item, 1);
+		}
+		return itemTallies;
+	}
+
+	@Test
+	public void testItemWithoutOffers() {
+		OfferNetwork network = createNetwork(Arrays.<Offer> asList(
+				createOffer("breadOffer", bread)));
+
+		assertTrue(network.getOffers(soup).isEmpty());
+		assertTrue(network.getOffers(soup, tallies(soup, bread)).isEmpty());
+	}
+
+	@Test
+	public void testUnguardedOffersAreNotCopied() {
+		OfferNetwork network = createNetwork(Arrays.<Offer> asList(
+				createOffer("breadOffer1", bread),
+				createOffer("breadOffer2", bread)));
+
+		List<Offer> offers = network.getOffers(bread);
+		assertEquals(2, offers.size());
+		assertSame(offers, network.getOffers(bread, tallies(bread)));
+	}
+
+	@Test
+	public void testLeavesOutOffersWhoseFirstRequiredItemIsNotTallied() {
+		PercentageOffer plain = createOffer("plain", bread);
+		PercentageOffer withSoup = createOffer("withSoup", bread, soup);
+		PercentageOffer withMilk = createOffer("withMilk", bread, milk);
+		PercentageOffer withMilkThenSoup = createOffer("withMilkThenSoup",
+				bread, milk, soup);
+		OfferNetwork network = createNetwork(Arrays.<Offer> asList(
+				withMilk, plain, withSoup, withMilkThenSoup));
+
+		assertEquals(Arrays.asList(plain), network.getOffers(bread,
+				tallies(bread)));
+		// guarded by milk, even though the soup is tallied
+		assertEquals(Arrays.asList(plain, withSoup), network.getOffers(bread,
+				tallies(bread, soup)));
+		assertEquals(Arrays.asList(withMilk, plain, withMilkThenSoup),
+				network.getOffers(bread, tallies(bread, milk)));
+		assertSame(network.getOffers(bread), network.getOffers(bread,
+				tallies(bread, soup, milk)));
+	}
+
+	@Test
+	public void testLooksUpTalliesWhenItemHasManyGuardedOffers() {
+		List<Offer> offers = new ArrayList<Offer>();
+		Item[] guards = new Item[50];
+		for (int i = 0; i < guards.length; i++) {
+			guards[i] = new Item("guard" + i, new BigDecimal("1.00"));
+			offers.add(createOffer("guarded" + i, bread, guards[i]));
+			if (i % 10 == 0) {
+				offers.add(createOffer("plain" + i, bread));
+			}
+		}
+		OfferNetwork network = createNetwork(offers);
+
+		List<Offer> expected = new ArrayList<Offer>();
+		for (Offer offer : offers) {
+			String id = offer.getId();
+			if (id.startsWith("plain") || id.equals("guarded7")
+					|| id.equals("guarded33")) {
+				expected.add(offer);
+			}
+		}
+		assertEquals(expected, network.getOffers(bread, tallies(bread,
+				guards[33], guards[7])));
+	}
+
+	/**
+	 * Either way of filtering gives the Offers whose first required item is
+	 * tallied, in catalogue order
+	 */
+	@Test
+	public void testMatchesFilteringEveryOffer() {
+		Random random = new Random(19);
+		Item[] items = new Item[30];
+		for (int i = 0; i < items.length; i++) {
+			items[i] = new Item("item" + i, new BigDecimal("1.00"));
+		}
+		List<Offer> offers = new ArrayList<Offer>();
+		for (int i = 0; i < 400; i++) {
+			Item[] requiredItems = new Item[random.nextInt(3)];
+			for (int j = 0; j < requiredItems.length; j++) {
+				requiredItems[j] = items[random.nextInt(items.length)];
+			}
+			offers.add(createOffer("offer" + i,
+					items[random.nextInt(items.length)], requiredItems));
+		}
+		OfferNetwork network = createNetwork(offers);
+
+		for (int basket = 0; basket < 500; basket++) {
+			Map<Item, Integer> itemTallies = new HashMap<Item, Integer>();
+			int lines = random.nextInt(items.length);
+			for (int i = 0; i < lines; i++) {
+				itemTallies.put(items[random.nextInt(items.length)], 1);
+			}
+			for (Item item : items) {
+				assertEquals("basket " + basket, OfferNetwork.filterOffers(
+						network.getOffers(item), itemTallies), network
+						.getOffers(item, itemTallies));
+			}
+		}
+	}
+
+	@Test
+	public void testEqualItem() {
+		PercentageOffer breadOffer = createOffer("breadOffer", bread, soup);
+		OfferNetwork network = createNetwork(Arrays
+				.<Offer> asList(breadOffer));
+
+		Item equalBread = new Item("bread", new BigDecimal("0.80"));
+		Item equalSoup = new Item("soup", new BigDecimal("0.65"));
+		assertEquals(Arrays.asList(breadOffer), network.getOffers(equalBread));
+		assertEquals(Arrays.asList(breadOffer),
+				network.getOffers(equalBread, tallies(equalSoup)));
+	}
+
+	@Test
+	public void testNullArguments() {
+		OfferNetwork network = createNetwork(Arrays.<Offer> asList(
+				createOffer("breadOffer", bread, soup)));
+		try {
+			network.getOffers(null, tallies());
+			fail();
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+		try {
+			network.getOffers(bread, null);
+			fail();
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+}
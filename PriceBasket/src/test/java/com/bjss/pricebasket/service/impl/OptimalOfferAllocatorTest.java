@@ -0,0 +1,415 @@
+package com.bjss.pricebasket.service.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.bjss.pricebasket.catalogue.CatalogueOrdinals;
+import com.bjss.pricebasket.data.Basket;
+import com.bjss.pricebasket.data.BasketTotals;
+import com.bjss.pricebasket.data.Item;
+import com.bjss.pricebasket.data.Offer;
+import com.bjss.pricebasket.data.PercentageOffer;
+import com.bjss.pricebasket.data.PricingContext;
+import com.bjss.pricebasket.service.ItemService;
+
+public class OptimalOfferAllocatorTest {
+
+	private ItemServiceImpl itemService;
+	private OptimalOfferAllocator allocator;
+	private GreedyOfferAllocator greedyAllocator;
+	private Item soup;
+	private Item bread;
+	private Item cheese;
+	private Item milk;
+
+	@Before
+	public void setUp() {
+		itemService = new ItemServiceImpl();
+		allocator = new OptimalOfferAllocator();
+		greedyAllocator = new GreedyOfferAllocator();
+		soup = addItem("soup", "0.65");
+		bread = addItem("bread", "0.80");
+		cheese = addItem("cheese", "3.00");
+		milk = addItem("milk", "1.30");
+	}
+
+	/**
+	 * Met first, the bread offer takes the soup the larger cheese offer needs
+	 */
+	@Test
+	public void testCompetingOffersTakeLargestDiscount() {
+		addOffer("breadOffer", bread, "0.5", soup, 2);
+		PercentageOffer cheeseOffer = addOffer("cheeseOffer", cheese, "0.2",
+				soup, 2);
+		Basket basket = createBasket(soup, 2, bread, 1, cheese, 1);
+
+		Map<Item, Integer> itemTallies = createTallies(basket);
+		Map<Offer, Integer> applications = allocator.allocate(basket,
+				itemTallies, pinnedContext());
+
+		assertEquals(Collections.singletonMap(cheeseOffer, 1), applications);
+		assertEquals(Integer.valueOf(0), itemTallies.get(soup));
+		assertEquals(new BigDecimal("0.400"), discount(greedyAllocator.allocate(
+				basket, createTallies(basket), pinnedContext())));
+	}
+
+	/**
+	 * A catalogue that is not held on the heap may return new instances of
+	 * its offers from every lookup
+	 */
+	@Test
+	public void testOffersDecodedOnEveryLookup() {
+		addOffer("breadOffer", bread, "0.5", soup, 2);
+		PercentageOffer cheeseOffer = addOffer("cheeseOffer", cheese, "0.2",
+				soup, 2);
+		PercentageOffer milkOffer = addOffer("milkOffer", milk, "0.1", null, 0);
+		Basket basket = createBasket(soup, 2, bread, 1, cheese, 1, milk, 1);
+
+		Map<Item, Integer> itemTallies = createTallies(basket);
+		Map<Offer, Integer> applications = allocator.allocate(basket,
+				itemTallies, decodingContext());
+
+		Map<Offer, Integer> expected = new LinkedHashMap<Offer, Integer>();
+		expected.put(cheeseOffer, 1);
+		expected.put(milkOffer, 1);
+		assertEquals(expected, applications);
+		assertEquals(Integer.valueOf(0), itemTallies.get(soup));
+	}
+
+	@Test
+	public void testBasketServiceUsesAllocator() {
+		addOffer("breadOffer", bread, "0.5", soup, 2);
+		PercentageOffer cheeseOffer = addOffer("cheeseOffer", cheese, "0.2",
+				soup, 2);
+		BasketServiceImpl basketService = new BasketServiceImpl();
+		basketService.itemService = itemService;
+		basketService.setOfferAllocator(allocator);
+
+		BasketTotals totals = basketService.calculateBasketTotals(createBasket(
+				soup, 2, bread, 1, cheese, 1));
+
+		assertEquals(1, totals.getOfferTotals().size());
+		assertEquals(new BigDecimal("0.600"), totals.getOfferTotals().get(
+				cheeseOffer));
+		assertEquals(new BigDecimal("4.500"), totals.getTotal());
+	}
+
+	@Test
+	public void testSharesRequiredItemsAcrossUnits() {
+		// 5 soup: 3 bread offers use 3, leaving 2 for a cheese offer, which
+		// beats 1 bread and 2 cheese
+		PercentageOffer breadOffer = addOffer("breadOffer", bread, "0.5",
+				soup, 1);
+		PercentageOffer cheeseOffer = addOffer("cheeseOffer", cheese, "0.2",
+				soup, 2);
+		Basket basket = createBasket(soup, 5, bread, 3, cheese, 2);
+
+		Map<Offer, Integer> applications = allocator.allocate(basket,
+				createTallies(basket), pinnedContext());
+
+		assertEquals(Integer.valueOf(3), applications.get(breadOffer));
+		assertEquals(Integer.valueOf(1), applications.get(cheeseOffer));
+	}
+
+	@Test
+	public void testKeepsGreedyAllocationWhenNoBetter() {
+		PercentageOffer breadOffer = addOffer("breadOffer", bread, "0.5",
+				soup, 2);
+		addOffer("milkOffer", milk, "0.1", soup, 2);
+		PercentageOffer cheeseOffer = addOffer("cheeseOffer", cheese, "0.1",
+				null, 0);
+		Basket basket = createBasket(soup, 2, bread, 1, milk, 1, cheese, 2);
+
+		Map<Offer, Integer> expected = new LinkedHashMap<Offer, Integer>();
+		expected.put(breadOffer, 1);
+		expected.put(cheeseOffer, 2);
+		assertEquals(expected, allocator.allocate(basket,
+				createTallies(basket), pinnedContext()));
+	}
+
+	@Test
+	public void testExpiredOfferIsNotAllocated() {
+		PercentageOffer breadOffer = addOffer("breadOffer", bread, "0.5",
+				soup, 2);
+		PercentageOffer cheeseOffer = addOffer("cheeseOffer", cheese, "0.2",
+				soup, 2);
+		Calendar lastWeek = Calendar.getInstance();
+		lastWeek.add(Calendar.DATE, -7);
+		cheeseOffer.setExpiryDate(lastWeek.getTime());
+		itemService.buildOfferIndex();
+		Basket basket = createBasket(soup, 2, bread, 1, cheese, 1);
+
+		assertEquals(Collections.singletonMap(breadOffer, 1),
+				allocator.allocate(basket, createTallies(basket),
+						pinnedContext()));
+	}
+
+	@Test
+	public void testNoTimeBudgetKeepsGreedyAllocation() {
+		PercentageOffer breadOffer = addOffer("breadOffer", bread, "0.5",
+				soup, 2);
+		addOffer("cheeseOffer", cheese, "0.2", soup, 2);
+		allocator.setTimeBudgetMicros(0);
+		Basket basket = createBasket(soup, 2, bread, 1, cheese, 1);
+
+		assertEquals(Collections.singletonMap(breadOffer, 1),
+				allocator.allocate(basket, createTallies(basket),
+						pinnedContext()));
+	}
+
+	@Test
+	public void testNegativeTimeBudget() {
+		try {
+			allocator.setTimeBudgetMicros(-1);
+			fail();
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testUnpinnedContext() {
+		try {
+			allocator.allocate(new Basket(), new HashMap<Item, Integer>(),
+					PricingContext.now(Locale.UK));
+			fail();
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	/**
+	 * Many offers competing for one required item are searched within the
+	 * time budget, and never give less than the greedy allocation
+	 */
+	@Test
+	public void testLargeOverlapIsBounded() {
+		Basket basket = new Basket();
+		basket.addItem(soup, 1000);
+		for (int i = 0; i < 40; i++) {
+			Item item = addItem("item" + i, BigDecimal.valueOf(100 + i * 7, 2)
+					.toString());
+			addOffer("offer" + i, item, "0." + (1 + i % 9), soup, 1 + i % 7);
+			basket.addItem(item, 50);
+		}
+		allocator.setTimeBudgetMicros(2000);
+
+		long start = System.nanoTime();
+		Map<Offer, Integer> applications = allocator.allocate(basket,
+				createTallies(basket), pinnedContext());
+		long elapsedMillis = (System.nanoTime() - start) / 1000000;
+
+		assertTrue("took " + elapsedMillis + "ms", elapsedMillis < 1000);
+		assertTrue(discount(applications).compareTo(
+				discount(greedyAllocator.allocate(basket,
+						createTallies(basket), pinnedContext()))) >= 0);
+	}
+
+	/**
+	 * Compares the allocation with every feasible allocation of small random
+	 * baskets
+	 */
+	@Test
+	public void testMatchesExhaustiveSearch() {
+		Item[] targets = new Item[5];
+		for (int i = 0; i < targets.length; i++) {
+			targets[i] = addItem("target" + i, BigDecimal.valueOf(50 + i * 45,
+					2).toString());
+		}
+		Item[] required = { soup, bread, milk };
+		Random random = new Random(17);
+		for (int run = 0; run < 300; run++) {
+			itemService = new ItemServiceImpl();
+			for (Item target : targets) {
+				itemService.items.put(target.getId(), target);
+			}
+			for (int i = 0; i < 2 + random.nextInt(5); i++) {
+				Map<Item, Integer> requiredItems = new LinkedHashMap<Item, Integer>();
+				requiredItems.put(required[random.nextInt(3)],
+						1 + random.nextInt(3));
+				if (random.nextBoolean()) {
+					requiredItems.put(required[random.nextInt(3)],
+							1 + random.nextInt(2));
+				}
+				PercentageOffer offer = new PercentageOffer();
+				offer.setId("offer" + i);
+				offer.setItem(targets[random.nextInt(targets.length)]);
+				offer.setDiscount(BigDecimal.valueOf(1 + random.nextInt(9), 1));
+				offer.setRequiredItems(requiredItems);
+				itemService.offers.put(offer.getId(), offer);
+			}
+			itemService.buildOfferIndex();
+
+			Basket basket = new Basket();
+			for (Item item : required) {
+				int quantity = random.nextInt(7);
+				if (quantity > 0) {
+					basket.addItem(item, quantity);
+				}
+			}
+			for (Item target : targets) {
+				int quantity = random.nextInt(4);
+				if (quantity > 0) {
+					basket.addItem(target, quantity);
+				}
+			}
+
+			Map<Item, Integer> itemTallies = createTallies(basket);
+			BigDecimal optimal = discount(allocator.allocate(basket,
+					itemTallies, pinnedContext()));
+			for (Integer tally : itemTallies.values()) {
+				assertTrue("run " + run, tally >= 0);
+			}
+			BigDecimal best = bestDiscount(basket);
+			assertEquals("run " + run, 0, best.compareTo(optimal));
+		}
+	}
+
+	private BigDecimal bestDiscount(Basket basket) {
+		Map<Offer, Integer> maxApplications = new LinkedHashMap<Offer, Integer>();
+		for (Entry<Item, Integer> line : basket.getLines().entrySet()) {
+			for (Offer offer : itemService.getOffers(line.getKey())) {
+				maxApplications.put(offer, line.getValue());
+			}
+		}
+		Offer[] offers = maxApplications.keySet().toArray(
+				new Offer[maxApplications.size()]);
+		return bestDiscount(offers, 0, maxApplications, createTallies(basket));
+	}
+
+	private BigDecimal bestDiscount(Offer[] offers, int next,
+			Map<Offer, Integer> maxApplications, Map<Item, Integer> tallies) {
+		if (next == offers.length) {
+			return BigDecimal.ZERO;
+		}
+		Offer offer = offers[next];
+		BigDecimal best = BigDecimal.ZERO;
+		for (int count = 0; count <= maxApplications.get(offer); count++) {
+			Map<Item, Integer> remaining = new HashMap<Item, Integer>(tallies);
+			boolean feasible = true;
+			for (Entry<Item, Integer> required : offer.getRequiredItems()
+					.entrySet()) {
+				Integer tally = remaining.get(required.getKey());
+				int left = (tally == null ? 0 : tally) - required.getValue()
+						* count;
+				feasible &= left >= 0;
+				remaining.put(required.getKey(), left);
+			}
+			if (!feasible) {
+				break;
+			}
+			BigDecimal discount = offer.calculateDiscount(count).add(
+					bestDiscount(offers, next + 1, maxApplications, remaining));
+			if (discount.compareTo(best) > 0) {
+				best = discount;
+			}
+		}
+		return best;
+	}
+
+	private Item addItem(String id, String price) {
+		Item item = new Item(id, new BigDecimal(price));
+		itemService.items.put(id, item);
+		return item;
+	}
+
+	private PercentageOffer addOffer(String id, Item item, String discount,
+			Item requiredItem, int quantity) {
+		PercentageOffer offer = new PercentageOffer();
+		offer.setId(id);
+		offer.setItem(item);
+		offer.setDiscount(new BigDecimal(discount));
+		if (requiredItem != null) {
+			Map<Item, Integer> requiredItems = new HashMap<Item, Integer>();
+			requiredItems.put(requiredItem, quantity);
+			offer.setRequiredItems(requiredItems);
+		}
+		itemService.offers.put(id, offer);
+		itemService.buildOfferIndex();
+		return offer;
+	}
+
+	private Basket createBasket(Object... itemQuantities) {
+		Basket basket = new Basket();
+		for (int i = 0; i < itemQuantities.length; i += 2) {
+			basket.addItem((Item) itemQuantities[i],
+					(Integer) itemQuantities[i + 1]);
+		}
+		return basket;
+	}
+
+	private Map<Item, Integer> createTallies(Basket basket) {
+		return new HashMap<Item, Integer>(basket.getLines());
+	}
+
+	private PricingContext pinnedContext() {
+		return PricingContext.now(Locale.UK).pinCatalogue(itemService);
+	}
+
+	/**
+	 * Pinned to a catalogue that copies the offers of the item service,
+	 * without their ordinals, on every lookup
+	 */
+	private PricingContext decodingContext() {
+		ItemService decoding = new ItemServiceImpl() {
+			@Override
+			public List<Offer> getOffers(Item item) {
+				List<Offer> offers = new ArrayList<Offer>();
+				for (Offer offer : itemService.getOffers(item)) {
+					PercentageOffer original = (PercentageOffer) offer;
+					PercentageOffer copy = new PercentageOffer();
+					copy.setId(original.getId());
+					copy.setItem(original.getItem());
+					copy.setDiscount(original.getDiscount());
+					copy.setRequiredItems(original.getRequiredItems());
+					copy.setExpiryDate(original.getExpiryDate());
+					offers.add(copy);
+				}
+				return offers;
+			}
+
+			@Override
+			public List<Offer> getOffers(Item item,
+					Map<Item, Integer> itemTallies) {
+				return OfferNetwork.filterOffers(getOffers(item), itemTallies);
+			}
+
+			@Override
+			public CatalogueOrdinals getOrdinals() {
+				return null;
+			}
+
+			@Override
+			public ItemService getSnapshot() {
+				return this;
+			}
+		};
+		return PricingContext.now(Locale.UK).pinCatalogue(decoding);
+	}
+
+	private static BigDecimal discount(Map<Offer, Integer> applications) {
+		BigDecimal discount = BigDecimal.ZERO;
+		for (Entry<Offer, Integer> entry : applications.entrySet()) {
+			discount = discount.add(entry.getKey().calculateDiscount(
+					entry.getValue()));
+		}
+		return discount;
+	}
+
+}
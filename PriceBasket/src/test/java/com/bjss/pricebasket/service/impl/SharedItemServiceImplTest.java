@@ -0,0 +1,107 @@
+package com.bjss.pricebasket.service.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.bjss.pricebasket.catalogue.CatalogueChangedException;
+import com.bjss.pricebasket.catalogue.CatalogueCompiler;
+import com.bjss.pricebasket.catalogue.SharedCatalogueWriter;
+import com.bjss.pricebasket.data.Item;
+import com.bjss.pricebasket.data.Offer;
+import com.bjss.pricebasket.service.ItemService;
+import com.bjss.pricebasket.service.mock.MockMsgService;
+
+public class SharedItemServiceImplTest {
+
+	@Test
+	public void testOpen() throws IOException {
+		SharedItemServiceImpl itemService = new SharedItemServiceImpl();
+		itemService.msgService = new MockMsgService();
+		itemService.setCatalogueFile(publishCatalogue(9));
+
+		itemService.open();
+
+		assertEquals(9, itemService.getCatalogueVersion());
+		Item bread = itemService.getItem("Bread");
+		assertEquals("bread", bread.getId());
+		assertNull(itemService.getItem("cheese"));
+		List<Offer> offers = itemService.getOffers(bread);
+		assertEquals(1, offers.size());
+		assertEquals("breadOffer", offers.get(0).getId());
+		assertEquals(0, itemService.getOffers(itemService.getItem("soup"))
+				.size());
+
+		// the bread offer requires soup
+		Map<Item, Integer> itemTallies = new HashMap<Item, Integer>();
+		itemTallies.put(bread, 1);
+		assertTrue(itemService.getOffers(bread, itemTallies).isEmpty());
+		itemTallies.put(itemService.getItem("soup"), 1);
+		assertEquals(offers, itemService.getOffers(bread, itemTallies));
+	}
+
+	@Test
+	public void testSnapshotIsPinned() throws IOException {
+		File file = publishCatalogue(1);
+		SharedItemServiceImpl itemService = new SharedItemServiceImpl();
+		itemService.msgService = new MockMsgService();
+		itemService.setCatalogueFile(file);
+		itemService.open();
+
+		ItemService snapshot = itemService.getSnapshot();
+		Item bread = snapshot.getItem("bread");
+		assertEquals(1, snapshot.getCatalogueVersion());
+		assertEquals(1, snapshot.getOffers(bread).size());
+
+		SharedCatalogueWriter writer = new SharedCatalogueWriter(file, 4096);
+		try {
+			writer.publish(new CatalogueCompiler().load(
+					"classpath:/META-INF/basket-config.xml", 2));
+		} finally {
+			writer.close();
+		}
+
+		assertEquals(1, snapshot.getCatalogueVersion());
+		try {
+			snapshot.getOffers(bread);
+			fail();
+		} catch (CatalogueChangedException e) {
+			// expected
+		}
+		assertEquals(2, itemService.getSnapshot().getCatalogueVersion());
+		assertEquals(1, itemService.getSnapshot().getOffers(bread).size());
+	}
+
+	@Test
+	public void testOpenWithoutCatalogueFile() throws IOException {
+		try {
+			new SharedItemServiceImpl().open();
+			fail();
+		} catch (IllegalStateException e) {
+			// expected
+		}
+	}
+
+	static File publishCatalogue(long version) throws IOException {
+		File file = File.createTempFile("catalogue", ".shared");
+		file.deleteOnExit();
+		SharedCatalogueWriter writer = new SharedCatalogueWriter(file, 4096);
+		try {
+			writer.publish(new CatalogueCompiler().load(
+					"classpath:/META-INF/basket-config.xml", version));
+		} finally {
+			writer.close();
+		}
+		return file;
+	}
+
+}
@@ -0,0 +1,121 @@
+package com.bjss.pricebasket.service.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.bjss.pricebasket.catalogue.Catalogue;
+import com.bjss.pricebasket.catalogue.CatalogueCompiler;
+import com.bjss.pricebasket.catalogue.CatalogueSnapshotWriter;
+import com.bjss.pricebasket.data.Item;
+import com.bjss.pricebasket.data.Offer;
+import com.bjss.pricebasket.service.ItemService;
+import com.bjss.pricebasket.service.mock.MockMsgService;
+
+public class SnapshotItemServiceImplTest {
+
+	@Test
+	public void testLoad() throws IOException {
+		File snapshotFile = compileSnapshot(11);
+		SnapshotItemServiceImpl itemService = new SnapshotItemServiceImpl();
+		itemService.msgService = new MockMsgService();
+		itemService.setSnapshotFile(snapshotFile);
+
+		itemService.load();
+
+		assertEquals(11, itemService.getCatalogueVersion());
+		Item bread = itemService.getItem("Bread");
+		assertEquals("bread", bread.getId());
+		assertNull(itemService.getItem("cheese"));
+		List<Offer> offers = itemService.getOffers(bread);
+		assertEquals(1, offers.size());
+		assertEquals("breadOffer", offers.get(0).getId());
+		assertEquals(1, itemService.getOffers(itemService.getItem("apple"))
+				.size());
+		assertEquals(0, itemService.getOffers(itemService.getItem("soup"))
+				.size());
+	}
+
+	@Test
+	public void testReloadsChangedSnapshot() throws Exception {
+		File snapshotFile = compileSnapshot(11);
+		SnapshotItemServiceImpl itemService = new SnapshotItemServiceImpl();
+		itemService.msgService = new MockMsgService();
+		itemService.setSnapshotFile(snapshotFile);
+		itemService.setReloadMillis(10);
+		try {
+			itemService.load();
+			ItemService snapshot = itemService.getSnapshot();
+
+			Files.copy(compileSnapshot(12).toPath(), snapshotFile.toPath(),
+					StandardCopyOption.REPLACE_EXISTING);
+			snapshotFile.setLastModified(snapshotFile.lastModified() + 2000);
+
+			long deadline = System.currentTimeMillis() + 5000;
+			while (itemService.getCatalogueVersion() != 12
+					&& System.currentTimeMillis() < deadline) {
+				Thread.sleep(10);
+			}
+			assertEquals(12, itemService.getCatalogueVersion());
+			assertEquals(11, snapshot.getCatalogueVersion());
+		} finally {
+			itemService.close();
+		}
+	}
+
+	@Test
+	public void testWatchesOnlyOnceLoaded() throws Exception {
+		File snapshotFile = File.createTempFile("catalogue", ".snapshot");
+		snapshotFile.deleteOnExit();
+		SnapshotItemServiceImpl itemService = new SnapshotItemServiceImpl();
+		itemService.msgService = new MockMsgService();
+		itemService.setSnapshotFile(snapshotFile);
+		itemService.setReloadMillis(10);
+		try {
+			try {
+				itemService.load();
+				fail();
+			} catch (IllegalArgumentException e) {
+				// expected, the file is empty
+			}
+
+			Files.copy(compileSnapshot(12).toPath(), snapshotFile.toPath(),
+					StandardCopyOption.REPLACE_EXISTING);
+			snapshotFile.setLastModified(snapshotFile.lastModified() + 2000);
+			Thread.sleep(100);
+
+			// no watcher was started for the load that failed
+			assertEquals(0, itemService.getCatalogueVersion());
+		} finally {
+			itemService.close();
+		}
+	}
+
+	@Test
+	public void testLoadWithoutSnapshotFile() throws IOException {
+		try {
+			new SnapshotItemServiceImpl().load();
+			fail();
+		} catch (IllegalStateException e) {
+			// expected
+		}
+	}
+
+	static File compileSnapshot(long version) throws IOException {
+		File snapshotFile = File.createTempFile("catalogue", ".snapshot");
+		snapshotFile.deleteOnExit();
+		Catalogue catalogue = new CatalogueCompiler().load(
+				"classpath:/META-INF/basket-config.xml", version);
+		new CatalogueSnapshotWriter().write(catalogue, snapshotFile);
+		return snapshotFile;
+	}
+
+}
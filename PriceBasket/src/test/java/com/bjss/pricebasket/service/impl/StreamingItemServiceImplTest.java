@@ -0,0 +1,74 @@
+package com.bjss.pricebasket.service.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.bjss.pricebasket.data.Item;
+import com.bjss.pricebasket.data.Offer;
+import com.bjss.pricebasket.service.mock.MockMsgService;
+
+public class StreamingItemServiceImplTest {
+
+	@Test
+	public void testLoad() throws IOException {
+		StreamingItemServiceImpl itemService = new StreamingItemServiceImpl();
+		itemService.msgService = new MockMsgService();
+		itemService.setCatalogueLocation("classpath:/META-INF/basket-config.xml");
+
+		itemService.load();
+
+		Item bread = itemService.getItem("Bread");
+		assertEquals("bread", bread.getId());
+		assertNull(itemService.getItem("cheese"));
+		List<Offer> offers = itemService.getOffers(bread);
+		assertEquals(1, offers.size());
+		assertEquals("breadOffer", offers.get(0).getId());
+		assertEquals(1, itemService.getOffers(itemService.getItem("apple"))
+				.size());
+		assertEquals(0, itemService.getOffers(itemService.getItem("soup"))
+				.size());
+	}
+
+	@Test
+	public void testLoadWithItemsCsv() throws IOException {
+		File itemsFile = File.createTempFile("items", ".csv");
+		itemsFile.deleteOnExit();
+		OutputStream out = new FileOutputStream(itemsFile);
+		try {
+			out.write("id,price\ncheese,2.50\n".getBytes("UTF-8"));
+		} finally {
+			out.close();
+		}
+		StreamingItemServiceImpl itemService = new StreamingItemServiceImpl();
+		itemService.msgService = new MockMsgService();
+		itemService.setCatalogueLocation("classpath:/META-INF/basket-config.xml");
+		itemService.setItemsLocation(itemsFile.toURI().toString());
+
+		itemService.load();
+
+		assertEquals(new Item("cheese", new BigDecimal("2.50")),
+				itemService.getItem("cheese"));
+		assertEquals("apple", itemService.getItem("apple").getId());
+	}
+
+	@Test
+	public void testLoadWithoutCatalogueLocation() throws IOException {
+		try {
+			new StreamingItemServiceImpl().load();
+			fail();
+		} catch (IllegalStateException e) {
+			// expected
+		}
+	}
+
+}
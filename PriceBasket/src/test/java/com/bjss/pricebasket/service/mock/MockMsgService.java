@@ -1,6 +1,8 @@
 package com.bjss.pricebasket.service.mock;
 
+import java.io.IOException;
 import java.util.HashMap;
+import java.util.Locale;
 
 import com.bjss.pricebasket.service.MsgService;
 
@@ -17,6 +19,20 @@ public class MockMsgService implements MsgService {
 		return messageValue;
 	}
 
+	/**
+	 * Messages are not localised, so the locale is ignored
+	 */
+	@Override
+	public String getMessage(Locale locale, String key, Object... params) {
+		return getMessage(key, params);
+	}
+
+	@Override
+	public void appendMessage(Appendable out, Locale locale, String key,
+			Object... params) throws IOException {
+		out.append(getMessage(key, params));
+	}
+
 	/**
 	 * For simplicity, unlike the real resource bundle, parameters in the key
 	 * are specified with %s instead of {0}, {1}, etc.
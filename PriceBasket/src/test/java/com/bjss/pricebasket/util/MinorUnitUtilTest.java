@@ -0,0 +1,44 @@
+package com.bjss.pricebasket.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.math.BigDecimal;
+
+import org.junit.Test;
+
+public class MinorUnitUtilTest {
+
+	@Test
+	public void testToMinorUnits() {
+		assertEquals(540, MinorUnitUtil.toMinorUnits(new BigDecimal("5.4")));
+		assertEquals(0, MinorUnitUtil.toMinorUnits(BigDecimal.ZERO));
+		assertEquals(-40, MinorUnitUtil.toMinorUnits(new BigDecimal("-0.40")));
+	}
+
+	@Test
+	public void testToMinorUnitsRoundsAsReceipt() {
+		// pence are rounded half up
+		assertEquals(7, MinorUnitUtil.toMinorUnits(new BigDecimal("0.065")));
+		assertEquals(8, MinorUnitUtil.toMinorUnits(new BigDecimal("0.075")));
+		// pounds are rounded half even, as by the currency format
+		assertEquals(106, MinorUnitUtil.toMinorUnits(new BigDecimal("1.065")));
+		assertEquals(108, MinorUnitUtil.toMinorUnits(new BigDecimal("1.075")));
+	}
+
+	@Test
+	public void testToMinorUnitsNull() {
+		try {
+			MinorUnitUtil.toMinorUnits(null);
+			fail();
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	@Test(expected = ArithmeticException.class)
+	public void testToMinorUnitsOverflow() {
+		MinorUnitUtil.toMinorUnits(new BigDecimal(Long.MAX_VALUE));
+	}
+
+}
@@ -0,0 +1,113 @@
+package com.bjss.pricebasket.benchmark;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.math.BigDecimal;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.bjss.pricebasket.service.BasketPrinterService;
+import com.bjss.pricebasket.service.BasketTotalsWriter;
+import com.bjss.pricebasket.service.OutputFormat;
+
+/**
+ * Formats the currency values of the {@link PricingState} basket totals, and
+ * writes the full receipt through the {@link BasketPrinterService}, both one
+ * receipt per call and through a {@link BasketTotalsWriter} kept open across
+ * invocations as in batch mode. writeFormat compares the receipt with the
+ * machine readable {@link OutputFormat}s.
+ *
+ * @author Leon Danser
+ *
+ */
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BasketPrinterServiceBenchmark {
+
+	@State(Scope.Thread)
+	public static class Printer {
+		FormattingPrinterService formattingPrinterService;
+		BasketPrinterService basketPrinterService;
+		PrintStream out;
+		BasketTotalsWriter writer;
+
+		@Setup(Level.Trial)
+		public void setUp(PricingState state) {
+			formattingPrinterService = state.context
+					.getBean(FormattingPrinterService.class);
+			basketPrinterService = state.context
+					.getBean(BasketPrinterService.class);
+			out = new PrintStream(new NullOutputStream());
+			writer = basketPrinterService.openWriter(out);
+		}
+
+		@TearDown(Level.Trial)
+		public void tearDown() throws IOException {
+			writer.flush();
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class FormatWriter {
+		@Param({ "RECEIPT", "CSV", "JSON_LINES", "BINARY" })
+		OutputFormat format;
+		BasketTotalsWriter writer;
+
+		@Setup(Level.Trial)
+		public void setUp(PricingState state) {
+			writer = state.context.getBean(BasketPrinterService.class)
+					.openWriter(new NullOutputStream(), format);
+		}
+
+		@TearDown(Level.Trial)
+		public void tearDown() throws IOException {
+			writer.flush();
+		}
+	}
+
+	@Benchmark
+	public void formatCurrency(PricingState state, Printer printer,
+			Blackhole blackhole) {
+		blackhole.consume(printer.formattingPrinterService.format(
+				state.basketTotals.getSubTotal(), state.pricingContext));
+		for (BigDecimal offerTotal : state.basketTotals.getOfferTotals()
+				.values()) {
+			blackhole.consume(printer.formattingPrinterService
+					.format(offerTotal, state.pricingContext));
+		}
+		blackhole.consume(printer.formattingPrinterService.format(
+				state.basketTotals.getTotal(), state.pricingContext));
+	}
+
+	@Benchmark
+	public void write(PricingState state, Printer printer) {
+		printer.basketPrinterService.write(printer.out, state.basketTotals);
+	}
+
+	@Benchmark
+	public void writeBuffered(PricingState state, Printer printer)
+			throws IOException {
+		printer.writer.write(state.basketTotals);
+	}
+
+	@Benchmark
+	public void writeFormat(PricingState state, FormatWriter formatWriter)
+			throws IOException {
+		formatWriter.writer.write(state.basketTotals);
+	}
+
+}
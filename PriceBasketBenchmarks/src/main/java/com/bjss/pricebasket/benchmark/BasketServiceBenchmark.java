@@ -0,0 +1,66 @@
+package com.bjss.pricebasket.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.bjss.pricebasket.data.BasketTotals;
+import com.bjss.pricebasket.service.impl.BasketServiceImpl;
+import com.bjss.pricebasket.service.impl.BasketTotalsCache;
+import com.bjss.pricebasket.service.impl.MinorUnitBasketServiceImpl;
+
+/**
+ * Prices the {@link PricingState} basket with {@link BasketServiceImpl} and
+ * {@link MinorUnitBasketServiceImpl}, and with a BasketServiceImpl whose
+ * {@link BasketTotalsCache} has the totals of the basket.
+ *
+ * @author Leon Danser
+ *
+ */
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BasketServiceBenchmark {
+
+	@State(Scope.Benchmark)
+	public static class Cached {
+		BasketServiceImpl basketService;
+
+		@Setup(Level.Trial)
+		public void setUp(PricingState state) {
+			basketService = state.context.getAutowireCapableBeanFactory()
+					.createBean(BasketServiceImpl.class);
+			basketService.setBasketTotalsCache(new BasketTotalsCache());
+			basketService.calculateBasketTotals(state.basket,
+					state.pricingContext);
+		}
+	}
+
+	@Benchmark
+	public BasketTotals calculateBasketTotals(PricingState state) {
+		return state.basketService.calculateBasketTotals(state.basket,
+				state.pricingContext);
+	}
+
+	@Benchmark
+	public BasketTotals calculateBasketTotalsMinorUnits(PricingState state) {
+		return state.minorUnitBasketService
+				.calculateBasketTotals(state.basket, state.pricingContext);
+	}
+
+	@Benchmark
+	public BasketTotals calculateBasketTotalsCached(PricingState state,
+			Cached cached) {
+		return cached.basketService.calculateBasketTotals(state.basket,
+				state.pricingContext);
+	}
+
+}
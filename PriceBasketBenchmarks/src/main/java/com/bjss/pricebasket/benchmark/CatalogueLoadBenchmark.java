@@ -0,0 +1,92 @@
+package com.bjss.pricebasket.benchmark;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.bjss.pricebasket.catalogue.Catalogue;
+import com.bjss.pricebasket.catalogue.CatalogueCompiler;
+import com.bjss.pricebasket.catalogue.CatalogueSnapshotReader;
+import com.bjss.pricebasket.catalogue.CatalogueSnapshotWriter;
+import com.bjss.pricebasket.catalogue.StreamingCatalogueLoader;
+
+/**
+ * Compares the time to load a generated catalogue from XML through the Spring
+ * parsers with the time to read the same catalogue from a compiled snapshot,
+ * and to stream it from XML with the {@link StreamingCatalogueLoader}. Each
+ * is a cold load, so they are measured one at a time. Larger catalogues can
+ * be given with eg. -p catalogueSize=200000
+ *
+ * @author Leon Danser
+ *
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CatalogueLoadBenchmark {
+
+	@State(Scope.Benchmark)
+	public static class Catalogues {
+		@Param({ "10000" })
+		public int catalogueSize;
+
+		File xmlFile;
+		File snapshotFile;
+
+		@Setup(Level.Trial)
+		public void setUp() throws IOException {
+			xmlFile = PricingState.writeCatalogue(catalogueSize,
+					catalogueSize / 10);
+			snapshotFile = File.createTempFile("benchmark-catalogue",
+					".snapshot");
+			new CatalogueSnapshotWriter().write(new CatalogueCompiler().load(
+					xmlFile.getAbsolutePath(), 1), snapshotFile);
+		}
+
+		@TearDown(Level.Trial)
+		public void tearDown() {
+			xmlFile.delete();
+			snapshotFile.delete();
+		}
+	}
+
+	@Benchmark
+	public Catalogue loadXml(Catalogues catalogues) {
+		return new CatalogueCompiler().load(
+				catalogues.xmlFile.getAbsolutePath(), 1);
+	}
+
+	@Benchmark
+	public Catalogue loadSnapshot(Catalogues catalogues) throws IOException {
+		return new CatalogueSnapshotReader().read(catalogues.snapshotFile,
+				null);
+	}
+
+	@Benchmark
+	public Catalogue loadStreaming(Catalogues catalogues) throws IOException {
+		StreamingCatalogueLoader loader = new StreamingCatalogueLoader(null);
+		InputStream in = new FileInputStream(catalogues.xmlFile);
+		try {
+			loader.readXml(in, catalogues.xmlFile.getPath());
+		} finally {
+			in.close();
+		}
+		return loader.build(1);
+	}
+
+}
@@ -0,0 +1,22 @@
+package com.bjss.pricebasket.benchmark;
+
+import java.math.BigDecimal;
+
+import com.bjss.pricebasket.data.PricingContext;
+import com.bjss.pricebasket.service.impl.BasketPrinterServiceImpl;
+
+/**
+ * Exposes {@link BasketPrinterServiceImpl#formatCurrency(BigDecimal, PricingContext)} to the
+ * benchmarks. Declared in benchmarkContext.xml so that it is injected like the
+ * real printer.
+ *
+ * @author Leon Danser
+ *
+ */
+public class FormattingPrinterService extends BasketPrinterServiceImpl {
+
+	public String format(BigDecimal value, PricingContext context) {
+		return formatCurrency(value, context);
+	}
+
+}
@@ -0,0 +1,146 @@
+package com.bjss.pricebasket.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.Collections;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.context.support.StaticApplicationContext;
+
+import com.bjss.pricebasket.catalogue.CatalogueCompiler;
+import com.bjss.pricebasket.catalogue.SharedCatalogue;
+import com.bjss.pricebasket.catalogue.SharedCatalogueWriter;
+import com.bjss.pricebasket.data.Item;
+import com.bjss.pricebasket.service.ItemService;
+import com.bjss.pricebasket.service.MsgService;
+import com.bjss.pricebasket.service.impl.ItemServiceImpl;
+
+/**
+ * Looks up every item name of the {@link PricingState} basket, and the offers
+ * for every basket line, through the {@link ItemService}, as
+ * PriceBasketRunner and the BasketService do. The shared benchmarks look up
+ * the same catalogue in a memory-mapped {@link SharedCatalogue}.
+ *
+ * The barcode benchmark looks up a scanned EAN-13 barcode for every line of
+ * the basket, as a till does, in a catalogue of the same size whose items
+ * each have one.
+ *
+ * @author Leon Danser
+ *
+ */
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ItemServiceBenchmark {
+
+	@State(Scope.Benchmark)
+	public static class Shared {
+		File xmlFile;
+		File sharedFile;
+		SharedCatalogue catalogue;
+
+		@Setup(Level.Trial)
+		public void setUp(PricingState state) throws IOException {
+			xmlFile = PricingState.writeCatalogue(state.catalogueSize,
+					state.offerCount);
+			sharedFile = File.createTempFile("benchmark-catalogue", ".shared");
+			sharedFile.delete();
+			SharedCatalogueWriter writer = new SharedCatalogueWriter(
+					sharedFile, 64 * state.catalogueSize + 64 * 1024);
+			try {
+				writer.publish(new CatalogueCompiler().load(
+						xmlFile.getAbsolutePath(), 1));
+			} finally {
+				writer.close();
+			}
+			catalogue = new SharedCatalogue(sharedFile,
+					state.context.getBean(MsgService.class));
+		}
+
+		@TearDown(Level.Trial)
+		public void tearDown() {
+			xmlFile.delete();
+			sharedFile.delete();
+		}
+	}
+
+	@State(Scope.Benchmark)
+	public static class Barcodes {
+		ItemServiceImpl itemService;
+		String[] scanned;
+
+		@Setup(Level.Trial)
+		public void setUp(PricingState state) {
+			StaticApplicationContext context = new StaticApplicationContext();
+			for (int i = 0; i < state.catalogueSize; i++) {
+				Item item = new Item("Item" + i, BigDecimal.valueOf(50 + i % 100,
+						2));
+				item.setBarcodes(Collections.singletonList(barcode(i)));
+				context.getBeanFactory().registerSingleton(item.getId(), item);
+			}
+			context.refresh();
+			itemService = new ItemServiceImpl();
+			itemService.setApplicationContext(context);
+			scanned = new String[state.itemNames.length];
+			for (int i = 0; i < scanned.length; i++) {
+				scanned[i] = barcode(Integer.parseInt(state.itemNames[i]
+						.substring("Item".length())));
+			}
+		}
+
+		private static String barcode(int i) {
+			return String.format("500%010d", i * 7919L % 10000000000L);
+		}
+	}
+
+	@Benchmark
+	public void getItemByBarcode(Barcodes barcodes, Blackhole blackhole) {
+		for (String barcode : barcodes.scanned) {
+			blackhole.consume(barcodes.itemService.getItem(barcode));
+		}
+	}
+
+	@Benchmark
+	public void getItem(PricingState state, Blackhole blackhole) {
+		for (String itemName : state.itemNames) {
+			blackhole.consume(state.itemService.getItem(itemName));
+		}
+	}
+
+	@Benchmark
+	public void getOffers(PricingState state, Blackhole blackhole) {
+		for (Item item : state.basket.getDistinctItems()) {
+			blackhole.consume(state.itemService.getOffers(item));
+		}
+	}
+
+	@Benchmark
+	public void getItemShared(PricingState state, Shared shared,
+			Blackhole blackhole) {
+		for (String itemName : state.itemNames) {
+			blackhole.consume(shared.catalogue.getItem(itemName));
+		}
+	}
+
+	@Benchmark
+	public void getOffersShared(PricingState state, Shared shared,
+			Blackhole blackhole) {
+		for (Item item : state.basket.getDistinctItems()) {
+			blackhole.consume(shared.catalogue.getOffers(item));
+		}
+	}
+
+}
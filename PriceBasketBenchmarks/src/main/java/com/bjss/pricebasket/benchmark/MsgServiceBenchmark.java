@@ -0,0 +1,67 @@
+package com.bjss.pricebasket.benchmark;
+
+import java.util.Locale;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.context.support.ResourceBundleMessageSource;
+
+import com.bjss.pricebasket.service.impl.CompiledMsgServiceImpl;
+
+/**
+ * Renders the messages of one receipt line, an item display name and a
+ * percentage offer message, through the ResourceBundleMessageSource used by
+ * MsgServiceImpl and through {@link CompiledMsgServiceImpl}.
+ *
+ * @author Leon Danser
+ *
+ */
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MsgServiceBenchmark {
+
+	private static final Object[] NO_PARAMS = {};
+
+	@State(Scope.Benchmark)
+	public static class Messages {
+		ResourceBundleMessageSource messageSource;
+		CompiledMsgServiceImpl compiledMsgService;
+
+		@Setup(Level.Trial)
+		public void setUp() {
+			messageSource = new ResourceBundleMessageSource();
+			messageSource.setBasename("resources");
+			compiledMsgService = new CompiledMsgServiceImpl();
+			compiledMsgService.setBasename("resources");
+		}
+	}
+
+	@Benchmark
+	public void messageSource(Messages messages, Blackhole blackhole) {
+		String displayName = messages.messageSource.getMessage(
+				"item.name.apple", NO_PARAMS, Locale.UK);
+		blackhole.consume(messages.messageSource.getMessage(
+				"percentage.offer", new Object[] { displayName, "10", "10p" },
+				Locale.UK));
+	}
+
+	@Benchmark
+	public void compiledMsgService(Messages messages, Blackhole blackhole) {
+		String displayName = messages.compiledMsgService.getMessage(
+				Locale.UK, "item.name.apple");
+		blackhole.consume(messages.compiledMsgService.getMessage(Locale.UK,
+				"percentage.offer", displayName, "10", "10p"));
+	}
+
+}
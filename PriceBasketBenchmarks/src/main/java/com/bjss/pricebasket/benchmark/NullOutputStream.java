@@ -0,0 +1,22 @@
+package com.bjss.pricebasket.benchmark;
+
+import java.io.OutputStream;
+
+/**
+ * Discards everything written to it, so that printing benchmarks measure
+ * formatting rather than I/O.
+ *
+ * @author Leon Danser
+ *
+ */
+public class NullOutputStream extends OutputStream {
+
+	@Override
+	public void write(int b) {
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) {
+	}
+
+}
@@ -0,0 +1,123 @@
+package com.bjss.pricebasket.benchmark;
+
+import java.math.BigDecimal;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.support.StaticApplicationContext;
+
+import com.bjss.pricebasket.data.Basket;
+import com.bjss.pricebasket.data.Item;
+import com.bjss.pricebasket.data.Offer;
+import com.bjss.pricebasket.data.PercentageOffer;
+import com.bjss.pricebasket.data.PricingContext;
+import com.bjss.pricebasket.service.impl.GreedyOfferAllocator;
+import com.bjss.pricebasket.service.impl.ItemServiceImpl;
+import com.bjss.pricebasket.service.impl.OptimalOfferAllocator;
+
+/**
+ * Samples the latency of allocating competing {@link Offer}s with the
+ * {@link GreedyOfferAllocator} and the {@link OptimalOfferAllocator}, as the
+ * number of Offers that compete for the same required item grows.
+ *
+ * The basket has lines items, each with one Offer. The Offers are grouped
+ * overlap at a time, and the Offers of a group all require units of one
+ * shared item, of which the basket has too few for all of them. The
+ * percentiles of the optimal allocation show its worst case latency, which
+ * the time budget bounds once the search no longer completes within it.
+ *
+ * @author Leon Danser
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OfferAllocationBenchmark {
+
+	@Param({ "10", "100", "500" })
+	int lines;
+
+	@Param({ "1", "4", "16", "64" })
+	int overlap;
+
+	@Param({ "1000" })
+	long timeBudgetMicros;
+
+	private Basket basket;
+	private PricingContext pricingContext;
+	private GreedyOfferAllocator greedyAllocator;
+	private OptimalOfferAllocator optimalAllocator;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		StaticApplicationContext context = new StaticApplicationContext();
+		basket = new Basket();
+		Item shared = null;
+		for (int i = 0; i < lines; i++) {
+			if (i % overlap == 0) {
+				// enough of the shared item for about half of its offers
+				shared = register(context, new Item("shared" + i,
+						new BigDecimal("0.65")));
+				basket.addItem(shared, Math.max(1, overlap * 3 / 2));
+			}
+			Item item = register(context, new Item("item" + i, BigDecimal
+					.valueOf(50 + (i * 37) % 450, 2)));
+			basket.addItem(item, 3);
+
+			Map<Item, Integer> requiredItems = new HashMap<Item, Integer>();
+			requiredItems.put(shared, 1 + i % 3);
+			PercentageOffer offer = new PercentageOffer();
+			offer.setId("offer" + i);
+			offer.setItem(item);
+			offer.setDiscount(BigDecimal.valueOf(1 + (i * 7) % 9, 1));
+			offer.setRequiredItems(requiredItems);
+			register(context, offer);
+		}
+		context.refresh();
+
+		ItemServiceImpl itemService = new ItemServiceImpl();
+		itemService.setApplicationContext(context);
+		pricingContext = PricingContext.now(Locale.UK).pinCatalogue(
+				itemService);
+		greedyAllocator = new GreedyOfferAllocator();
+		optimalAllocator = new OptimalOfferAllocator();
+		optimalAllocator.setTimeBudgetMicros(timeBudgetMicros);
+	}
+
+	private static <T> T register(StaticApplicationContext context, T bean) {
+		String name = bean instanceof Item ? ((Item) bean).getId()
+				: ((Offer) bean).getId();
+		context.getBeanFactory().registerSingleton(name, bean);
+		return bean;
+	}
+
+	@Benchmark
+	public Map<Offer, Integer> allocateGreedy() {
+		return greedyAllocator.allocate(basket, new HashMap<Item, Integer>(
+				basket.getLines()), pricingContext);
+	}
+
+	@Benchmark
+	public Map<Offer, Integer> allocateOptimal() {
+		return optimalAllocator.allocate(basket, new HashMap<Item, Integer>(
+				basket.getLines()), pricingContext);
+	}
+
+}
@@ -0,0 +1,85 @@
+package com.bjss.pricebasket.benchmark;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.support.StaticApplicationContext;
+
+import com.bjss.pricebasket.data.Item;
+import com.bjss.pricebasket.data.Offer;
+import com.bjss.pricebasket.data.PercentageOffer;
+import com.bjss.pricebasket.service.impl.ItemServiceImpl;
+
+/**
+ * Measures {@link ItemServiceImpl#getOffers(Item)} as the number of configured
+ * {@link Offer}s grows. Each offer applies to its own {@link Item}, so a flat
+ * latency across offerCount shows the lookup does not depend on the size of
+ * the offer catalogue.
+ *
+ * @author Leon Danser
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OfferIndexBenchmark {
+
+	@Param({ "10", "100", "1000", "10000", "100000" })
+	int offerCount;
+
+	private ItemServiceImpl itemService;
+	private Item[] lookups;
+	private int next;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		StaticApplicationContext context = new StaticApplicationContext();
+		Item[] items = new Item[offerCount];
+		for (int i = 0; i < offerCount; i++) {
+			items[i] = new Item("item" + i, new BigDecimal(i % 500 + 1)
+					.movePointLeft(2));
+			context.getBeanFactory().registerSingleton(items[i].getId(),
+					items[i]);
+
+			PercentageOffer offer = new PercentageOffer();
+			offer.setId("offer" + i);
+			offer.setItem(items[i]);
+			offer.setDiscount(new BigDecimal("0.1"));
+			context.getBeanFactory().registerSingleton(offer.getId(), offer);
+		}
+		context.refresh();
+
+		itemService = new ItemServiceImpl();
+		itemService.setApplicationContext(context);
+
+		// cycle through a fixed sample of items so the lookup pattern is the
+		// same regardless of the catalogue size
+		lookups = new Item[1024];
+		for (int i = 0; i < lookups.length; i++) {
+			lookups[i] = items[(int) ((i * 2654435761L) % offerCount)];
+		}
+	}
+
+	@Benchmark
+	public List<Offer> getOffers() {
+		next = (next + 1) & (lookups.length - 1);
+		return itemService.getOffers(lookups[next]);
+	}
+
+}
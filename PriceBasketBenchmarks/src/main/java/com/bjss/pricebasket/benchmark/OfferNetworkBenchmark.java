@@ -0,0 +1,131 @@
+package com.bjss.pricebasket.benchmark;
+
+import java.math.BigDecimal;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.support.StaticApplicationContext;
+
+import com.bjss.pricebasket.data.Basket;
+import com.bjss.pricebasket.data.Item;
+import com.bjss.pricebasket.data.Offer;
+import com.bjss.pricebasket.data.PercentageOffer;
+import com.bjss.pricebasket.data.PricingContext;
+import com.bjss.pricebasket.service.impl.GreedyOfferAllocator;
+import com.bjss.pricebasket.service.impl.ItemServiceImpl;
+
+/**
+ * Allocates the {@link Offer}s of a small basket against a catalogue of
+ * offerCount promotions, most of which require an item the basket does not
+ * have: once evaluating every Offer on each item of the basket, and once
+ * with the {@link GreedyOfferAllocator}, which only evaluates the Offers the
+ * compiled offer network returns for the basket.
+ *
+ * The promotions are spread over 100 popular items, and each requires one
+ * of 10,000 other items. The basket has 5 popular items and 5 required
+ * items, so about offerCount / 2000 promotions can apply.
+ *
+ * @author Leon Danser
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OfferNetworkBenchmark {
+
+	private static final int POPULAR_ITEMS = 100;
+	private static final int REQUIRED_ITEMS = 10000;
+
+	@Param({ "1000", "40000" })
+	int offerCount;
+
+	private ItemServiceImpl itemService;
+	private Basket basket;
+	private PricingContext pricingContext;
+	private GreedyOfferAllocator allocator;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		StaticApplicationContext context = new StaticApplicationContext();
+		Item[] popular = new Item[POPULAR_ITEMS];
+		for (int i = 0; i < popular.length; i++) {
+			popular[i] = register(context, new Item("popular" + i,
+					BigDecimal.valueOf(100 + i, 2)));
+		}
+		Item[] required = new Item[REQUIRED_ITEMS];
+		for (int i = 0; i < required.length; i++) {
+			required[i] = register(context, new Item("required" + i,
+					BigDecimal.valueOf(50 + i % 100, 2)));
+		}
+		for (int i = 0; i < offerCount; i++) {
+			Map<Item, Integer> requiredItems = new HashMap<Item, Integer>();
+			requiredItems.put(required[(int) ((i * 2654435761L) % REQUIRED_ITEMS)],
+					1);
+			PercentageOffer offer = new PercentageOffer();
+			offer.setId("offer" + i);
+			offer.setItem(popular[i % POPULAR_ITEMS]);
+			offer.setDiscount(BigDecimal.valueOf(1 + i % 9, 1));
+			offer.setRequiredItems(requiredItems);
+			context.getBeanFactory().registerSingleton(offer.getId(), offer);
+		}
+		context.refresh();
+
+		itemService = new ItemServiceImpl();
+		itemService.setApplicationContext(context);
+		basket = new Basket();
+		for (int i = 0; i < 5; i++) {
+			basket.addItem(popular[i * 17], 2);
+			basket.addItem(required[i * 1999], 3);
+		}
+		pricingContext = PricingContext.now(Locale.UK).pinCatalogue(
+				itemService);
+		allocator = new GreedyOfferAllocator();
+	}
+
+	private static Item register(StaticApplicationContext context, Item item) {
+		context.getBeanFactory().registerSingleton(item.getId(), item);
+		return item;
+	}
+
+	@Benchmark
+	public Map<Offer, Integer> evaluateEveryOffer() {
+		Map<Item, Integer> itemTallies = new HashMap<Item, Integer>(
+				basket.getLines());
+		Map<Offer, Integer> offerApplications = new HashMap<Offer, Integer>();
+		for (Entry<Item, Integer> line : basket.getLines().entrySet()) {
+			for (Offer offer : itemService.getOffers(line.getKey())) {
+				int applications = offer.countApplications(itemTallies,
+						line.getValue(), pricingContext);
+				if (applications > 0) {
+					offerApplications.put(offer, applications);
+				}
+			}
+		}
+		return offerApplications;
+	}
+
+	@Benchmark
+	public Map<Offer, Integer> allocateWithOfferNetwork() {
+		return allocator.allocate(basket,
+				new HashMap<Item, Integer>(basket.getLines()), pricingContext);
+	}
+
+}
@@ -0,0 +1,81 @@
+package com.bjss.pricebasket.benchmark;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.bjss.pricebasket.data.Item;
+import com.bjss.pricebasket.data.Offer;
+import com.bjss.pricebasket.data.PercentageOffer;
+import com.bjss.pricebasket.data.PricingContext;
+
+/**
+ * Evaluates {@link PercentageOffer#isApplicable(Map)} for every offer on every
+ * unit of the {@link PricingState} basket, in the same order as the
+ * BasketService before offers were counted a line at a time, and compares it
+ * with {@link PercentageOffer#countApplications(Map, int, PricingContext)}
+ * once per line.
+ * Both consume required item tallies, so the tallies are restored from the
+ * basket before each invocation.
+ *
+ * @author Leon Danser
+ *
+ */
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PercentageOfferBenchmark {
+
+	@State(Scope.Thread)
+	public static class Tallies {
+		Map<Item, Integer> itemTallies;
+
+		@Setup(Level.Invocation)
+		public void reset(PricingState state) {
+			if (itemTallies == null) {
+				itemTallies = new HashMap<Item, Integer>(state.itemTallies);
+			} else {
+				itemTallies.putAll(state.itemTallies);
+			}
+		}
+	}
+
+	@Benchmark
+	public void isApplicable(PricingState state, Tallies tallies,
+			Blackhole blackhole) {
+		for (Entry<Item, Integer> line : state.basket.getLines().entrySet()) {
+			List<Offer> offers = state.itemService.getOffers(line.getKey());
+			for (int unit = 0; unit < line.getValue(); unit++) {
+				for (Offer offer : offers) {
+					blackhole.consume(offer.isApplicable(tallies.itemTallies));
+				}
+			}
+		}
+	}
+
+	@Benchmark
+	public void countApplications(PricingState state, Tallies tallies,
+			Blackhole blackhole) {
+		for (Entry<Item, Integer> line : state.basket.getLines().entrySet()) {
+			for (Offer offer : state.itemService.getOffers(line.getKey())) {
+				blackhole.consume(offer.countApplications(tallies.itemTallies,
+						line.getValue(), state.pricingContext));
+			}
+		}
+	}
+
+}
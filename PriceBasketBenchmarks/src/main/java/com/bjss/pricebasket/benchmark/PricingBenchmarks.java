@@ -0,0 +1,27 @@
+package com.bjss.pricebasket.benchmark;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the GC profiler enabled, so that every report
+ * shows allocation rates (gc.alloc.rate.norm is bytes allocated per
+ * operation) alongside throughput. Accepts the standard JMH command line
+ * options, eg. a benchmark name regex or -p basketSize=100.
+ *
+ * @author Leon Danser
+ *
+ */
+public class PricingBenchmarks {
+
+	public static void main(String[] args) throws Exception {
+		Options options = new OptionsBuilder()
+				.parent(new CommandLineOptions(args))
+				.addProfiler(GCProfiler.class).build();
+		new Runner(options).run();
+	}
+
+}
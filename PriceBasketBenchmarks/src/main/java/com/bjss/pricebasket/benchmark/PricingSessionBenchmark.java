@@ -0,0 +1,65 @@
+package com.bjss.pricebasket.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.bjss.pricebasket.data.Basket;
+import com.bjss.pricebasket.data.BasketTotals;
+import com.bjss.pricebasket.service.PricingSession;
+
+/**
+ * Scans the {@link PricingState} basket one unit at a time, as at a till,
+ * reading the totals after every scan: once with a {@link PricingSession},
+ * and once by pricing the whole basket after every scan. Reading the totals
+ * of a session copies the discount of each applied offer, so the session is
+ * also scanned reading the totals only once, at the end.
+ *
+ * @author Leon Danser
+ *
+ */
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PricingSessionBenchmark {
+
+	@Benchmark
+	public BasketTotals scanWithSession(PricingState state) {
+		PricingSession session = state.basketService
+				.openSession(state.pricingContext);
+		BasketTotals totals = session.getTotals();
+		for (String itemName : state.itemNames) {
+			session.addItem(state.itemService.getItem(itemName));
+			totals = session.getTotals();
+		}
+		return totals;
+	}
+
+	@Benchmark
+	public BasketTotals scanWithSessionTotalsAtEnd(PricingState state) {
+		PricingSession session = state.basketService
+				.openSession(state.pricingContext);
+		for (String itemName : state.itemNames) {
+			session.addItem(state.itemService.getItem(itemName));
+		}
+		return session.getTotals();
+	}
+
+	@Benchmark
+	public BasketTotals scanWithFullRecompute(PricingState state) {
+		Basket basket = new Basket();
+		BasketTotals totals = state.basketService.calculateBasketTotals(
+				basket, state.pricingContext);
+		for (String itemName : state.itemNames) {
+			basket.addItem(state.itemService.getItem(itemName));
+			totals = state.basketService.calculateBasketTotals(basket,
+					state.pricingContext);
+		}
+		return totals;
+	}
+
+}
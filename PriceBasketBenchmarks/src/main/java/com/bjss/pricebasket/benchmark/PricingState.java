@@ -0,0 +1,157 @@
+package com.bjss.pricebasket.benchmark;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.context.support.ClassPathXmlApplicationContext;
+
+import com.bjss.pricebasket.data.Basket;
+import com.bjss.pricebasket.data.BasketTotals;
+import com.bjss.pricebasket.data.Item;
+import com.bjss.pricebasket.data.PricingContext;
+import com.bjss.pricebasket.service.BasketService;
+import com.bjss.pricebasket.service.ItemService;
+import com.bjss.pricebasket.service.impl.BasketServiceImpl;
+
+/**
+ * Shared benchmark state. Generates a catalogue of catalogueSize items and
+ * offerCount percentage offers, loads it through the same Spring parsers and
+ * services as the application, and builds a basket of basketSize units drawn
+ * from distinctItems different items.
+ *
+ * Offers are spread evenly over the catalogue and every third offer requires
+ * one or two units of its own item, so baskets exercise both simple and
+ * conditional offers.
+ *
+ * @author Leon Danser
+ *
+ */
+@State(Scope.Benchmark)
+public class PricingState {
+
+	@Param({ "10", "1000" })
+	public int basketSize;
+
+	@Param({ "4", "100" })
+	public int distinctItems;
+
+	@Param({ "100", "10000" })
+	public int catalogueSize;
+
+	@Param({ "10", "1000" })
+	public int offerCount;
+
+	public ClassPathXmlApplicationContext context;
+	public ItemService itemService;
+	public BasketService basketService;
+	public BasketService minorUnitBasketService;
+	public Basket basket;
+	public String[] itemNames;
+	public Map<Item, Integer> itemTallies;
+	public BasketTotals basketTotals;
+	public PricingContext pricingContext;
+
+	private File catalogueFile;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		if (distinctItems > catalogueSize) {
+			throw new IllegalArgumentException(
+					"distinctItems must not be greater than catalogueSize");
+		}
+		catalogueFile = writeCatalogue(catalogueSize, offerCount);
+		System.setProperty("benchmark.catalogue", catalogueFile.toURI()
+				.toString());
+
+		context = new ClassPathXmlApplicationContext();
+		context.getEnvironment().setActiveProfiles("minorUnitPricing");
+		context.setConfigLocation("classpath:/META-INF/benchmarkContext.xml");
+		context.refresh();
+
+		itemService = context.getBean(ItemService.class);
+		basketService = context.getBean(BasketServiceImpl.class);
+		minorUnitBasketService = context.getBean(BasketService.class);
+
+		itemNames = new String[basketSize];
+		basket = new Basket();
+		for (int i = 0; i < basketSize; i++) {
+			// mixed case to exercise the case-insensitive lookup
+			itemNames[i] = "Item" + itemIndex(i % distinctItems);
+			basket.addItem(itemService.getItem(itemNames[i]));
+		}
+		itemTallies = new HashMap<Item, Integer>(basket.getLines());
+		pricingContext = PricingContext.now(Locale.UK);
+		basketTotals = basketService.calculateBasketTotals(basket,
+				pricingContext);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		context.close();
+		catalogueFile.delete();
+	}
+
+	/**
+	 * Spreads the distinct basket items evenly across the catalogue.
+	 */
+	private int itemIndex(int distinctItem) {
+		return (int) ((long) distinctItem * catalogueSize / distinctItems);
+	}
+
+	/**
+	 * Writes a catalogue of catalogueSize items and offerCount offers in the
+	 * basket-config.xml format to a temporary file
+	 */
+	static File writeCatalogue(int catalogueSize, int offerCount)
+			throws IOException {
+		File file = File.createTempFile("benchmark-catalogue", ".xml");
+		Writer writer = new OutputStreamWriter(new FileOutputStream(file),
+				"UTF-8");
+		try {
+			writer.write("<beans:beans xmlns=\"http://www.bjss.com/schema/price-basket\"\n"
+					+ "\txmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\"\n"
+					+ "\txmlns:beans=\"http://www.springframework.org/schema/beans\"\n"
+					+ "\txsi:schemaLocation=\"\n"
+					+ "http://www.springframework.org/schema/beans http://www.springframework.org/schema/beans/spring-beans.xsd\n"
+					+ "http://www.bjss.com/schema/price-basket http://www.bjss.com/schema/price-basket/price-basket.xsd\"\n"
+					+ "\tdefault-autowire=\"byType\">\n");
+			for (int i = 0; i < catalogueSize; i++) {
+				BigDecimal price = BigDecimal.valueOf(1 + (i * 37) % 1000, 2);
+				writer.write(String.format(
+						"\t<item id=\"item%d\" price=\"%s\" />\n", i, price));
+			}
+			for (int i = 0; i < offerCount; i++) {
+				int item = (int) ((long) i * catalogueSize / offerCount);
+				String discount = "0." + (1 + i % 5);
+				writer.write(String.format(
+						"\t<percentageOffer id=\"offer%d\" itemRef=\"item%d\" discount=\"%s\"",
+						i, item, discount));
+				if (i % 3 == 0) {
+					writer.write(String.format(
+							">\n\t\t<requiredItems>\n\t\t\t<itemRef ref=\"item%d\" quantity=\"%d\" />\n\t\t</requiredItems>\n\t</percentageOffer>\n",
+							item, 1 + i % 2));
+				} else {
+					writer.write(" />\n");
+				}
+			}
+			writer.write("</beans:beans>\n");
+		} finally {
+			writer.close();
+		}
+		return file;
+	}
+
+}